@@ -16,6 +16,7 @@ sourceSets {
 }
 
 dependencies {
+    jmh(project(":aws-xray-agent"))
     jmh("com.amazonaws:aws-xray-recorder-sdk-core")
     jmh("com.amazonaws:aws-xray-recorder-sdk-sql")
     jmh("com.amazonaws:aws-xray-recorder-sdk-aws-sdk") {
@@ -26,6 +27,7 @@ dependencies {
     jmh("software.amazon.awssdk:dynamodb:${rootProject.extra["awsSdkV2Version"]}")
     jmh("com.amazonaws:aws-xray-recorder-sdk-apache-http")
     jmh("com.blogspot.mydailyjava:weak-lock-free:0.18")
+    jmh("software.amazon.disco:disco-java-agent-core")  // To drive handlers with DiSCo events directly
 
     jmh("org.apache.httpcomponents:httpclient:4.5.12")
     jmh("javax.servlet:javax.servlet-api:4.0.1")
@@ -64,6 +66,11 @@ jmh {
         resultsFile = project.file("$buildDir/reports/jmh/no-instrumentation.txt")
     }
 
+    // Reports allocation rates, e.g. bytes allocated per serialized segment
+    if (project.hasProperty("profileGc")) {
+        profilers = listOf("gc")
+    }
+
     duplicateClassesStrategy = DuplicatesStrategy.EXCLUDE
 }
 
@@ -0,0 +1,110 @@
+package com.amazonaws.xray.agent.benchmark;
+
+import com.amazonaws.xray.agent.runtime.dispatcher.EventDispatcher;
+import com.amazonaws.xray.agent.runtime.handlers.XRayHandlerInterface;
+import com.amazonaws.xray.agent.runtime.listeners.XRayListener;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import software.amazon.disco.agent.event.Event;
+import software.amazon.disco.agent.event.ServiceActivityRequestEvent;
+import software.amazon.disco.agent.event.ServiceDownstreamRequestEvent;
+import software.amazon.disco.agent.event.ServiceDownstreamResponseEvent;
+import software.amazon.disco.agent.event.TransactionBeginEvent;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Measures what the listener and dispatchers cost per DiSCo event on their own, by dispatching synthetic events to
+ * handlers that do nothing. Unlike the other benchmarks, there's no simulated network or database latency to drown
+ * the cost out.
+ *
+ * {@code dispatchUnhandledOrigin} and {@code baselineUnhandledOrigin} compare the downstream dispatcher's lookup of an
+ * origin without a handler against the plain {@link HashMap} lookup the dispatcher started out with, which it must be
+ * no slower than.
+ */
+public class DispatcherBenchmark {
+    // The origins the agent registers handlers for
+    private static final String[] DOWNSTREAM_ORIGINS = {
+            "ApacheHttpClient", "SQL", "SqlPrepare", "SqlConnection", "SqlTransaction", "AWSv1", "AWSv2"
+    };
+    private static final String UPSTREAM_ORIGIN = "httpServlet";
+
+    @State(Scope.Benchmark)
+    public static class BenchmarkState {
+        XRayListener listener;
+        EventDispatcher downstreamEventDispatcher;
+        Map<String, XRayHandlerInterface> baselineOriginHandlerMap;
+        Event sqlRequestEvent;
+        Event sqlResponseEvent;
+        Event unhandledOriginEvent;
+        Event ignoredEvent;
+        // Counted by the handlers so that dispatching to them can't be optimized away
+        long handledEvents;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            XRayHandlerInterface handler = new XRayHandlerInterface() {
+                @Override
+                public void handleRequest(Event event) {
+                    handledEvents++;
+                }
+
+                @Override
+                public void handleResponse(Event event) {
+                    handledEvents++;
+                }
+            };
+
+            EventDispatcher upstreamEventDispatcher = new EventDispatcher();
+            upstreamEventDispatcher.addHandler(UPSTREAM_ORIGIN, handler);
+            downstreamEventDispatcher = new EventDispatcher();
+            baselineOriginHandlerMap = new HashMap<>();
+            for (String origin : DOWNSTREAM_ORIGINS) {
+                downstreamEventDispatcher.addHandler(origin, handler);
+                baselineOriginHandlerMap.put(origin, handler);
+            }
+            listener = new XRayListener(upstreamEventDispatcher, downstreamEventDispatcher);
+
+            ServiceDownstreamRequestEvent sqlRequest = new ServiceDownstreamRequestEvent("SQL", "db", "SELECT 1");
+            sqlRequestEvent = sqlRequest;
+            sqlResponseEvent = new ServiceDownstreamResponseEvent("SQL", "db", "SELECT 1", sqlRequest);
+            // Events from DiSCo plugins the agent doesn't handle, e.g. for a web framework's activities
+            unhandledOriginEvent = new ServiceActivityRequestEvent("SpringWebMvc", "service", "operation");
+            // Events that are neither requests nor responses
+            ignoredEvent = new TransactionBeginEvent("Concurrency");
+        }
+    }
+
+    @Benchmark
+    public void dispatchDownstreamRequestAndResponse(BenchmarkState state) {
+        state.listener.listen(state.sqlRequestEvent);
+        state.listener.listen(state.sqlResponseEvent);
+    }
+
+    @Benchmark
+    public void rejectUnhandledOrigin(BenchmarkState state) {
+        state.listener.listen(state.unhandledOriginEvent);
+    }
+
+    @Benchmark
+    public void dispatchUnhandledOrigin(BenchmarkState state) {
+        state.downstreamEventDispatcher.dispatchRequestEvent(state.unhandledOriginEvent);
+    }
+
+    @Benchmark
+    public void baselineUnhandledOrigin(BenchmarkState state) {
+        XRayHandlerInterface handler = state.baselineOriginHandlerMap.get(state.unhandledOriginEvent.getOrigin());
+        if (handler != null) {
+            handler.handleRequest(state.unhandledOriginEvent);
+        }
+    }
+
+    @Benchmark
+    public void rejectIgnoredEvent(BenchmarkState state) {
+        state.listener.listen(state.ignoredEvent);
+    }
+}
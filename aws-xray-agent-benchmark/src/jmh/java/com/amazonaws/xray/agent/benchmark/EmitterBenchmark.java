@@ -0,0 +1,99 @@
+package com.amazonaws.xray.agent.benchmark;
+
+import com.amazonaws.xray.agent.runtime.emitters.StripedChannelEmitter;
+import com.amazonaws.xray.agent.utils.BenchmarkUtils;
+import com.amazonaws.xray.config.DaemonConfiguration;
+import com.amazonaws.xray.emitters.Emitter;
+import com.amazonaws.xray.emitters.UDPEmitter;
+import com.amazonaws.xray.entities.Segment;
+import com.amazonaws.xray.entities.SegmentImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+/**
+ * Measures how many segments per second each emitter can send to a local UDP sink as the number of sending threads
+ * grows.
+ */
+public class EmitterBenchmark {
+    @State(Scope.Benchmark)
+    public static class BenchmarkState {
+        @Param({"udp", "striped"})
+        String emitterType;
+
+        DatagramChannel sink;
+        Thread sinkReader;
+        Emitter emitter;
+        Segment segment;
+
+        @Setup(Level.Trial)
+        public void setup() throws IOException {
+            sink = DatagramChannel.open().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            InetSocketAddress sinkAddress = (InetSocketAddress) sink.getLocalAddress();
+
+            // Keep the sink's receive buffer drained like a real daemon would
+            sinkReader = new Thread(() -> {
+                ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+                while (sink.isOpen()) {
+                    try {
+                        buffer.clear();
+                        sink.receive(buffer);
+                    } catch (IOException e) {
+                        return;
+                    }
+                }
+            });
+            sinkReader.setDaemon(true);
+            sinkReader.start();
+
+            if ("striped".equals(emitterType)) {
+                emitter = new StripedChannelEmitter(sinkAddress, Runtime.getRuntime().availableProcessors());
+            } else {
+                DaemonConfiguration daemonConfiguration = new DaemonConfiguration();
+                daemonConfiguration.setDaemonAddress("127.0.0.1:" + sinkAddress.getPort());
+                emitter = new UDPEmitter(daemonConfiguration);
+            }
+
+            segment = new SegmentImpl(BenchmarkUtils.configureXRayRecorder(), "Benchmark");
+            segment.putAnnotation("benchmark", "emitter");
+            segment.putMetadata("emitter", emitterType);
+        }
+
+        @TearDown(Level.Trial)
+        public void teardown() throws IOException {
+            if (emitter instanceof StripedChannelEmitter) {
+                ((StripedChannelEmitter) emitter).close();
+            }
+            sink.close();
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean sendSegment1Thread(BenchmarkState state) {
+        return state.emitter.sendSegment(state.segment);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public boolean sendSegment8Threads(BenchmarkState state) {
+        return state.emitter.sendSegment(state.segment);
+    }
+
+    @Benchmark
+    @Threads(32)
+    public boolean sendSegment32Threads(BenchmarkState state) {
+        return state.emitter.sendSegment(state.segment);
+    }
+}
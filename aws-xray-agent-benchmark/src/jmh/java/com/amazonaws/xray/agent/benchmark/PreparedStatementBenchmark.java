@@ -0,0 +1,107 @@
+package com.amazonaws.xray.agent.benchmark;
+
+import com.amazonaws.xray.agent.runtime.handlers.downstream.PreparedStatementRegistry;
+import com.amazonaws.xray.agent.runtime.handlers.downstream.SqlPrepareHandler;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import software.amazon.disco.agent.event.ServiceDownstreamResponseEvent;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+
+/**
+ * Prepares millions of short-lived statements, like an application with statement caching disabled, and registers
+ * each of them the way the agent does when the JDBC driver returns them. The heap retained after a full GC is measured
+ * at the end of each iteration and reported by JMH as a secondary result, along with the registry's counters. It should
+ * stay flat however many statements have been prepared.
+ */
+public class PreparedStatementBenchmark {
+    private static final int DISTINCT_QUERIES = 300;
+
+    @State(Scope.Benchmark)
+    public static class BenchmarkState {
+        SqlPrepareHandler handler;
+        String[] queries;
+
+        // Statements don't need to do anything, they're only held as keys
+        final InvocationHandler statementHandler = (proxy, method, args) -> {
+            if ("hashCode".equals(method.getName())) {
+                return System.identityHashCode(proxy);
+            } else if ("equals".equals(method.getName())) {
+                return proxy == args[0];
+            }
+            return null;
+        };
+
+        int next;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            handler = new SqlPrepareHandler();
+            queries = new String[DISTINCT_QUERIES];
+            for (int i = 0; i < DISTINCT_QUERIES; i++) {
+                queries[i] = "SELECT * FROM table_" + i + " WHERE id = ?";
+            }
+        }
+
+        PreparedStatement newStatement() {
+            return (PreparedStatement) Proxy.newProxyInstance(PreparedStatementBenchmark.class.getClassLoader(),
+                    new Class<?>[] {PreparedStatement.class}, statementHandler);
+        }
+
+        String nextQuery() {
+            // A new string each time, like a query the application concatenates before preparing it
+            return new String(queries[next++ % DISTINCT_QUERIES]);
+        }
+    }
+
+    /**
+     * The registry's footprint at the end of each iteration, which JMH reports as secondary results of the iteration.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class RegistryCounters {
+        public long retainedHeapKiB;
+        public long registrySize;
+        public long evictionCount;
+        public long expungeCount;
+
+        private long baselineHeapBytes;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            baselineHeapBytes = usedHeapAfterGc();
+        }
+
+        @TearDown(Level.Iteration)
+        public void measure() {
+            PreparedStatementRegistry registry = PreparedStatementRegistry.getInstance();
+            retainedHeapKiB = (usedHeapAfterGc() - baselineHeapBytes) / 1024;
+            registrySize = registry.size();
+            evictionCount = registry.getEvictionCount();
+            expungeCount = registry.getExpungeCount();
+        }
+    }
+
+    @Benchmark
+    public void prepareShortLivedStatement(BenchmarkState state, RegistryCounters counters) {
+        String query = state.nextQuery();
+        ServiceDownstreamResponseEvent event = new ServiceDownstreamResponseEvent("SqlPrepare", "db", query, null);
+        event.withResponse(state.newStatement());
+        state.handler.handleResponse(event);
+    }
+
+    private static long usedHeapAfterGc() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
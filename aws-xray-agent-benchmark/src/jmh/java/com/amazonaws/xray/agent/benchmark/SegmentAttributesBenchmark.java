@@ -0,0 +1,92 @@
+package com.amazonaws.xray.agent.benchmark;
+
+import com.amazonaws.xray.AWSXRay;
+import com.amazonaws.xray.agent.runtime.handlers.XRayHandler;
+import com.amazonaws.xray.agent.utils.BenchmarkUtils;
+import com.amazonaws.xray.entities.Segment;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import software.amazon.disco.agent.event.Event;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compares copying the SDK's {@code xray} map and building HTTP attributes in default-sized hash maps for every
+ * segment, as the agent used to, against sharing the agent's precomputed {@code xray} map and building the attributes
+ * in hash maps sized for them. Run with the GC profiler ({@code ./gradlew jmh -PprofileGc}) to compare the bytes
+ * allocated per segment.
+ */
+public class SegmentAttributesBenchmark {
+    @State(Scope.Benchmark)
+    public static class BenchmarkState {
+        SegmentBeginner segmentBeginner;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            BenchmarkUtils.configureXRayRecorder();
+            segmentBeginner = new SegmentBeginner();
+        }
+    }
+
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public Segment copiedAttributes(BenchmarkState state) {
+        Segment segment = AWSXRay.beginSegment("Benchmark");
+        Map<String, Object> agentMap = new HashMap<>((Map<String, Object>) segment.getAws().get("xray"));
+        agentMap.put("auto_instrumentation", true);
+        segment.putAws("xray", Collections.unmodifiableMap(agentMap));
+
+        Map<String, Object> requestAttributes = new HashMap<>();
+        putRequestAttributes(requestAttributes);
+        segment.putHttp("request", requestAttributes);
+        Map<String, Object> responseAttributes = new HashMap<>();
+        responseAttributes.put("status", 200);
+        segment.putHttp("response", responseAttributes);
+
+        AWSXRay.endSegment();
+        return segment;
+    }
+
+    @Benchmark
+    public Segment sharedAttributes(BenchmarkState state) {
+        Segment segment = state.segmentBeginner.beginSegment("Benchmark");
+
+        // As the servlet handler sizes them
+        Map<String, Object> requestAttributes = new HashMap<>(8);
+        putRequestAttributes(requestAttributes);
+        segment.putHttp("request", requestAttributes);
+        Map<String, Object> responseAttributes = new HashMap<>(2);
+        responseAttributes.put("status", 200);
+        segment.putHttp("response", responseAttributes);
+
+        AWSXRay.endSegment();
+        return segment;
+    }
+
+    private static void putRequestAttributes(Map<String, Object> requestAttributes) {
+        requestAttributes.put("url", "http://example.com/path");
+        requestAttributes.put("user_agent", "Benchmark");
+        requestAttributes.put("method", "GET");
+        requestAttributes.put("client_ip", "127.0.0.1");
+    }
+
+    // Exposes the agent's segment creation, which handlers otherwise only do in response to servlet events
+    private static class SegmentBeginner extends XRayHandler {
+        Segment beginSegment(String segmentName) {
+            return beginSegment(segmentName, null, null);
+        }
+
+        @Override
+        public void handleRequest(Event event) {
+        }
+
+        @Override
+        public void handleResponse(Event event) {
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.amazonaws.xray.agent.benchmark;
+
+import com.amazonaws.xray.AWSXRayRecorder;
+import com.amazonaws.xray.agent.runtime.emitters.EntitySerializer;
+import com.amazonaws.xray.agent.runtime.emitters.JsonBuffer;
+import com.amazonaws.xray.agent.utils.BenchmarkUtils;
+import com.amazonaws.xray.entities.Segment;
+import com.amazonaws.xray.entities.SegmentImpl;
+import com.amazonaws.xray.entities.Subsegment;
+import com.amazonaws.xray.entities.SubsegmentImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compares the SDK's Jackson serialization of a typical segment against the agent's streaming serializer. Run with
+ * the GC profiler ({@code ./gradlew jmh -PprofileGc}) to see the bytes allocated per serialized segment.
+ */
+public class SerializerBenchmark {
+    @State(Scope.Benchmark)
+    public static class BenchmarkState {
+        EntitySerializer serializer;
+        Segment segment;
+        Subsegment subsegment;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            AWSXRayRecorder recorder = BenchmarkUtils.configureXRayRecorder();
+            serializer = new EntitySerializer();
+
+            segment = new SegmentImpl(recorder, "Benchmark");
+            segment.putAws("xray", Collections.singletonMap("auto_instrumentation", true));
+            Map<String, Object> request = new HashMap<>();
+            request.put("method", "GET");
+            request.put("url", "http://example.com/path");
+            request.put("client_ip", "127.0.0.1");
+            segment.putHttp("request", request);
+            segment.putHttp("response", Collections.singletonMap("status", 200));
+
+            subsegment = new SubsegmentImpl(recorder, "example.com", segment);
+            subsegment.setParent(segment);
+            subsegment.setNamespace("remote");
+            subsegment.putHttp("request", request);
+            subsegment.putHttp("response", Collections.singletonMap("status", 200));
+            subsegment.setEndTime(subsegment.getStartTime() + 0.01);
+            segment.addSubsegment(subsegment);
+            segment.setEndTime(segment.getStartTime() + 0.02);
+        }
+    }
+
+    @Benchmark
+    public byte[] sdkSerializeSegment(BenchmarkState state) {
+        return state.segment.serialize().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public JsonBuffer agentSerializeSegment(BenchmarkState state) {
+        return state.serializer.serialize(state.segment);
+    }
+
+    @Benchmark
+    public byte[] sdkSerializeStreamedSubsegment(BenchmarkState state) {
+        return state.subsegment.streamSerialize().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public JsonBuffer agentSerializeStreamedSubsegment(BenchmarkState state) {
+        return state.serializer.serializeStreamed(state.subsegment);
+    }
+}
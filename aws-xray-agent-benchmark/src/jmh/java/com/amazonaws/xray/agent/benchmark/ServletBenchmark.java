@@ -2,10 +2,13 @@ package com.amazonaws.xray.agent.benchmark;
 
 import com.amazonaws.xray.agent.utils.BenchmarkUtils;
 import com.amazonaws.xray.agent.utils.ClientProvider;
+import com.amazonaws.xray.strategy.sampling.AllSamplingStrategy;
+import com.amazonaws.xray.strategy.sampling.NoSamplingStrategy;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.openjdk.jmh.annotations.Benchmark;
 import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
 import org.openjdk.jmh.annotations.Scope;
 import org.openjdk.jmh.annotations.Setup;
 import org.openjdk.jmh.annotations.State;
@@ -21,6 +24,10 @@ import static org.mockito.Mockito.when;
 public class ServletBenchmark {
     @State(Scope.Benchmark)
     public static class BenchmarkState {
+        // "none" measures the overhead left on requests that aren't sampled
+        @Param({"all", "none"})
+        String sampling;
+
         HttpServlet servlet;
 
         @Mock
@@ -32,7 +39,8 @@ public class ServletBenchmark {
         @Setup(Level.Trial)
         public void setup() {
             MockitoAnnotations.initMocks(this);
-            BenchmarkUtils.configureXRayRecorder();
+            BenchmarkUtils.configureXRayRecorder(
+                    "none".equals(sampling) ? new NoSamplingStrategy() : new AllSamplingStrategy());
 
             when(servletRequest.getRequestURL()).thenReturn(new StringBuffer("http://example.com"));
             when(servletRequest.getMethod()).thenReturn("GET");
@@ -9,6 +9,7 @@ import org.openjdk.jmh.annotations.Level;
 import org.openjdk.jmh.annotations.Scope;
 import org.openjdk.jmh.annotations.Setup;
 import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
 
 import java.sql.SQLException;
 import java.sql.Statement;
@@ -36,4 +37,17 @@ public class SqlBenchmark {
         state.statement.executeQuery("SQL");
         AWSXRay.endSegment();
     }
+
+    // Each thread runs its own transaction, so any state shared between them shows up as poor scaling here
+    @Benchmark
+    @Threads(8)
+    public void sqlQuery8Threads(BenchmarkState state) throws SQLException {
+        sqlQuery(state);
+    }
+
+    @Benchmark
+    @Threads(32)
+    public void sqlQuery32Threads(BenchmarkState state) throws SQLException {
+        sqlQuery(state);
+    }
 }
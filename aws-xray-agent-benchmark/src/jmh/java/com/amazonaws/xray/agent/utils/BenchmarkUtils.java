@@ -6,6 +6,7 @@ import com.amazonaws.xray.emitters.Emitter;
 import com.amazonaws.xray.entities.Segment;
 import com.amazonaws.xray.entities.Subsegment;
 import com.amazonaws.xray.strategy.sampling.AllSamplingStrategy;
+import com.amazonaws.xray.strategy.sampling.SamplingStrategy;
 
 public final class BenchmarkUtils {
     private BenchmarkUtils() {
@@ -18,9 +19,20 @@ public final class BenchmarkUtils {
      * @return the configured X-Ray recorder, also retrievable by AWSXRay.getGlobalRecorder
      */
     public static AWSXRayRecorder configureXRayRecorder() {
+        return configureXRayRecorder(new AllSamplingStrategy());
+    }
+
+    /**
+     * Same as {@link #configureXRayRecorder()}, but with a custom sampling strategy, e.g. to measure the overhead
+     * of unsampled requests.
+     *
+     * @param samplingStrategy the sampling strategy for the recorder to use
+     * @return the configured X-Ray recorder, also retrievable by AWSXRay.getGlobalRecorder
+     */
+    public static AWSXRayRecorder configureXRayRecorder(SamplingStrategy samplingStrategy) {
         AWSXRayRecorder recorder = AWSXRay.getGlobalRecorder();
         recorder.setEmitter(new NoOpEmitter());
-        recorder.setSamplingStrategy(new AllSamplingStrategy());
+        recorder.setSamplingStrategy(samplingStrategy);
         return AWSXRay.getGlobalRecorder();
     }
 
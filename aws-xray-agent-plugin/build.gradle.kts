@@ -65,9 +65,17 @@ tasks {
         // Decorate this artifact to indicate it is a Disco plugin
         manifest {
             attributes(mapOf(
-                    "Disco-Init-Class" to "com.amazonaws.xray.agent.runtime.AgentRuntimeLoader"
+                    "Disco-Init-Class" to "com.amazonaws.xray.agent.runtime.AgentRuntimeLoader",
+                    "Disco-Installable-Classes" to listOf(
+                            "com.amazonaws.xray.agent.runtime.interceptors.DataSourceInterceptor",
+                            "com.amazonaws.xray.agent.runtime.interceptors.ConnectionInterceptor",
+                            "com.amazonaws.xray.agent.runtime.interceptors.ResultSetInterceptor"
+                    ).joinToString(" ")
             ))
         }
+
+        // Interceptors must use the ByteBuddy shaded into the DiSCo agent, like DiSCo's own plugins do
+        relocate("net.bytebuddy", "software.amazon.disco.agent.jar.bytebuddy")
     }
 
     // Copies Disco agent into our lib for convenience
@@ -19,12 +19,17 @@ dependencies {
     implementation("software.amazon.disco:disco-java-agent-aws-api")
     implementation("com.blogspot.mydailyjava:weak-lock-free:0.18")
 
+    // Interceptors are compiled against ByteBuddy, but use the copy shaded into the DiSCo agent at runtime
+    compileOnly("net.bytebuddy:byte-buddy-dep:1.12.22")
+    testImplementation("net.bytebuddy:byte-buddy-dep:1.12.22")
+
     testImplementation("org.powermock:powermock-api-mockito2:2.0.7")
     testImplementation("org.powermock:powermock-module-junit4:2.0.7")
     testImplementation("com.github.stefanbirkner:system-rules:1.16.0")
     testImplementation("com.amazonaws:aws-java-sdk-dynamodb")
     testImplementation("javax.servlet:javax.servlet-api:3.1.0")
     testImplementation("commons-io:commons-io:2.7")
+    testImplementation("com.github.tomakehurst:wiremock-jre8:2.27.0")
 
     // For reflective Trace ID injection tests
     testImplementation("com.amazonaws:aws-xray-recorder-sdk-log4j")
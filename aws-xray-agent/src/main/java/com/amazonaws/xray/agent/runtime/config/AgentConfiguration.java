@@ -19,15 +19,33 @@ public final class AgentConfiguration {
     private final String daemonAddress;
     private final String samplingStrategy;
     private final String traceIdInjectionPrefix;
+    private final String emitterDropPolicy;
+    private final String emitterMode;
+    private final String exporterEndpoint;
+    private final String otlpEndpoint;
+    private final String ignoredHttpClientPaths;
     private final int maxStackTraceLength;
     private final int streamingThreshold;
     private final int awsSdkVersion;
+    private final int emitterQueueCapacity;
+    private final int emitterMaxDatagramSize;
+    private final int emitterChannelCount;
+    private final int maxPreparedStatements;
+    private final int repeatedQueryThreshold;
+    private final long emitterFlushIntervalMillis;
+    private final long spillMaxBytes;
+    private final long connectionWaitThresholdMillis;
+    private final long slowSqlQueryThresholdMillis;
     private final boolean pluginsEnabled;
     private final boolean tracingEnabled;
     private final boolean collectSqlQueries;
     private final boolean traceIdInjection;
     private final boolean contextPropagation;
     private final boolean traceIncomingRequests;
+    private final boolean asyncEmission;
+    private final boolean collapseRepeatedQueries;
+    private final boolean trackResultSets;
+    private final boolean traceIdInjectionPerSegment;
 
     @Nullable
     private final String samplingRulesManifest;
@@ -35,6 +53,9 @@ public final class AgentConfiguration {
     @Nullable
     private final String awsServiceHandlerManifest;
 
+    @Nullable
+    private final String spillFilePath;
+
     /**
      * Sets default values
      */
@@ -44,10 +65,12 @@ public final class AgentConfiguration {
         daemonAddress = "127.0.0.1:2000";
         samplingStrategy = "CENTRAL";
         traceIdInjectionPrefix = "";
+        emitterDropPolicy = "DROP_NEWEST";
         maxStackTraceLength = 50;
         streamingThreshold = 100;
         samplingRulesManifest = null; // Manifests are null by default since the default location file will be found later
         awsSdkVersion = 2;
+        emitterQueueCapacity = 2048;
         awsServiceHandlerManifest = null;
         pluginsEnabled = true;
         tracingEnabled = true;
@@ -55,6 +78,23 @@ public final class AgentConfiguration {
         traceIdInjection = true;
         contextPropagation = true;
         traceIncomingRequests = true;
+        asyncEmission = false;
+        emitterMode = "UDP";
+        emitterMaxDatagramSize = 65000;
+        emitterFlushIntervalMillis = 10;
+        emitterChannelCount = 8;
+        spillFilePath = null;
+        spillMaxBytes = 67108864;
+        exporterEndpoint = "http://127.0.0.1:2000";
+        otlpEndpoint = "http://127.0.0.1:4318";
+        maxPreparedStatements = 100000;
+        repeatedQueryThreshold = 0;
+        collapseRepeatedQueries = false;
+        connectionWaitThresholdMillis = 10;
+        trackResultSets = false;
+        slowSqlQueryThresholdMillis = 0;
+        traceIdInjectionPerSegment = false;
+        ignoredHttpClientPaths = "";
     }
 
     /**
@@ -69,17 +109,36 @@ public final class AgentConfiguration {
                 daemonAddress = "127.0.0.1:2000",
                 samplingStrategy = "CENTRAL",
                 traceIdInjectionPrefix = "",
+                emitterDropPolicy = "DROP_NEWEST",
                 samplingRulesManifest = null,
-                awsServiceHandlerManifest = null;
+                awsServiceHandlerManifest = null,
+                emitterMode = "UDP",
+                spillFilePath = null,
+                exporterEndpoint = "http://127.0.0.1:2000",
+                otlpEndpoint = "http://127.0.0.1:4318",
+                ignoredHttpClientPaths = "";
         int maxStackTraceLength = 50,
                 streamingThreshold = 100,
-                awsSdkVersion = 2;
+                awsSdkVersion = 2,
+                emitterQueueCapacity = 2048,
+                emitterMaxDatagramSize = 65000,
+                emitterChannelCount = 8,
+                maxPreparedStatements = 100000,
+                repeatedQueryThreshold = 0;
+        long emitterFlushIntervalMillis = 10,
+                spillMaxBytes = 67108864,
+                connectionWaitThresholdMillis = 10,
+                slowSqlQueryThresholdMillis = 0;
         boolean pluginsEnabled = true,
                 tracingEnabled = true,
                 collectSqlQueries = false,
                 traceIdInjection = true,
                 contextPropagation = true,
-                traceIncomingRequests = true;
+                traceIncomingRequests = true,
+                asyncEmission = false,
+                collapseRepeatedQueries = false,
+                trackResultSets = false,
+                traceIdInjectionPerSegment = false;
 
         if (properties != null) {
             try {
@@ -133,6 +192,63 @@ public final class AgentConfiguration {
                         case "traceIncomingRequests":
                             traceIncomingRequests = Boolean.parseBoolean(entry.getValue());
                             break;
+                        case "asyncEmission":
+                            asyncEmission = Boolean.parseBoolean(entry.getValue());
+                            break;
+                        case "emitterQueueCapacity":
+                            emitterQueueCapacity = Integer.parseInt(entry.getValue());
+                            break;
+                        case "emitterDropPolicy":
+                            emitterDropPolicy = entry.getValue();
+                            break;
+                        case "emitterMode":
+                            emitterMode = entry.getValue();
+                            break;
+                        case "emitterMaxDatagramSize":
+                            emitterMaxDatagramSize = Integer.parseInt(entry.getValue());
+                            break;
+                        case "emitterFlushIntervalMillis":
+                            emitterFlushIntervalMillis = Long.parseLong(entry.getValue());
+                            break;
+                        case "emitterChannelCount":
+                            emitterChannelCount = Integer.parseInt(entry.getValue());
+                            break;
+                        case "spillFilePath":
+                            spillFilePath = entry.getValue();
+                            break;
+                        case "spillMaxBytes":
+                            spillMaxBytes = Long.parseLong(entry.getValue());
+                            break;
+                        case "exporterEndpoint":
+                            exporterEndpoint = entry.getValue();
+                            break;
+                        case "otlpEndpoint":
+                            otlpEndpoint = entry.getValue();
+                            break;
+                        case "maxPreparedStatements":
+                            maxPreparedStatements = Integer.parseInt(entry.getValue());
+                            break;
+                        case "repeatedQueryThreshold":
+                            repeatedQueryThreshold = Integer.parseInt(entry.getValue());
+                            break;
+                        case "collapseRepeatedQueries":
+                            collapseRepeatedQueries = Boolean.parseBoolean(entry.getValue());
+                            break;
+                        case "connectionWaitThresholdMillis":
+                            connectionWaitThresholdMillis = Long.parseLong(entry.getValue());
+                            break;
+                        case "trackResultSets":
+                            trackResultSets = Boolean.parseBoolean(entry.getValue());
+                            break;
+                        case "slowSqlQueryThresholdMillis":
+                            slowSqlQueryThresholdMillis = Long.parseLong(entry.getValue());
+                            break;
+                        case "traceIdInjectionPerSegment":
+                            traceIdInjectionPerSegment = Boolean.parseBoolean(entry.getValue());
+                            break;
+                        case "ignoredHttpClientPaths":
+                            ignoredHttpClientPaths = entry.getValue();
+                            break;
                         default:
                             log.warn("Encountered unknown property " + entry.getKey() + " in X-Ray agent configuration. Ignoring.");
                             break;
@@ -159,6 +275,25 @@ public final class AgentConfiguration {
         this.traceIdInjection = traceIdInjection;
         this.contextPropagation = contextPropagation;
         this.traceIncomingRequests = traceIncomingRequests;
+        this.asyncEmission = asyncEmission;
+        this.emitterQueueCapacity = emitterQueueCapacity;
+        this.emitterDropPolicy = emitterDropPolicy;
+        this.emitterMode = emitterMode;
+        this.emitterMaxDatagramSize = emitterMaxDatagramSize;
+        this.emitterFlushIntervalMillis = emitterFlushIntervalMillis;
+        this.emitterChannelCount = emitterChannelCount;
+        this.spillFilePath = spillFilePath;
+        this.spillMaxBytes = spillMaxBytes;
+        this.exporterEndpoint = exporterEndpoint;
+        this.otlpEndpoint = otlpEndpoint;
+        this.maxPreparedStatements = maxPreparedStatements;
+        this.repeatedQueryThreshold = repeatedQueryThreshold;
+        this.collapseRepeatedQueries = collapseRepeatedQueries;
+        this.connectionWaitThresholdMillis = connectionWaitThresholdMillis;
+        this.trackResultSets = trackResultSets;
+        this.slowSqlQueryThresholdMillis = slowSqlQueryThresholdMillis;
+        this.traceIdInjectionPerSegment = traceIdInjectionPerSegment;
+        this.ignoredHttpClientPaths = ignoredHttpClientPaths;
     }
 
     public String getServiceName() {
@@ -215,6 +350,45 @@ public final class AgentConfiguration {
 
     public boolean isTraceIncomingRequests() { return traceIncomingRequests; }
 
+    public boolean isAsyncEmission() { return asyncEmission; }
+
+    public int getEmitterQueueCapacity() { return emitterQueueCapacity; }
+
+    public String getEmitterDropPolicy() { return emitterDropPolicy; }
+
+    public String getEmitterMode() { return emitterMode; }
+
+    public int getEmitterMaxDatagramSize() { return emitterMaxDatagramSize; }
+
+    public long getEmitterFlushIntervalMillis() { return emitterFlushIntervalMillis; }
+
+    public int getEmitterChannelCount() { return emitterChannelCount; }
+
+    @Nullable
+    public String getSpillFilePath() { return spillFilePath; }
+
+    public long getSpillMaxBytes() { return spillMaxBytes; }
+
+    public String getExporterEndpoint() { return exporterEndpoint; }
+
+    public String getOtlpEndpoint() { return otlpEndpoint; }
+
+    public int getMaxPreparedStatements() { return maxPreparedStatements; }
+
+    public int getRepeatedQueryThreshold() { return repeatedQueryThreshold; }
+
+    public boolean shouldCollapseRepeatedQueries() { return collapseRepeatedQueries; }
+
+    public long getConnectionWaitThresholdMillis() { return connectionWaitThresholdMillis; }
+
+    public boolean shouldTrackResultSets() { return trackResultSets; }
+
+    public long getSlowSqlQueryThresholdMillis() { return slowSqlQueryThresholdMillis; }
+
+    public boolean isTraceIdInjectionPerSegment() { return traceIdInjectionPerSegment; }
+
+    public String getIgnoredHttpClientPaths() { return ignoredHttpClientPaths; }
+
     @Override
     public String toString() {
         return "AgentConfiguration{" +
@@ -234,6 +408,25 @@ public final class AgentConfiguration {
                 ", traceIdInjection=" + traceIdInjection +
                 ", contextPropagation=" + contextPropagation +
                 ", traceIncomingRequests=" + traceIncomingRequests +
+                ", asyncEmission=" + asyncEmission +
+                ", emitterQueueCapacity=" + emitterQueueCapacity +
+                ", emitterDropPolicy='" + emitterDropPolicy + '\'' +
+                ", emitterMode='" + emitterMode + '\'' +
+                ", emitterMaxDatagramSize=" + emitterMaxDatagramSize +
+                ", emitterFlushIntervalMillis=" + emitterFlushIntervalMillis +
+                ", emitterChannelCount=" + emitterChannelCount +
+                ", spillFilePath='" + spillFilePath + '\'' +
+                ", spillMaxBytes=" + spillMaxBytes +
+                ", exporterEndpoint='" + exporterEndpoint + '\'' +
+                ", otlpEndpoint='" + otlpEndpoint + '\'' +
+                ", maxPreparedStatements=" + maxPreparedStatements +
+                ", repeatedQueryThreshold=" + repeatedQueryThreshold +
+                ", collapseRepeatedQueries=" + collapseRepeatedQueries +
+                ", connectionWaitThresholdMillis=" + connectionWaitThresholdMillis +
+                ", trackResultSets=" + trackResultSets +
+                ", slowSqlQueryThresholdMillis=" + slowSqlQueryThresholdMillis +
+                ", traceIdInjectionPerSegment=" + traceIdInjectionPerSegment +
+                ", ignoredHttpClientPaths='" + ignoredHttpClientPaths + '\'' +
                 '}';
     }
 
@@ -251,17 +444,36 @@ public final class AgentConfiguration {
                 traceIdInjection == that.traceIdInjection &&
                 contextPropagation == that.contextPropagation &&
                 traceIncomingRequests == that.traceIncomingRequests &&
+                asyncEmission == that.asyncEmission &&
+                emitterQueueCapacity == that.emitterQueueCapacity &&
+                emitterDropPolicy.equals(that.emitterDropPolicy) &&
+                emitterMaxDatagramSize == that.emitterMaxDatagramSize &&
+                emitterFlushIntervalMillis == that.emitterFlushIntervalMillis &&
+                emitterChannelCount == that.emitterChannelCount &&
+                spillMaxBytes == that.spillMaxBytes &&
+                maxPreparedStatements == that.maxPreparedStatements &&
+                repeatedQueryThreshold == that.repeatedQueryThreshold &&
+                collapseRepeatedQueries == that.collapseRepeatedQueries &&
+                connectionWaitThresholdMillis == that.connectionWaitThresholdMillis &&
+                trackResultSets == that.trackResultSets &&
+                slowSqlQueryThresholdMillis == that.slowSqlQueryThresholdMillis &&
+                traceIdInjectionPerSegment == that.traceIdInjectionPerSegment &&
                 serviceName.equals(that.serviceName) &&
                 contextMissingStrategy.equals(that.contextMissingStrategy) &&
                 daemonAddress.equals(that.daemonAddress) &&
                 samplingStrategy.equals(that.samplingStrategy) &&
                 traceIdInjectionPrefix.equals(that.traceIdInjectionPrefix) &&
+                emitterMode.equals(that.emitterMode) &&
+                exporterEndpoint.equals(that.exporterEndpoint) &&
+                otlpEndpoint.equals(that.otlpEndpoint) &&
+                ignoredHttpClientPaths.equals(that.ignoredHttpClientPaths) &&
                 Objects.equals(samplingRulesManifest, that.samplingRulesManifest) &&
-                Objects.equals(awsServiceHandlerManifest, that.awsServiceHandlerManifest);
+                Objects.equals(awsServiceHandlerManifest, that.awsServiceHandlerManifest) &&
+                Objects.equals(spillFilePath, that.spillFilePath);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(serviceName, contextMissingStrategy, daemonAddress, samplingStrategy, traceIdInjection, traceIdInjectionPrefix, maxStackTraceLength, streamingThreshold, awsSdkVersion, pluginsEnabled, tracingEnabled, collectSqlQueries, contextPropagation, traceIncomingRequests, samplingRulesManifest, awsServiceHandlerManifest);
+        return Objects.hash(serviceName, contextMissingStrategy, daemonAddress, samplingStrategy, traceIdInjection, traceIdInjectionPrefix, maxStackTraceLength, streamingThreshold, awsSdkVersion, pluginsEnabled, tracingEnabled, collectSqlQueries, contextPropagation, traceIncomingRequests, samplingRulesManifest, awsServiceHandlerManifest, asyncEmission, emitterQueueCapacity, emitterDropPolicy, emitterMode, emitterMaxDatagramSize, emitterFlushIntervalMillis, emitterChannelCount, spillFilePath, spillMaxBytes, exporterEndpoint, otlpEndpoint, maxPreparedStatements, repeatedQueryThreshold, collapseRepeatedQueries, connectionWaitThresholdMillis, trackResultSets, slowSqlQueryThresholdMillis, traceIdInjectionPerSegment, ignoredHttpClientPaths);
     }
 }
@@ -0,0 +1,52 @@
+package com.amazonaws.xray.agent.runtime.config;
+
+import com.amazonaws.xray.entities.Entity;
+import com.amazonaws.xray.entities.Segment;
+import com.amazonaws.xray.listeners.SegmentListener;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Wraps a trace ID injector so that it's only told about the segment a thread is working on, rather than about every
+ * subsegment that begins or ends. The injectors write the trace ID and the current entity's ID to the logging
+ * framework's MDC, so with this wrapper logs carry the segment's ID instead of the subsegment's, but SQL queries and
+ * HTTP calls no longer cost MDC writes.
+ *
+ * The MDC is per thread while a segment can be worked on by several threads, so the segment each thread last saw is
+ * remembered per thread, by ID so that a pooled thread doesn't keep a whole segment alive.
+ */
+final class SegmentChangeListener implements SegmentListener {
+    private final SegmentListener delegate;
+    private final ThreadLocal<String> currentSegmentId = new ThreadLocal<>();
+
+    SegmentChangeListener(SegmentListener delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void onSetEntity(@Nullable Entity previousEntity, @Nullable Entity newEntity) {
+        if (newEntity == null) {
+            currentSegmentId.remove();
+            delegate.onSetEntity(previousEntity, null);
+            return;
+        }
+
+        Segment segment = newEntity.getParentSegment();
+        String segmentId = segment.getId();
+        if (segmentId.equals(currentSegmentId.get())) {
+            return;
+        }
+        currentSegmentId.set(segmentId);
+        delegate.onSetEntity(previousEntity, segment);
+    }
+
+    @Override
+    public void onClearEntity(@Nullable Entity previousEntity) {
+        currentSegmentId.remove();
+        delegate.onClearEntity(previousEntity);
+    }
+
+    // Visible for testing
+    SegmentListener getDelegate() {
+        return delegate;
+    }
+}
@@ -3,13 +3,24 @@ package com.amazonaws.xray.agent.runtime.config;
 import com.amazonaws.xray.AWSXRay;
 import com.amazonaws.xray.AWSXRayRecorder;
 import com.amazonaws.xray.AWSXRayRecorderBuilder;
+import com.amazonaws.xray.agent.runtime.emitters.AsyncEmitter;
+import com.amazonaws.xray.agent.runtime.emitters.OtlpEmitter;
+import com.amazonaws.xray.agent.runtime.emitters.PackingEmitter;
+import com.amazonaws.xray.agent.runtime.emitters.SpillingEmitter;
+import com.amazonaws.xray.agent.runtime.emitters.StreamEmitter;
+import com.amazonaws.xray.agent.runtime.emitters.StripedChannelEmitter;
+import com.amazonaws.xray.agent.runtime.emitters.TraceSegmentsEmitter;
+import com.amazonaws.xray.agent.runtime.handlers.downstream.HttpPathMatcher;
+import com.amazonaws.xray.agent.runtime.handlers.downstream.PreparedStatementRegistry;
 import com.amazonaws.xray.agent.runtime.models.XRayTransactionContextResolver;
 import com.amazonaws.xray.agent.runtime.models.XRayTransactionState;
 import com.amazonaws.xray.config.DaemonConfiguration;
 import com.amazonaws.xray.contexts.LambdaSegmentContextResolver;
 import com.amazonaws.xray.contexts.SegmentContextResolverChain;
 import com.amazonaws.xray.contexts.ThreadLocalSegmentContextResolver;
+import com.amazonaws.xray.emitters.Emitter;
 import com.amazonaws.xray.emitters.UDPEmitter;
+import com.amazonaws.xray.entities.Entity;
 import com.amazonaws.xray.entities.StringValidator;
 import com.amazonaws.xray.listeners.SegmentListener;
 import com.amazonaws.xray.strategy.DefaultStreamingStrategy;
@@ -30,11 +41,13 @@ import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.net.MalformedURLException;
+import java.net.SocketAddress;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
 import org.checkerframework.checker.nullness.qual.Nullable;
 
@@ -57,6 +70,8 @@ public class XRaySDKConfiguration {
     static final String LAMBDA_TASK_ROOT_KEY = "LAMBDA_TASK_ROOT";
     static final String ENABLED_ENVIRONMENT_VARIABLE_KEY = "AWS_XRAY_TRACING_ENABLED";
     static final String ENABLED_SYSTEM_PROPERTY_KEY = "com.amazonaws.xray.tracingEnabled";
+    static final String DAEMON_ADDRESS_ENVIRONMENT_VARIABLE_KEY = "AWS_XRAY_DAEMON_ADDRESS";
+    static final String DAEMON_ADDRESS_SYSTEM_PROPERTY_KEY = "com.amazonaws.xray.emitters.daemonAddress";
 
     private static final String[] TRACE_ID_INJECTION_CLASSES = {
             "com.amazonaws.xray.log4j.Log4JSegmentListener",
@@ -82,6 +97,12 @@ public class XRaySDKConfiguration {
     private URL awsServiceHandlerManifest = null;
     private int awsSdkVersion;
 
+    /* Emitters built by the last init, which own background threads and shutdown hooks */
+    @Nullable
+    private Emitter emitter;
+    @Nullable
+    private AsyncEmitter asyncEmitter;
+
     /* Context missing enums */
     enum ContextMissingStrategy {
         LOG_ERROR,
@@ -96,6 +117,15 @@ public class XRaySDKConfiguration {
         ALL,
     }
 
+    /* Emitter mode enums */
+    enum EmitterMode {
+        UDP,
+        PACKED,
+        STRIPED,
+        HTTP,
+        OTLP,
+    }
+
     public int getAwsSdkVersion() {
         return awsSdkVersion;
     }
@@ -110,6 +140,12 @@ public class XRaySDKConfiguration {
         return agentConfiguration;
     }
 
+    // Visible for testing
+    @Nullable
+    AsyncEmitter getAsyncEmitter() {
+        return asyncEmitter;
+    }
+
     // Visible for testing
     void setAgentConfiguration(AgentConfiguration agentConfiguration) {
         this.agentConfiguration = agentConfiguration;
@@ -121,6 +157,24 @@ public class XRaySDKConfiguration {
 
     public boolean shouldCollectSqlQueries() { return agentConfiguration.shouldCollectSqlQueries(); }
 
+    public long getSlowSqlQueryThresholdMillis() { return agentConfiguration.getSlowSqlQueryThresholdMillis(); }
+
+    public int getRepeatedQueryThreshold() { return agentConfiguration.getRepeatedQueryThreshold(); }
+
+    public boolean shouldCollapseRepeatedQueries() { return agentConfiguration.shouldCollapseRepeatedQueries(); }
+
+    public long getConnectionWaitThresholdMillis() { return agentConfiguration.getConnectionWaitThresholdMillis(); }
+
+    /**
+     * Read when the ResultSet interceptor is installed, which the agent only does after configuring the SDK, but is
+     * still false if configuring it failed.
+     */
+    public boolean shouldTrackResultSets() {
+        return agentConfiguration != null && agentConfiguration.shouldTrackResultSets();
+    }
+
+    public String getIgnoredHttpClientPaths() { return agentConfiguration.getIgnoredHttpClientPaths(); }
+
     public boolean isTraceIncomingRequests() {
         return agentConfiguration.isTraceIncomingRequests();
     }
@@ -233,15 +287,119 @@ public class XRaySDKConfiguration {
             default:
         }
 
-        // Daemon address
-        DaemonConfiguration daemonConfiguration = new DaemonConfiguration();
+        // Emitter mode
+        final EmitterMode emitterMode;
+        try {
+            emitterMode = EmitterMode.valueOf(agentConfiguration.getEmitterMode().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new InvalidAgentConfigException("Invalid emitter mode given in X-Ray Agent " +
+                    "configuration file: " + agentConfiguration.getEmitterMode());
+        }
+        if (emitterMode == EmitterMode.PACKED) {
+            if (agentConfiguration.getEmitterMaxDatagramSize() <= 0 ||
+                    agentConfiguration.getEmitterMaxDatagramSize() > PackingEmitter.MAX_DATAGRAM_SIZE) {
+                throw new InvalidAgentConfigException("Invalid emitter max datagram size given in X-Ray Agent " +
+                        "configuration file: " + agentConfiguration.getEmitterMaxDatagramSize());
+            }
+            if (agentConfiguration.getEmitterFlushIntervalMillis() <= 0) {
+                throw new InvalidAgentConfigException("Invalid emitter flush interval given in X-Ray Agent " +
+                        "configuration file: " + agentConfiguration.getEmitterFlushIntervalMillis());
+            }
+        } else if (emitterMode == EmitterMode.STRIPED && agentConfiguration.getEmitterChannelCount() <= 0) {
+            throw new InvalidAgentConfigException("Invalid emitter channel count given in X-Ray Agent " +
+                    "configuration file: " + agentConfiguration.getEmitterChannelCount());
+        } else if (emitterMode == EmitterMode.HTTP || emitterMode == EmitterMode.OTLP) {
+            // Batches are held in the exporter's own bounded queue
+            if (agentConfiguration.getEmitterQueueCapacity() <= 0) {
+                throw new InvalidAgentConfigException("Invalid emitter queue capacity given in X-Ray Agent " +
+                        "configuration file: " + agentConfiguration.getEmitterQueueCapacity());
+            }
+            if (agentConfiguration.getEmitterFlushIntervalMillis() <= 0) {
+                throw new InvalidAgentConfigException("Invalid emitter flush interval given in X-Ray Agent " +
+                        "configuration file: " + agentConfiguration.getEmitterFlushIntervalMillis());
+            }
+        }
+
+        // Asynchronous emission
+        AsyncEmitter.DropPolicy dropPolicy = null;
+        if (agentConfiguration.isAsyncEmission()) {
+            if (agentConfiguration.getEmitterQueueCapacity() <= 0) {
+                throw new InvalidAgentConfigException("Invalid emitter queue capacity given in X-Ray Agent " +
+                        "configuration file: " + agentConfiguration.getEmitterQueueCapacity());
+            }
+            try {
+                dropPolicy = AsyncEmitter.DropPolicy.valueOf(agentConfiguration.getEmitterDropPolicy().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new InvalidAgentConfigException("Invalid emitter drop policy given in X-Ray Agent " +
+                        "configuration file: " + agentConfiguration.getEmitterDropPolicy());
+            }
+        }
+
+        // Disk spill
+        if (agentConfiguration.getSpillFilePath() != null) {
+            if (emitterMode != EmitterMode.UDP) {
+                throw new InvalidAgentConfigException("Spilling to disk is only supported with the UDP emitter mode, " +
+                        "but X-Ray Agent configuration file sets: " + agentConfiguration.getEmitterMode());
+            }
+            if (agentConfiguration.getSpillMaxBytes() < SpillingEmitter.MIN_SPILL_FILE_SIZE ||
+                    agentConfiguration.getSpillMaxBytes() > Integer.MAX_VALUE) {
+                throw new InvalidAgentConfigException("Invalid spill max bytes given in X-Ray Agent " +
+                        "configuration file: " + agentConfiguration.getSpillMaxBytes());
+            }
+        }
+
+        if (agentConfiguration.getMaxPreparedStatements() <= 0) {
+            throw new InvalidAgentConfigException("Invalid max prepared statements given in X-Ray Agent " +
+                    "configuration file: " + agentConfiguration.getMaxPreparedStatements());
+        }
+        PreparedStatementRegistry.getInstance().setMaxEntries(agentConfiguration.getMaxPreparedStatements());
+
+        if (agentConfiguration.getSlowSqlQueryThresholdMillis() < 0) {
+            throw new InvalidAgentConfigException("Invalid slow SQL query threshold given in X-Ray Agent " +
+                    "configuration file: " + agentConfiguration.getSlowSqlQueryThresholdMillis());
+        }
+        if (agentConfiguration.getRepeatedQueryThreshold() < 0) {
+            throw new InvalidAgentConfigException("Invalid repeated query threshold given in X-Ray Agent " +
+                    "configuration file: " + agentConfiguration.getRepeatedQueryThreshold());
+        }
+        if (agentConfiguration.getConnectionWaitThresholdMillis() < 0) {
+            throw new InvalidAgentConfigException("Invalid connection wait threshold given in X-Ray Agent " +
+                    "configuration file: " + agentConfiguration.getConnectionWaitThresholdMillis());
+        }
+
         try {
-            // SDK handles all validation & environment overrides
-            daemonConfiguration.setDaemonAddress(agentConfiguration.getDaemonAddress());
-            builder.withEmitter(new UDPEmitter(daemonConfiguration));
-        } catch (Exception e) {
+            HttpPathMatcher.compile(agentConfiguration.getIgnoredHttpClientPaths());
+        } catch (IllegalArgumentException e) {
+            throw new InvalidAgentConfigException("Invalid ignored HTTP client paths given in X-Ray Agent " +
+                    "configuration file: " + agentConfiguration.getIgnoredHttpClientPaths(), e);
+        }
+
+        // Daemon address, either a UDP host:port or a unix:// or tcp:// address for a stream connection. The SDK's
+        // environment variable and system property take precedence over the configuration file, as they do for UDP
+        // addresses, so they're checked for stream addresses here before the SDK gets to apply them.
+        final String daemonAddress = getDaemonAddress();
+        final SocketAddress streamAddress;
+        try {
+            streamAddress = StreamEmitter.parseAddress(daemonAddress);
+        } catch (IllegalArgumentException e) {
             throw new InvalidAgentConfigException("Invalid daemon address provided in X-Ray Agent configuration " +
-                    "file: " + agentConfiguration.getDaemonAddress(), e);
+                    "or its overrides: " + daemonAddress, e);
+        }
+        DaemonConfiguration daemonConfiguration = null;
+        if (streamAddress != null) {
+            if (emitterMode != EmitterMode.UDP || agentConfiguration.getSpillFilePath() != null) {
+                throw new InvalidAgentConfigException("Emitter modes and spilling to disk only apply to UDP daemon " +
+                        "addresses, but the X-Ray Agent is configured with: " + daemonAddress);
+            }
+        } else {
+            try {
+                // SDK handles all validation & environment overrides
+                daemonConfiguration = new DaemonConfiguration();
+                daemonConfiguration.setDaemonAddress(agentConfiguration.getDaemonAddress());
+            } catch (Exception e) {
+                throw new InvalidAgentConfigException("Invalid daemon address provided in X-Ray Agent configuration " +
+                        "file: " + agentConfiguration.getDaemonAddress(), e);
+            }
         }
 
         // Sampling Rules manifest
@@ -342,6 +500,31 @@ public class XRaySDKConfiguration {
 
         builder.withSegmentContextResolverChain(segmentContextResolverChain);
 
+        // The emitters are built once everything else is valid, so that an invalid configuration neither starts
+        // emitters nor stops the ones already running
+        final Emitter emitter;
+        try {
+            emitter = streamAddress != null ? new StreamEmitter(streamAddress) :
+                    createEmitter(emitterMode, daemonConfiguration);
+        } catch (IOException e) {
+            throw new InvalidAgentConfigException("Unable to create the " + emitterMode + " emitter configured in " +
+                    "X-Ray Agent configuration file", e);
+        }
+        AsyncEmitter asyncEmitter = null;
+        if (dropPolicy != null) {
+            // Entities that don't fit in the queue are spilled to disk along with the undeliverable ones
+            Consumer<Entity> overflowHandler = emitter instanceof SpillingEmitter ?
+                    ((SpillingEmitter) emitter)::spill : null;
+            asyncEmitter = new AsyncEmitter(emitter, agentConfiguration.getEmitterQueueCapacity(), dropPolicy,
+                    overflowHandler);
+        }
+
+        // Only one set of emitters is kept running, however many times the agent is configured
+        shutdownEmitters();
+        this.emitter = emitter;
+        this.asyncEmitter = asyncEmitter;
+        builder.withEmitter(asyncEmitter != null ? asyncEmitter : emitter);
+
         log.debug("Successfully configured the X-Ray Agent's recorder.");
 
         AWSXRay.setGlobalRecorder(builder.build());
@@ -365,6 +548,74 @@ public class XRaySDKConfiguration {
         recorder.addAllSegmentListeners(getTraceIdInjectorsReflectively(Thread.currentThread().getContextClassLoader()));
     }
 
+    /**
+     * @return the daemon address from the SDK's environment variable, or else its system property, or else the
+     * configuration file
+     */
+    private String getDaemonAddress() {
+        String environmentAddress = System.getenv(DAEMON_ADDRESS_ENVIRONMENT_VARIABLE_KEY);
+        if (StringValidator.isNotNullOrBlank(environmentAddress)) {
+            return environmentAddress;
+        }
+        String systemAddress = System.getProperty(DAEMON_ADDRESS_SYSTEM_PROPERTY_KEY);
+        if (StringValidator.isNotNullOrBlank(systemAddress)) {
+            return systemAddress;
+        }
+        return agentConfiguration.getDaemonAddress();
+    }
+
+    /**
+     * Stops the emitters built by the previous init, once the entities they still hold have been sent. The asynchronous
+     * emitter is stopped first, since it sends what it has queued through the emitter it wraps.
+     */
+    private void shutdownEmitters() {
+        if (asyncEmitter != null) {
+            asyncEmitter.shutdown();
+            asyncEmitter = null;
+        }
+        if (emitter instanceof PackingEmitter) {
+            ((PackingEmitter) emitter).shutdown();
+        } else if (emitter instanceof StripedChannelEmitter) {
+            ((StripedChannelEmitter) emitter).close();
+        } else if (emitter instanceof SpillingEmitter) {
+            ((SpillingEmitter) emitter).shutdown();
+        } else if (emitter instanceof StreamEmitter) {
+            ((StreamEmitter) emitter).shutdown();
+        } else if (emitter instanceof TraceSegmentsEmitter) {
+            ((TraceSegmentsEmitter) emitter).shutdown();
+        } else if (emitter instanceof OtlpEmitter) {
+            ((OtlpEmitter) emitter).shutdown();
+        }
+        emitter = null;
+    }
+
+    private Emitter createEmitter(EmitterMode emitterMode, DaemonConfiguration daemonConfiguration) throws IOException {
+        switch (emitterMode) {
+            case PACKED:
+                return new PackingEmitter(daemonConfiguration.getAddressForEmitter(),
+                        agentConfiguration.getEmitterMaxDatagramSize(),
+                        agentConfiguration.getEmitterFlushIntervalMillis());
+            case STRIPED:
+                return new StripedChannelEmitter(daemonConfiguration.getAddressForEmitter(),
+                        agentConfiguration.getEmitterChannelCount());
+            case HTTP:
+                return new TraceSegmentsEmitter(agentConfiguration.getExporterEndpoint(),
+                        agentConfiguration.getEmitterQueueCapacity(),
+                        agentConfiguration.getEmitterFlushIntervalMillis());
+            case OTLP:
+                return new OtlpEmitter(agentConfiguration.getOtlpEndpoint(),
+                        agentConfiguration.getEmitterQueueCapacity(),
+                        agentConfiguration.getEmitterFlushIntervalMillis());
+            case UDP:
+            default:
+                if (agentConfiguration.getSpillFilePath() != null) {
+                    return new SpillingEmitter(daemonConfiguration.getAddressForEmitter(),
+                            new File(agentConfiguration.getSpillFilePath()), (int) agentConfiguration.getSpillMaxBytes());
+                }
+                return new UDPEmitter(daemonConfiguration);
+        }
+    }
+
     private AgentConfiguration parseConfig(URL configFile) throws IOException {
         Map<String, String> propertyMap = new HashMap<>();
         JsonParser parser = factory.createParser(configFile);
@@ -394,7 +645,7 @@ public class XRaySDKConfiguration {
             try {
                 Class<?> listenerClass = Class.forName(className, true, classLoader);
                 SegmentListener listener = (SegmentListener) listenerClass.getConstructor(String.class).newInstance(prefix);
-                listeners.add(listener);
+                listeners.add(agentConfiguration.isTraceIdInjectionPerSegment() ? new SegmentChangeListener(listener) : listener);
                 log.debug("Enabled AWS X-Ray trace ID injection into logs using " + className);
             } catch (InstantiationException | InvocationTargetException | NoSuchMethodException | IllegalAccessException | ClassNotFoundException e) {
                 log.debug("Could not find trace ID injection class " + className + " with class loader " + classLoader.getClass().getSimpleName());
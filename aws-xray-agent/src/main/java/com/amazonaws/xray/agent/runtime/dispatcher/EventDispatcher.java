@@ -3,8 +3,10 @@ package com.amazonaws.xray.agent.runtime.dispatcher;
 import com.amazonaws.xray.agent.runtime.handlers.XRayHandlerInterface;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.checkerframework.checker.nullness.qual.Nullable;
 import software.amazon.disco.agent.event.Event;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -12,26 +14,28 @@ import java.util.Map;
  * The dispatcher is the gateway between the listener and the handlers. It acts as the multiplexor
  * that delegates events to a handler, based solely on its origin. The event dispatcher should be
  * instantiated to represent the downstream or upstream dispatcher.
+ *
+ * Handlers are all added when the listener is generated, and events are dispatched on every instrumented call after
+ * that, so each added handler copies the map of handlers, which dispatching then reads without locking. Finding an
+ * event's handler, or finding that it has none, takes the single hash lookup it always has.
  */
 public class EventDispatcher {
     private static final Log log = LogFactory.getLog(EventDispatcher.class);
 
     /**
-     * Map that holds a reference between the origin and its handler
+     * Map that holds a reference between the origin and its handler, which is never changed once published
      */
-    private Map<String, XRayHandlerInterface> originHandlerMap;
-
-    public EventDispatcher() {
-        originHandlerMap = new HashMap<>();
-    }
+    private volatile Map<String, XRayHandlerInterface> originHandlerMap = Collections.emptyMap();
 
     /**
      * Add a handler for a given origin. This handler is executed when an event is dispatched to it.
      * @param origin The event origin that corresponds to the handler
      * @param handler The handler that is executed for the given event origin.
      */
-    public void addHandler(String origin, XRayHandlerInterface handler) {
-        originHandlerMap.put(origin, handler);
+    public synchronized void addHandler(String origin, XRayHandlerInterface handler) {
+        Map<String, XRayHandlerInterface> newOriginHandlerMap = new HashMap<>(originHandlerMap);
+        newOriginHandlerMap.put(origin, handler);
+        originHandlerMap = newOriginHandlerMap;
     }
 
     /**
@@ -40,6 +44,7 @@ public class EventDispatcher {
      * @param event Incoming event to acquire the handler.
      * @return The handler to execute, otherwise null if no handler exists for the event.
      */
+    @Nullable
     private XRayHandlerInterface getHandler(Event event) {
         String eventOrigin = event.getOrigin();
 
@@ -0,0 +1,188 @@
+package com.amazonaws.xray.agent.runtime.emitters;
+
+import com.amazonaws.xray.emitters.Emitter;
+import com.amazonaws.xray.entities.Entity;
+import com.amazonaws.xray.entities.Segment;
+import com.amazonaws.xray.entities.Subsegment;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Emitter that moves serialization and sending of completed segments and streamed subsegments off the request thread.
+ * Entities are handed to a background thread through a bounded, lock-free queue and then sent with the wrapped
+ * emitter. Request threads never block on emission; if the queue is full, the configured {@link DropPolicy} decides
+ * which entity is discarded, or handed to an optional overflow handler instead.
+ */
+public class AsyncEmitter extends Emitter {
+    private static final Log log = LogFactory.getLog(AsyncEmitter.class);
+
+    private static final String THREAD_NAME = "xray-agent-emitter";
+
+    /**
+     * Upper bound on how long the background thread sleeps between checks of an empty queue. Producers unpark it
+     * explicitly, so this is only a safety net against missed wake-ups.
+     */
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long SHUTDOWN_TIMEOUT_MILLIS = 2000;
+
+    /**
+     * Decides what is discarded when an entity is emitted while the hand-off queue is full.
+     */
+    public enum DropPolicy {
+        /**
+         * Discard the entity being emitted, keeping everything already queued.
+         */
+        DROP_NEWEST,
+
+        /**
+         * Discard the oldest queued entity to make room for the one being emitted.
+         */
+        DROP_OLDEST,
+    }
+
+    private final Emitter delegate;
+    private final int capacity;
+    private final DropPolicy dropPolicy;
+    @Nullable
+    private final Consumer<Entity> overflowHandler;
+
+    // ConcurrentLinkedQueue.size() is linear, so the bound is tracked with a separate counter
+    private final Queue<Entity> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    private final Thread worker;
+    private final Thread shutdownHook;
+    private volatile boolean idle;
+    private volatile boolean running = true;
+
+    /**
+     * @param delegate - The emitter that serializes and sends entities on the background thread
+     * @param capacity - Maximum number of entities waiting to be sent
+     * @param dropPolicy - What to discard when the queue is full
+     */
+    public AsyncEmitter(Emitter delegate, int capacity, DropPolicy dropPolicy) {
+        this(delegate, capacity, dropPolicy, null);
+    }
+
+    /**
+     * @param delegate - The emitter that serializes and sends entities on the background thread
+     * @param capacity - Maximum number of entities waiting to be sent
+     * @param dropPolicy - What to discard when the queue is full
+     * @param overflowHandler - Receives the entities that did not fit in the queue instead of discarding them. It runs
+     *                        on the emitting thread, so it must be cheap.
+     */
+    public AsyncEmitter(Emitter delegate, int capacity, DropPolicy dropPolicy,
+                        @Nullable Consumer<Entity> overflowHandler) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Emitter queue capacity must be positive, got " + capacity);
+        }
+        this.delegate = delegate;
+        this.capacity = capacity;
+        this.dropPolicy = dropPolicy;
+        this.overflowHandler = overflowHandler;
+
+        worker = new Thread(this::drain, THREAD_NAME);
+        worker.setDaemon(true);
+        worker.start();
+
+        // Give queued entities a chance to go out when the application exits normally
+        shutdownHook = ShutdownHooks.register(this::shutdown, THREAD_NAME + "-shutdown");
+    }
+
+    @Override
+    public boolean sendSegment(Segment segment) {
+        return enqueue(segment);
+    }
+
+    @Override
+    public boolean sendSubsegment(Subsegment subsegment) {
+        return enqueue(subsegment);
+    }
+
+    /**
+     * @return the number of entities that did not fit in the queue, whether discarded or given to the overflow handler
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * Stops the background thread after it has sent whatever is still queued, waiting a bounded amount of time.
+     */
+    public void shutdown() {
+        ShutdownHooks.unregister(shutdownHook);
+        running = false;
+        LockSupport.unpark(worker);
+        try {
+            worker.join(SHUTDOWN_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private boolean enqueue(Entity entity) {
+        if (!running) {
+            return false;
+        }
+
+        if (size.incrementAndGet() > capacity) {
+            // Either the evicted entity's slot is handed to the new one, or the new entity gives its slot back. If the
+            // worker emptied the queue in the meantime there is nothing to evict, so we drop the new entity instead.
+            Entity evicted = dropPolicy == DropPolicy.DROP_OLDEST ? queue.poll() : null;
+            size.decrementAndGet();
+            droppedCount.incrementAndGet();
+            Entity dropped = evicted != null ? evicted : entity;
+            if (overflowHandler != null) {
+                overflowHandler.accept(dropped);
+            } else if (log.isDebugEnabled()) {
+                log.debug("X-Ray emitter queue is full, dropping " + dropped.getName());
+            }
+            if (evicted == null) {
+                return overflowHandler != null;
+            }
+        }
+
+        queue.offer(entity);
+        if (idle) {
+            LockSupport.unpark(worker);
+        }
+        return true;
+    }
+
+    private void drain() {
+        while (running || !queue.isEmpty()) {
+            Entity entity = queue.poll();
+            if (entity == null) {
+                // Producers check this flag after offering, so re-check the queue once it's set to avoid a lost wake-up
+                idle = true;
+                if (running && queue.isEmpty()) {
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                }
+                idle = false;
+                continue;
+            }
+
+            size.decrementAndGet();
+            try {
+                if (entity instanceof Segment) {
+                    delegate.sendSegment((Segment) entity);
+                } else {
+                    delegate.sendSubsegment((Subsegment) entity);
+                }
+            } catch (Exception e) {
+                // Never let a bad entity kill the emitter thread
+                log.error("Failed to emit X-Ray entity " + entity.getName(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.amazonaws.xray.agent.runtime.emitters;
+
+import com.amazonaws.xray.emitters.Emitter;
+import com.amazonaws.xray.entities.Segment;
+import com.amazonaws.xray.entities.Subsegment;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Base class for agent emitters that take care of the daemon's wire format themselves rather than relying on
+ * {@link com.amazonaws.xray.emitters.UDPEmitter}. Subclasses receive the JSON document of each segment or streamed
+ * subsegment, serialized by {@link EntitySerializer}, and are responsible for prefixing it with {@link #PROTOCOL_HEADER}
+ * when sending it.
+ */
+public abstract class DocumentEmitter extends Emitter {
+    /**
+     * Header line the daemon expects in front of every document, including the trailing delimiter.
+     */
+    static final byte[] PROTOCOL_HEADER = "{\"format\": \"json\", \"version\": 1}\n".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * Delimiter between consecutive header + document pairs sharing a payload.
+     */
+    static final byte DOCUMENT_DELIMITER = '\n';
+
+    final EntitySerializer serializer = new EntitySerializer();
+
+    @Override
+    public boolean sendSegment(Segment segment) {
+        JsonBuffer document = serializer.serialize(segment);
+        return sendDocument(document.array(), 0, document.length());
+    }
+
+    @Override
+    public boolean sendSubsegment(Subsegment subsegment) {
+        JsonBuffer document = serializer.serializeStreamed(subsegment);
+        return sendDocument(document.array(), 0, document.length());
+    }
+
+    /**
+     * Sends or buffers a single serialized document. Implementations must not retain {@code document} after returning.
+     *
+     * @param document - Array holding the UTF-8 encoded JSON document, without the protocol header
+     * @param offset - Start of the document in {@code document}
+     * @param length - Length of the document in bytes
+     * @return true if the document was sent or accepted for sending, false if it was dropped
+     */
+    protected abstract boolean sendDocument(byte[] document, int offset, int length);
+}
@@ -0,0 +1,438 @@
+package com.amazonaws.xray.agent.runtime.emitters;
+
+import com.amazonaws.xray.entities.Entity;
+import com.amazonaws.xray.entities.Segment;
+import com.amazonaws.xray.entities.Subsegment;
+import com.amazonaws.xray.entities.TraceID;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Streaming JSON serializer for the segments and subsegments sent by the agent's emitters. It produces the same
+ * documents as the SDK's Jackson-based {@link Segment#serialize()} and {@link Subsegment#streamSerialize()}, but writes
+ * fields straight into a reusable per-thread {@link JsonBuffer} instead of building a tree of intermediate objects.
+ *
+ * Values that are the same on every segment of a process, such as the service name, the {@code service} map and the
+ * plugin and {@code aws.xray} entries of the {@code aws} map, are encoded once and copied in afterwards.
+ *
+ * Entities this serializer does not fully understand, like those carrying exceptions or metadata of arbitrary types,
+ * are handed to the SDK's serializer instead.
+ */
+public final class EntitySerializer {
+    private static final Log log = LogFactory.getLog(EntitySerializer.class);
+
+    private static final int INITIAL_BUFFER_SIZE = 4 * 1024;
+
+    /**
+     * Buffers that grew past this for an unusually large document are replaced rather than kept alive per thread.
+     */
+    private static final int MAX_RETAINED_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Bounds the number of distinct {@code aws} map keys whose encoded values are cached.
+     */
+    private static final int MAX_CACHED_AWS_KEYS = 32;
+
+    private static final byte[] NAME = key("name", false);
+    private static final byte[] ID = key("id");
+    private static final byte[] START_TIME = key("start_time");
+    private static final byte[] END_TIME = key("end_time");
+    private static final byte[] IN_PROGRESS = key("in_progress");
+    private static final byte[] TRACE_ID = key("trace_id");
+    private static final byte[] PARENT_ID = key("parent_id");
+    private static final byte[] TYPE_SUBSEGMENT = ",\"type\":\"subsegment\"".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] FAULT = key("fault");
+    private static final byte[] ERROR = key("error");
+    private static final byte[] THROTTLE = key("throttle");
+    private static final byte[] ORIGIN = key("origin");
+    private static final byte[] USER = key("user");
+    private static final byte[] RESOURCE_ARN = key("resource_arn");
+    private static final byte[] SERVICE = key("service");
+    private static final byte[] NAMESPACE = key("namespace");
+    private static final byte[] PRECURSOR_IDS = key("precursor_ids");
+    private static final byte[] HTTP = key("http");
+    private static final byte[] AWS = key("aws");
+    private static final byte[] SQL = key("sql");
+    private static final byte[] ANNOTATIONS = key("annotations");
+    private static final byte[] METADATA = key("metadata");
+    private static final byte[] SUBSEGMENTS = key("subsegments");
+
+    private final ThreadLocal<JsonBuffer> buffers = ThreadLocal.withInitial(() -> new JsonBuffer(INITIAL_BUFFER_SIZE));
+
+    private final Fragment serviceName = new Fragment();
+    private final Fragment serviceMap = new Fragment();
+    private final ConcurrentMap<String, Fragment> awsEntries = new ConcurrentHashMap<>();
+
+    /**
+     * Serializes a segment, including its subsegments that have not been streamed yet.
+     *
+     * @return this thread's buffer holding the document, valid until the thread serializes another entity
+     */
+    public JsonBuffer serialize(Segment segment) {
+        JsonBuffer buffer = acquireBuffer();
+        if (!serialize(buffer, segment)) {
+            buffer.reset();
+            buffer.writeRaw(segment.serialize());
+        }
+        return buffer;
+    }
+
+    /**
+     * Serializes a subsegment to be sent on its own, ahead of its parent segment.
+     *
+     * @return this thread's buffer holding the document, valid until the thread serializes another entity
+     */
+    public JsonBuffer serializeStreamed(Subsegment subsegment) {
+        JsonBuffer buffer = acquireBuffer();
+        if (!serialize(buffer, subsegment)) {
+            buffer.reset();
+            buffer.writeRaw(subsegment.streamSerialize());
+        }
+        return buffer;
+    }
+
+    private JsonBuffer acquireBuffer() {
+        JsonBuffer buffer = buffers.get();
+        if (buffer.capacity() > MAX_RETAINED_BUFFER_SIZE) {
+            buffer = new JsonBuffer(INITIAL_BUFFER_SIZE);
+            buffers.set(buffer);
+        }
+        buffer.reset();
+        return buffer;
+    }
+
+    private boolean serialize(JsonBuffer buffer, Segment segment) {
+        try {
+            buffer.writeByte('{');
+            buffer.writeRaw(NAME);
+            buffer.writeRaw(serviceName.encode(segment.getName()));
+            if (!writeCommonFields(buffer, segment)) {
+                return false;
+            }
+            writeTraceIdentity(buffer, segment.getTraceId(), segment.getParentId());
+            writeOptionalString(buffer, ORIGIN, segment.getOrigin());
+            writeOptionalString(buffer, USER, segment.getUser());
+            writeOptionalString(buffer, RESOURCE_ARN, segment.getResourceArn());
+            if (!isEmpty(segment.getService())) {
+                byte[] service = serviceMap.encode(segment.getService());
+                if (service == null) {
+                    return false;
+                }
+                buffer.writeRaw(SERVICE);
+                buffer.writeRaw(service);
+            }
+            return writeData(buffer, segment, true);
+        } catch (ConcurrentModificationException e) {
+            // The entity was modified by another thread while being written
+            log.debug("Entity changed during serialization, falling back to the SDK serializer", e);
+            return false;
+        }
+    }
+
+    private boolean serialize(JsonBuffer buffer, Subsegment subsegment) {
+        try {
+            buffer.writeByte('{');
+            buffer.writeRaw(NAME);
+            buffer.writeString(subsegment.getName());
+            if (!writeCommonFields(buffer, subsegment)) {
+                return false;
+            }
+            buffer.writeRaw(TYPE_SUBSEGMENT);
+            writeTraceIdentity(buffer, subsegment.getParentSegment().getTraceId(), subsegment.getParent().getId());
+            return writeSubsegmentFields(buffer, subsegment);
+        } catch (ConcurrentModificationException e) {
+            log.debug("Entity changed during serialization, falling back to the SDK serializer", e);
+            return false;
+        }
+    }
+
+    /**
+     * Writes a subsegment nested in the {@code subsegments} array of its parent.
+     */
+    private boolean writeNested(JsonBuffer buffer, Subsegment subsegment) {
+        buffer.writeByte('{');
+        buffer.writeRaw(NAME);
+        buffer.writeString(subsegment.getName());
+        return writeCommonFields(buffer, subsegment) && writeSubsegmentFields(buffer, subsegment);
+    }
+
+    private boolean writeSubsegmentFields(JsonBuffer buffer, Subsegment subsegment) {
+        writeOptionalString(buffer, NAMESPACE, subsegment.getNamespace());
+        Collection<String> precursorIds = subsegment.getPrecursorIds();
+        if (precursorIds != null && !precursorIds.isEmpty()) {
+            buffer.writeRaw(PRECURSOR_IDS);
+            writeValue(buffer, precursorIds);
+        }
+        return writeData(buffer, subsegment, false);
+    }
+
+    /**
+     * Writes the fields following the name that every entity has.
+     *
+     * @return false if the entity needs the SDK's serializer
+     */
+    private boolean writeCommonFields(JsonBuffer buffer, Entity entity) {
+        if (entity.getCause() != null && !entity.getCause().getExceptions().isEmpty()) {
+            // Exceptions carry stack traces and cross-entity references best left to the SDK
+            return false;
+        }
+
+        buffer.writeRaw(ID);
+        buffer.writeString(entity.getId());
+        buffer.writeRaw(START_TIME);
+        buffer.writeEpochSeconds(entity.getStartTime());
+        if (entity.getEndTime() != 0) {
+            buffer.writeRaw(END_TIME);
+            buffer.writeEpochSeconds(entity.getEndTime());
+        }
+        writeFlag(buffer, IN_PROGRESS, entity.isInProgress());
+        writeFlag(buffer, FAULT, entity.isFault());
+        writeFlag(buffer, ERROR, entity.isError());
+        writeFlag(buffer, THROTTLE, entity.isThrottle());
+        return true;
+    }
+
+    private void writeTraceIdentity(JsonBuffer buffer, TraceID traceId, String parentId) {
+        if (traceId != null) {
+            buffer.writeRaw(TRACE_ID);
+            buffer.writeString(traceId.toString());
+        }
+        writeOptionalString(buffer, PARENT_ID, parentId);
+    }
+
+    /**
+     * Writes the attribute maps and nested subsegments, then closes the entity's object.
+     *
+     * @return false if the entity needs the SDK's serializer
+     */
+    private boolean writeData(JsonBuffer buffer, Entity entity, boolean isSegment) {
+        if (!writeMap(buffer, HTTP, entity.getHttp())) {
+            return false;
+        }
+
+        Map<String, Object> aws = entity.getAws();
+        if (!isEmpty(aws)) {
+            buffer.writeRaw(AWS);
+            boolean written = isSegment ? writeSegmentAws(buffer, aws) : writeValue(buffer, aws);
+            if (!written) {
+                return false;
+            }
+        }
+
+        if (!writeMap(buffer, SQL, entity.getSql()) ||
+                !writeMap(buffer, ANNOTATIONS, entity.getAnnotations()) ||
+                !writeMap(buffer, METADATA, entity.getMetadata())) {
+            return false;
+        }
+
+        List<Subsegment> subsegments = entity.getSubsegments();
+        if (subsegments != null && !subsegments.isEmpty()) {
+            buffer.writeRaw(SUBSEGMENTS);
+            buffer.writeByte('[');
+            boolean first = true;
+            for (Subsegment subsegment : subsegments) {
+                if (!first) {
+                    buffer.writeByte(',');
+                }
+                first = false;
+                if (!writeNested(buffer, subsegment)) {
+                    return false;
+                }
+            }
+            buffer.writeByte(']');
+        }
+
+        buffer.writeByte('}');
+        return true;
+    }
+
+    /**
+     * Writes a segment's {@code aws} map, reusing the encoding of entries that are the same on every segment.
+     */
+    private boolean writeSegmentAws(JsonBuffer buffer, Map<String, Object> aws) {
+        buffer.writeByte('{');
+        boolean first = true;
+        for (Map.Entry<String, Object> entry : aws.entrySet()) {
+            if (!first) {
+                buffer.writeByte(',');
+            }
+            first = false;
+            buffer.writeString(entry.getKey());
+            buffer.writeByte(':');
+
+            Object value = entry.getValue();
+            Fragment fragment = value instanceof Map ? awsFragment(entry.getKey()) : null;
+            if (fragment != null) {
+                byte[] encoded = fragment.encode(value);
+                if (encoded == null) {
+                    return false;
+                }
+                buffer.writeRaw(encoded);
+            } else if (!writeValue(buffer, value)) {
+                return false;
+            }
+        }
+        buffer.writeByte('}');
+        return true;
+    }
+
+    private Fragment awsFragment(String key) {
+        Fragment fragment = awsEntries.get(key);
+        if (fragment == null && awsEntries.size() < MAX_CACHED_AWS_KEYS) {
+            fragment = awsEntries.computeIfAbsent(key, k -> new Fragment());
+        }
+        return fragment;
+    }
+
+    private static boolean writeMap(JsonBuffer buffer, byte[] key, Map<String, ?> map) {
+        if (isEmpty(map)) {
+            return true;
+        }
+        buffer.writeRaw(key);
+        return writeValue(buffer, map);
+    }
+
+    private static void writeFlag(JsonBuffer buffer, byte[] key, boolean value) {
+        if (value) {
+            buffer.writeRaw(key);
+            buffer.writeBoolean(true);
+        }
+    }
+
+    private static void writeOptionalString(JsonBuffer buffer, byte[] key, String value) {
+        if (value != null) {
+            buffer.writeRaw(key);
+            buffer.writeString(value);
+        }
+    }
+
+    /**
+     * Writes an attribute value the way Jackson would by default.
+     *
+     * @return false if the value is of a type only the SDK's serializer knows how to handle
+     */
+    static boolean writeValue(JsonBuffer buffer, Object value) {
+        if (value == null) {
+            buffer.writeNull();
+        } else if (value instanceof String) {
+            buffer.writeString((String) value);
+        } else if (value instanceof Boolean) {
+            buffer.writeBoolean((Boolean) value);
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short
+                || value instanceof Byte || value instanceof AtomicInteger || value instanceof AtomicLong) {
+            buffer.writeLong(((Number) value).longValue());
+        } else if (value instanceof Double || value instanceof Float) {
+            buffer.writeDouble(((Number) value).doubleValue());
+        } else if (value instanceof Number) {
+            // BigInteger and BigDecimal
+            buffer.writeRaw(value.toString());
+        } else if (value instanceof Character) {
+            buffer.writeString(value.toString());
+        } else if (value instanceof Enum) {
+            buffer.writeString(((Enum<?>) value).name());
+        } else if (value instanceof Map) {
+            buffer.writeByte('{');
+            boolean first = true;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                if (!first) {
+                    buffer.writeByte(',');
+                }
+                first = false;
+                buffer.writeString(String.valueOf(entry.getKey()));
+                buffer.writeByte(':');
+                if (!writeValue(buffer, entry.getValue())) {
+                    return false;
+                }
+            }
+            buffer.writeByte('}');
+        } else if (value instanceof Collection) {
+            buffer.writeByte('[');
+            boolean first = true;
+            for (Object element : (Collection<?>) value) {
+                if (!first) {
+                    buffer.writeByte(',');
+                }
+                first = false;
+                if (!writeValue(buffer, element)) {
+                    return false;
+                }
+            }
+            buffer.writeByte(']');
+        } else if (value instanceof Object[]) {
+            buffer.writeByte('[');
+            Object[] array = (Object[]) value;
+            for (int i = 0; i < array.length; i++) {
+                if (i > 0) {
+                    buffer.writeByte(',');
+                }
+                if (!writeValue(buffer, array[i])) {
+                    return false;
+                }
+            }
+            buffer.writeByte(']');
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    private static boolean isEmpty(Map<?, ?> map) {
+        return map == null || map.isEmpty();
+    }
+
+    private static byte[] key(String name) {
+        return key(name, true);
+    }
+
+    private static byte[] key(String name, boolean leadingComma) {
+        return ((leadingComma ? "," : "") + "\"" + name + "\":").getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Caches the encoding of a value that rarely changes. Only the last value is kept. Maps are compared against a
+     * snapshot, since segment attribute maps can be mutated in place after they were first encoded.
+     */
+    private static final class Fragment {
+        private volatile Encoded last;
+
+        /**
+         * @return the JSON encoding of {@code value}, or null if it has a type only the SDK's serializer can handle
+         */
+        byte[] encode(Object value) {
+            Encoded encoded = last;
+            if (encoded != null && (encoded.value == value || encoded.value.equals(value))) {
+                return encoded.bytes;
+            }
+
+            JsonBuffer scratch = new JsonBuffer(128);
+            if (!writeValue(scratch, value)) {
+                return null;
+            }
+            byte[] bytes = new byte[scratch.length()];
+            System.arraycopy(scratch.array(), 0, bytes, 0, bytes.length);
+            last = new Encoded(value instanceof Map ? new HashMap<>((Map<?, ?>) value) : value, bytes);
+            return bytes;
+        }
+    }
+
+    private static final class Encoded {
+        private final Object value;
+        private final byte[] bytes;
+
+        private Encoded(Object value, byte[] bytes) {
+            this.value = value;
+            this.bytes = bytes;
+        }
+    }
+}
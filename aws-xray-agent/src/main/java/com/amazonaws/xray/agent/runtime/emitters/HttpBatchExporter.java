@@ -0,0 +1,262 @@
+package com.amazonaws.xray.agent.runtime.emitters;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Queue of encoded items that a background thread POSTs to an HTTP endpoint in batches. The thread waits up to the
+ * flush interval for a full batch before sending a smaller one, and retries failed requests with exponential backoff
+ * a bounded number of times. Both the number of queued items and the bytes held are bounded, and items beyond either
+ * limit are dropped.
+ */
+final class HttpBatchExporter {
+    private static final Log log = LogFactory.getLog(HttpBatchExporter.class);
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 2000;
+    private static final int READ_TIMEOUT_MILLIS = 5000;
+    private static final long SHUTDOWN_TIMEOUT_MILLIS = 2000;
+
+    static final int MAX_BUFFERED_BYTES = 16 * 1024 * 1024;
+    static final int MAX_ATTEMPTS = 5;
+    static final long INITIAL_BACKOFF_MILLIS = 100;
+
+    private final URL url;
+    private final String contentType;
+    private final Function<List<byte[]>, ByteBuffer> encoder;
+    private final int maxBatchSize;
+    private final int maxQueuedItems;
+    private final long flushIntervalMillis;
+    private final Thread exporter;
+    private final Thread shutdownHook;
+
+    private final Object lock = new Object();
+    // Guarded by lock. Buffered bytes include the batch being exported, since it is still held in memory.
+    private final ArrayDeque<byte[]> queue = new ArrayDeque<>();
+    private long bufferedBytes;
+    private long droppedCount;
+    private boolean running = true;
+
+    // Only accessed by the exporter thread
+    private final byte[] drainBuffer = new byte[1024];
+
+    /**
+     * @param url - The URL to POST batches to
+     * @param contentType - Content type of the request bodies
+     * @param encoder - Encodes a batch of items into a request body, called on the exporter thread only
+     * @param maxBatchSize - The most items to send in one request
+     * @param maxQueuedItems - The most items to hold while they wait to be exported
+     * @param flushIntervalMillis - How long to wait for a full batch before sending a smaller one
+     * @param threadName - Name of the exporter thread
+     * @throws MalformedURLException if the URL is not an HTTP or HTTPS URL
+     */
+    HttpBatchExporter(URL url, String contentType, Function<List<byte[]>, ByteBuffer> encoder, int maxBatchSize,
+                      int maxQueuedItems, long flushIntervalMillis, String threadName) throws MalformedURLException {
+        if (!"http".equals(url.getProtocol()) && !"https".equals(url.getProtocol())) {
+            throw new MalformedURLException("Expected an HTTP or HTTPS endpoint but got " + url);
+        }
+        this.url = url;
+        this.contentType = contentType;
+        this.encoder = encoder;
+        this.maxBatchSize = maxBatchSize;
+        this.maxQueuedItems = maxQueuedItems;
+        this.flushIntervalMillis = flushIntervalMillis;
+
+        exporter = new Thread(this::exportLoop, threadName);
+        exporter.setDaemon(true);
+        exporter.start();
+
+        shutdownHook = ShutdownHooks.register(this::shutdown, threadName + "-shutdown");
+    }
+
+    /**
+     * Builds an endpoint URL from a base URL given in the agent configuration and an API path.
+     */
+    static URL endpointUrl(String endpoint, String path) throws MalformedURLException {
+        return new URL((endpoint.endsWith("/") ? endpoint.substring(0, endpoint.length() - 1) : endpoint) + path);
+    }
+
+    URL getUrl() {
+        return url;
+    }
+
+    /**
+     * @param item - The encoded item, which is retained until exported
+     * @return false if the item was dropped
+     */
+    boolean enqueue(byte[] item) {
+        synchronized (lock) {
+            if (!running) {
+                return false;
+            }
+            if (queue.size() >= maxQueuedItems || bufferedBytes + item.length > MAX_BUFFERED_BYTES) {
+                droppedCount++;
+                if (log.isDebugEnabled()) {
+                    log.debug("X-Ray export queue for " + url + " is full, dropping item of " + item.length + " bytes");
+                }
+                return false;
+            }
+
+            queue.add(item);
+            bufferedBytes += item.length;
+            // Wake the exporter for the first item, and again once it no longer needs to wait for a full batch
+            if (queue.size() == 1 || queue.size() == maxBatchSize) {
+                lock.notifyAll();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of items dropped, either because the queue was full or their export failed
+     */
+    long getDroppedCount() {
+        synchronized (lock) {
+            return droppedCount;
+        }
+    }
+
+    /**
+     * Stops the background thread after it has tried once to export whatever is still queued, waiting a bounded
+     * amount of time.
+     */
+    void shutdown() {
+        ShutdownHooks.unregister(shutdownHook);
+        synchronized (lock) {
+            running = false;
+            lock.notifyAll();
+        }
+        try {
+            exporter.join(SHUTDOWN_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void exportLoop() {
+        List<byte[]> batch = new ArrayList<>(maxBatchSize);
+        while (true) {
+            long batchBytes = 0;
+            synchronized (lock) {
+                try {
+                    while (queue.isEmpty() && running) {
+                        lock.wait();
+                    }
+                    long deadline = System.currentTimeMillis() + flushIntervalMillis;
+                    long remaining;
+                    while (running && queue.size() < maxBatchSize &&
+                            (remaining = deadline - System.currentTimeMillis()) > 0) {
+                        lock.wait(remaining);
+                    }
+                } catch (InterruptedException e) {
+                    running = false;
+                }
+                if (queue.isEmpty()) {
+                    break;
+                }
+                while (batch.size() < maxBatchSize && !queue.isEmpty()) {
+                    byte[] item = queue.poll();
+                    batch.add(item);
+                    batchBytes += item.length;
+                }
+            }
+
+            export(batch);
+
+            synchronized (lock) {
+                bufferedBytes -= batchBytes;
+            }
+            batch.clear();
+        }
+    }
+
+    private void export(List<byte[]> batch) {
+        ByteBuffer body = encoder.apply(batch);
+        long backoffMillis = INITIAL_BACKOFF_MILLIS;
+        for (int attempt = 1; ; attempt++) {
+            int status;
+            try {
+                status = post(body);
+            } catch (IOException e) {
+                log.debug("Failed to export X-Ray data to " + url, e);
+                status = -1;
+            }
+            if (status >= 200 && status < 300) {
+                return;
+            }
+
+            boolean retryable = status < 0 || status == 429 || status >= 500;
+            if (!retryable || attempt == MAX_ATTEMPTS || !awaitBackoff(backoffMillis)) {
+                log.warn("Dropping " + batch.size() + " X-Ray items after " + attempt + " failed export attempts to " +
+                        url + (status < 0 ? "" : ", last response status " + status));
+                synchronized (lock) {
+                    droppedCount += batch.size();
+                }
+                return;
+            }
+            backoffMillis *= 2;
+        }
+    }
+
+    /**
+     * @return the response status
+     */
+    private int post(ByteBuffer body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        try {
+            connection.setRequestMethod("POST");
+            connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+            connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", contentType);
+            connection.setFixedLengthStreamingMode(body.remaining());
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body.array(), body.arrayOffset() + body.position(), body.remaining());
+            }
+
+            int status = connection.getResponseCode();
+            // Reading the response to the end lets the connection be kept alive for the next batch
+            InputStream response = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+            if (response != null) {
+                try (InputStream in = response) {
+                    while (in.read(drainBuffer) >= 0) {
+                        // Discard
+                    }
+                }
+            }
+            return status;
+        } catch (IOException e) {
+            connection.disconnect();
+            throw e;
+        }
+    }
+
+    /**
+     * @return false if the exporter was shut down meanwhile
+     */
+    private boolean awaitBackoff(long backoffMillis) {
+        long deadline = System.currentTimeMillis() + backoffMillis;
+        synchronized (lock) {
+            long remaining;
+            while (running && (remaining = deadline - System.currentTimeMillis()) > 0) {
+                try {
+                    lock.wait(remaining);
+                } catch (InterruptedException e) {
+                    running = false;
+                }
+            }
+            return running;
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package com.amazonaws.xray.agent.runtime.emitters;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Growable byte buffer that JSON is written into as UTF-8, without going through intermediate Strings. Instances are
+ * reused, so the bytes are only valid until the next document is written into the same buffer.
+ */
+public final class JsonBuffer {
+    private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] NULL = "null".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] TRUE = "true".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] FALSE = "false".getBytes(StandardCharsets.US_ASCII);
+    private static final int MICROS_PER_SECOND = 1_000_000;
+
+    private byte[] bytes;
+    private int length;
+
+    JsonBuffer(int initialCapacity) {
+        bytes = new byte[initialCapacity];
+    }
+
+    /**
+     * @return the array backing this buffer, holding the document in its first {@link #length()} bytes
+     */
+    public byte[] array() {
+        return bytes;
+    }
+
+    /**
+     * @return the length of the document in bytes
+     */
+    public int length() {
+        return length;
+    }
+
+    int capacity() {
+        return bytes.length;
+    }
+
+    void reset() {
+        length = 0;
+    }
+
+    void writeByte(char c) {
+        ensureCapacity(1);
+        bytes[length++] = (byte) c;
+    }
+
+    void writeRaw(byte[] raw) {
+        ensureCapacity(raw.length);
+        System.arraycopy(raw, 0, bytes, length, raw.length);
+        length += raw.length;
+    }
+
+    /**
+     * Appends an already encoded JSON fragment.
+     */
+    void writeRaw(String raw) {
+        writeUtf8(raw);
+    }
+
+    void writeNull() {
+        writeRaw(NULL);
+    }
+
+    void writeBoolean(boolean value) {
+        writeRaw(value ? TRUE : FALSE);
+    }
+
+    void writeString(String value) {
+        ensureCapacity(value.length() + 2);
+        bytes[length++] = '"';
+        int len = value.length();
+        for (int i = 0; i < len; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x20 && c < 0x80 && c != '"' && c != '\\') {
+                // Capacity for the plain ASCII case was reserved up front
+                bytes[length++] = (byte) c;
+            } else {
+                i = writeSpecial(value, i, c);
+                ensureCapacity(len - i + 1);
+            }
+        }
+        bytes[length++] = '"';
+    }
+
+    /**
+     * Writes already UTF-8 encoded text, such as a serialized document, as a JSON string. Multi-byte sequences are
+     * copied through as they are.
+     */
+    void writeString(byte[] utf8, int offset, int count) {
+        ensureCapacity(count + 2);
+        bytes[length++] = '"';
+        for (int i = offset; i < offset + count; i++) {
+            byte b = utf8[i];
+            if (b == '"' || b == '\\' || (b >= 0 && b < 0x20)) {
+                writeSpecial(null, i, (char) b);
+                ensureCapacity(offset + count - i);
+            } else {
+                bytes[length++] = b;
+            }
+        }
+        bytes[length++] = '"';
+    }
+
+    void writeLong(long value) {
+        if (value == Long.MIN_VALUE) {
+            writeRaw(Long.toString(value));
+            return;
+        }
+        ensureCapacity(20);
+        if (value < 0) {
+            bytes[length++] = '-';
+            value = -value;
+        }
+        int digits = 1;
+        for (long remaining = value / 10; remaining > 0; remaining /= 10) {
+            digits++;
+        }
+        for (int i = length + digits - 1; i >= length; i--) {
+            bytes[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        length += digits;
+    }
+
+    void writeDouble(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            // Not representable in JSON
+            writeNull();
+        } else if (value == (long) value && Math.abs(value) < 1e15) {
+            writeLong((long) value);
+            writeRaw(".0");
+        } else {
+            writeRaw(Double.toString(value));
+        }
+    }
+
+    /**
+     * Writes an epoch timestamp in seconds with microsecond precision, which is all X-Ray keeps, in plain decimal
+     * notation.
+     */
+    void writeEpochSeconds(double seconds) {
+        if (seconds < 0 || Double.isNaN(seconds) || Double.isInfinite(seconds)) {
+            writeDouble(seconds);
+            return;
+        }
+        long micros = Math.round(seconds * MICROS_PER_SECOND);
+        writeLong(micros / MICROS_PER_SECOND);
+        ensureCapacity(7);
+        bytes[length++] = '.';
+        long fraction = micros % MICROS_PER_SECOND;
+        for (int i = length + 5; i >= length; i--) {
+            bytes[i] = (byte) ('0' + fraction % 10);
+            fraction /= 10;
+        }
+        length += 6;
+    }
+
+    private void writeUtf8(String value) {
+        int len = value.length();
+        ensureCapacity(len);
+        for (int i = 0; i < len; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                bytes[length++] = (byte) c;
+            } else {
+                i = writeMultiByte(value, i, c);
+                ensureCapacity(len - i);
+            }
+        }
+    }
+
+    /**
+     * Writes a character that needs escaping or more than one byte.
+     *
+     * @return the index of the last char consumed, which is past {@code index} for surrogate pairs
+     */
+    private int writeSpecial(String value, int index, char c) {
+        if (c >= 0x80) {
+            return writeMultiByte(value, index, c);
+        }
+        ensureCapacity(6);
+        bytes[length++] = '\\';
+        switch (c) {
+            case '"':
+                bytes[length++] = '"';
+                break;
+            case '\\':
+                bytes[length++] = '\\';
+                break;
+            case '\n':
+                bytes[length++] = 'n';
+                break;
+            case '\r':
+                bytes[length++] = 'r';
+                break;
+            case '\t':
+                bytes[length++] = 't';
+                break;
+            case '\b':
+                bytes[length++] = 'b';
+                break;
+            case '\f':
+                bytes[length++] = 'f';
+                break;
+            default:
+                bytes[length++] = 'u';
+                bytes[length++] = '0';
+                bytes[length++] = '0';
+                bytes[length++] = HEX_DIGITS[c >> 4];
+                bytes[length++] = HEX_DIGITS[c & 0xF];
+        }
+        return index;
+    }
+
+    private int writeMultiByte(String value, int index, char c) {
+        ensureCapacity(4);
+        if (c < 0x800) {
+            bytes[length++] = (byte) (0xC0 | (c >> 6));
+            bytes[length++] = (byte) (0x80 | (c & 0x3F));
+            return index;
+        }
+        if (Character.isHighSurrogate(c) && index + 1 < value.length()
+                && Character.isLowSurrogate(value.charAt(index + 1))) {
+            int codePoint = Character.toCodePoint(c, value.charAt(index + 1));
+            bytes[length++] = (byte) (0xF0 | (codePoint >> 18));
+            bytes[length++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+            bytes[length++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+            bytes[length++] = (byte) (0x80 | (codePoint & 0x3F));
+            return index + 1;
+        }
+        if (Character.isSurrogate(c)) {
+            // Unpaired surrogate, replaced the same way String.getBytes does
+            bytes[length++] = '?';
+            return index;
+        }
+        bytes[length++] = (byte) (0xE0 | (c >> 12));
+        bytes[length++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+        bytes[length++] = (byte) (0x80 | (c & 0x3F));
+        return index;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (length + extra > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + extra));
+        }
+    }
+}
@@ -0,0 +1,352 @@
+package com.amazonaws.xray.agent.runtime.emitters;
+
+import com.amazonaws.xray.emitters.Emitter;
+import com.amazonaws.xray.entities.Entity;
+import com.amazonaws.xray.entities.Namespace;
+import com.amazonaws.xray.entities.Segment;
+import com.amazonaws.xray.entities.Subsegment;
+import com.amazonaws.xray.entities.ThrowableDescription;
+import com.amazonaws.xray.entities.TraceID;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.net.MalformedURLException;
+import java.nio.ByteBuffer;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Emitter that converts finished segments and subsegments into OpenTelemetry spans, and exports them in batches as
+ * OTLP protobuf over HTTP, for example to a local OpenTelemetry Collector.
+ *
+ * Each segment or streamed subsegment becomes one {@code ResourceSpans} message holding a span for it and for each of
+ * its finished subsegments, encoded on the calling thread. The encoded messages are queued and concatenated into
+ * {@code ExportTraceServiceRequest} bodies by a background thread, see {@link HttpBatchExporter}.
+ *
+ * HTTP, SQL and AWS attributes are mapped to the OpenTelemetry semantic conventions where there is one and flattened
+ * under the same prefix otherwise, annotations keep their names, exceptions become span events and metadata is left
+ * out.
+ */
+public class OtlpEmitter extends Emitter {
+    private static final Log log = LogFactory.getLog(OtlpEmitter.class);
+
+    /**
+     * The most segments, or streamed subsegments, to export in one request.
+     */
+    public static final int MAX_BATCH_SIZE = 100;
+
+    private static final String THREAD_NAME = "xray-agent-emitter-otlp";
+    private static final String TRACES_PATH = "/v1/traces";
+    private static final String SCOPE_NAME = "aws-xray-java-agent";
+    private static final int INITIAL_BUFFER_SIZE = 4 * 1024;
+    private static final int MAX_RETAINED_BUFFER_SIZE = 64 * 1024;
+
+    // Field numbers from opentelemetry/proto/collector/trace/v1/trace_service.proto and the messages it references
+    private static final int REQUEST_RESOURCE_SPANS = 1;
+    private static final int RESOURCE_SPANS_RESOURCE = 1;
+    private static final int RESOURCE_SPANS_SCOPE_SPANS = 2;
+    private static final int RESOURCE_ATTRIBUTES = 1;
+    private static final int SCOPE_SPANS_SCOPE = 1;
+    private static final int SCOPE_SPANS_SPANS = 2;
+    private static final int SCOPE_NAME_FIELD = 1;
+    private static final int SPAN_TRACE_ID = 1;
+    private static final int SPAN_SPAN_ID = 2;
+    private static final int SPAN_PARENT_SPAN_ID = 4;
+    private static final int SPAN_NAME = 5;
+    private static final int SPAN_KIND = 6;
+    private static final int SPAN_START_TIME = 7;
+    private static final int SPAN_END_TIME = 8;
+    private static final int SPAN_ATTRIBUTES = 9;
+    private static final int SPAN_EVENTS = 11;
+    private static final int SPAN_STATUS = 15;
+    private static final int EVENT_TIME = 1;
+    private static final int EVENT_NAME = 2;
+    private static final int EVENT_ATTRIBUTES = 3;
+    private static final int STATUS_MESSAGE = 2;
+    private static final int STATUS_CODE = 3;
+    private static final int KEY_VALUE_KEY = 1;
+    private static final int KEY_VALUE_VALUE = 2;
+    private static final int ANY_VALUE_STRING = 1;
+    private static final int ANY_VALUE_BOOL = 2;
+    private static final int ANY_VALUE_INT = 3;
+    private static final int ANY_VALUE_DOUBLE = 4;
+
+    static final int SPAN_KIND_INTERNAL = 1;
+    static final int SPAN_KIND_SERVER = 2;
+    static final int SPAN_KIND_CLIENT = 3;
+    static final int STATUS_CODE_ERROR = 2;
+
+    private static final Map<String, String> HTTP_ATTRIBUTES = new HashMap<>();
+    private static final Map<String, String> SQL_ATTRIBUTES = new HashMap<>();
+
+    static {
+        HTTP_ATTRIBUTES.put("request.method", "http.method");
+        HTTP_ATTRIBUTES.put("request.url", "http.url");
+        HTTP_ATTRIBUTES.put("request.client_ip", "http.client_ip");
+        HTTP_ATTRIBUTES.put("request.user_agent", "http.user_agent");
+        HTTP_ATTRIBUTES.put("response.status", "http.status_code");
+        HTTP_ATTRIBUTES.put("response.content_length", "http.response_content_length");
+
+        SQL_ATTRIBUTES.put("sanitized_query", "db.statement");
+        SQL_ATTRIBUTES.put("url", "db.connection_string");
+        SQL_ATTRIBUTES.put("database_type", "db.system");
+        SQL_ATTRIBUTES.put("user", "db.user");
+    }
+
+    private final ThreadLocal<ProtobufBuffer> buffers =
+            ThreadLocal.withInitial(() -> new ProtobufBuffer(INITIAL_BUFFER_SIZE));
+    private final HttpBatchExporter exporter;
+
+    // Only accessed by the exporter thread
+    private final ProtobufBuffer body = new ProtobufBuffer(INITIAL_BUFFER_SIZE);
+
+    /**
+     * @param endpoint - Base URL of the OTLP/HTTP receiver, e.g. http://127.0.0.1:4318
+     * @param maxQueuedEntities - The most encoded segments and subsegments to hold while they wait to be exported
+     * @param flushIntervalMillis - How long to wait for a full batch before sending a smaller one
+     * @throws MalformedURLException if the endpoint is not an HTTP or HTTPS URL
+     */
+    public OtlpEmitter(String endpoint, int maxQueuedEntities, long flushIntervalMillis) throws MalformedURLException {
+        exporter = new HttpBatchExporter(HttpBatchExporter.endpointUrl(endpoint, TRACES_PATH),
+                "application/x-protobuf", this::writeBody, MAX_BATCH_SIZE, maxQueuedEntities, flushIntervalMillis,
+                THREAD_NAME);
+    }
+
+    @Override
+    public boolean sendSegment(Segment segment) {
+        return send(segment.getName(), segment.getTraceId(), segment, segment.getParentId());
+    }
+
+    @Override
+    public boolean sendSubsegment(Subsegment subsegment) {
+        Segment parentSegment = subsegment.getParentSegment();
+        return send(parentSegment.getName(), parentSegment.getTraceId(), subsegment, subsegment.getParent().getId());
+    }
+
+    /**
+     * @return the number of segments and subsegments dropped, either because the queue was full or their export failed
+     */
+    public long getDroppedCount() {
+        return exporter.getDroppedCount();
+    }
+
+    /**
+     * Stops the background thread after it has tried once to export whatever is still queued, waiting a bounded
+     * amount of time.
+     */
+    public void shutdown() {
+        exporter.shutdown();
+    }
+
+    private boolean send(String serviceName, TraceID traceId, Entity entity, String parentId) {
+        ProtobufBuffer buffer = buffers.get();
+        if (buffer.capacity() > MAX_RETAINED_BUFFER_SIZE) {
+            buffer = new ProtobufBuffer(INITIAL_BUFFER_SIZE);
+            buffers.set(buffer);
+        }
+        buffer.reset();
+
+        try {
+            writeResourceSpans(buffer, serviceName, decodeTraceId(traceId), entity, parentId);
+        } catch (IllegalArgumentException | ConcurrentModificationException e) {
+            log.debug("Unable to convert X-Ray entity " + entity.getId() + " to OTLP spans, dropping it", e);
+            return false;
+        }
+        return exporter.enqueue(buffer.toByteArray());
+    }
+
+    private ByteBuffer writeBody(List<byte[]> batch) {
+        body.reset();
+        for (byte[] resourceSpans : batch) {
+            body.writeBytesField(REQUEST_RESOURCE_SPANS, resourceSpans);
+        }
+        return ByteBuffer.wrap(body.array(), 0, body.length());
+    }
+
+    /**
+     * Writes the fields of a {@code ResourceSpans} message, which is later embedded in the export request as is.
+     */
+    private static void writeResourceSpans(ProtobufBuffer buffer, String serviceName, byte[] traceId, Entity entity,
+                                           String parentId) {
+        int resource = buffer.beginMessage(RESOURCE_SPANS_RESOURCE);
+        writeAttribute(buffer, RESOURCE_ATTRIBUTES, "service.name", serviceName);
+        buffer.endMessage(resource);
+
+        int scopeSpans = buffer.beginMessage(RESOURCE_SPANS_SCOPE_SPANS);
+        int scope = buffer.beginMessage(SCOPE_SPANS_SCOPE);
+        buffer.writeStringField(SCOPE_NAME_FIELD, SCOPE_NAME);
+        buffer.endMessage(scope);
+        writeSpans(buffer, traceId, entity, parentId);
+        buffer.endMessage(scopeSpans);
+    }
+
+    private static void writeSpans(ProtobufBuffer buffer, byte[] traceId, Entity entity, String parentId) {
+        // Entities still in progress are sent again once they finish
+        if (!entity.isInProgress() && entity.getEndTime() != 0) {
+            writeSpan(buffer, traceId, entity, parentId);
+        }
+        List<Subsegment> subsegments = entity.getSubsegments();
+        if (subsegments != null) {
+            for (Subsegment subsegment : subsegments) {
+                writeSpans(buffer, traceId, subsegment, entity.getId());
+            }
+        }
+    }
+
+    private static void writeSpan(ProtobufBuffer buffer, byte[] traceId, Entity entity, String parentId) {
+        int span = buffer.beginMessage(SCOPE_SPANS_SPANS);
+        buffer.writeBytesField(SPAN_TRACE_ID, traceId);
+        buffer.writeBytesField(SPAN_SPAN_ID, decodeHex(entity.getId(), 0, entity.getId().length()));
+        if (parentId != null) {
+            buffer.writeBytesField(SPAN_PARENT_SPAN_ID, decodeHex(parentId, 0, parentId.length()));
+        }
+        buffer.writeStringField(SPAN_NAME, entity.getName());
+        buffer.writeVarintField(SPAN_KIND, spanKind(entity));
+        buffer.writeFixed64Field(SPAN_START_TIME, toEpochNanos(entity.getStartTime()));
+        buffer.writeFixed64Field(SPAN_END_TIME, toEpochNanos(entity.getEndTime()));
+
+        writeAttributes(buffer, entity);
+        writeExceptionEvents(buffer, entity);
+
+        if (entity.isFault() || entity.isError()) {
+            int status = buffer.beginMessage(SPAN_STATUS);
+            buffer.writeStringField(STATUS_MESSAGE, entity.isFault() ? "fault" : "error");
+            buffer.writeVarintField(STATUS_CODE, STATUS_CODE_ERROR);
+            buffer.endMessage(status);
+        }
+        buffer.endMessage(span);
+    }
+
+    private static int spanKind(Entity entity) {
+        if (entity instanceof Segment) {
+            return SPAN_KIND_SERVER;
+        }
+        String namespace = entity.getNamespace();
+        return Namespace.REMOTE.toString().equals(namespace) || Namespace.AWS.toString().equals(namespace) ?
+                SPAN_KIND_CLIENT : SPAN_KIND_INTERNAL;
+    }
+
+    private static void writeAttributes(ProtobufBuffer buffer, Entity entity) {
+        Map<String, Object> http = entity.getHttp();
+        if (http != null) {
+            for (Map.Entry<String, Object> section : http.entrySet()) {
+                if (section.getValue() instanceof Map) {
+                    for (Map.Entry<?, ?> field : ((Map<?, ?>) section.getValue()).entrySet()) {
+                        String key = section.getKey() + "." + field.getKey();
+                        writeAttribute(buffer, SPAN_ATTRIBUTES, HTTP_ATTRIBUTES.getOrDefault(key, "http." + key),
+                                field.getValue());
+                    }
+                }
+            }
+        }
+
+        Map<String, Object> sql = entity.getSql();
+        if (sql != null) {
+            for (Map.Entry<String, Object> field : sql.entrySet()) {
+                writeAttribute(buffer, SPAN_ATTRIBUTES,
+                        SQL_ATTRIBUTES.getOrDefault(field.getKey(), "db." + field.getKey()), field.getValue());
+            }
+        }
+
+        Map<String, Object> aws = entity.getAws();
+        if (aws != null) {
+            for (Map.Entry<String, Object> field : aws.entrySet()) {
+                if (field.getValue() instanceof Map) {
+                    for (Map.Entry<?, ?> nested : ((Map<?, ?>) field.getValue()).entrySet()) {
+                        writeAttribute(buffer, SPAN_ATTRIBUTES, "aws." + field.getKey() + "." + nested.getKey(),
+                                nested.getValue());
+                    }
+                } else {
+                    writeAttribute(buffer, SPAN_ATTRIBUTES, "aws." + field.getKey(), field.getValue());
+                }
+            }
+        }
+
+        Map<String, Object> annotations = entity.getAnnotations();
+        if (annotations != null) {
+            for (Map.Entry<String, Object> annotation : annotations.entrySet()) {
+                writeAttribute(buffer, SPAN_ATTRIBUTES, annotation.getKey(), annotation.getValue());
+            }
+        }
+    }
+
+    private static void writeExceptionEvents(ProtobufBuffer buffer, Entity entity) {
+        if (entity.getCause() == null) {
+            return;
+        }
+        for (ThrowableDescription exception : entity.getCause().getExceptions()) {
+            int event = buffer.beginMessage(SPAN_EVENTS);
+            buffer.writeFixed64Field(EVENT_TIME, toEpochNanos(entity.getEndTime()));
+            buffer.writeStringField(EVENT_NAME, "exception");
+            writeAttribute(buffer, EVENT_ATTRIBUTES, "exception.type", exception.getType());
+            writeAttribute(buffer, EVENT_ATTRIBUTES, "exception.message", exception.getMessage());
+            buffer.endMessage(event);
+        }
+    }
+
+    /**
+     * Writes a {@code KeyValue} message, skipping null values.
+     */
+    private static void writeAttribute(ProtobufBuffer buffer, int field, String key, Object value) {
+        if (value == null) {
+            return;
+        }
+        int keyValue = buffer.beginMessage(field);
+        buffer.writeStringField(KEY_VALUE_KEY, key);
+        int anyValue = buffer.beginMessage(KEY_VALUE_VALUE);
+        if (value instanceof Boolean) {
+            buffer.writeBoolField(ANY_VALUE_BOOL, (Boolean) value);
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short
+                || value instanceof Byte || value instanceof AtomicInteger || value instanceof AtomicLong) {
+            buffer.writeVarintField(ANY_VALUE_INT, ((Number) value).longValue());
+        } else if (value instanceof Number) {
+            buffer.writeDoubleField(ANY_VALUE_DOUBLE, ((Number) value).doubleValue());
+        } else {
+            buffer.writeStringField(ANY_VALUE_STRING, value.toString());
+        }
+        buffer.endMessage(anyValue);
+        buffer.endMessage(keyValue);
+    }
+
+    private static long toEpochNanos(double epochSeconds) {
+        // X-Ray keeps microsecond precision, and scaling straight to nanoseconds would lose some of it
+        return Math.round(epochSeconds * 1_000_000) * 1000;
+    }
+
+    /**
+     * Converts an X-Ray trace ID, {@code 1-<8 hex digits of epoch seconds>-<24 hex digits>}, to the 16 byte ID the
+     * OpenTelemetry X-Ray propagator would use for the same trace.
+     */
+    private static byte[] decodeTraceId(TraceID traceId) {
+        String id = traceId.toString();
+        if (id.length() != 35 || id.charAt(1) != '-' || id.charAt(10) != '-') {
+            throw new IllegalArgumentException("Unexpected trace ID format: " + id);
+        }
+        byte[] epoch = decodeHex(id, 2, 10);
+        byte[] random = decodeHex(id, 11, 35);
+        byte[] decoded = new byte[16];
+        System.arraycopy(epoch, 0, decoded, 0, 4);
+        System.arraycopy(random, 0, decoded, 4, 12);
+        return decoded;
+    }
+
+    private static byte[] decodeHex(String hex, int start, int end) {
+        if ((end - start) % 2 != 0) {
+            throw new IllegalArgumentException("Odd number of hex digits in " + hex);
+        }
+        byte[] decoded = new byte[(end - start) / 2];
+        for (int i = 0; i < decoded.length; i++) {
+            int high = Character.digit(hex.charAt(start + 2 * i), 16);
+            int low = Character.digit(hex.charAt(start + 2 * i + 1), 16);
+            if (high < 0 || low < 0) {
+                throw new IllegalArgumentException("Invalid hex digits in " + hex);
+            }
+            decoded[i] = (byte) (high << 4 | low);
+        }
+        return decoded;
+    }
+}
@@ -0,0 +1,132 @@
+package com.amazonaws.xray.agent.runtime.emitters;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Emitter that packs several header + document pairs into each UDP datagram sent to the daemon, separated by
+ * newlines. A datagram is sent once the next document would not fit in it, or when the flush interval elapses,
+ * whichever comes first. This trades a bounded delay for far fewer send syscalls under high throughput.
+ *
+ * A document that does not fit in an empty datagram on its own is sent by itself, just as the SDK's UDP emitter would.
+ */
+public class PackingEmitter extends DocumentEmitter {
+    private static final Log log = LogFactory.getLog(PackingEmitter.class);
+
+    /**
+     * Largest payload of a single IPv4 UDP datagram.
+     */
+    public static final int MAX_DATAGRAM_SIZE = 65507;
+
+    private static final String FLUSH_THREAD_NAME = "xray-agent-emitter-flush";
+
+    private final DatagramSocket socket;
+    private final InetSocketAddress address;
+    private final ScheduledExecutorService flusher;
+    private final Thread shutdownHook;
+
+    // Guarded by this
+    private final byte[] buffer;
+    private final DatagramPacket packet;
+    private int position;
+
+    /**
+     * @param address - Address of the daemon
+     * @param maxDatagramSize - Maximum number of bytes packed into a single datagram
+     * @param flushIntervalMillis - Maximum time a buffered document waits before being sent
+     * @throws SocketException if the UDP socket cannot be opened
+     */
+    public PackingEmitter(InetSocketAddress address, int maxDatagramSize, long flushIntervalMillis) throws SocketException {
+        if (maxDatagramSize <= PROTOCOL_HEADER.length || maxDatagramSize > MAX_DATAGRAM_SIZE) {
+            throw new IllegalArgumentException("Datagram size must be between " + (PROTOCOL_HEADER.length + 1) +
+                    " and " + MAX_DATAGRAM_SIZE + " bytes, got " + maxDatagramSize);
+        }
+        if (flushIntervalMillis <= 0) {
+            throw new IllegalArgumentException("Flush interval must be positive, got " + flushIntervalMillis);
+        }
+
+        this.address = address;
+        this.socket = new DatagramSocket();
+        this.buffer = new byte[maxDatagramSize];
+        this.packet = new DatagramPacket(buffer, 0, address);
+
+        flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, FLUSH_THREAD_NAME);
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flush, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+
+        shutdownHook = ShutdownHooks.register(this::flush, FLUSH_THREAD_NAME + "-shutdown");
+    }
+
+    @Override
+    protected synchronized boolean sendDocument(byte[] document, int offset, int length) {
+        int entryLength = PROTOCOL_HEADER.length + length;
+
+        if (position > 0 && position + 1 + entryLength > buffer.length) {
+            flush();
+        }
+
+        if (entryLength > buffer.length) {
+            // Too large to pack with anything else, so send it on its own
+            byte[] payload = new byte[entryLength];
+            System.arraycopy(PROTOCOL_HEADER, 0, payload, 0, PROTOCOL_HEADER.length);
+            System.arraycopy(document, offset, payload, PROTOCOL_HEADER.length, length);
+            return send(new DatagramPacket(payload, entryLength, address));
+        }
+
+        if (position > 0) {
+            buffer[position++] = DOCUMENT_DELIMITER;
+        }
+        System.arraycopy(PROTOCOL_HEADER, 0, buffer, position, PROTOCOL_HEADER.length);
+        position += PROTOCOL_HEADER.length;
+        System.arraycopy(document, offset, buffer, position, length);
+        position += length;
+
+        if (position == buffer.length) {
+            flush();
+        }
+        return true;
+    }
+
+    /**
+     * Sends any buffered documents immediately.
+     */
+    public synchronized void flush() {
+        if (position == 0) {
+            return;
+        }
+        packet.setLength(position);
+        send(packet);
+        position = 0;
+    }
+
+    /**
+     * Sends whatever is buffered and stops the periodic flush.
+     */
+    public void shutdown() {
+        ShutdownHooks.unregister(shutdownHook);
+        flusher.shutdown();
+        flush();
+    }
+
+    private boolean send(DatagramPacket datagram) {
+        try {
+            socket.send(datagram);
+            return true;
+        } catch (IOException e) {
+            log.error("Failed to send packed X-Ray documents to the daemon at " + address, e);
+            return false;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.amazonaws.xray.agent.runtime.emitters;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Growable byte buffer that protocol buffer messages are written into field by field, without generated classes.
+ * Nested messages are written in place, and their length prefix is filled in once they are complete.
+ */
+final class ProtobufBuffer {
+    private static final int WIRE_TYPE_VARINT = 0;
+    private static final int WIRE_TYPE_FIXED64 = 1;
+    private static final int WIRE_TYPE_LENGTH_DELIMITED = 2;
+    private static final int WIRE_TYPE_FIXED32 = 5;
+
+    private byte[] bytes;
+    private int length;
+
+    ProtobufBuffer(int initialCapacity) {
+        bytes = new byte[initialCapacity];
+    }
+
+    byte[] array() {
+        return bytes;
+    }
+
+    int length() {
+        return length;
+    }
+
+    int capacity() {
+        return bytes.length;
+    }
+
+    void reset() {
+        length = 0;
+    }
+
+    /**
+     * @return a copy of the bytes written so far
+     */
+    byte[] toByteArray() {
+        return Arrays.copyOf(bytes, length);
+    }
+
+    void writeVarintField(int field, long value) {
+        writeTag(field, WIRE_TYPE_VARINT);
+        writeVarint(value);
+    }
+
+    void writeBoolField(int field, boolean value) {
+        writeVarintField(field, value ? 1 : 0);
+    }
+
+    void writeFixed64Field(int field, long value) {
+        writeTag(field, WIRE_TYPE_FIXED64);
+        ensureCapacity(8);
+        for (int i = 0; i < 8; i++) {
+            bytes[length++] = (byte) (value >>> (8 * i));
+        }
+    }
+
+    void writeFixed32Field(int field, int value) {
+        writeTag(field, WIRE_TYPE_FIXED32);
+        ensureCapacity(4);
+        for (int i = 0; i < 4; i++) {
+            bytes[length++] = (byte) (value >>> (8 * i));
+        }
+    }
+
+    void writeDoubleField(int field, double value) {
+        writeFixed64Field(field, Double.doubleToRawLongBits(value));
+    }
+
+    void writeStringField(int field, String value) {
+        writeBytesField(field, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    void writeBytesField(int field, byte[] value) {
+        writeBytesField(field, value, 0, value.length);
+    }
+
+    void writeBytesField(int field, byte[] value, int offset, int count) {
+        writeTag(field, WIRE_TYPE_LENGTH_DELIMITED);
+        writeVarint(count);
+        ensureCapacity(count);
+        System.arraycopy(value, offset, bytes, length, count);
+        length += count;
+    }
+
+    /**
+     * Starts a nested message, which must be closed with {@link #endMessage(int)} once its fields are written.
+     *
+     * @return the position to pass to {@link #endMessage(int)}
+     */
+    int beginMessage(int field) {
+        writeTag(field, WIRE_TYPE_LENGTH_DELIMITED);
+        ensureCapacity(1);
+        // Most messages fit in a one byte length, anything longer is moved up once complete
+        return length++;
+    }
+
+    void endMessage(int start) {
+        int messageLength = length - start - 1;
+        int prefixLength = varintSize(messageLength);
+        if (prefixLength > 1) {
+            ensureCapacity(prefixLength - 1);
+            System.arraycopy(bytes, start + 1, bytes, start + prefixLength, messageLength);
+        }
+        int end = start + prefixLength + messageLength;
+        length = start;
+        writeVarint(messageLength);
+        length = end;
+    }
+
+    private void writeTag(int field, int wireType) {
+        writeVarint((field << 3) | wireType);
+    }
+
+    private void writeVarint(long value) {
+        ensureCapacity(10);
+        while ((value & ~0x7FL) != 0) {
+            bytes[length++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        bytes[length++] = (byte) value;
+    }
+
+    private static int varintSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            size++;
+            value >>>= 7;
+        }
+        return size;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (length + extra > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + extra));
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.amazonaws.xray.agent.runtime.emitters;
+
+/**
+ * Registers the shutdown hooks emitters use to send what they still hold when the application exits, and removes them
+ * when an emitter is shut down earlier, as when the agent is configured again, so that the hook doesn't keep the
+ * emitter reachable for the rest of the JVM's life.
+ */
+final class ShutdownHooks {
+    private ShutdownHooks() {
+    }
+
+    static Thread register(Runnable action, String threadName) {
+        Thread hook = new Thread(action, threadName);
+        Runtime.getRuntime().addShutdownHook(hook);
+        return hook;
+    }
+
+    static void unregister(Thread hook) {
+        try {
+            Runtime.getRuntime().removeShutdownHook(hook);
+        } catch (IllegalStateException e) {
+            // The JVM is already shutting down, possibly running this very hook
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package com.amazonaws.xray.agent.runtime.emitters;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Fixed-size ring of length-prefixed documents stored in a memory-mapped file. When it is full, the oldest documents
+ * are discarded to make room. The read and write positions are kept in the file's header, so documents spilled
+ * before a restart are still replayed afterwards.
+ *
+ * Documents are replayed from a cursor that starts at the oldest document, and stay in the file until their delivery
+ * is confirmed, so that documents sent while the daemon is still unreachable can be replayed again.
+ */
+final class SpillFile implements Closeable {
+    private static final Log log = LogFactory.getLog(SpillFile.class);
+
+    private static final int MAGIC = 0x58525350;
+    private static final int MAGIC_OFFSET = 0;
+    private static final int CAPACITY_OFFSET = 4;
+    private static final int HEAD_OFFSET = 8;
+    private static final int TAIL_OFFSET = 16;
+    static final int HEADER_SIZE = 24;
+
+    private static final int LENGTH_PREFIX_SIZE = 4;
+
+    private final RandomAccessFile file;
+    private final MappedByteBuffer mapped;
+    // Positioned view for bulk copies, since Java 8 has no absolute bulk get and put
+    private final ByteBuffer view;
+    private final byte[] lengthBytes = new byte[LENGTH_PREFIX_SIZE];
+    private final int capacity;
+
+    // Logical positions that only ever grow, their remainder by capacity is the offset into the data region
+    private long head;
+    private long tail;
+    // Documents between the head and this position have been replayed but not yet confirmed. It isn't saved, since
+    // unconfirmed documents are replayed again after a restart.
+    private long replayPosition;
+    private long droppedCount;
+
+    /**
+     * @param path - The file to map, created if it does not exist
+     * @param maxBytes - Total size of the file, including its header
+     * @throws IOException if the file cannot be created or mapped
+     */
+    SpillFile(File path, int maxBytes) throws IOException {
+        if (maxBytes <= HEADER_SIZE + LENGTH_PREFIX_SIZE) {
+            throw new IllegalArgumentException("Spill file size must be more than " +
+                    (HEADER_SIZE + LENGTH_PREFIX_SIZE) + " bytes, got " + maxBytes);
+        }
+
+        file = new RandomAccessFile(path, "rw");
+        try {
+            file.setLength(maxBytes);
+            mapped = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, maxBytes);
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+        view = mapped.duplicate();
+        capacity = maxBytes - HEADER_SIZE;
+
+        if (mapped.getInt(MAGIC_OFFSET) == MAGIC && mapped.getInt(CAPACITY_OFFSET) == capacity && isConsistent(
+                mapped.getLong(HEAD_OFFSET), mapped.getLong(TAIL_OFFSET))) {
+            head = mapped.getLong(HEAD_OFFSET);
+            tail = mapped.getLong(TAIL_OFFSET);
+            if (head != tail) {
+                log.info("Found " + (tail - head) + " bytes of spilled X-Ray documents in " + path + " to replay");
+            }
+        } else {
+            mapped.putInt(MAGIC_OFFSET, MAGIC);
+            mapped.putInt(CAPACITY_OFFSET, capacity);
+            head = 0;
+            tail = 0;
+            savePositions();
+        }
+        replayPosition = head;
+    }
+
+    /**
+     * Appends a document, discarding the oldest ones if needed to make room.
+     *
+     * @return false if the document is larger than the whole file
+     */
+    synchronized boolean append(byte[] document, int offset, int length) {
+        long recordSize = LENGTH_PREFIX_SIZE + (long) length;
+        if (recordSize > capacity) {
+            return false;
+        }
+
+        while (capacity - (tail - head) < recordSize) {
+            head += LENGTH_PREFIX_SIZE + readLength(head);
+            droppedCount++;
+        }
+        replayPosition = Math.max(replayPosition, head);
+
+        writeLength(tail, length);
+        write(tail + LENGTH_PREFIX_SIZE, document, offset, length);
+        tail += recordSize;
+        savePositions();
+        return true;
+    }
+
+    /**
+     * @return a copy of the oldest document, or null if there is none
+     */
+    synchronized byte[] peek() {
+        if (head == tail) {
+            return null;
+        }
+        byte[] document = new byte[readLength(head)];
+        read(head + LENGTH_PREFIX_SIZE, document);
+        return document;
+    }
+
+    /**
+     * Discards the oldest document.
+     */
+    synchronized void remove() {
+        if (head != tail) {
+            head += LENGTH_PREFIX_SIZE + readLength(head);
+            replayPosition = Math.max(replayPosition, head);
+            savePositions();
+        }
+    }
+
+    /**
+     * @return a copy of the oldest document that hasn't been replayed, which stays in the file until the replay is
+     * confirmed, or null if there is none
+     */
+    synchronized byte[] nextToReplay() {
+        if (replayPosition == tail) {
+            return null;
+        }
+        byte[] document = new byte[readLength(replayPosition)];
+        read(replayPosition + LENGTH_PREFIX_SIZE, document);
+        replayPosition += LENGTH_PREFIX_SIZE + document.length;
+        return document;
+    }
+
+    /**
+     * @return true if documents have been replayed since the last confirmation
+     */
+    synchronized boolean hasUnconfirmedReplay() {
+        return replayPosition != head;
+    }
+
+    /**
+     * Discards the documents replayed since the last confirmation, which have been delivered.
+     */
+    synchronized void confirmReplay() {
+        head = replayPosition;
+        savePositions();
+    }
+
+    /**
+     * Keeps the documents replayed since the last confirmation, which may not have been delivered, to replay them
+     * again.
+     */
+    synchronized void rewindReplay() {
+        replayPosition = head;
+    }
+
+    synchronized boolean isEmpty() {
+        return head == tail;
+    }
+
+    /**
+     * @return the number of documents discarded because the file was full
+     */
+    synchronized long getDroppedCount() {
+        return droppedCount;
+    }
+
+    @Override
+    public void close() throws IOException {
+        // The mapping itself stays valid until it is garbage collected, there is no portable way to unmap it earlier
+        file.close();
+    }
+
+    private boolean isConsistent(long savedHead, long savedTail) {
+        if (savedHead < 0 || savedTail < savedHead || savedTail - savedHead > capacity) {
+            return false;
+        }
+        // Walk the records once so that a torn write can't make us read garbage lengths later
+        long position = savedHead;
+        while (position < savedTail) {
+            long length = readLength(position);
+            if (length < 0 || position + LENGTH_PREFIX_SIZE + length > savedTail) {
+                return false;
+            }
+            position += LENGTH_PREFIX_SIZE + length;
+        }
+        return true;
+    }
+
+    private void savePositions() {
+        mapped.putLong(HEAD_OFFSET, head);
+        mapped.putLong(TAIL_OFFSET, tail);
+    }
+
+    private int readLength(long position) {
+        read(position, lengthBytes);
+        return (lengthBytes[0] & 0xFF) << 24 | (lengthBytes[1] & 0xFF) << 16 | (lengthBytes[2] & 0xFF) << 8
+                | (lengthBytes[3] & 0xFF);
+    }
+
+    private void writeLength(long position, int length) {
+        lengthBytes[0] = (byte) (length >>> 24);
+        lengthBytes[1] = (byte) (length >>> 16);
+        lengthBytes[2] = (byte) (length >>> 8);
+        lengthBytes[3] = (byte) length;
+        write(position, lengthBytes, 0, LENGTH_PREFIX_SIZE);
+    }
+
+    private void write(long position, byte[] source, int offset, int length) {
+        int start = (int) (position % capacity);
+        int firstPart = Math.min(length, capacity - start);
+        ((Buffer) view).position(HEADER_SIZE + start);
+        view.put(source, offset, firstPart);
+        if (firstPart < length) {
+            ((Buffer) view).position(HEADER_SIZE);
+            view.put(source, offset + firstPart, length - firstPart);
+        }
+    }
+
+    private void read(long position, byte[] destination) {
+        int start = (int) (position % capacity);
+        int firstPart = Math.min(destination.length, capacity - start);
+        ((Buffer) view).position(HEADER_SIZE + start);
+        view.get(destination, 0, firstPart);
+        if (firstPart < destination.length) {
+            ((Buffer) view).position(HEADER_SIZE);
+            view.get(destination, firstPart, destination.length - firstPart);
+        }
+    }
+}
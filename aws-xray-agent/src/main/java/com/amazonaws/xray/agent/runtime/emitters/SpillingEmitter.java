@@ -0,0 +1,247 @@
+package com.amazonaws.xray.agent.runtime.emitters;
+
+import com.amazonaws.xray.entities.Entity;
+import com.amazonaws.xray.entities.Segment;
+import com.amazonaws.xray.entities.Subsegment;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * UDP emitter that keeps documents it could not deliver in a {@link SpillFile} and replays them, oldest first, once
+ * the daemon is reachable again.
+ *
+ * UDP has no acknowledgements, so an unreachable daemon is detected through the ICMP port unreachable errors the
+ * local host reports back on the connected channel. These errors surface on the socket operation after the send that
+ * caused them, so every send is followed by a non-blocking read to pick them up. A document is spilled if that read
+ * reports an error. This catches a daemon that is down on the same host or pod, which is the common case. A daemon
+ * on an unreachable network does not always produce such errors, and documents sent to it are lost like with the
+ * SDK's UDP emitter.
+ *
+ * For a daemon on another host, an error may only arrive after the read that follows the send which caused it. So
+ * replayed documents are kept in the spill file until the next replay, a replay interval later, reads without an
+ * error. If that read reports one, they're replayed again, so a replayed document may be delivered more than once.
+ */
+public class SpillingEmitter extends DocumentEmitter {
+    private static final Log log = LogFactory.getLog(SpillingEmitter.class);
+
+    /**
+     * Smallest spill file accepted from configuration. Anything smaller holds barely a single document.
+     */
+    public static final int MIN_SPILL_FILE_SIZE = 64 * 1024;
+
+    private static final String REPLAY_THREAD_NAME = "xray-agent-emitter-replay";
+    private static final long REPLAY_INTERVAL_MILLIS = 1000;
+
+    /**
+     * Number of documents replayed while holding the send lock, so that request threads sending synchronously are
+     * not held up by a long replay.
+     */
+    private static final int REPLAY_BATCH_SIZE = 100;
+
+    private final InetSocketAddress address;
+    private final DatagramChannel channel;
+    private final SpillFile spillFile;
+    private final ScheduledExecutorService replayer;
+
+    // Guarded by this
+    private final ByteBuffer sendBuffer = ByteBuffer.allocateDirect(PackingEmitter.MAX_DATAGRAM_SIZE);
+    private final ByteBuffer probeBuffer = ByteBuffer.allocateDirect(1);
+    private boolean spilling;
+
+    /**
+     * @param address - Address of the daemon
+     * @param spillPath - File to spill undeliverable documents to, created if it does not exist
+     * @param spillMaxBytes - Size of the spill file
+     * @throws IOException if the channel or the spill file cannot be opened
+     */
+    public SpillingEmitter(InetSocketAddress address, File spillPath, int spillMaxBytes) throws IOException {
+        this(address, new SpillFile(spillPath, spillMaxBytes), REPLAY_INTERVAL_MILLIS);
+    }
+
+    SpillingEmitter(InetSocketAddress address, SpillFile spillFile, long replayIntervalMillis) throws IOException {
+        this.address = address;
+        this.spillFile = spillFile;
+        try {
+            channel = DatagramChannel.open();
+            channel.connect(address);
+            // Only affects the read that checks for delivery errors, UDP writes never block for long
+            channel.configureBlocking(false);
+        } catch (IOException e) {
+            spillFile.close();
+            throw e;
+        }
+
+        replayer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, REPLAY_THREAD_NAME);
+            thread.setDaemon(true);
+            return thread;
+        });
+        replayer.scheduleWithFixedDelay(this::replay, replayIntervalMillis, replayIntervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    protected synchronized boolean sendDocument(byte[] document, int offset, int length) {
+        if (PROTOCOL_HEADER.length + length > PackingEmitter.MAX_DATAGRAM_SIZE) {
+            log.error("Unable to send X-Ray document of " + (PROTOCOL_HEADER.length + length) + " bytes, which " +
+                    "exceeds the maximum datagram size of " + PackingEmitter.MAX_DATAGRAM_SIZE + " bytes");
+            return false;
+        }
+
+        // Anything still waiting to be replayed goes first, so new documents queue up behind it
+        if (spillFile.isEmpty() && send(document, offset, length)) {
+            return true;
+        }
+        return spill(document, offset, length);
+    }
+
+    /**
+     * Serializes an entity straight into the spill file, for entities that could not even be queued for sending.
+     *
+     * @return false if the entity could not be spilled either
+     */
+    public boolean spill(Entity entity) {
+        try {
+            JsonBuffer document = entity instanceof Segment ? serializer.serialize((Segment) entity) :
+                    serializer.serializeStreamed((Subsegment) entity);
+            return spill(document.array(), 0, document.length());
+        } catch (Exception e) {
+            log.error("Failed to spill X-Ray entity " + entity.getName(), e);
+            return false;
+        }
+    }
+
+    /**
+     * @return the number of spilled documents discarded because the spill file was full
+     */
+    public long getDroppedCount() {
+        return spillFile.getDroppedCount();
+    }
+
+    /**
+     * Confirms the documents the previous replay sent, then sends spilled documents, oldest first, until the spill
+     * file is empty or a send fails.
+     */
+    void replay() {
+        try {
+            if (confirmReplay()) {
+                while (replayBatch()) {
+                    Thread.yield();
+                }
+            }
+        } catch (Exception e) {
+            // Never let an unexpected error cancel the scheduled replay
+            log.error("Failed to replay spilled X-Ray documents", e);
+        }
+    }
+
+    /**
+     * Stops replaying and releases the channel and spill file. Documents still in the spill file are kept for the
+     * next start.
+     */
+    public void shutdown() {
+        replayer.shutdown();
+        synchronized (this) {
+            try {
+                channel.close();
+                spillFile.close();
+            } catch (IOException e) {
+                log.debug("Failed to close X-Ray spilling emitter", e);
+            }
+        }
+    }
+
+    /**
+     * Confirms the delivery of the documents the previous replay sent, whose errors have surfaced by now.
+     *
+     * @return false if they weren't delivered, in which case they're kept to be replayed again
+     */
+    private synchronized boolean confirmReplay() {
+        if (spillFile.hasUnconfirmedReplay()) {
+            if (!probe()) {
+                spillFile.rewindReplay();
+                return false;
+            }
+            spillFile.confirmReplay();
+        }
+        if (spilling && spillFile.isEmpty()) {
+            spilling = false;
+            log.info("Replayed all spilled X-Ray documents to the daemon at " + address);
+        }
+        return true;
+    }
+
+    /**
+     * @return true if more documents are waiting to be replayed
+     */
+    private synchronized boolean replayBatch() {
+        for (int i = 0; i < REPLAY_BATCH_SIZE; i++) {
+            byte[] document = spillFile.nextToReplay();
+            if (document == null) {
+                return false;
+            }
+            if (!send(document, 0, document.length)) {
+                spillFile.rewindReplay();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private synchronized boolean spill(byte[] document, int offset, int length) {
+        if (!spilling) {
+            spilling = true;
+            log.warn("Unable to reach the X-Ray daemon at " + address + ", spilling documents to disk until it is " +
+                    "reachable again");
+        }
+        if (!spillFile.append(document, offset, length)) {
+            log.error("X-Ray document of " + length + " bytes does not fit in the spill file, dropping it");
+            return false;
+        }
+        return true;
+    }
+
+    private boolean send(byte[] document, int offset, int length) {
+        // Called through Buffer so that class files built on newer JDKs still link against Java 8's ByteBuffer
+        ((Buffer) sendBuffer).clear();
+        sendBuffer.put(PROTOCOL_HEADER).put(document, offset, length);
+        ((Buffer) sendBuffer).flip();
+
+        try {
+            if (channel.write(sendBuffer) == 0) {
+                // Socket send buffer is full
+                return false;
+            }
+        } catch (IOException e) {
+            log.debug("Failed to send X-Ray document to the daemon at " + address, e);
+            return false;
+        }
+        return probe();
+    }
+
+    /**
+     * @return false if an error is pending for a document sent earlier
+     */
+    private boolean probe() {
+        try {
+            // Surfaces a pending port unreachable error as a PortUnreachableException. The daemon never sends
+            // anything back, so there is no real data to lose here.
+            ((Buffer) probeBuffer).clear();
+            channel.read(probeBuffer);
+            return true;
+        } catch (IOException e) {
+            log.debug("Failed to send X-Ray document to the daemon at " + address, e);
+            return false;
+        }
+    }
+}
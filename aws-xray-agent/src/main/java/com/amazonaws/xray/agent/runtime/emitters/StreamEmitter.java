@@ -0,0 +1,326 @@
+package com.amazonaws.xray.agent.runtime.emitters;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+
+/**
+ * Emitter that streams documents to a local daemon or sidecar over a single reused TCP or Unix domain socket
+ * connection, which unlike UDP does not drop documents when the receiver falls behind. Each document is framed as a
+ * 4-byte big-endian length followed by the same header + document payload a UDP datagram would carry.
+ *
+ * Request threads only append frames to an in-memory batch. A background thread writes everything batched since its
+ * previous write in one go, and reconnects with exponential backoff when the connection is lost. Batches that fail to
+ * write are sent again in full on the next connection, so a receiver may see a document twice but never a torn
+ * frame. While disconnected, documents are buffered up to a fixed number of bytes and dropped beyond that.
+ */
+public class StreamEmitter extends DocumentEmitter {
+    private static final Log log = LogFactory.getLog(StreamEmitter.class);
+
+    public static final String UNIX_SCHEME = "unix://";
+    public static final String TCP_SCHEME = "tcp://";
+
+    private static final String THREAD_NAME = "xray-agent-emitter-stream";
+    private static final int LENGTH_PREFIX_SIZE = 4;
+    private static final int INITIAL_BATCH_SIZE = 16 * 1024;
+    private static final long SHUTDOWN_TIMEOUT_MILLIS = 2000;
+
+    static final int DEFAULT_MAX_BUFFERED_BYTES = 4 * 1024 * 1024;
+    static final long INITIAL_BACKOFF_MILLIS = 100;
+    static final long MAX_BACKOFF_MILLIS = 30_000;
+
+    private final SocketAddress address;
+    private final String addressDescription;
+    private final int maxBufferedBytes;
+    private final Thread writer;
+    private final Thread shutdownHook;
+
+    private final Object lock = new Object();
+    // Guarded by lock. Producers append to pending while the writer thread owns writing, and both count towards the
+    // buffer limit until the batch being written has made it out.
+    private byte[] pending = new byte[INITIAL_BATCH_SIZE];
+    private int pendingLength;
+    private int writingLength;
+    private long droppedCount;
+    private boolean running = true;
+
+    // Only accessed by the writer thread
+    private byte[] writing = new byte[INITIAL_BATCH_SIZE];
+    @Nullable
+    private SocketChannel channel;
+    private long backoffMillis = INITIAL_BACKOFF_MILLIS;
+
+    /**
+     * @param address - Address of the daemon, as returned by {@link #parseAddress(String)}
+     */
+    public StreamEmitter(SocketAddress address) {
+        this(address, DEFAULT_MAX_BUFFERED_BYTES);
+    }
+
+    StreamEmitter(SocketAddress address, int maxBufferedBytes) {
+        this.address = address;
+        this.addressDescription = address instanceof InetSocketAddress ?
+                ((InetSocketAddress) address).getHostString() + ":" + ((InetSocketAddress) address).getPort() :
+                address.toString();
+        this.maxBufferedBytes = maxBufferedBytes;
+
+        writer = new Thread(this::writeLoop, THREAD_NAME);
+        writer.setDaemon(true);
+        writer.start();
+
+        shutdownHook = ShutdownHooks.register(this::shutdown, THREAD_NAME + "-shutdown");
+    }
+
+    /**
+     * Parses daemon addresses of the form {@code unix:///path/to/socket} or {@code tcp://host:port}.
+     *
+     * @return the socket address, or null if the address has neither scheme and should be used for UDP
+     * @throws IllegalArgumentException if the address is malformed, or is a Unix domain socket address and this JVM
+     * does not support them
+     */
+    @Nullable
+    public static SocketAddress parseAddress(String daemonAddress) {
+        if (daemonAddress.startsWith(UNIX_SCHEME)) {
+            String path = daemonAddress.substring(UNIX_SCHEME.length());
+            if (path.isEmpty()) {
+                throw new IllegalArgumentException("Missing socket path in daemon address " + daemonAddress);
+            }
+            return unixAddress(path);
+        }
+
+        if (daemonAddress.startsWith(TCP_SCHEME)) {
+            String hostAndPort = daemonAddress.substring(TCP_SCHEME.length());
+            int separator = hostAndPort.lastIndexOf(':');
+            if (separator <= 0 || separator == hostAndPort.length() - 1) {
+                throw new IllegalArgumentException("Expected tcp://host:port but got daemon address " + daemonAddress);
+            }
+            String host = hostAndPort.substring(0, separator);
+            if (host.startsWith("[") && host.endsWith("]")) {
+                host = host.substring(1, host.length() - 1);
+            }
+            // Resolved on every connection attempt, so that a restarted sidecar at a new address is picked up
+            return InetSocketAddress.createUnresolved(host, Integer.parseInt(hostAndPort.substring(separator + 1)));
+        }
+
+        return null;
+    }
+
+    @Override
+    protected boolean sendDocument(byte[] document, int offset, int length) {
+        int frameLength = LENGTH_PREFIX_SIZE + PROTOCOL_HEADER.length + length;
+        synchronized (lock) {
+            if (!running) {
+                return false;
+            }
+            if (pendingLength + writingLength + frameLength > maxBufferedBytes) {
+                droppedCount++;
+                if (log.isDebugEnabled()) {
+                    log.debug("X-Ray stream emitter buffer is full, dropping document of " + length + " bytes");
+                }
+                return false;
+            }
+
+            if (pendingLength + frameLength > pending.length) {
+                pending = Arrays.copyOf(pending, Math.min(maxBufferedBytes,
+                        Math.max(pending.length * 2, pendingLength + frameLength)));
+            }
+            int payloadLength = frameLength - LENGTH_PREFIX_SIZE;
+            pending[pendingLength++] = (byte) (payloadLength >>> 24);
+            pending[pendingLength++] = (byte) (payloadLength >>> 16);
+            pending[pendingLength++] = (byte) (payloadLength >>> 8);
+            pending[pendingLength++] = (byte) payloadLength;
+            System.arraycopy(PROTOCOL_HEADER, 0, pending, pendingLength, PROTOCOL_HEADER.length);
+            pendingLength += PROTOCOL_HEADER.length;
+            System.arraycopy(document, offset, pending, pendingLength, length);
+            pendingLength += length;
+
+            // The writer only waits when there was nothing to write
+            if (pendingLength == frameLength) {
+                lock.notifyAll();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of documents dropped because the buffer was full
+     */
+    public long getDroppedCount() {
+        synchronized (lock) {
+            return droppedCount;
+        }
+    }
+
+    /**
+     * Stops the background thread after it has tried to write whatever is still buffered, waiting a bounded amount of
+     * time, and closes the connection.
+     */
+    public void shutdown() {
+        ShutdownHooks.unregister(shutdownHook);
+        synchronized (lock) {
+            running = false;
+            lock.notifyAll();
+        }
+        try {
+            writer.join(SHUTDOWN_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeLoop() {
+        int batchLength = 0;
+        while (true) {
+            if (batchLength == 0) {
+                synchronized (lock) {
+                    while (pendingLength == 0 && running) {
+                        try {
+                            lock.wait();
+                        } catch (InterruptedException e) {
+                            running = false;
+                        }
+                    }
+                    if (pendingLength == 0) {
+                        break;
+                    }
+                    // Swap buffers so producers can keep appending while this batch is written
+                    byte[] batch = pending;
+                    pending = writing;
+                    writing = batch;
+                    writingLength = pendingLength;
+                    pendingLength = 0;
+                    batchLength = writingLength;
+                }
+            }
+
+            if (write(batchLength)) {
+                batchLength = 0;
+                synchronized (lock) {
+                    writingLength = 0;
+                }
+            } else if (!awaitBackoff()) {
+                break;
+            }
+        }
+        closeChannel();
+    }
+
+    /**
+     * @return true if the batch was written in full
+     */
+    private boolean write(int length) {
+        try {
+            if (channel == null) {
+                channel = openChannel();
+                log.info("Connected to the X-Ray daemon at " + addressDescription);
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(writing, 0, length);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            backoffMillis = INITIAL_BACKOFF_MILLIS;
+            return true;
+        } catch (IOException e) {
+            // Repeats for as long as the daemon is down, so keep the stack trace out of the warning
+            log.warn("Failed to write to the X-Ray daemon at " + addressDescription + ", retrying in " +
+                    backoffMillis + "ms: " + e);
+            log.debug("X-Ray daemon write failure", e);
+            closeChannel();
+            return false;
+        }
+    }
+
+    /**
+     * Waits out the current backoff and doubles it for the next failure.
+     *
+     * @return false if the emitter was shut down meanwhile
+     */
+    private boolean awaitBackoff() {
+        long deadline = System.currentTimeMillis() + backoffMillis;
+        backoffMillis = Math.min(backoffMillis * 2, MAX_BACKOFF_MILLIS);
+        synchronized (lock) {
+            long remaining;
+            while (running && (remaining = deadline - System.currentTimeMillis()) > 0) {
+                try {
+                    lock.wait(remaining);
+                } catch (InterruptedException e) {
+                    running = false;
+                }
+            }
+            return running;
+        }
+    }
+
+    private SocketChannel openChannel() throws IOException {
+        SocketChannel opened;
+        SocketAddress target = address;
+        if (address instanceof InetSocketAddress) {
+            InetSocketAddress inetAddress = (InetSocketAddress) address;
+            target = new InetSocketAddress(inetAddress.getHostString(), inetAddress.getPort());
+            opened = SocketChannel.open();
+            // Writes are already batched, so don't let Nagle's algorithm hold them back
+            opened.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        } else {
+            opened = openUnixChannel();
+        }
+
+        try {
+            opened.connect(target);
+            return opened;
+        } catch (IOException | RuntimeException e) {
+            opened.close();
+            throw e;
+        }
+    }
+
+    private void closeChannel() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.debug("Failed to close X-Ray daemon connection", e);
+            }
+            channel = null;
+        }
+    }
+
+    /**
+     * Unix domain socket channels exist from Java 16 on, so they are only reachable through reflection here.
+     */
+    private static SocketChannel openUnixChannel() throws IOException {
+        try {
+            ProtocolFamily unix = StandardProtocolFamily.valueOf("UNIX");
+            return (SocketChannel) SocketChannel.class.getMethod("open", ProtocolFamily.class).invoke(null, unix);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Failed to open Unix domain socket channel", e.getCause());
+        } catch (ReflectiveOperationException | IllegalArgumentException e) {
+            throw new IOException("Unix domain sockets require Java 16 or later", e);
+        }
+    }
+
+    private static SocketAddress unixAddress(String path) {
+        try {
+            return (SocketAddress) Class.forName("java.net.UnixDomainSocketAddress")
+                    .getMethod("of", String.class)
+                    .invoke(null, path);
+        } catch (InvocationTargetException e) {
+            throw new IllegalArgumentException("Invalid Unix domain socket path " + path, e.getCause());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalArgumentException("Unix domain sockets require Java 16 or later", e);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.amazonaws.xray.agent.runtime.emitters;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+/**
+ * Emitter that sends each document to the daemon over one of several connected {@link DatagramChannel}s, chosen by a
+ * hash of the sending thread. A single channel serializes concurrent writers, so striping keeps request threads on
+ * many-core hosts from queueing behind each other. Each thread assembles its datagrams in its own reusable direct
+ * buffer, which avoids both a per-send allocation and the JDK's copy of heap buffers into a temporary direct one.
+ */
+public class StripedChannelEmitter extends DocumentEmitter {
+    private static final Log log = LogFactory.getLog(StripedChannelEmitter.class);
+
+    private static final int INITIAL_BUFFER_SIZE = 8 * 1024;
+
+    private final InetSocketAddress address;
+    private final DatagramChannel[] channels;
+
+    // Grown on demand, so threads that only ever send small documents don't pin a full datagram's worth of memory
+    private final ThreadLocal<ByteBuffer> buffers = ThreadLocal.withInitial(() ->
+            ByteBuffer.allocateDirect(INITIAL_BUFFER_SIZE));
+
+    /**
+     * @param address - Address of the daemon
+     * @param channelCount - Number of channels to stripe sends across
+     * @throws IOException if a channel cannot be opened
+     */
+    public StripedChannelEmitter(InetSocketAddress address, int channelCount) throws IOException {
+        if (channelCount <= 0) {
+            throw new IllegalArgumentException("Channel count must be positive, got " + channelCount);
+        }
+
+        this.address = address;
+        this.channels = new DatagramChannel[channelCount];
+        try {
+            for (int i = 0; i < channelCount; i++) {
+                // Connecting skips the per-send address checks the JDK does for unconnected channels
+                channels[i] = DatagramChannel.open().connect(address);
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    @Override
+    protected boolean sendDocument(byte[] document, int offset, int length) {
+        int datagramLength = PROTOCOL_HEADER.length + length;
+        if (datagramLength > PackingEmitter.MAX_DATAGRAM_SIZE) {
+            log.error("Unable to send X-Ray document of " + datagramLength + " bytes, which exceeds the maximum " +
+                    "datagram size of " + PackingEmitter.MAX_DATAGRAM_SIZE + " bytes");
+            return false;
+        }
+
+        ByteBuffer buffer = buffers.get();
+        if (buffer.capacity() < datagramLength) {
+            buffer = ByteBuffer.allocateDirect(Math.min(Integer.highestOneBit(datagramLength - 1) << 1,
+                    PackingEmitter.MAX_DATAGRAM_SIZE));
+            buffers.set(buffer);
+        }
+        // Called through Buffer so that class files built on newer JDKs still link against Java 8's ByteBuffer
+        ((Buffer) buffer).clear();
+        buffer.put(PROTOCOL_HEADER).put(document, offset, length);
+        ((Buffer) buffer).flip();
+
+        try {
+            channelForCurrentThread().write(buffer);
+            return true;
+        } catch (IOException e) {
+            log.error("Failed to send X-Ray document to the daemon at " + address, e);
+            return false;
+        }
+    }
+
+    /**
+     * Closes all channels. Documents sent afterwards are dropped.
+     */
+    public void close() {
+        for (DatagramChannel channel : channels) {
+            if (channel == null) {
+                continue;
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.debug("Failed to close X-Ray emitter channel", e);
+            }
+        }
+    }
+
+    private DatagramChannel channelForCurrentThread() {
+        int hash = System.identityHashCode(Thread.currentThread());
+        // Spread the high bits so that thread hashes which differ only there still land on different stripes
+        hash ^= hash >>> 16;
+        return channels[(hash & Integer.MAX_VALUE) % channels.length];
+    }
+}
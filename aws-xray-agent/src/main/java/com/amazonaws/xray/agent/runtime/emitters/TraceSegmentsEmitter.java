@@ -0,0 +1,80 @@
+package com.amazonaws.xray.agent.runtime.emitters;
+
+import java.net.MalformedURLException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Emitter that exports documents without a daemon, by POSTing them in batches to an endpoint that speaks the X-Ray
+ * PutTraceSegments API. Requests are not signed, so the endpoint has to be one that accepts unsigned calls and signs
+ * them itself, like the daemon's or the OpenTelemetry Collector's AWS proxy.
+ *
+ * Documents are queued by request threads and exported by a background thread in batches of up to
+ * {@value #MAX_BATCH_SIZE}, see {@link HttpBatchExporter} for how batches are formed, retried and bounded.
+ */
+public class TraceSegmentsEmitter extends DocumentEmitter {
+    /**
+     * The most documents PutTraceSegments accepts in one call.
+     */
+    public static final int MAX_BATCH_SIZE = 50;
+
+    private static final String THREAD_NAME = "xray-agent-emitter-http";
+    private static final String PUT_TRACE_SEGMENTS_PATH = "/TraceSegments";
+    private static final byte[] BODY_PREFIX = "{\"TraceSegmentDocuments\":[".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] BODY_SUFFIX = "]}".getBytes(StandardCharsets.US_ASCII);
+    private static final int INITIAL_BODY_SIZE = 64 * 1024;
+
+    private final HttpBatchExporter exporter;
+
+    // Only accessed by the exporter thread
+    private final JsonBuffer body = new JsonBuffer(INITIAL_BODY_SIZE);
+
+    /**
+     * @param endpoint - Base URL of the PutTraceSegments endpoint, e.g. http://127.0.0.1:2000
+     * @param maxQueuedDocuments - The most documents to hold while they wait to be exported
+     * @param flushIntervalMillis - How long to wait for a full batch before sending a smaller one
+     * @throws MalformedURLException if the endpoint is not an HTTP or HTTPS URL
+     */
+    public TraceSegmentsEmitter(String endpoint, int maxQueuedDocuments, long flushIntervalMillis)
+            throws MalformedURLException {
+        exporter = new HttpBatchExporter(HttpBatchExporter.endpointUrl(endpoint, PUT_TRACE_SEGMENTS_PATH),
+                "application/json", this::writeBody, MAX_BATCH_SIZE, maxQueuedDocuments, flushIntervalMillis,
+                THREAD_NAME);
+    }
+
+    @Override
+    protected boolean sendDocument(byte[] document, int offset, int length) {
+        return exporter.enqueue(Arrays.copyOfRange(document, offset, offset + length));
+    }
+
+    /**
+     * @return the number of documents dropped, either because the queue was full or their export failed
+     */
+    public long getDroppedCount() {
+        return exporter.getDroppedCount();
+    }
+
+    /**
+     * Stops the background thread after it has tried once to export whatever is still queued, waiting a bounded
+     * amount of time.
+     */
+    public void shutdown() {
+        exporter.shutdown();
+    }
+
+    private ByteBuffer writeBody(List<byte[]> batch) {
+        body.reset();
+        body.writeRaw(BODY_PREFIX);
+        for (int i = 0; i < batch.size(); i++) {
+            if (i > 0) {
+                body.writeByte(',');
+            }
+            byte[] document = batch.get(i);
+            body.writeString(document, 0, document.length);
+        }
+        body.writeRaw(BODY_SUFFIX);
+        return ByteBuffer.wrap(body.array(), 0, body.length());
+    }
+}
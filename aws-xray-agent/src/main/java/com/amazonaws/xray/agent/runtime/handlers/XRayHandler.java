@@ -2,6 +2,7 @@ package com.amazonaws.xray.agent.runtime.handlers;
 
 import com.amazonaws.xray.AWSXRay;
 import com.amazonaws.xray.AWSXRayRecorder;
+import com.amazonaws.xray.agent.runtime.models.XRayTransactionSlot;
 import com.amazonaws.xray.agent.runtime.models.XRayTransactionState;
 import com.amazonaws.xray.entities.Entity;
 import com.amazonaws.xray.entities.Segment;
@@ -13,7 +14,6 @@ import com.amazonaws.xray.strategy.sampling.SamplingResponse;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.checkerframework.checker.nullness.qual.Nullable;
-import software.amazon.disco.agent.concurrent.TransactionContext;
 
 import java.util.Collections;
 import java.util.HashMap;
@@ -27,11 +27,6 @@ import java.util.Optional;
 public abstract class XRayHandler implements XRayHandlerInterface {
     private static final Log log = LogFactory.getLog(XRayHandler.class);
 
-    /**
-     * DiSCo TransactionContext key for XRay State data.
-     */
-    private static final String XRAY_STATE = "DiSCoXRayState";
-
     /**
      * AWS key to get X-Ray map
      */
@@ -42,6 +37,13 @@ public abstract class XRayHandler implements XRayHandlerInterface {
      */
     private static final String AUTO_INSTRUMENTATION_KEY = "auto_instrumentation";
 
+    /**
+     * The agent's xray map, built from the last xray map the SDK put in a segment. The SDK's map is the same for every
+     * segment a recorder begins, so all of them share a single unmodifiable copy rather than each getting its own.
+     */
+    @Nullable
+    private static volatile AgentXRayMap agentXRayMap;
+
     /**
      * Trace Header key for X-Ray upstream propagation.
      */
@@ -53,15 +55,40 @@ public abstract class XRayHandler implements XRayHandlerInterface {
      * @return the current transaction's transaction state. Create one if none exists.
      */
     protected XRayTransactionState getTransactionState() {
-        XRayTransactionState transactionState = (XRayTransactionState) TransactionContext.getMetadata(XRAY_STATE);
+        XRayTransactionSlot slot = XRayTransactionSlot.get();
+        XRayTransactionState transactionState = slot.getTransactionState();
         if (transactionState == null) {
             transactionState = new XRayTransactionState();
-            TransactionContext.putMetadata(XRAY_STATE, transactionState);
+            slot.setTransactionState(transactionState);
         }
 
         return transactionState;
     }
 
+    /**
+     * Checks the sampling decision recorded in the transaction state, without creating the state if it doesn't exist.
+     * @return false if the current transaction's segment was not sampled, true otherwise.
+     */
+    protected boolean isTransactionSampled() {
+        XRayTransactionSlot slot = XRayTransactionSlot.peek();
+        XRayTransactionState transactionState = slot != null ? slot.getTransactionState() : null;
+        return transactionState == null || transactionState.isSampled();
+    }
+
+    /**
+     * Builds the trace header to propagate downstream from an unsampled transaction. Since nothing is recorded for
+     * the downstream call, the header only carries the trace ID and the sampling decision.
+     * @return the trace header, or null if there is no segment in progress.
+     */
+    @Nullable
+    protected TraceHeader buildUnsampledTraceHeader() {
+        Optional<Segment> segment = AWSXRay.getCurrentSegmentOptional();
+        if (!segment.isPresent()) {
+            return null;
+        }
+        return new TraceHeader(segment.get().getTraceId(), null, TraceHeader.SampleDecision.NOT_SAMPLED);
+    }
+
     /**
      * Creates a segment using trace header information.
      * @param segmentName - The segment name to name the segment.
@@ -87,9 +114,7 @@ public abstract class XRayHandler implements XRayHandlerInterface {
 
         Map<String, Object> xrayMap = (Map<String, Object>) awsMap.get(XRAY_AWS_KEY);
         if (xrayMap != null) {
-            Map<String, Object> agentMap = new HashMap<>(xrayMap);
-            agentMap.put(AUTO_INSTRUMENTATION_KEY, true);
-            segment.putAws(XRAY_AWS_KEY, Collections.unmodifiableMap(agentMap));
+            segment.putAws(XRAY_AWS_KEY, getAgentXRayMap(xrayMap));
         } else {
             log.debug("Unable to retrieve X-Ray attribute map from segment.");
         }
@@ -97,6 +122,26 @@ public abstract class XRayHandler implements XRayHandlerInterface {
         return segment;
     }
 
+    private static Map<String, Object> getAgentXRayMap(Map<String, Object> sdkXRayMap) {
+        AgentXRayMap cached = agentXRayMap;
+        if (cached == null || !cached.isBuiltFrom(sdkXRayMap)) {
+            cached = new AgentXRayMap(sdkXRayMap);
+            agentXRayMap = cached;
+        }
+        return cached.agentMap;
+    }
+
+    /**
+     * Begins a segment that records nothing, for transactions that aren't sampled. It only carries the trace ID so
+     * that the NOT_SAMPLED decision can still be propagated downstream.
+     * @param traceID - The upstream trace ID, or null to generate a new one.
+     * @return the no-op segment
+     */
+    protected Segment beginNoOpSegment(@Nullable TraceID traceID) {
+        AWSXRayRecorder recorder = getGlobalRecorder();
+        return recorder.beginNoOpSegment(traceID != null ? traceID : TraceID.create(recorder));
+    }
+
     protected AWSXRayRecorder getGlobalRecorder() {
         return AWSXRay.getGlobalRecorder();
     }
@@ -111,7 +156,14 @@ public abstract class XRayHandler implements XRayHandlerInterface {
         return AWSXRay.getCurrentSegment();
     }
 
+    /**
+     * Ends the current segment, once the handlers have finished what they kept open or tracked for it.
+     */
     protected void endSegment() {
+        XRayTransactionSlot slot = XRayTransactionSlot.peek();
+        if (slot != null) {
+            slot.runSegmentEndActions();
+        }
         AWSXRay.endSegment();
     }
 
@@ -140,8 +192,17 @@ public abstract class XRayHandler implements XRayHandlerInterface {
      */
     protected boolean getSamplingDecision(XRayTransactionState transactionState) {
         // If the trace header string is null, then this is the origin call.
-        TraceHeader traceHeader = TraceHeader.fromString(transactionState.getTraceHeader());
+        return getSamplingDecision(transactionState, TraceHeader.fromString(transactionState.getTraceHeader()));
+    }
 
+    /**
+     * Calculate the sampling decision from an already parsed upstream trace header, falling back to the sampling
+     * strategy with the transaction state's URL, method, host, and service name if it carries no decision.
+     * @param transactionState The current state of the X-Ray transaction.
+     * @param traceHeader The trace header parsed from the transaction state.
+     * @return True if we should sample, false otherwise.
+     */
+    protected boolean getSamplingDecision(XRayTransactionState transactionState, TraceHeader traceHeader) {
         TraceHeader.SampleDecision sampleDecision = traceHeader.getSampled();
         if (TraceHeader.SampleDecision.SAMPLED.equals(sampleDecision)) {
             log.debug("Received SAMPLED decision from upstream X-Ray trace header");
@@ -190,4 +251,24 @@ public abstract class XRayHandler implements XRayHandlerInterface {
 
         return traceHeader;
     }
+
+    private static final class AgentXRayMap {
+        private final Map<String, Object> sdkMapSnapshot;
+        private final Map<String, Object> agentMap;
+
+        private AgentXRayMap(Map<String, Object> sdkMap) {
+            this.sdkMapSnapshot = new HashMap<>(sdkMap);
+            Map<String, Object> agentMap = new HashMap<>(sdkMap);
+            agentMap.put(AUTO_INSTRUMENTATION_KEY, true);
+            this.agentMap = Collections.unmodifiableMap(agentMap);
+        }
+
+        /**
+         * The SDK's map is compared by content rather than identity, since it's copied into each segment and can
+         * change when a new recorder is installed.
+         */
+        private boolean isBuiltFrom(Map<String, Object> sdkXRayMap) {
+            return sdkMapSnapshot.equals(sdkXRayMap);
+        }
+    }
 }
@@ -3,6 +3,7 @@ package com.amazonaws.xray.agent.runtime.handlers.downstream;
 import com.amazonaws.Request;
 import com.amazonaws.Response;
 import com.amazonaws.xray.agent.runtime.handlers.XRayHandler;
+import com.amazonaws.xray.entities.TraceHeader;
 import com.amazonaws.xray.handlers.TracingHandler;
 import software.amazon.disco.agent.event.Event;
 import software.amazon.disco.agent.event.ServiceRequestEvent;
@@ -39,11 +40,24 @@ public class AWSHandler extends XRayHandler {
             return;
         }
 
+        // Unsampled transactions only need to propagate the sampling decision downstream
+        if (!isTransactionSampled()) {
+            TraceHeader header = buildUnsampledTraceHeader();
+            if (header != null) {
+                awsRequest.addHeader(TraceHeader.HEADER_KEY, header.toString());
+            }
+            return;
+        }
+
         tracingHandler.beforeRequest(awsRequest);
     }
 
     @Override
     public void handleResponse(Event event) {
+        if (!isTransactionSampled()) {
+            return;
+        }
+
         ServiceResponseEvent responseEvent = (ServiceResponseEvent) event;
         Request awsReq = (Request) responseEvent.getRequest().getRequest();
         Response awsResp = (Response) responseEvent.getResponse();
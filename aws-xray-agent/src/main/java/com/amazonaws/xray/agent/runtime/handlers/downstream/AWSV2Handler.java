@@ -70,6 +70,15 @@ public class AWSV2Handler extends XRayHandler {
             return;
         }
 
+        // Unsampled transactions only need to propagate the sampling decision downstream
+        if (!isTransactionSampled()) {
+            TraceHeader traceHeader = buildUnsampledTraceHeader();
+            if (traceHeader != null) {
+                requestEvent.replaceHeader(TraceHeader.HEADER_KEY, traceHeader.toString());
+            }
+            return;
+        }
+
         // Begin subsegment
         Subsegment subsegment = beginSubsegment(serviceName);
         subsegment.setNamespace(Namespace.AWS.toString());
@@ -186,6 +195,10 @@ public class AWSV2Handler extends XRayHandler {
 
     @Override
     public void handleResponse(Event event) {
+        if (!isTransactionSampled()) {
+            return;
+        }
+
         AwsServiceDownstreamResponseEvent responseEvent = (AwsServiceDownstreamResponseEvent) event;
         Subsegment subsegment = getSubsegmentOptional().orElse(null);
         if (subsegment == null) {
@@ -0,0 +1,173 @@
+package com.amazonaws.xray.agent.runtime.handlers.downstream;
+
+import com.amazonaws.xray.sql.SqlSubsegments;
+import com.blogspot.mydailyjava.weaklockfree.WeakConcurrentMap;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.lang.reflect.Method;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The parts of a JDBC connection's metadata that are recorded on every SQL subsegment and don't change over the
+ * connection's lifetime. Some drivers make a round trip to the database for each {@link DatabaseMetaData} lookup, so
+ * they're looked up once per physical connection and cached until the connection is garbage collected. Connections
+ * from pools that don't expose the physical connection share the metadata cached for their database and user.
+ */
+final class ConnectionMetadata {
+    private static final Log log = LogFactory.getLog(ConnectionMetadata.class);
+
+    private static final String GET_INNERMOST_DELEGATE = "getInnermostDelegate";
+    // Visible for testing
+    static final int MAX_CACHED_DATABASES = 64;
+
+    private static final WeakConcurrentMap<Connection, ConnectionMetadata> metadataMap
+            = new WeakConcurrentMap.WithInlinedExpunction<>();
+    // Whether connections of the class are pool wrappers with a getInnermostDelegate method
+    private static final WeakConcurrentMap<Class<?>, Boolean> delegatingClasses
+            = new WeakConcurrentMap.WithInlinedExpunction<>();
+    // Keyed by URL and user
+    private static final LruCache<List<String>, ConnectionMetadata> databaseMetadataCache
+            = new LruCache<>(MAX_CACHED_DATABASES);
+
+    // Null if the URL couldn't be parsed, in which case subsegments get the default name
+    @Nullable
+    private final String hostSuffix;
+    private final Map<String, Object> sqlParams;
+
+    private ConnectionMetadata(DatabaseMetaData metadata) throws SQLException {
+        String url = metadata.getURL();
+        String host = null;
+        try {
+            if (url != null) {
+                URI normalizedUri = new URI(new URI(url).getSchemeSpecificPart());
+                host = "@" + normalizedUri.getHost();
+            }
+        } catch (URISyntaxException e) {
+            log.warn("Unable to parse database URI. Falling back to default '" + SqlSubsegments.DEFAULT_DATABASE_NAME
+                    + "' for subsegment name.", e);
+        }
+        hostSuffix = host;
+
+        Map<String, Object> params = new HashMap<>();
+        params.put(SqlSubsegments.URL, url);
+        params.put(SqlSubsegments.USER, metadata.getUserName());
+        params.put(SqlSubsegments.DRIVER_VERSION, metadata.getDriverVersion());
+        params.put(SqlSubsegments.DATABASE_TYPE, metadata.getDatabaseProductName());
+        params.put(SqlSubsegments.DATABASE_VERSION, metadata.getDatabaseProductVersion());
+        sqlParams = Collections.unmodifiableMap(params);
+    }
+
+    /**
+     * Retrieves the cached metadata of the connection, looking it up from the driver if this is the first query on
+     * the underlying physical connection.
+     *
+     * @param connection The connection a query is executed on, which may be a pool's wrapper.
+     * @return the connection's metadata
+     * @throws SQLException if the driver fails to provide the metadata
+     */
+    static ConnectionMetadata forConnection(Connection connection) throws SQLException {
+        Connection physicalConnection = unwrap(connection);
+        if (physicalConnection == null) {
+            return forDatabase(connection.getMetaData());
+        }
+        ConnectionMetadata metadata = metadataMap.get(physicalConnection);
+        if (metadata == null) {
+            metadata = new ConnectionMetadata(connection.getMetaData());
+            metadataMap.put(physicalConnection, metadata);
+        }
+        return metadata;
+    }
+
+    /**
+     * Retrieves the cached metadata of the connections to a database as a user, for connections whose pool doesn't
+     * expose the physical connection. The URL and user are looked up on every query then, but the rest of the
+     * metadata is shared by every connection to the database.
+     */
+    private static ConnectionMetadata forDatabase(DatabaseMetaData databaseMetaData) throws SQLException {
+        List<String> key = Arrays.asList(databaseMetaData.getURL(), databaseMetaData.getUserName());
+        ConnectionMetadata metadata = databaseMetadataCache.get(key);
+        if (metadata == null) {
+            metadata = new ConnectionMetadata(databaseMetaData);
+            databaseMetadataCache.put(key, metadata);
+        }
+        return metadata;
+    }
+
+    /**
+     * The catalog isn't cached with the rest of the metadata, since it can be changed on an open connection.
+     *
+     * @param connection The connection a query is executed on.
+     * @return the name of the subsegment for a query on this connection
+     * @throws SQLException if the driver fails to provide the catalog
+     */
+    String getSubsegmentName(Connection connection) throws SQLException {
+        return hostSuffix == null ? SqlSubsegments.DEFAULT_DATABASE_NAME : connection.getCatalog() + hostSuffix;
+    }
+
+    /**
+     * @return the immutable SQL fields shared by every subsegment for this connection
+     */
+    Map<String, Object> getSqlParams() {
+        return sqlParams;
+    }
+
+    /**
+     * Connection pools hand out a new wrapper each time a connection is borrowed, so the cache is keyed by the
+     * connection it wraps instead, when the pool exposes it. DBCP's wrappers unwrap to themselves, but expose the
+     * connection through {@code getInnermostDelegate}, unless the pool disallows access to it.
+     *
+     * @return the physical connection, which is the connection itself if it isn't a wrapper, or null if it's a
+     * wrapper that hides the connection it wraps
+     */
+    @Nullable
+    private static Connection unwrap(Connection connection) {
+        try {
+            Connection unwrapped = connection.unwrap(Connection.class);
+            if (unwrapped != null && unwrapped != connection) {
+                return unwrapped;
+            }
+        } catch (SQLException | RuntimeException e) {
+            log.debug("Unable to unwrap connection, caching its metadata by the connection itself", e);
+        }
+
+        Class<?> connectionClass = connection.getClass();
+        Boolean delegating = delegatingClasses.get(connectionClass);
+        if (delegating == null) {
+            delegating = getInnermostDelegateMethod(connectionClass) != null;
+            delegatingClasses.put(connectionClass, delegating);
+        }
+        if (!delegating) {
+            return connection;
+        }
+
+        // The method isn't cached, since it would keep the class of the pool's wrapper from being unloaded
+        Method getInnermostDelegate = getInnermostDelegateMethod(connectionClass);
+        try {
+            Object delegate = getInnermostDelegate != null ? getInnermostDelegate.invoke(connection) : null;
+            return delegate instanceof Connection ? (Connection) delegate : null;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            log.debug("Unable to get the connection's delegate, caching its metadata by database", e);
+            return null;
+        }
+    }
+
+    @Nullable
+    private static Method getInnermostDelegateMethod(Class<?> connectionClass) {
+        try {
+            return connectionClass.getMethod(GET_INNERMOST_DELEGATE);
+        } catch (NoSuchMethodException | SecurityException e) {
+            return null;
+        }
+    }
+}
@@ -1,25 +1,26 @@
 package com.amazonaws.xray.agent.runtime.handlers.downstream;
 
 import com.amazonaws.xray.agent.runtime.handlers.XRayHandler;
+import com.amazonaws.xray.agent.runtime.models.XRayTransactionSlot;
 import com.amazonaws.xray.entities.Namespace;
 import com.amazonaws.xray.entities.Segment;
 import com.amazonaws.xray.entities.Subsegment;
 import com.amazonaws.xray.entities.TraceHeader;
-import org.apache.commons.logging.Log;
-import org.apache.commons.logging.LogFactory;
+import org.checkerframework.checker.nullness.qual.Nullable;
 import software.amazon.disco.agent.event.Event;
 import software.amazon.disco.agent.event.HttpServiceDownstreamRequestEvent;
 import software.amazon.disco.agent.event.HttpServiceDownstreamResponseEvent;
 
-import java.net.URI;
-import java.net.URISyntaxException;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
 
+/**
+ * Creates subsegments for outbound HTTP calls, except for the calls made within AWS SDK calls, which get their own
+ * subsegments, and calls to ignored paths, such as the X-Ray SDK's sampling calls. Whether a call is skipped is
+ * decided once when it's made, and carried to its response in the transaction's slot.
+ */
 public class HttpClientHandler extends XRayHandler {
-    private static final Log log = LogFactory.getLog(HttpClientHandler.class);
-
     // Request Fields
     private static final String URL_KEY = "url";
     private static final String METHOD_KEY = "method";
@@ -30,16 +31,46 @@ public class HttpClientHandler extends XRayHandler {
     private static final String CONTENT_LENGTH_KEY = "content_length";
     private static final String HTTP_RESPONSE_KEY = "response";
 
+    // Sized so that the attributes put in each map fit without a resize, and without the default table of 16
+    private static final int REQUEST_ATTRIBUTES_CAPACITY = 4;
+    private static final int RESPONSE_ATTRIBUTES_CAPACITY = 4;
+
+    private final HttpPathMatcher ignoredPaths;
+
+    public HttpClientHandler() {
+        this("");
+    }
+
+    /**
+     * @param ignoredPaths Comma-separated paths of calls that aren't traced, in addition to the X-Ray SDK's own.
+     */
+    public HttpClientHandler(String ignoredPaths) {
+        this.ignoredPaths = HttpPathMatcher.compile(ignoredPaths);
+    }
+
     @Override
     public void handleRequest(Event event) {
         HttpServiceDownstreamRequestEvent requestEvent = (HttpServiceDownstreamRequestEvent) event;
-        URI uri = getUriFromEvent(requestEvent);
 
-        if (isWithinAWSCall() || isXRaySamplingCall(uri) || isXRayPluginCall(uri)) {
+        // Unsampled transactions only need to propagate the sampling decision downstream
+        if (!isTransactionSampled()) {
+            TraceHeader header = buildUnsampledTraceHeader();
+            if (header != null) {
+                requestEvent.replaceHeader(TraceHeader.HEADER_KEY, header.toString());
+            }
+            return;
+        }
+
+        String url = requestEvent.getUri();
+        boolean skipped = isSkipped(url);
+        HttpCallState callState = getHttpCallState();
+        callState.request = requestEvent;
+        callState.skipped = skipped;
+        if (skipped) {
             return;
         }
 
-        String hostName = uri.getHost();
+        String hostName = HttpUrls.getHost(url);
         if (hostName == null) {
             // If we fail to acquire the hostname, we will use the entire URL/service name instead.
             // This is an indication that there's an issue with the request configuration so we
@@ -50,39 +81,21 @@ public class HttpClientHandler extends XRayHandler {
 
         // Adds http metadata and stores the Trace Header into the request header.
         if (subsegment != null) {
-            addRequestInformation(subsegment, requestEvent, uri);
+            addRequestInformation(subsegment, requestEvent, url);
         }
     }
 
-    /**
-     * Obtains the downstream call's Uri from the event. Fallsback to obtaining it from the
-     * HttpRequest object otherwise.
-     * @param requestEvent - The request event to get the Uri from
-     * @return The full URI of the downstream call.
-     */
-    private URI getUriFromEvent(HttpServiceDownstreamRequestEvent requestEvent) {
-        URI uri;
-        try {
-            uri = new URI(requestEvent.getUri());
-        } catch (URISyntaxException e) {
-            log.error("HttpClientHandler: Unable to generate URI from request event service; using request object's URI: "
-                    + requestEvent.getService());
-            uri = null;
-        }
-        return uri;
-    }
-
-    private static void addRequestInformation(Subsegment subsegment, HttpServiceDownstreamRequestEvent requestEvent, URI uri) {
+    private static void addRequestInformation(Subsegment subsegment, HttpServiceDownstreamRequestEvent requestEvent,
+                                              @Nullable String url) {
         subsegment.setNamespace(Namespace.REMOTE.toString());
         Segment parentSegment = subsegment.getParentSegment();
-        String url = uri.toString();
 
         TraceHeader header = new TraceHeader(parentSegment.getTraceId(),
                 parentSegment.isSampled() ? subsegment.getId() : null,
                 parentSegment.isSampled() ? TraceHeader.SampleDecision.SAMPLED : TraceHeader.SampleDecision.NOT_SAMPLED);
         requestEvent.replaceHeader(TraceHeader.HEADER_KEY, header.toString());
 
-        Map<String, Object> requestInformation = new HashMap<>();
+        Map<String, Object> requestInformation = new HashMap<>(REQUEST_ATTRIBUTES_CAPACITY);
         requestInformation.put(URL_KEY, url);
         requestInformation.put(METHOD_KEY, requestEvent.getMethod());
 
@@ -92,12 +105,23 @@ public class HttpClientHandler extends XRayHandler {
     @Override
     public void handleResponse(Event event) {
         HttpServiceDownstreamResponseEvent responseEvent = (HttpServiceDownstreamResponseEvent) event;
+        if (!isTransactionSampled()) {
+            return;
+        }
 
-        // Check again if this is an X-Ray sampling call or within an AWS call.
-        // By this time, the request handler would've executed the same logic and didn't generate a subsegment.
+        // Skip the response if its request was skipped
         HttpServiceDownstreamRequestEvent requestEvent = (HttpServiceDownstreamRequestEvent) responseEvent.getRequest();
-        URI uri = getUriFromEvent(requestEvent);
-        if (isWithinAWSCall() || isXRaySamplingCall(uri) || isXRayPluginCall(uri)) {
+        XRayTransactionSlot slot = XRayTransactionSlot.peek();
+        HttpCallState callState = slot != null ? (HttpCallState) slot.getHttpCallState() : null;
+        boolean skipped;
+        if (callState != null && callState.request == requestEvent) {
+            skipped = callState.skipped;
+            callState.request = null;
+        } else {
+            // Another call on another of the transaction's threads replaced the state, so decide again
+            skipped = isSkipped(requestEvent.getUri());
+        }
+        if (skipped) {
             return;
         }
 
@@ -109,7 +133,7 @@ public class HttpClientHandler extends XRayHandler {
     }
 
     private static void addResponseInformation(Subsegment subsegment, HttpServiceDownstreamResponseEvent responseEvent) {
-        Map<String, Object> responseInformation = new HashMap<>();
+        Map<String, Object> responseInformation = new HashMap<>(RESPONSE_ATTRIBUTES_CAPACITY);
 
         // Add exceptions
         if (responseEvent.getThrown() != null) {
@@ -163,24 +187,32 @@ public class HttpClientHandler extends XRayHandler {
     }
 
     /**
-     * Checks if the current call is an X-Ray sampling call
-     *
-     * @param uri URI of intercepted call
-     * @return true if this is a request made by X-Ray sampling
+     * @param url URL of intercepted call
+     * @return true if no subsegment is created for the call
      */
-    private boolean isXRaySamplingCall(URI uri) {
-        String uriPath = uri.getPath();
-        return uriPath != null && (uriPath.equals("/GetSamplingRules") || uriPath.equals("/SamplingTargets"));
+    private boolean isSkipped(@Nullable String url) {
+        return isWithinAWSCall() || ignoredPaths.matches(url);
+    }
+
+    private static HttpCallState getHttpCallState() {
+        XRayTransactionSlot slot = XRayTransactionSlot.get();
+        HttpCallState callState = (HttpCallState) slot.getHttpCallState();
+        if (callState == null) {
+            callState = new HttpCallState();
+            slot.setHttpCallState(callState);
+        }
+        return callState;
     }
 
     /**
-     * Checks if the current request is the one made by EKS plugin to Kubernetes endpoint
-     *
-     * @param uri URI of intercepted call
-     * @return true if this is a request made by EKS plugin
+     * The outbound call in progress for a transaction and whether it was skipped, stored once in the transaction's
+     * slot and then updated in place like the SQL handler's call state. HTTP clients don't make calls while they're
+     * making one, so a single call is tracked at a time.
      */
-    private boolean isXRayPluginCall(URI uri) {
-        String uriPath = uri.getPath();
-        return uriPath != null && uriPath.equals("/api/v1/namespaces/amazon-cloudwatch/configmaps/cluster-info");
+    private static final class HttpCallState {
+        // Only compared by identity with the response's request
+        @Nullable
+        Object request;
+        boolean skipped;
     }
 }
@@ -0,0 +1,110 @@
+package com.amazonaws.xray.agent.runtime.handlers.downstream;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Matches the paths of outbound HTTP calls that shouldn't be traced, such as the X-Ray SDK's own calls for sampling
+ * rules. It's compiled once from a comma-separated list of paths, where a path ending with {@code *} matches any path
+ * it's a prefix of, and then matches URLs in place, comparing lengths before characters.
+ *
+ * Paths are matched decoded, so a path with percent-encoded characters, which is rare, is decoded before it's
+ * matched rather than in place.
+ */
+public final class HttpPathMatcher {
+    /**
+     * Paths that are never traced: the X-Ray daemon's sampling APIs, and the Kubernetes endpoint the EKS plugin reads.
+     */
+    static final String DEFAULT_IGNORED_PATHS = "/GetSamplingRules,/SamplingTargets,"
+            + "/api/v1/namespaces/amazon-cloudwatch/configmaps/cluster-info";
+
+    private static final String PREFIX_WILDCARD = "*";
+
+    private final String[] paths;
+    private final String[] prefixes;
+
+    private HttpPathMatcher(String[] paths, String[] prefixes) {
+        this.paths = paths;
+        this.prefixes = prefixes;
+    }
+
+    /**
+     * @param ignoredPaths Paths to ignore in addition to the {@link #DEFAULT_IGNORED_PATHS}, separated by commas.
+     * @return the matcher for the paths
+     * @throws IllegalArgumentException if one of the paths isn't absolute
+     */
+    public static HttpPathMatcher compile(String ignoredPaths) {
+        List<String> paths = new ArrayList<>();
+        List<String> prefixes = new ArrayList<>();
+        addPaths(DEFAULT_IGNORED_PATHS, paths, prefixes);
+        addPaths(ignoredPaths, paths, prefixes);
+        return new HttpPathMatcher(paths.toArray(new String[0]), prefixes.toArray(new String[0]));
+    }
+
+    private static void addPaths(String ignoredPaths, List<String> paths, List<String> prefixes) {
+        for (String path : ignoredPaths.split(",")) {
+            path = path.trim();
+            if (path.isEmpty()) {
+                continue;
+            }
+            if (!path.startsWith("/")) {
+                throw new IllegalArgumentException("Ignored HTTP paths must start with '/': " + path);
+            }
+            if (path.endsWith(PREFIX_WILDCARD)) {
+                prefixes.add(path.substring(0, path.length() - PREFIX_WILDCARD.length()));
+            } else if (!paths.contains(path)) {
+                paths.add(path);
+            }
+        }
+    }
+
+    /**
+     * @param url The full URL of the outbound call.
+     * @return true if the URL's path is ignored
+     */
+    boolean matches(@Nullable String url) {
+        if (url == null) {
+            return false;
+        }
+        int pathStart = HttpUrls.getPathStart(url);
+        int pathEnd = HttpUrls.getPathEnd(url, pathStart);
+        int percentIndex = url.indexOf('%', pathStart);
+        if (percentIndex >= 0 && percentIndex < pathEnd) {
+            String decodedPath = decodePath(url);
+            if (decodedPath != null) {
+                return matches(decodedPath, 0, decodedPath.length());
+            }
+        }
+        return matches(url, pathStart, pathEnd - pathStart);
+    }
+
+    private boolean matches(String s, int pathStart, int pathLength) {
+        for (String path : paths) {
+            if (path.length() == pathLength && s.regionMatches(pathStart, path, 0, pathLength)) {
+                return true;
+            }
+        }
+        for (String prefix : prefixes) {
+            if (prefix.length() <= pathLength && s.regionMatches(pathStart, prefix, 0, prefix.length())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the decoded path of the URL, or null if it isn't a valid URI, in which case it's matched as it is
+     */
+    @Nullable
+    private static String decodePath(String url) {
+        try {
+            return new URI(url).getPath();
+        } catch (URISyntaxException e) {
+            return null;
+        }
+    }
+}
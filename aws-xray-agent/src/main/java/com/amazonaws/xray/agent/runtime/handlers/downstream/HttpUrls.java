@@ -0,0 +1,88 @@
+package com.amazonaws.xray.agent.runtime.handlers.downstream;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Finds the host and path of the URLs of outbound HTTP calls without parsing them into a {@link java.net.URI}, which
+ * validates and decodes every component. Only the host is copied out of the URL; the path is located by its bounds so
+ * that it can be matched in place.
+ */
+final class HttpUrls {
+    private HttpUrls() {
+    }
+
+    /**
+     * @return the URL's host, including the brackets of an IPv6 address, or null if it has no authority
+     */
+    @Nullable
+    static String getHost(@Nullable String url) {
+        if (url == null) {
+            return null;
+        }
+        int start = getAuthorityStart(url);
+        if (start < 0) {
+            return null;
+        }
+        int end = getAuthorityEnd(url, start);
+
+        // Skip the user info, then stop at the port
+        int at = url.lastIndexOf('@', end - 1);
+        if (at >= start) {
+            start = at + 1;
+        }
+        int hostEnd = end;
+        if (start < end && url.charAt(start) == '[') {
+            int closingBracket = url.indexOf(']', start);
+            if (closingBracket > 0 && closingBracket < end) {
+                hostEnd = closingBracket + 1;
+            }
+        } else {
+            int colon = url.indexOf(':', start);
+            if (colon >= 0 && colon < end) {
+                hostEnd = colon;
+            }
+        }
+        return hostEnd > start ? url.substring(start, hostEnd) : null;
+    }
+
+    /**
+     * @return the index the URL's path starts at, which is the end of the URL if it has no path
+     */
+    static int getPathStart(String url) {
+        int authorityStart = getAuthorityStart(url);
+        return authorityStart < 0 ? 0 : getAuthorityEnd(url, authorityStart);
+    }
+
+    /**
+     * @return the index the URL's path ends at, before its query or fragment
+     */
+    static int getPathEnd(String url, int pathStart) {
+        for (int i = pathStart; i < url.length(); i++) {
+            char c = url.charAt(i);
+            if (c == '?' || c == '#') {
+                return i;
+            }
+        }
+        return url.length();
+    }
+
+    private static int getAuthorityStart(String url) {
+        int colon = url.indexOf(':');
+        if (colon > 0 && url.startsWith("//", colon + 1)) {
+            return colon + 3;
+        } else if (url.startsWith("//")) {
+            return 2;
+        }
+        return -1;
+    }
+
+    private static int getAuthorityEnd(String url, int authorityStart) {
+        for (int i = authorityStart; i < url.length(); i++) {
+            char c = url.charAt(i);
+            if (c == '/' || c == '?' || c == '#') {
+                return i;
+            }
+        }
+        return url.length();
+    }
+}
@@ -0,0 +1,79 @@
+package com.amazonaws.xray.agent.runtime.handlers.downstream;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded concurrent cache that evicts approximately least recently used entries. Lookups are lock free and only
+ * mark the entry as recently used. When an insertion takes the cache over its size, whichever thread gets there
+ * first sweeps it with the CLOCK algorithm: entries used since the last sweep get a second chance, the rest are
+ * evicted. Other threads carry on without waiting for the sweep, so the cache can briefly hold a few extra entries.
+ *
+ * @param <K> the type of keys
+ * @param <V> the type of values
+ */
+final class LruCache<K, V> {
+    private final ConcurrentHashMap<K, Node<V>> map;
+    private final int maxSize;
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    LruCache(int maxSize) {
+        this.maxSize = maxSize;
+        this.map = new ConcurrentHashMap<>(maxSize + maxSize / 4);
+    }
+
+    @Nullable
+    V get(K key) {
+        Node<V> node = map.get(key);
+        if (node == null) {
+            return null;
+        }
+        // Avoid writing the shared flag on every hit
+        if (!node.used) {
+            node.used = true;
+        }
+        return node.value;
+    }
+
+    void put(K key, V value) {
+        map.put(key, new Node<>(value));
+        if (map.size() > maxSize && evictionLock.tryLock()) {
+            try {
+                evict();
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+    }
+
+    int size() {
+        return map.size();
+    }
+
+    private void evict() {
+        // The second pass is guaranteed to find entries to evict, since the first clears every flag it passes
+        for (int pass = 0; pass < 2 && map.size() > maxSize; pass++) {
+            Iterator<Node<V>> iterator = map.values().iterator();
+            while (iterator.hasNext() && map.size() > maxSize) {
+                Node<V> node = iterator.next();
+                if (node.used) {
+                    node.used = false;
+                } else {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    private static final class Node<V> {
+        final V value;
+        volatile boolean used;
+
+        Node(V value) {
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package com.amazonaws.xray.agent.runtime.handlers.downstream;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.sql.PreparedStatement;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Remembers the query each prepared statement was prepared with, so that it can be recorded when the statement is
+ * executed later. Statements are held weakly and their entries expunged once they're garbage collected.
+ *
+ * Applications that don't cache statements prepare the same few queries over and over. The queries are registered as
+ * returned by {@link SqlNormalizer}, whose cache hands out the same instance for the same query, so each distinct
+ * query is only retained once, however many statements were prepared with it. The number of entries is bounded by the
+ * {@code maxPreparedStatements} configuration. Once it's reached, entries of statements that were garbage collected
+ * are expunged first, and if that's not enough, entries are evicted until a tenth of the room is free again. Pools
+ * cache their statements and keep executing them long after they were prepared, which they never are again, so
+ * eviction goes by when the statements were last used rather than when they were registered: a statement executed
+ * since the last eviction gets a second chance, and the entries unused for longest are evicted first. Executing an
+ * evicted statement records a subsegment without its query.
+ */
+public final class PreparedStatementRegistry {
+    private static final PreparedStatementRegistry INSTANCE = new PreparedStatementRegistry();
+
+    // Visible for testing
+    static final int DEFAULT_MAX_ENTRIES = 100000;
+
+    // Each entry's value is its key, which holds the query and whether the statement was used since the last eviction
+    private final ConcurrentHashMap<Object, WeakKey> queries = new ConcurrentHashMap<>();
+    private final ReferenceQueue<PreparedStatement> collectedStatements = new ReferenceQueue<>();
+    // Orders the entries by when they were registered or last given a second chance, for eviction
+    private final AtomicLong registrations = new AtomicLong();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private final LongAdder evictionCount = new LongAdder();
+    private final LongAdder expungeCount = new LongAdder();
+    private volatile int maxEntries = DEFAULT_MAX_ENTRIES;
+
+    // Visible for testing
+    PreparedStatementRegistry() {
+    }
+
+    public static PreparedStatementRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @param maxEntries - The most statements to retain queries for, which takes effect on the next insertion
+     */
+    public void setMaxEntries(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * @param statement - The prepared statement
+     * @param query - The statement's query, normalized by {@link SqlNormalizer} so that it's shared with the other
+     *              statements prepared with it
+     */
+    void put(PreparedStatement statement, String query) {
+        expungeCollectedStatements();
+
+        WeakKey key = new WeakKey(statement, query, collectedStatements, registrations.getAndIncrement());
+        queries.put(key, key);
+
+        int maxEntries = this.maxEntries;
+        if (queries.size() > maxEntries && evictionLock.tryLock()) {
+            try {
+                evict(maxEntries - maxEntries / 10);
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+    }
+
+    @Nullable
+    String get(PreparedStatement statement) {
+        WeakKey key = queries.get(new LookupKey(statement));
+        if (key == null) {
+            return null;
+        }
+        // Avoid writing the shared flag on every execution
+        if (!key.used) {
+            key.used = true;
+        }
+        return key.query;
+    }
+
+    /**
+     * @return the number of prepared statements whose query is retained, including ones that have been garbage
+     * collected but not expunged yet
+     */
+    public int size() {
+        return queries.size();
+    }
+
+    /**
+     * @return the number of entries evicted because the registry was full
+     */
+    public long getEvictionCount() {
+        return evictionCount.sum();
+    }
+
+    /**
+     * @return the number of entries removed because their statement was garbage collected
+     */
+    public long getExpungeCount() {
+        return expungeCount.sum();
+    }
+
+    private void expungeCollectedStatements() {
+        Reference<? extends PreparedStatement> reference;
+        while ((reference = collectedStatements.poll()) != null) {
+            if (queries.remove(reference) != null) {
+                expungeCount.increment();
+            }
+        }
+    }
+
+    /**
+     * Expunges the entries of collected statements, including the ones the garbage collector hasn't queued yet, and
+     * then evicts entries until there are no more than the target size. Entries used since the last eviction are moved
+     * behind every other entry in the registration order, and then the oldest entries are evicted. Evicting is rare,
+     * once per tenth of the maximum entries registered, so sorting the registration order of the entries is cheap
+     * enough.
+     */
+    private void evict(int targetSize) {
+        expungeCollectedStatements();
+        for (Iterator<WeakKey> iterator = queries.values().iterator(); iterator.hasNext(); ) {
+            if (iterator.next().get() == null) {
+                iterator.remove();
+                expungeCount.increment();
+            }
+        }
+
+        int excess = queries.size() - targetSize;
+        if (excess <= 0) {
+            return;
+        }
+        for (WeakKey key : queries.values()) {
+            if (key.used) {
+                key.used = false;
+                key.registration = registrations.getAndIncrement();
+            }
+        }
+
+        long[] registrationOrder = new long[queries.size()];
+        int count = 0;
+        for (WeakKey key : queries.values()) {
+            if (count == registrationOrder.length) {
+                break;
+            }
+            registrationOrder[count++] = key.registration;
+        }
+        Arrays.sort(registrationOrder, 0, count);
+        long newestEvicted = registrationOrder[Math.min(excess, count) - 1];
+
+        for (Iterator<WeakKey> iterator = queries.values().iterator(); iterator.hasNext(); ) {
+            if (iterator.next().registration <= newestEvicted) {
+                iterator.remove();
+                evictionCount.increment();
+            }
+        }
+    }
+
+    /**
+     * Keys are compared by the identity of their statement, like an {@link java.util.IdentityHashMap}, since
+     * statements may implement {@code equals} in ways that don't distinguish them.
+     */
+    private static final class WeakKey extends WeakReference<PreparedStatement> {
+        private final int hashCode;
+        private final String query;
+        // Only changed while evicting, under the eviction lock
+        private long registration;
+        private volatile boolean used;
+
+        WeakKey(PreparedStatement statement, String query, ReferenceQueue<PreparedStatement> queue,
+                long registration) {
+            super(statement, queue);
+            this.hashCode = System.identityHashCode(statement);
+            this.query = query;
+            this.registration = registration;
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (other == this) {
+                return true;
+            }
+            PreparedStatement statement = get();
+            if (statement == null) {
+                return false;
+            } else if (other instanceof WeakKey) {
+                return ((WeakKey) other).get() == statement;
+            } else if (other instanceof LookupKey) {
+                return ((LookupKey) other).statement == statement;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Strongly referenced key for lookups, which avoids registering a reference with the garbage collector per lookup.
+     */
+    private static final class LookupKey {
+        private final PreparedStatement statement;
+
+        LookupKey(PreparedStatement statement) {
+            this.statement = statement;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(statement);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof WeakKey && ((WeakKey) other).get() == statement;
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package com.amazonaws.xray.agent.runtime.handlers.downstream;
+
+import com.amazonaws.xray.agent.runtime.models.XRayTransactionSlot;
+import com.amazonaws.xray.entities.Segment;
+import com.amazonaws.xray.entities.Subsegment;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Counts how many times each normalized statement is executed within a segment, and how long those executions take
+ * in total, to catch the N+1 pattern where an ORM runs one query per row of another query's results. Once a statement
+ * is executed more times than the {@code repeatedQueryThreshold} configuration, the segment is annotated with
+ * {@code sql_n_plus_one} so that affected traces can be searched for, and the statement's count and total time are
+ * recorded in the segment's {@code sql} metadata under {@code n_plus_one}.
+ *
+ * With {@code collapseRepeatedQueries} enabled, the executions of a statement past its first one over the threshold
+ * are folded into that execution's subsegment, the summary. The summary has ended by then, and may be streamed or
+ * serialized by an emitter at any time, so the collapsed executions are only counted as they complete, and recorded in
+ * the summary's {@code sql} metadata just before the segment ends. The summary is then extended to end with the last
+ * of them. If the summary was already streamed, they're recorded in the segment's {@code sql} metadata instead, under
+ * {@code collapsed_} followed by the summary's ID.
+ *
+ * The tracker is kept in the transaction's slot, which is shared by the threads a segment's queries may run on, and is
+ * dropped from it when the segment ends, along with the summary subsegments that refer back to the segment.
+ */
+final class RepeatedStatementTracker {
+    static final String ANNOTATION_KEY = "sql_n_plus_one";
+    static final String METADATA_NAMESPACE = "sql";
+    static final String METADATA_KEY = "n_plus_one";
+    static final String STATEMENT_KEY = "statement";
+    static final String COUNT_KEY = "count";
+    static final String TOTAL_TIME_KEY = "total_time";
+
+    // Recorded on the summary subsegment repeated executions are collapsed into
+    static final String COLLAPSED_COUNT_KEY = "collapsed_count";
+    static final String COLLAPSED_TIME_KEY = "collapsed_time";
+    // Recorded on the segment if the summary subsegment was streamed before the segment ended
+    static final String COLLAPSED_METADATA_KEY = "collapsed";
+    static final String COLLAPSED_END_TIME_KEY = "collapsed_end_time";
+
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    private final Segment segment;
+    private final ConcurrentHashMap<String, StatementStats> statements = new ConcurrentHashMap<>();
+
+    // Details of the statements over the threshold, which the segment's metadata is a view of
+    private final ConcurrentHashMap<String, Map<String, Object>> repeatedStatements = new ConcurrentHashMap<>();
+    private boolean annotated;
+
+    private RepeatedStatementTracker(Segment segment) {
+        this.segment = segment;
+    }
+
+    static RepeatedStatementTracker forSegment(Segment segment) {
+        XRayTransactionSlot slot = XRayTransactionSlot.get();
+        RepeatedStatementTracker tracker = (RepeatedStatementTracker) slot.getRepeatedStatementTracker();
+        if (tracker != null && tracker.segment == segment) {
+            return tracker;
+        }
+        synchronized (slot) {
+            tracker = (RepeatedStatementTracker) slot.getRepeatedStatementTracker();
+            if (tracker == null || tracker.segment != segment) {
+                RepeatedStatementTracker newTracker = new RepeatedStatementTracker(segment);
+                slot.setRepeatedStatementTracker(newTracker);
+                slot.addSegmentEndAction(() -> {
+                    if (slot.getRepeatedStatementTracker() == newTracker) {
+                        slot.setRepeatedStatementTracker(null);
+                    }
+                });
+                tracker = newTracker;
+            }
+            return tracker;
+        }
+    }
+
+    /**
+     * @param statement The normalized SQL text of a statement.
+     * @return the statistics of the statement's executions within the segment
+     */
+    StatementStats getStatement(String statement) {
+        return statements.computeIfAbsent(statement, StatementStats::new);
+    }
+
+    private void putRepeatedStatement(String statement, int count, long totalNanos) {
+        Map<String, Object> details = new HashMap<>(4);
+        details.put(STATEMENT_KEY, statement);
+        details.put(COUNT_KEY, count);
+        details.put(TOTAL_TIME_KEY, totalNanos / NANOS_PER_SECOND);
+
+        if (repeatedStatements.put(statement, Collections.unmodifiableMap(details)) == null) {
+            // Only the first statement to go over the threshold needs to add the annotation and metadata, the others
+            // show up through the metadata's view
+            synchronized (this) {
+                if (!annotated) {
+                    annotated = true;
+                    segment.putAnnotation(ANNOTATION_KEY, true);
+                    segment.putMetadata(METADATA_NAMESPACE, METADATA_KEY, repeatedStatements.values());
+                }
+            }
+        }
+    }
+
+    /**
+     * Executions of one normalized statement within the segment.
+     */
+    final class StatementStats {
+        private final String statement;
+        private int count;
+        private long totalNanos;
+
+        @Nullable
+        private Subsegment summary;
+        private int collapsedCount;
+        private long collapsedNanos;
+        private double collapsedEndTime;
+        @Nullable
+        private List<Throwable> collapsedExceptions;
+
+        private StatementStats(String statement) {
+            this.statement = statement;
+        }
+
+        /**
+         * @param threshold The number of executions of a statement allowed before it's considered repeated.
+         * @return whether the statement's next execution will take it over the threshold
+         */
+        synchronized boolean isRepeated(int threshold) {
+            return count >= threshold;
+        }
+
+        /**
+         * Records an execution of the statement, and the statement's details in the segment if it's now over the
+         * threshold.
+         *
+         * @param durationNanos How long the execution took.
+         * @param threshold The number of executions of a statement allowed before it's considered repeated.
+         */
+        synchronized void record(long durationNanos, int threshold) {
+            count++;
+            totalNanos += durationNanos;
+            if (count > threshold) {
+                putRepeatedStatement(statement, count, totalNanos);
+            }
+        }
+
+        /**
+         * @return the subsegment further executions are collapsed into, if there is one yet
+         */
+        @Nullable
+        synchronized Subsegment getSummary() {
+            return summary;
+        }
+
+        synchronized void setSummary(Subsegment summary) {
+            if (this.summary == null) {
+                this.summary = summary;
+            }
+        }
+
+        /**
+         * Folds an execution that wasn't given its own subsegment into the summary subsegment. The summary isn't
+         * changed until the segment ends, when {@link #putCollapsed} records what was folded into it.
+         *
+         * @param durationNanos How long the execution took.
+         * @param thrown The exception the execution failed with, if any.
+         */
+        synchronized void collapse(long durationNanos, @Nullable Throwable thrown) {
+            if (summary == null) {
+                return;
+            }
+            collapsedCount++;
+            collapsedNanos += durationNanos;
+            collapsedEndTime = System.currentTimeMillis() / 1000d;
+            if (thrown != null) {
+                if (collapsedExceptions == null) {
+                    collapsedExceptions = new ArrayList<>(2);
+                }
+                collapsedExceptions.add(thrown);
+            }
+            if (collapsedCount == 1) {
+                XRayTransactionSlot.get().addSegmentEndAction(this::putCollapsed);
+            }
+        }
+
+        /**
+         * Records the executions folded into the summary subsegment, in the summary unless it was already streamed,
+         * and in the segment otherwise.
+         */
+        private void putCollapsed() {
+            Subsegment summary;
+            int count;
+            double time;
+            double endTime;
+            List<Throwable> exceptions;
+            synchronized (this) {
+                summary = this.summary;
+                count = collapsedCount;
+                time = collapsedNanos / NANOS_PER_SECOND;
+                endTime = collapsedEndTime;
+                exceptions = collapsedExceptions;
+            }
+            if (summary == null) {
+                return;
+            }
+
+            if (!summary.isEmitted()) {
+                summary.putMetadata(METADATA_NAMESPACE, COLLAPSED_COUNT_KEY, count);
+                summary.putMetadata(METADATA_NAMESPACE, COLLAPSED_TIME_KEY, time);
+                if (exceptions != null) {
+                    for (Throwable thrown : exceptions) {
+                        summary.addException(thrown);
+                    }
+                }
+                summary.setEndTime(Math.max(summary.getEndTime(), endTime));
+                return;
+            }
+            if (!segment.isEmitted()) {
+                Map<String, Object> collapsed = new LinkedHashMap<>(4);
+                collapsed.put(COLLAPSED_COUNT_KEY, count);
+                collapsed.put(COLLAPSED_TIME_KEY, time);
+                collapsed.put(COLLAPSED_END_TIME_KEY, endTime);
+                segment.putMetadata(METADATA_NAMESPACE, COLLAPSED_METADATA_KEY + "_" + summary.getId(), collapsed);
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.amazonaws.xray.agent.runtime.handlers.downstream;
+
+import com.amazonaws.xray.agent.runtime.interceptors.ResultSetInterceptor;
+import com.amazonaws.xray.agent.runtime.models.XRayTransactionSlot;
+import com.amazonaws.xray.entities.Segment;
+import com.amazonaws.xray.entities.Subsegment;
+import software.amazon.disco.agent.concurrent.TransactionContext;
+
+import java.sql.ResultSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The rows fetched from a query's result set and the time spent fetching them, which the {@link ResultSetInterceptor}
+ * keeps counting as the application iterates over it. The counters are recorded in the query subsegment's {@code sql}
+ * metadata when the result set is closed, or when the segment ends for result sets that are still open then.
+ *
+ * The query subsegment has ended by then, and may already have been streamed if the segment has many subsegments, in
+ * which case anything added to it would never be sent. The counters are then recorded in the segment's {@code sql}
+ * metadata instead, under {@code result_set_} followed by the subsegment's ID.
+ *
+ * The stats are the counters the advice updates, and run as the advice closes the result set, so that the advice only
+ * needs the JDK's classes to record them.
+ */
+final class ResultSetFetchStats extends AtomicLongArray implements Runnable {
+    // Visible for testing
+    static final String METADATA_NAMESPACE = "sql";
+    static final String METADATA_KEY = "result_set";
+    static final String ROW_COUNT_KEY = "row_count";
+    static final String FETCH_TIME_KEY = "fetch_time";
+
+    // Result sets that are never closed stay registered until the segment ends, so there's a limit on how many
+    static final int MAX_TRACKED_RESULT_SETS = 256;
+
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    private final Subsegment subsegment;
+
+    // Visible for testing
+    ResultSetFetchStats(Subsegment subsegment) {
+        super(2);
+        this.subsegment = subsegment;
+    }
+
+    /**
+     * Starts counting the rows fetched from a result set.
+     *
+     * @param resultSet The result set returned by the query.
+     * @param subsegment The query's subsegment.
+     */
+    static void track(ResultSet resultSet, Subsegment subsegment) {
+        TrackedResultSets trackedResultSets = getTrackedResultSets();
+        if (trackedResultSets.add(resultSet, new ResultSetFetchStats(subsegment), MAX_TRACKED_RESULT_SETS)
+                && trackedResultSets.scheduleFlush()) {
+            XRayTransactionSlot.get().addSegmentEndAction(trackedResultSets::flush);
+        }
+    }
+
+    private static TrackedResultSets getTrackedResultSets() {
+        TrackedResultSets trackedResultSets = (TrackedResultSets)
+                TransactionContext.getMetadata(ResultSetInterceptor.TRACKED_RESULT_SETS_KEY);
+        if (trackedResultSets == null) {
+            trackedResultSets = new TrackedResultSets();
+            TransactionContext.putMetadata(ResultSetInterceptor.TRACKED_RESULT_SETS_KEY, trackedResultSets);
+        }
+        return trackedResultSets;
+    }
+
+    long getRowCount() {
+        return get(ResultSetInterceptor.ROW_COUNT_INDEX);
+    }
+
+    double getFetchTime() {
+        return get(ResultSetInterceptor.FETCH_NANOS_INDEX) / NANOS_PER_SECOND;
+    }
+
+    /**
+     * Records the counters, once the result set is closed or its segment ends.
+     */
+    @Override
+    public void run() {
+        Map<String, Object> fetchStats = new LinkedHashMap<>(4);
+        fetchStats.put(ROW_COUNT_KEY, getRowCount());
+        fetchStats.put(FETCH_TIME_KEY, getFetchTime());
+        if (!subsegment.isEmitted()) {
+            subsegment.putMetadata(METADATA_NAMESPACE, METADATA_KEY, fetchStats);
+            return;
+        }
+        Segment segment = subsegment.getParentSegment();
+        if (!segment.isEmitted()) {
+            segment.putMetadata(METADATA_NAMESPACE, METADATA_KEY + "_" + subsegment.getId(), fetchStats);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.amazonaws.xray.agent.runtime.handlers.downstream;
+
+import com.amazonaws.xray.agent.runtime.config.XRaySDKConfiguration;
+import com.amazonaws.xray.agent.runtime.handlers.XRayHandler;
+import com.amazonaws.xray.agent.runtime.models.XRayTransactionSlot;
+import com.amazonaws.xray.entities.Segment;
+import com.amazonaws.xray.entities.Subsegment;
+import software.amazon.disco.agent.event.Event;
+import software.amazon.disco.agent.event.ServiceDownstreamResponseEvent;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This handler processes DiSCo events with origin "SqlConnection." Such events are emitted when acquiring a
+ * connection with {@code DataSource.getConnection()}, which is also how connections are borrowed from pools like
+ * HikariCP and DBCP. The time spent waiting for connections is added up in the segment's
+ * {@code sql_connection_wait} annotation, in seconds. Most acquisitions are too quick to be worth a subsegment of
+ * their own, so one is only recorded when the wait reaches the {@code connectionWaitThresholdMillis} configuration,
+ * or when acquiring the connection failed.
+ */
+public class SqlConnectionHandler extends XRayHandler {
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    // Visible for testing
+    static final String SUBSEGMENT_NAME = "DataSource.getConnection";
+    static final String WAIT_ANNOTATION_KEY = "sql_connection_wait";
+    static final String METADATA_NAMESPACE = "sql";
+    static final String DATA_SOURCE_METADATA_KEY = "data_source";
+
+    /**
+     * Notes when the connection was requested. Data sources often delegate to another data source, such as a
+     * pool's, so only the outermost call is timed.
+     *
+     * @param event The request event dispatched from the dispatcher.
+     */
+    @Override
+    public void handleRequest(Event event) {
+        if (!isTransactionSampled()) {
+            return;
+        }
+
+        ConnectionAcquisition acquisition = getConnectionAcquisition();
+        if (acquisition.depth++ == 0) {
+            acquisition.startNanos = System.nanoTime();
+        }
+    }
+
+    /**
+     * Records the time spent waiting for the connection, as a subsegment if it was slow or failed.
+     *
+     * @param event The response event dispatched from the dispatcher.
+     */
+    @Override
+    public void handleResponse(Event event) {
+        if (!isTransactionSampled()) {
+            return;
+        }
+
+        ConnectionAcquisition acquisition = getConnectionAcquisition();
+        if (acquisition.depth <= 0 || --acquisition.depth > 0) {
+            return;
+        }
+        long waitNanos = System.nanoTime() - acquisition.startNanos;
+
+        // Connections acquired outside of a traced request, like by a pool's own threads, aren't recorded
+        Segment segment = getGlobalRecorder().getCurrentSegmentOptional().orElse(null);
+        if (segment == null) {
+            return;
+        }
+        addWaitTime(segment, waitNanos);
+
+        ServiceDownstreamResponseEvent responseEvent = (ServiceDownstreamResponseEvent) event;
+        Throwable thrown = responseEvent.getThrown();
+        long thresholdNanos = TimeUnit.MILLISECONDS.toNanos(
+                XRaySDKConfiguration.getInstance().getConnectionWaitThresholdMillis());
+        if (thrown == null && waitNanos < thresholdNanos) {
+            return;
+        }
+
+        // The subsegment is only created now that we know it's needed, so it's backdated to when the wait began
+        Subsegment subsegment = beginSubsegment(SUBSEGMENT_NAME);
+        subsegment.setStartTime(subsegment.getStartTime() - waitNanos / NANOS_PER_SECOND);
+        subsegment.putMetadata(METADATA_NAMESPACE, DATA_SOURCE_METADATA_KEY, responseEvent.getService());
+        if (thrown != null) {
+            subsegment.addException(thrown);
+        }
+        endSubsegment();
+    }
+
+    private static void addWaitTime(Segment segment, long waitNanos) {
+        // A request's connections may be acquired on several threads
+        synchronized (segment) {
+            Object total = segment.getAnnotations().get(WAIT_ANNOTATION_KEY);
+            double totalSeconds = total instanceof Number ? ((Number) total).doubleValue() : 0;
+            segment.putAnnotation(WAIT_ANNOTATION_KEY, totalSeconds + waitNanos / NANOS_PER_SECOND);
+        }
+    }
+
+    private static ConnectionAcquisition getConnectionAcquisition() {
+        XRayTransactionSlot slot = XRayTransactionSlot.get();
+        ConnectionAcquisition acquisition = (ConnectionAcquisition) slot.getConnectionAcquisition();
+        if (acquisition == null) {
+            acquisition = new ConnectionAcquisition();
+            slot.setConnectionAcquisition(acquisition);
+        }
+        return acquisition;
+    }
+
+    /**
+     * The connection acquisition in progress for a transaction, stored once in the transaction's slot and then
+     * updated in place.
+     */
+    private static final class ConnectionAcquisition {
+        int depth;
+        long startNanos;
+    }
+}
@@ -3,29 +3,48 @@ package com.amazonaws.xray.agent.runtime.handlers.downstream;
 import com.amazonaws.xray.AWSXRay;
 import com.amazonaws.xray.agent.runtime.config.XRaySDKConfiguration;
 import com.amazonaws.xray.agent.runtime.handlers.XRayHandler;
-import com.amazonaws.xray.agent.runtime.models.XRayTransactionState;
+import com.amazonaws.xray.agent.runtime.models.XRayTransactionSlot;
+import com.amazonaws.xray.entities.Entity;
+import com.amazonaws.xray.entities.Namespace;
+import com.amazonaws.xray.entities.Segment;
 import com.amazonaws.xray.entities.Subsegment;
 import com.amazonaws.xray.sql.SqlSubsegments;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import software.amazon.disco.agent.concurrent.TransactionContext;
+import org.checkerframework.checker.nullness.qual.Nullable;
 import software.amazon.disco.agent.event.Event;
 import software.amazon.disco.agent.event.ServiceDownstreamRequestEvent;
 import software.amazon.disco.agent.event.ServiceDownstreamResponseEvent;
 
+import java.sql.BatchUpdateException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Creates fully populated subsegments to represent downstream SQL queries.
+ *
+ * Statements batched with {@code addBatch} are only sent to the database by {@code executeBatch}, so a batch is
+ * recorded as the single subsegment of its {@code executeBatch} call, with its query recorded once and the batch
+ * summarized in annotations from the driver's update counts rather than a subsegment per statement.
+ *
+ * When {@code collectSqlQueries} is enabled along with {@code slowSqlQueryThresholdMillis}, the query is only recorded
+ * on the subsegments of queries that took at least that long or threw. It's then only normalized when the query
+ * completes, unless it was already needed to track repeated statements.
+ *
+ * The subsegments of statements executed on a connection with a transaction in progress are parented to the
+ * transaction's subsegment, which the {@link SqlTransactionHandler} keeps open without making it current.
  */
 public class SqlHandler extends XRayHandler {
     private static final Log log = LogFactory.getLog(SqlHandler.class);
 
     // Visible for testing
-    static final String SQL_SUBSEGMENT_COUNT_KEY = "XRaySQLSubsegmentCount";
+    static final String BATCH_SIZE_KEY = "sql_batch_size";
+    static final String BATCH_ROWS_AFFECTED_KEY = "sql_rows_affected";
+    static final String BATCH_FAILED_COUNT_KEY = "sql_batch_failed_count";
 
     /**
      * Uses the JDBC Statement from the Disco event to retrieve metadata about this query. Begins a subsegment
@@ -35,37 +54,95 @@ public class SqlHandler extends XRayHandler {
      */
     @Override
     public void handleRequest(Event event) {
+        // Nothing is recorded for unsampled transactions, and there's no header to propagate to a database
+        if (!isTransactionSampled()) {
+            return;
+        }
+
         // If a parent SQL transaction is already in progress, we return to avoid an infinite loop. This is because
-        // in order to populate a SQL subsegment, we make several calls to the JDBC Driver's DatabaseMetaData object.
+        // in order to populate the first SQL subsegment on a connection, we make several calls to the JDBC Driver's
+        // DatabaseMetaData object.
         // For example, if a driver's implementation of DatabaseMetaData.getUserName() uses executeQuery("SELECT USER")
         // to get the DB user, executeQuery would be intercepted by the Disco JDBC plugin, trigger this handler to
         // create subegment, and we'd call getUserName to populate that subsegment and so on.
-        if (incrementSqlTransactionCount() > 1) {
+        XRayTransactionSlot slot = XRayTransactionSlot.get();
+        SqlCallState callState = getSqlCallState(slot);
+        if (++callState.count > 1) {
             return;
         }
 
         ServiceDownstreamRequestEvent requestEvent = (ServiceDownstreamRequestEvent) event;
         Statement statement = (Statement) requestEvent.getRequest();
-        String queryString = requestEvent.getOperation();
-        boolean recordSql = XRaySDKConfiguration.getInstance().shouldCollectSqlQueries();
-        final Connection connection;
+        XRaySDKConfiguration config = XRaySDKConfiguration.getInstance();
+        boolean collectSqlQueries = config.shouldCollectSqlQueries();
+        long slowQueryThresholdMillis = collectSqlQueries ? config.getSlowSqlQueryThresholdMillis() : 0;
+        boolean collectAllQueries = collectSqlQueries && slowQueryThresholdMillis == 0;
+        int repeatedQueryThreshold = config.getRepeatedQueryThreshold();
+
+        String queryString = null;
+        if (collectAllQueries || repeatedQueryThreshold > 0) {
+            queryString = getNormalizedQuery(requestEvent, statement);
+        }
+
+        callState.startNanos = System.nanoTime();
+        callState.slowQueryThresholdNanos = slowQueryThresholdMillis > 0
+                ? TimeUnit.MILLISECONDS.toNanos(slowQueryThresholdMillis) : -1;
+        callState.query = slowQueryThresholdMillis > 0 ? queryString : null;
+        callState.statementStats = null;
+        callState.collapsed = false;
+        callState.summaryCandidate = false;
+        callState.entityBeforeTransaction = null;
+        if (queryString != null && repeatedQueryThreshold > 0) {
+            Segment segment = getGlobalRecorder().getCurrentSegmentOptional().orElse(null);
+            if (segment != null) {
+                RepeatedStatementTracker.StatementStats stats
+                        = RepeatedStatementTracker.forSegment(segment).getStatement(queryString);
+                callState.statementStats = stats;
+                if (config.shouldCollapseRepeatedQueries() && stats.isRepeated(repeatedQueryThreshold)) {
+                    // The first repeat over the threshold gets a subsegment that the ones after it are folded into
+                    if (stats.getSummary() != null) {
+                        callState.collapsed = true;
+                        return;
+                    }
+                    callState.summaryCandidate = true;
+                }
+            }
+        }
 
         try {
-            connection = statement.getConnection();
+            Connection connection = statement.getConnection();
+            ConnectionMetadata metadata = ConnectionMetadata.forConnection(connection);
+            Subsegment transaction = SqlTransactionHandler.getOpenTransaction(slot, connection);
+            if (transaction != null) {
+                callState.entityBeforeTransaction = getGlobalRecorder().getTraceEntity();
+                getGlobalRecorder().setTraceEntity(transaction);
+            }
+            Subsegment subsegment = beginSubsegment(metadata.getSubsegmentName(connection));
+            subsegment.setNamespace(Namespace.REMOTE.toString());
+            subsegment.putAllSql(metadata.getSqlParams());
+
+            // If user opted-in to record their Queries, include them in the subsegment
+            if (collectAllQueries && queryString != null) {
+                subsegment.putSql(SqlSubsegments.SANITIZED_QUERY, queryString);
+            }
         } catch (SQLException e) {
             log.debug("Encountered exception when creating subsegment for query of "
                     + requestEvent.getService() + ", starting blank subsegment", e);
             AWSXRay.beginSubsegment(SqlSubsegments.DEFAULT_DATABASE_NAME);
-            return;
         }
+    }
 
-        // If the query string wasn't provided by current DiSCo event, check the preparedMap cache
-        if (queryString == null && statement instanceof PreparedStatement) {
-            queryString = XRayTransactionState.getPreparedQuery((PreparedStatement) statement);
+    @Nullable
+    private static String getNormalizedQuery(ServiceDownstreamRequestEvent requestEvent, Statement statement) {
+        String queryString = requestEvent.getOperation();
+        if (queryString != null) {
+            return SqlNormalizer.normalize(queryString);
+        } else if (statement instanceof PreparedStatement) {
+            // If the query string wasn't provided by current DiSCo event, check the prepared statement
+            // registry, which already holds it normalized
+            return PreparedStatementRegistry.getInstance().get((PreparedStatement) statement);
         }
-
-        // If user opted-in to record their Queries, include them in the subsegment
-        SqlSubsegments.forQuery(connection, recordSql ? queryString : null);
+        return null;
     }
 
     /**
@@ -75,46 +152,163 @@ public class SqlHandler extends XRayHandler {
      */
     @Override
     public void handleResponse(Event event) {
+        if (!isTransactionSampled()) {
+            return;
+        }
+
         // If this SQL request is being ignored, we should also ignore the response
-        if (decrementSqlTransactionCount() > 0) {
+        SqlCallState callState = getSqlCallState(XRayTransactionSlot.get());
+        if (--callState.count > 0) {
             return;
         }
 
-        Subsegment subsegment = getSubsegment();
         ServiceDownstreamResponseEvent responseEvent = (ServiceDownstreamResponseEvent) event;
         Throwable thrown = responseEvent.getThrown();
+        long durationNanos = System.nanoTime() - callState.startNanos;
+        RepeatedStatementTracker.StatementStats stats = callState.statementStats;
+        // The call state outlives the segment, so it mustn't keep the segment's tracker reachable
+        callState.statementStats = null;
+        if (stats != null) {
+            stats.record(durationNanos, XRaySDKConfiguration.getInstance().getRepeatedQueryThreshold());
+            if (callState.collapsed) {
+                stats.collapse(durationNanos, thrown);
+                return;
+            }
+        }
+
+        Subsegment subsegment = getSubsegment();
 
         if (thrown != null) {
             subsegment.addException(thrown);
         }
+
+        if (callState.slowQueryThresholdNanos >= 0) {
+            String queryString = callState.query;
+            callState.query = null;
+            if (thrown != null || durationNanos >= callState.slowQueryThresholdNanos) {
+                if (queryString == null) {
+                    ServiceDownstreamRequestEvent requestEvent
+                            = (ServiceDownstreamRequestEvent) responseEvent.getRequest();
+                    queryString = getNormalizedQuery(requestEvent, (Statement) requestEvent.getRequest());
+                }
+                if (queryString != null) {
+                    subsegment.putSql(SqlSubsegments.SANITIZED_QUERY, queryString);
+                }
+            }
+        }
+
+        // executeBatch returns an update count per statement in the batch, as does the exception when a batch fails
+        Object response = responseEvent.getResponse();
+        if (response instanceof int[]) {
+            putBatchSummary(subsegment, toLongArray((int[]) response));
+        } else if (response instanceof long[]) {
+            putBatchSummary(subsegment, (long[]) response);
+        } else if (thrown instanceof BatchUpdateException) {
+            putBatchSummary(subsegment, ((BatchUpdateException) thrown).getLargeUpdateCounts());
+        } else if (response instanceof ResultSet && XRaySDKConfiguration.getInstance().shouldTrackResultSets()) {
+            // Rows are mostly fetched after the query returns, so they're counted after its subsegment has ended
+            ResultSetFetchStats.track((ResultSet) response, subsegment);
+        }
+        if (stats != null && callState.summaryCandidate) {
+            stats.setSummary(subsegment);
+        }
         endSubsegment();
+
+        // Ending a statement of a transaction makes the transaction current, which it's never left as
+        Entity entityBeforeTransaction = callState.entityBeforeTransaction;
+        if (entityBeforeTransaction != null) {
+            callState.entityBeforeTransaction = null;
+            getGlobalRecorder().setTraceEntity(entityBeforeTransaction);
+        }
     }
 
-    // Visible for testing
-    synchronized int getSqlTransactionCount() {
-        Integer count = (Integer) TransactionContext.getMetadata(SQL_SUBSEGMENT_COUNT_KEY);
-        if (count == null) {
-            count = 0;
-            setSqlTransactionCount(count);
+    /**
+     * Annotates the subsegment with the number of statements in a batch, the total rows they affected and how many of
+     * them failed, so that traces can be searched by batch efficiency. Drivers
+     * that can't tell how many rows a statement affected report {@link Statement#SUCCESS_NO_INFO} for it, which
+     * doesn't count towards the total.
+     */
+    private static void putBatchSummary(Subsegment subsegment, @Nullable long[] updateCounts) {
+        if (updateCounts == null) {
+            return;
+        }
+
+        long rowsAffected = 0;
+        int failedCount = 0;
+        for (long updateCount : updateCounts) {
+            if (updateCount >= 0) {
+                rowsAffected += updateCount;
+            } else if (updateCount == Statement.EXECUTE_FAILED) {
+                failedCount++;
+            }
         }
 
-        return count;
+        subsegment.putAnnotation(BATCH_SIZE_KEY, updateCounts.length);
+        subsegment.putAnnotation(BATCH_ROWS_AFFECTED_KEY, rowsAffected);
+        subsegment.putAnnotation(BATCH_FAILED_COUNT_KEY, failedCount);
     }
 
-    private synchronized int incrementSqlTransactionCount() {
-        int count = getSqlTransactionCount() + 1;
-        TransactionContext.putMetadata(SQL_SUBSEGMENT_COUNT_KEY, count);
-        return count;
+    private static long[] toLongArray(int[] values) {
+        long[] longs = new long[values.length];
+        for (int i = 0; i < values.length; i++) {
+            longs[i] = values[i];
+        }
+        return longs;
     }
 
-    private synchronized int decrementSqlTransactionCount() {
-        int count = getSqlTransactionCount() - 1;
-        TransactionContext.putMetadata(SQL_SUBSEGMENT_COUNT_KEY, count);
-        return count;
+    // Visible for testing
+    int getSqlTransactionCount() {
+        return getSqlCallState(XRayTransactionSlot.get()).count;
     }
 
     // Visible for testing
-    synchronized void setSqlTransactionCount(int val) {
-        TransactionContext.putMetadata(SQL_SUBSEGMENT_COUNT_KEY, val);
+    void setSqlTransactionCount(int val) {
+        getSqlCallState(XRayTransactionSlot.get()).count = val;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static SqlCallState getSqlCallState(XRayTransactionSlot slot) {
+        ThreadLocal<SqlCallState> callStates = (ThreadLocal<SqlCallState>) slot.getSqlCallState();
+        if (callStates == null) {
+            // Threads the transaction was propagated to may make their first SQL call at the same time, and each
+            // must end up with the thread's state from the same ThreadLocal
+            synchronized (slot) {
+                callStates = (ThreadLocal<SqlCallState>) slot.getSqlCallState();
+                if (callStates == null) {
+                    callStates = ThreadLocal.withInitial(SqlCallState::new);
+                    slot.setSqlCallState(callStates);
+                }
+            }
+        }
+        return callStates.get();
+    }
+
+    /**
+     * Depth of the SQL calls in progress on one of a transaction's threads, and what's needed to record the outermost
+     * one when it completes. The transaction's threads may each be running a query at the same time, while the nested
+     * calls it counts are made on the thread running the outer query, so each thread gets its own state from a
+     * ThreadLocal kept in the transaction's slot. It's then updated in place without a lock, and a call that never
+     * completes on one thread can't keep the others' queries from being recorded.
+     *
+     * The threads' states for a transaction can be collected along with the ThreadLocal once the transaction's slot is
+     * unreachable.
+     */
+    private static final class SqlCallState {
+        int count;
+        long startNanos;
+        // The duration from which the query is recorded, or -1 if it's recorded up front or not at all
+        long slowQueryThresholdNanos;
+        // The query of a call whose query is recorded if it's slow, if it was already normalized
+        @Nullable
+        String query;
+        // Set when repeated statements are being tracked
+        RepeatedStatementTracker.@Nullable StatementStats statementStats;
+        // Whether the call is folded into its statement's summary subsegment instead of getting its own
+        boolean collapsed;
+        // Whether the call's subsegment becomes its statement's summary subsegment
+        boolean summaryCandidate;
+        // The entity that was current before the call's subsegment was parented to a transaction, if it was
+        @Nullable
+        Entity entityBeforeTransaction;
     }
 }
@@ -0,0 +1,228 @@
+package com.amazonaws.xray.agent.runtime.handlers.downstream;
+
+/**
+ * Normalizes SQL text before it's recorded as a subsegment's sanitized query, so that captured queries don't carry
+ * the values they were run with and don't grow with the number of values passed to them. String and numeric literals
+ * are replaced with {@code ?}, lists of literals or placeholders given to {@code IN} are collapsed to {@code (?)},
+ * comments are removed, and runs of whitespace are collapsed to a single space. Quoted identifiers are kept as is.
+ *
+ * Applications run the same few statements over and over, so normalized statements are cached by their raw text,
+ * in a bounded cache so that statements built with inlined values can't grow it without limit.
+ */
+final class SqlNormalizer {
+    // Visible for testing
+    static final int MAX_CACHED_STATEMENTS = 1024;
+
+    // Longer statements are normalized every time rather than taking up room in the cache
+    private static final int MAX_CACHED_LENGTH = 4096;
+
+    private static final LruCache<String, String> cache = new LruCache<>(MAX_CACHED_STATEMENTS);
+
+    private SqlNormalizer() {
+    }
+
+    /**
+     * @param sql The raw SQL text of a statement.
+     * @return the normalized statement, which is the same instance as the input if nothing needed to be changed
+     */
+    static String normalize(String sql) {
+        String normalized = cache.get(sql);
+        if (normalized == null) {
+            normalized = normalizeUncached(sql);
+            if (sql.length() <= MAX_CACHED_LENGTH) {
+                cache.put(sql, normalized);
+            }
+        }
+        return normalized;
+    }
+
+    // Visible for testing
+    static String normalizeUncached(String sql) {
+        int length = sql.length();
+        StringBuilder out = new StringBuilder(length);
+        int i = 0;
+        while (i < length) {
+            char c = sql.charAt(i);
+            char next = i + 1 < length ? sql.charAt(i + 1) : 0;
+            if (c == '\'') {
+                i = skipQuoted(sql, i);
+                out.append('?');
+            } else if (c == '"' || c == '`') {
+                int end = skipQuotedIdentifier(sql, i, c);
+                out.append(sql, i, end);
+                i = end;
+            } else if (c == '-' && next == '-') {
+                int end = sql.indexOf('\n', i);
+                i = end < 0 ? length : end;
+                appendSpace(out);
+            } else if (c == '/' && next == '*') {
+                int end = sql.indexOf("*/", i + 2);
+                i = end < 0 ? length : end + 2;
+                appendSpace(out);
+            } else if (Character.isWhitespace(c)) {
+                appendSpace(out);
+                i++;
+            } else if (isDigit(c) || (c == '.' && isDigit(next))) {
+                i = skipNumber(sql, i);
+                out.append('?');
+            } else if (isIdentifierStart(c)) {
+                // Identifiers are copied whole, so digits in them aren't mistaken for numbers
+                int end = i + 1;
+                while (end < length && isIdentifierPart(sql.charAt(end))) {
+                    end++;
+                }
+                out.append(sql, i, end);
+                i = end;
+            } else if (c == '(' && endsWithIn(out)) {
+                int end = skipValueList(sql, i);
+                if (end < 0) {
+                    out.append(c);
+                    i++;
+                } else {
+                    out.append("(?)");
+                    i = end;
+                }
+            } else {
+                out.append(c);
+                i++;
+            }
+        }
+
+        int end = out.length();
+        while (end > 0 && out.charAt(end - 1) == ' ') {
+            end--;
+        }
+        out.setLength(end);
+        return sql.contentEquals(out) ? sql : out.toString();
+    }
+
+    private static void appendSpace(StringBuilder out) {
+        if (out.length() > 0 && out.charAt(out.length() - 1) != ' ') {
+            out.append(' ');
+        }
+    }
+
+    /**
+     * @return the index after the closing quote of the string literal starting at {@code start}, or the end of the
+     * text if it isn't closed
+     */
+    private static int skipQuoted(String sql, int start) {
+        int i = start + 1;
+        while (i < sql.length()) {
+            char c = sql.charAt(i);
+            if (c == '\\') {
+                // Escaped character in dialects like MySQL's
+                i += 2;
+            } else if (c == '\'') {
+                if (i + 1 < sql.length() && sql.charAt(i + 1) == '\'') {
+                    i += 2;
+                } else {
+                    return i + 1;
+                }
+            } else {
+                i++;
+            }
+        }
+        return sql.length();
+    }
+
+    private static int skipQuotedIdentifier(String sql, int start, char close) {
+        int end = sql.indexOf(close, start + 1);
+        return end < 0 ? sql.length() : end + 1;
+    }
+
+    /**
+     * Skips decimal numbers with an optional fraction and exponent, and hexadecimal numbers like 0x1F.
+     */
+    private static int skipNumber(String sql, int start) {
+        int length = sql.length();
+        int i = start;
+        if (sql.charAt(i) == '0' && i + 1 < length && (sql.charAt(i + 1) == 'x' || sql.charAt(i + 1) == 'X')) {
+            i += 2;
+            while (i < length && Character.digit(sql.charAt(i), 16) >= 0) {
+                i++;
+            }
+            return i;
+        }
+        while (i < length && (isDigit(sql.charAt(i)) || sql.charAt(i) == '.')) {
+            i++;
+        }
+        if (i < length && (sql.charAt(i) == 'e' || sql.charAt(i) == 'E')) {
+            int exponent = i + 1;
+            if (exponent < length && (sql.charAt(exponent) == '+' || sql.charAt(exponent) == '-')) {
+                exponent++;
+            }
+            if (exponent < length && isDigit(sql.charAt(exponent))) {
+                i = exponent;
+                while (i < length && isDigit(sql.charAt(i))) {
+                    i++;
+                }
+            }
+        }
+        return i;
+    }
+
+    /**
+     * Checks if the parenthesis at {@code start} opens a list made only of literals and placeholders.
+     *
+     * @return the index after the closing parenthesis, or -1 if it's anything else, like a subquery
+     */
+    private static int skipValueList(String sql, int start) {
+        int length = sql.length();
+        int i = skipWhitespace(sql, start + 1);
+        while (i < length) {
+            char c = sql.charAt(i);
+            if (c == '\'') {
+                i = skipQuoted(sql, i);
+            } else if (c == '?') {
+                i++;
+            } else if (isDigit(c) || ((c == '-' || c == '.') && i + 1 < length && isDigit(sql.charAt(i + 1)))) {
+                i = skipNumber(sql, c == '-' ? i + 1 : i);
+            } else {
+                return -1;
+            }
+
+            i = skipWhitespace(sql, i);
+            if (i >= length) {
+                return -1;
+            } else if (sql.charAt(i) == ')') {
+                return i + 1;
+            } else if (sql.charAt(i) != ',') {
+                return -1;
+            }
+            i = skipWhitespace(sql, i + 1);
+        }
+        return -1;
+    }
+
+    private static int skipWhitespace(String sql, int start) {
+        int i = start;
+        while (i < sql.length() && Character.isWhitespace(sql.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean endsWithIn(StringBuilder out) {
+        int end = out.length();
+        if (end > 0 && out.charAt(end - 1) == ' ') {
+            end--;
+        }
+        return end >= 2
+                && (out.charAt(end - 2) == 'i' || out.charAt(end - 2) == 'I')
+                && (out.charAt(end - 1) == 'n' || out.charAt(end - 1) == 'N')
+                && (end == 2 || !isIdentifierPart(out.charAt(end - 3)));
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isIdentifierStart(char c) {
+        return Character.isLetter(c) || c == '_' || c == '$' || c == '@' || c == '#' || c == ':';
+    }
+
+    private static boolean isIdentifierPart(char c) {
+        return isIdentifierStart(c) || isDigit(c);
+    }
+}
@@ -1,7 +1,6 @@
 package com.amazonaws.xray.agent.runtime.handlers.downstream;
 
 import com.amazonaws.xray.agent.runtime.handlers.XRayHandler;
-import com.amazonaws.xray.agent.runtime.models.XRayTransactionState;
 import software.amazon.disco.agent.event.Event;
 import software.amazon.disco.agent.event.ServiceDownstreamResponseEvent;
 
@@ -24,7 +23,8 @@ public class SqlPrepareHandler extends XRayHandler {
     }
 
     /**
-     * Stores the captured query string in a static map for later use by the SQL execution handler.
+     * Stores the captured query string, normalized, in the prepared statement registry for later use by the SQL
+     * execution handler.
      *
      * @param event The response event dispatched from the dispatcher.
      */
@@ -35,8 +35,8 @@ public class SqlPrepareHandler extends XRayHandler {
             responseEvent.getOperation() != null &&
             responseEvent.getResponse() instanceof PreparedStatement)
         {
-            XRayTransactionState
-                    .putPreparedQuery((PreparedStatement) responseEvent.getResponse(), responseEvent.getOperation());
+            PreparedStatementRegistry.getInstance().put((PreparedStatement) responseEvent.getResponse(),
+                    SqlNormalizer.normalize(responseEvent.getOperation()));
         }
     }
 }
@@ -0,0 +1,230 @@
+package com.amazonaws.xray.agent.runtime.handlers.downstream;
+
+import com.amazonaws.xray.agent.runtime.handlers.XRayHandler;
+import com.amazonaws.xray.agent.runtime.interceptors.ConnectionInterceptor;
+import com.amazonaws.xray.agent.runtime.models.XRayTransactionSlot;
+import com.amazonaws.xray.entities.Entity;
+import com.amazonaws.xray.entities.Subsegment;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import software.amazon.disco.agent.event.Event;
+import software.amazon.disco.agent.event.ServiceDownstreamRequestEvent;
+import software.amazon.disco.agent.event.ServiceDownstreamResponseEvent;
+
+/**
+ * This handler processes DiSCo events with origin "SqlTransaction." Such events are emitted around the JDBC
+ * connection methods that delimit transactions. Disabling auto-commit begins a transaction subsegment, which parents
+ * the subsegments of the statements executed on the same connection until the transaction is committed or rolled
+ * back. The commit or rollback gets a subsegment of its own, so that its latency can be told apart from the
+ * statements', and its duration is also recorded as {@code commit_time} or {@code rollback_time} in the transaction
+ * subsegment's {@code sql} metadata.
+ *
+ * The transaction subsegment is never left as the current entity, so the subsegments of anything else the request
+ * does while the transaction is open, such as HTTP calls, stay where they'd be without it. A transaction that's still
+ * open when the segment ends, as when its connection is leaked or closed on another thread, is ended then with the
+ * outcome {@code abandoned}, since an unfinished subsegment would keep the segment from ever being sent.
+ *
+ * Only one transaction is tracked at a time per request. Connections that keep auto-commit disabled for their whole
+ * life, as pools can be configured to, don't get transaction subsegments, but their commits and rollbacks are still
+ * recorded.
+ */
+public class SqlTransactionHandler extends XRayHandler {
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    // Visible for testing
+    static final String TRANSACTION_SUBSEGMENT_NAME = "Transaction";
+    static final String COMMIT_SUBSEGMENT_NAME = "COMMIT";
+    static final String ROLLBACK_SUBSEGMENT_NAME = "ROLLBACK";
+    static final String METADATA_NAMESPACE = "sql";
+    static final String OUTCOME_METADATA_KEY = "outcome";
+    static final String ABANDONED_OUTCOME = "abandoned";
+
+    /**
+     * Begins the subsegment of a commit or rollback, so that it's timed from the call.
+     *
+     * @param event The request event dispatched from the dispatcher.
+     */
+    @Override
+    public void handleRequest(Event event) {
+        if (!isTransactionSampled()) {
+            return;
+        }
+
+        // Pool connections delegate to the driver's connection, and only the outermost call is recorded
+        SqlTransactionState state = getSqlTransactionState();
+        if (state.depth++ > 0) {
+            return;
+        }
+
+        ServiceDownstreamRequestEvent requestEvent = (ServiceDownstreamRequestEvent) event;
+        boolean openTransaction = isOpenTransaction(state, requestEvent.getRequest());
+        String boundaryName = getBoundarySubsegmentName(requestEvent.getOperation(), openTransaction);
+        state.startNanos = System.nanoTime();
+        state.boundary = null;
+        state.boundaryParent = null;
+        if (boundaryName != null && getGlobalRecorder().getCurrentSegmentOptional().isPresent()) {
+            state.boundaryParent = getGlobalRecorder().getTraceEntity();
+            if (openTransaction) {
+                getGlobalRecorder().setTraceEntity(state.transaction);
+            }
+            state.boundary = beginSubsegment(boundaryName);
+        }
+    }
+
+    /**
+     * Ends the subsegment of a commit or rollback, and begins or ends the transaction subsegment.
+     *
+     * @param event The response event dispatched from the dispatcher.
+     */
+    @Override
+    public void handleResponse(Event event) {
+        if (!isTransactionSampled()) {
+            return;
+        }
+
+        SqlTransactionState state = getSqlTransactionState();
+        if (state.depth <= 0 || --state.depth > 0) {
+            return;
+        }
+
+        ServiceDownstreamResponseEvent responseEvent = (ServiceDownstreamResponseEvent) event;
+        Object connection = responseEvent.getRequest().getRequest();
+        String operation = responseEvent.getOperation();
+        Throwable thrown = responseEvent.getThrown();
+        long durationNanos = System.nanoTime() - state.startNanos;
+
+        Subsegment boundary = state.boundary;
+        if (boundary != null) {
+            Entity boundaryParent = state.boundaryParent;
+            state.boundary = null;
+            state.boundaryParent = null;
+            if (thrown != null) {
+                boundary.addException(thrown);
+            }
+            endEntity(boundary, boundaryParent);
+        }
+
+        if (ConnectionInterceptor.DISABLE_AUTO_COMMIT.equals(operation)) {
+            if (thrown == null && state.transaction == null
+                    && getGlobalRecorder().getCurrentSegmentOptional().isPresent()) {
+                Entity parent = getGlobalRecorder().getTraceEntity();
+                Subsegment transaction = beginSubsegment(TRANSACTION_SUBSEGMENT_NAME);
+                setTraceEntity(parent);
+                state.transaction = transaction;
+                state.connection = connection;
+                XRayTransactionSlot.get().addSegmentEndAction(() -> abandonTransaction(state, transaction));
+            }
+        } else if (isOpenTransaction(state, connection)) {
+            // Committing, rolling back, enabling auto-commit or closing the connection all end the transaction
+            Subsegment transaction = state.transaction;
+            String outcome = getOutcome(operation);
+            if (boundary != null) {
+                transaction.putMetadata(METADATA_NAMESPACE, outcome + "_time", durationNanos / NANOS_PER_SECOND);
+            }
+            endTransaction(state, outcome);
+        }
+    }
+
+    /**
+     * Ends the transaction if it's still open when its segment ends.
+     */
+    private void abandonTransaction(SqlTransactionState state, Subsegment transaction) {
+        if (state.transaction == transaction) {
+            endTransaction(state, ABANDONED_OUTCOME);
+        }
+    }
+
+    private void endTransaction(SqlTransactionState state, String outcome) {
+        Subsegment transaction = state.transaction;
+        state.transaction = null;
+        state.connection = null;
+        transaction.putMetadata(METADATA_NAMESPACE, OUTCOME_METADATA_KEY, outcome);
+        endEntity(transaction, getGlobalRecorder().getTraceEntity());
+    }
+
+    /**
+     * @return the transaction subsegment open on the connection, which the subsegments of its statements are
+     * parented to, or null if the connection has none
+     */
+    @Nullable
+    static Subsegment getOpenTransaction(XRayTransactionSlot slot, @Nullable Object connection) {
+        SqlTransactionState state = (SqlTransactionState) slot.getSqlTransactionState();
+        return connection != null && state != null && isOpenTransaction(state, connection) ? state.transaction : null;
+    }
+
+    /**
+     * @return the name of the subsegment to record for the operation, or null if it doesn't end a transaction
+     */
+    @Nullable
+    private static String getBoundarySubsegmentName(@Nullable String operation, boolean openTransaction) {
+        if (ConnectionInterceptor.COMMIT.equals(operation)) {
+            return COMMIT_SUBSEGMENT_NAME;
+        } else if (ConnectionInterceptor.ROLLBACK.equals(operation)) {
+            return ROLLBACK_SUBSEGMENT_NAME;
+        } else if (ConnectionInterceptor.ENABLE_AUTO_COMMIT.equals(operation) && openTransaction) {
+            // Enabling auto-commit commits the transaction in progress
+            return COMMIT_SUBSEGMENT_NAME;
+        }
+        return null;
+    }
+
+    private static String getOutcome(@Nullable String operation) {
+        if (ConnectionInterceptor.ROLLBACK.equals(operation)) {
+            return ConnectionInterceptor.ROLLBACK;
+        } else if (ConnectionInterceptor.CLOSE.equals(operation)) {
+            return ConnectionInterceptor.CLOSE;
+        }
+        return ConnectionInterceptor.COMMIT;
+    }
+
+    private static boolean isOpenTransaction(SqlTransactionState state, @Nullable Object connection) {
+        return state.transaction != null && state.connection == connection;
+    }
+
+    /**
+     * Ends a subsegment begun by this handler, which may not be the current entity, and then makes {@code current}
+     * the current entity. Anything begun after the subsegment and still open was left behind by instrumentation that
+     * didn't see its end, so the context is set to the subsegment first, rather than ending the wrong subsegment.
+     */
+    private void endEntity(Subsegment subsegment, @Nullable Entity current) {
+        getGlobalRecorder().setTraceEntity(subsegment);
+        endSubsegment();
+        setTraceEntity(current);
+    }
+
+    private void setTraceEntity(@Nullable Entity entity) {
+        if (entity != null) {
+            getGlobalRecorder().setTraceEntity(entity);
+        } else {
+            getGlobalRecorder().clearTraceEntity();
+        }
+    }
+
+    private static SqlTransactionState getSqlTransactionState() {
+        XRayTransactionSlot slot = XRayTransactionSlot.get();
+        SqlTransactionState state = (SqlTransactionState) slot.getSqlTransactionState();
+        if (state == null) {
+            state = new SqlTransactionState();
+            slot.setSqlTransactionState(state);
+        }
+        return state;
+    }
+
+    /**
+     * The JDBC transaction in progress for a request, stored once in the transaction's slot and then updated in
+     * place.
+     */
+    private static final class SqlTransactionState {
+        int depth;
+        long startNanos;
+        @Nullable
+        Subsegment boundary;
+        // The entity that was current when the boundary began, which is current again once it ends
+        @Nullable
+        Entity boundaryParent;
+        @Nullable
+        Subsegment transaction;
+        // The connection the transaction was begun on, which is only compared by identity
+        @Nullable
+        Object connection;
+    }
+}
@@ -0,0 +1,145 @@
+package com.amazonaws.xray.agent.runtime.handlers.downstream;
+
+import com.amazonaws.xray.agent.runtime.interceptors.ResultSetInterceptor;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.sql.ResultSet;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * The result sets of a transaction whose fetches are being counted, which the {@link ResultSetInterceptor}'s advice
+ * looks up by identity on every call to {@code next()}. A transaction rarely has more than a few result sets open at
+ * once, so they're kept in a small array that's replaced whole whenever one is added or removed. Lookups then only
+ * read a volatile field and scan the array, without taking a lock on any of the transaction's threads.
+ *
+ * It's read by the advice through the {@link java.util.Map} interface, since the advice may only reference the JDK's
+ * classes, and is only changed through {@link #add}, {@link #remove} and {@link #flush}.
+ */
+final class TrackedResultSets extends AbstractMap<Object, Object> {
+    private static final Object[] EMPTY = new Object[0];
+
+    // Alternating result sets and their stats
+    private volatile Object[] entries = EMPTY;
+    // Guarded by this
+    private boolean flushPending;
+
+    @Override
+    @Nullable
+    public Object get(@Nullable Object key) {
+        Object[] entries = this.entries;
+        for (int i = 0; i < entries.length; i += 2) {
+            if (entries[i] == key) {
+                return entries[i + 1];
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public boolean containsKey(@Nullable Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public int size() {
+        return entries.length / 2;
+    }
+
+    /**
+     * Starts tracking a result set, unless the limit on tracked result sets has been reached.
+     *
+     * @return whether the result set is tracked
+     */
+    synchronized boolean add(ResultSet resultSet, ResultSetFetchStats stats, int maxSize) {
+        Object[] entries = this.entries;
+        if (entries.length / 2 >= maxSize) {
+            return false;
+        }
+        Object[] added = new Object[entries.length + 2];
+        System.arraycopy(entries, 0, added, 0, entries.length);
+        added[entries.length] = resultSet;
+        added[entries.length + 1] = stats;
+        this.entries = added;
+        return true;
+    }
+
+    /**
+     * @return true if a flush should be scheduled for the end of the segment, which is only the case once between
+     * flushes
+     */
+    synchronized boolean scheduleFlush() {
+        if (flushPending) {
+            return false;
+        }
+        flushPending = true;
+        return true;
+    }
+
+    @Override
+    @Nullable
+    public synchronized Object remove(@Nullable Object key) {
+        Object[] entries = this.entries;
+        for (int i = 0; i < entries.length; i += 2) {
+            if (entries[i] == key) {
+                Object[] removed = new Object[entries.length - 2];
+                System.arraycopy(entries, 0, removed, 0, i);
+                System.arraycopy(entries, i + 2, removed, i, entries.length - i - 2);
+                this.entries = removed;
+                return entries[i + 1];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Stops tracking every result set still open, recording what was fetched from each of them so far.
+     */
+    void flush() {
+        Object[] entries;
+        synchronized (this) {
+            entries = this.entries;
+            this.entries = EMPTY;
+            flushPending = false;
+        }
+        for (int i = 1; i < entries.length; i += 2) {
+            ((ResultSetFetchStats) entries[i]).run();
+        }
+    }
+
+    @Override
+    public Set<Entry<Object, Object>> entrySet() {
+        Object[] entries = this.entries;
+        return new AbstractSet<Entry<Object, Object>>() {
+            @Override
+            public Iterator<Entry<Object, Object>> iterator() {
+                return new Iterator<Entry<Object, Object>>() {
+                    private int next;
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < entries.length;
+                    }
+
+                    @Override
+                    public Entry<Object, Object> next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        Entry<Object, Object> entry = new SimpleImmutableEntry<>(entries[next], entries[next + 1]);
+                        next += 2;
+                        return entry;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return entries.length / 2;
+            }
+        };
+    }
+}
@@ -30,6 +30,10 @@ public class ServletHandler extends XRayHandler {
     private static final String HTTP_REQUEST_KEY = "request";
     private static final String STATUS_KEY = "status";
 
+    // Sized so that the attributes put in each map fit without a resize, and without the default table of 16
+    private static final int REQUEST_ATTRIBUTES_CAPACITY = 8;
+    private static final int RESPONSE_ATTRIBUTES_CAPACITY = 2;
+
     @Override
     public void handleRequest(Event event) {
         HttpServletNetworkRequestEvent requestEvent = (HttpServletNetworkRequestEvent) event;
@@ -52,15 +56,21 @@ public class ServletHandler extends XRayHandler {
         }
         transactionState.withTraceheaderString(headerData);
 
-        TraceHeader traceHeader = TraceHeader.fromString(transactionState.getTraceHeader());
-        Segment segment = beginSegment(XRayTransactionState.getServiceName(), traceHeader);
+        // Decide on sampling before creating the segment, so that unsampled requests don't pay for one
+        TraceHeader traceHeader = TraceHeader.fromString(headerData);
+        boolean shouldSample = getSamplingDecision(transactionState, traceHeader);
+        transactionState.withSampled(shouldSample);
+
+        // Unsampled segments are never sent, so a no-op segment carrying just the trace ID is enough for propagation
+        if (!shouldSample) {
+            beginNoOpSegment(traceHeader.getRootTraceId());
+            return;
+        }
 
-        // Obtain sampling decision
-        boolean shouldSample = getSamplingDecision(transactionState);
-        segment.setSampled(shouldSample);
+        Segment segment = beginSegment(XRayTransactionState.getServiceName(), traceHeader);
 
         // Add HTTP Information
-        Map<String, Object> requestAttributes = new HashMap<>();
+        Map<String, Object> requestAttributes = new HashMap<>(REQUEST_ATTRIBUTES_CAPACITY);
         requestAttributes.put(URL_KEY, transactionState.getURL());
         requestAttributes.put(USER_AGENT_KEY, transactionState.getUserAgent());
         requestAttributes.put(METHOD_KEY, transactionState.getMethod());
@@ -79,9 +89,17 @@ public class ServletHandler extends XRayHandler {
             return;
         }
 
+        XRayTransactionState transactionState = getTransactionState();
+        // The sampling decision stays as it is, so that calls still running on the transaction's other threads
+        // keep skipping their subsegments after the response
+        if (!transactionState.isSampled()) {
+            endSegment();
+            return;
+        }
+
         // Add the status code
         // Obtain the status code of the underlying http response. If it failed, it's a fault.
-        Map<String, Object> responseAttributes = new HashMap<>();
+        Map<String, Object> responseAttributes = new HashMap<>(RESPONSE_ATTRIBUTES_CAPACITY);
         int statusCode = responseEvent.getStatusCode();
 
         // Check if the status code was a fault.
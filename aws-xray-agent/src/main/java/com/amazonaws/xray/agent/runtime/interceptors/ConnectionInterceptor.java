@@ -0,0 +1,137 @@
+package com.amazonaws.xray.agent.runtime.interceptors;
+
+import net.bytebuddy.agent.builder.AgentBuilder;
+import net.bytebuddy.asm.Advice;
+import net.bytebuddy.description.method.MethodDescription;
+import net.bytebuddy.description.type.TypeDescription;
+import net.bytebuddy.matcher.ElementMatcher;
+import software.amazon.disco.agent.event.EventBus;
+import software.amazon.disco.agent.event.ServiceDownstreamRequestEvent;
+import software.amazon.disco.agent.event.ServiceDownstreamResponseEvent;
+import software.amazon.disco.agent.interception.Installable;
+
+import java.sql.Connection;
+
+import static net.bytebuddy.matcher.ElementMatchers.isAbstract;
+import static net.bytebuddy.matcher.ElementMatchers.isInterface;
+import static net.bytebuddy.matcher.ElementMatchers.isSubTypeOf;
+import static net.bytebuddy.matcher.ElementMatchers.named;
+import static net.bytebuddy.matcher.ElementMatchers.not;
+import static net.bytebuddy.matcher.ElementMatchers.takesArguments;
+
+/**
+ * Publishes DiSCo events with origin "SqlTransaction" around the JDBC {@link Connection} methods that delimit
+ * transactions: {@code setAutoCommit}, {@code commit}, {@code rollback} and {@code close}. The operation of the
+ * events is the method's name, with the argument for {@code setAutoCommit}, and their request is the connection.
+ */
+public class ConnectionInterceptor implements Installable {
+    public static final String SQL_TRANSACTION_ORIGIN = "SqlTransaction";
+    public static final String COMMIT = "commit";
+    public static final String ROLLBACK = "rollback";
+    public static final String CLOSE = "close";
+    public static final String DISABLE_AUTO_COMMIT = "setAutoCommit(false)";
+    public static final String ENABLE_AUTO_COMMIT = "setAutoCommit(true)";
+    static final String SET_AUTO_COMMIT = "setAutoCommit";
+
+    @Override
+    public AgentBuilder install(AgentBuilder agentBuilder) {
+        return agentBuilder
+                .type(buildClassMatcher())
+                .transform(new AgentBuilder.Transformer.ForAdvice()
+                        .include(ConnectionInterceptor.class.getClassLoader())
+                        .advice(buildBoundaryMethodMatcher(), BoundaryAdvice.class.getName())
+                        .advice(buildAutoCommitMethodMatcher(), AutoCommitAdvice.class.getName()));
+    }
+
+    // Visible for testing
+    static ElementMatcher.Junction<TypeDescription> buildClassMatcher() {
+        return isSubTypeOf(Connection.class).and(not(isInterface()));
+    }
+
+    // Visible for testing
+    static ElementMatcher.Junction<MethodDescription> buildBoundaryMethodMatcher() {
+        // Rolling back to a savepoint doesn't end the transaction, so only the overload without arguments is matched
+        return named(COMMIT).or(named(ROLLBACK)).or(named(CLOSE))
+                .and(takesArguments(0))
+                .and(not(isAbstract()));
+    }
+
+    // Visible for testing
+    static ElementMatcher.Junction<MethodDescription> buildAutoCommitMethodMatcher() {
+        return named(SET_AUTO_COMMIT).and(takesArguments(boolean.class)).and(not(isAbstract()));
+    }
+
+    /**
+     * Inlined into connections' {@code commit}, {@code rollback} and {@code close} methods, so like the data source
+     * advice it may only reference the JDK's and DiSCo's classes.
+     */
+    public static class BoundaryAdvice {
+        @Advice.OnMethodEnter
+        public static ServiceDownstreamRequestEvent enter(@Advice.This Object connection,
+                                                          @Advice.Origin("#m") String method) {
+            try {
+                ServiceDownstreamRequestEvent requestEvent = new ServiceDownstreamRequestEvent(
+                        SQL_TRANSACTION_ORIGIN, connection.getClass().getName(), method);
+                requestEvent.withRequest(connection);
+                EventBus.publish(requestEvent);
+                return requestEvent;
+            } catch (Throwable t) {
+                // Tracing must never fail the application's transaction
+                return null;
+            }
+        }
+
+        @Advice.OnMethodExit(onThrowable = Throwable.class)
+        public static void exit(@Advice.Enter ServiceDownstreamRequestEvent requestEvent,
+                                @Advice.Thrown Throwable thrown) {
+            if (requestEvent == null) {
+                return;
+            }
+            try {
+                ServiceDownstreamResponseEvent responseEvent = new ServiceDownstreamResponseEvent(
+                        SQL_TRANSACTION_ORIGIN, requestEvent.getService(), requestEvent.getOperation(), requestEvent);
+                responseEvent.withThrown(thrown);
+                EventBus.publish(responseEvent);
+            } catch (Throwable t) {
+                // Tracing must never fail the application's transaction
+            }
+        }
+    }
+
+    /**
+     * Inlined into connections' {@code setAutoCommit} methods.
+     */
+    public static class AutoCommitAdvice {
+        @Advice.OnMethodEnter
+        public static ServiceDownstreamRequestEvent enter(@Advice.This Object connection,
+                                                          @Advice.Argument(0) boolean autoCommit) {
+            try {
+                ServiceDownstreamRequestEvent requestEvent = new ServiceDownstreamRequestEvent(
+                        SQL_TRANSACTION_ORIGIN, connection.getClass().getName(),
+                        autoCommit ? ENABLE_AUTO_COMMIT : DISABLE_AUTO_COMMIT);
+                requestEvent.withRequest(connection);
+                EventBus.publish(requestEvent);
+                return requestEvent;
+            } catch (Throwable t) {
+                // Tracing must never fail the application's transaction
+                return null;
+            }
+        }
+
+        @Advice.OnMethodExit(onThrowable = Throwable.class)
+        public static void exit(@Advice.Enter ServiceDownstreamRequestEvent requestEvent,
+                                @Advice.Thrown Throwable thrown) {
+            if (requestEvent == null) {
+                return;
+            }
+            try {
+                ServiceDownstreamResponseEvent responseEvent = new ServiceDownstreamResponseEvent(
+                        SQL_TRANSACTION_ORIGIN, requestEvent.getService(), requestEvent.getOperation(), requestEvent);
+                responseEvent.withThrown(thrown);
+                EventBus.publish(responseEvent);
+            } catch (Throwable t) {
+                // Tracing must never fail the application's transaction
+            }
+        }
+    }
+}
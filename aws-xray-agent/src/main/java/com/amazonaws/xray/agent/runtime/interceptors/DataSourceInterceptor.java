@@ -0,0 +1,94 @@
+package com.amazonaws.xray.agent.runtime.interceptors;
+
+import net.bytebuddy.agent.builder.AgentBuilder;
+import net.bytebuddy.asm.Advice;
+import net.bytebuddy.description.method.MethodDescription;
+import net.bytebuddy.description.type.TypeDescription;
+import net.bytebuddy.matcher.ElementMatcher;
+import software.amazon.disco.agent.event.EventBus;
+import software.amazon.disco.agent.event.ServiceDownstreamRequestEvent;
+import software.amazon.disco.agent.event.ServiceDownstreamResponseEvent;
+import software.amazon.disco.agent.interception.Installable;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+
+import static net.bytebuddy.matcher.ElementMatchers.isAbstract;
+import static net.bytebuddy.matcher.ElementMatchers.isBridge;
+import static net.bytebuddy.matcher.ElementMatchers.isInterface;
+import static net.bytebuddy.matcher.ElementMatchers.isSubTypeOf;
+import static net.bytebuddy.matcher.ElementMatchers.named;
+import static net.bytebuddy.matcher.ElementMatchers.not;
+import static net.bytebuddy.matcher.ElementMatchers.returns;
+
+/**
+ * Publishes DiSCo events with origin "SqlConnection" around {@code DataSource.getConnection()}, since the DiSCo
+ * SQL plugin only intercepts statements. Connection pools like HikariCP and DBCP lend their connections through
+ * their {@link DataSource}, so this also captures the time spent waiting on the pool. The service of the events is
+ * the data source's class name.
+ */
+public class DataSourceInterceptor implements Installable {
+    public static final String SQL_CONNECTION_ORIGIN = "SqlConnection";
+    static final String GET_CONNECTION = "getConnection";
+
+    @Override
+    public AgentBuilder install(AgentBuilder agentBuilder) {
+        return agentBuilder
+                .type(buildClassMatcher())
+                .transform(new AgentBuilder.Transformer.ForAdvice()
+                        .include(DataSourceInterceptor.class.getClassLoader())
+                        .advice(buildMethodMatcher(), GetConnectionAdvice.class.getName()));
+    }
+
+    // Visible for testing
+    static ElementMatcher.Junction<TypeDescription> buildClassMatcher() {
+        return isSubTypeOf(DataSource.class).and(not(isInterface()));
+    }
+
+    // Visible for testing
+    static ElementMatcher.Junction<MethodDescription> buildMethodMatcher() {
+        // Data sources may narrow the return type, in which case only the method itself and not its bridge is matched
+        return named(GET_CONNECTION)
+                .and(returns(isSubTypeOf(Connection.class)))
+                .and(not(isAbstract()))
+                .and(not(isBridge()));
+    }
+
+    /**
+     * Inlined into data sources' {@code getConnection} methods, so it may only reference classes that are visible to
+     * any data source, which the JDK's and DiSCo's are.
+     */
+    public static class GetConnectionAdvice {
+        @Advice.OnMethodEnter
+        public static ServiceDownstreamRequestEvent enter(@Advice.This Object dataSource) {
+            try {
+                ServiceDownstreamRequestEvent requestEvent = new ServiceDownstreamRequestEvent(
+                        SQL_CONNECTION_ORIGIN, dataSource.getClass().getName(), GET_CONNECTION);
+                requestEvent.withRequest(dataSource);
+                EventBus.publish(requestEvent);
+                return requestEvent;
+            } catch (Throwable t) {
+                // Tracing must never fail the application's connection acquisition
+                return null;
+            }
+        }
+
+        @Advice.OnMethodExit(onThrowable = Throwable.class)
+        public static void exit(@Advice.Enter ServiceDownstreamRequestEvent requestEvent,
+                                @Advice.Return Object connection,
+                                @Advice.Thrown Throwable thrown) {
+            if (requestEvent == null) {
+                return;
+            }
+            try {
+                ServiceDownstreamResponseEvent responseEvent = new ServiceDownstreamResponseEvent(
+                        SQL_CONNECTION_ORIGIN, requestEvent.getService(), requestEvent.getOperation(), requestEvent);
+                responseEvent.withResponse(connection);
+                responseEvent.withThrown(thrown);
+                EventBus.publish(responseEvent);
+            } catch (Throwable t) {
+                // Tracing must never fail the application's connection acquisition
+            }
+        }
+    }
+}
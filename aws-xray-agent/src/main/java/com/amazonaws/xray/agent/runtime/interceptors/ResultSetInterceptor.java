@@ -0,0 +1,128 @@
+package com.amazonaws.xray.agent.runtime.interceptors;
+
+import com.amazonaws.xray.agent.runtime.config.XRaySDKConfiguration;
+import net.bytebuddy.agent.builder.AgentBuilder;
+import net.bytebuddy.asm.Advice;
+import net.bytebuddy.description.method.MethodDescription;
+import net.bytebuddy.description.type.TypeDescription;
+import net.bytebuddy.matcher.ElementMatcher;
+import software.amazon.disco.agent.concurrent.TransactionContext;
+import software.amazon.disco.agent.interception.Installable;
+
+import java.sql.ResultSet;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static net.bytebuddy.matcher.ElementMatchers.isAbstract;
+import static net.bytebuddy.matcher.ElementMatchers.isInterface;
+import static net.bytebuddy.matcher.ElementMatchers.isSubTypeOf;
+import static net.bytebuddy.matcher.ElementMatchers.named;
+import static net.bytebuddy.matcher.ElementMatchers.not;
+import static net.bytebuddy.matcher.ElementMatchers.returns;
+import static net.bytebuddy.matcher.ElementMatchers.takesArguments;
+
+/**
+ * Counts the rows fetched from JDBC result sets with {@code ResultSet.next()} and the time spent in it, which includes
+ * the driver's round trips for further rows. Unlike the other interceptors it doesn't publish events, since
+ * {@code next()} is called once per row. Instead, the SQL handler registers the result sets of traced queries in the
+ * TransactionContext, under {@link #TRACKED_RESULT_SETS_KEY}, in a map from each result set to its counters, and the
+ * advice updates the counters in place. Result sets that aren't registered only cost a map lookup per row, and
+ * closing a result set unregisters it and runs its counters, which records them.
+ *
+ * Result sets are only instrumented when {@code trackResultSets} is enabled, so that the rows of every result set in
+ * the JVM don't pay for the lookup otherwise.
+ */
+public class ResultSetInterceptor implements Installable {
+    public static final String TRACKED_RESULT_SETS_KEY = "XRayTrackedResultSets";
+    public static final int ROW_COUNT_INDEX = 0;
+    public static final int FETCH_NANOS_INDEX = 1;
+
+    @Override
+    public AgentBuilder install(AgentBuilder agentBuilder) {
+        if (!XRaySDKConfiguration.getInstance().shouldTrackResultSets()) {
+            return agentBuilder;
+        }
+        return agentBuilder
+                .type(buildClassMatcher())
+                .transform(new AgentBuilder.Transformer.ForAdvice()
+                        .include(ResultSetInterceptor.class.getClassLoader())
+                        .advice(buildNextMethodMatcher(), NextAdvice.class.getName())
+                        .advice(buildCloseMethodMatcher(), CloseAdvice.class.getName()));
+    }
+
+    // Visible for testing
+    static ElementMatcher.Junction<TypeDescription> buildClassMatcher() {
+        return isSubTypeOf(ResultSet.class).and(not(isInterface()));
+    }
+
+    // Visible for testing
+    static ElementMatcher.Junction<MethodDescription> buildNextMethodMatcher() {
+        return named("next").and(takesArguments(0)).and(returns(boolean.class)).and(not(isAbstract()));
+    }
+
+    // Visible for testing
+    static ElementMatcher.Junction<MethodDescription> buildCloseMethodMatcher() {
+        return named("close").and(takesArguments(0)).and(not(isAbstract()));
+    }
+
+    /**
+     * Inlined into result sets' {@code next} methods, so like the other advice it may only reference the JDK's and
+     * DiSCo's classes.
+     */
+    public static class NextAdvice {
+        /**
+         * @return when the call started, or -1 if the result set isn't tracked
+         */
+        @Advice.OnMethodEnter
+        public static long enter(@Advice.This Object resultSet) {
+            try {
+                Map<?, ?> trackedResultSets = (Map<?, ?>) TransactionContext.getMetadata(TRACKED_RESULT_SETS_KEY);
+                if (trackedResultSets != null && trackedResultSets.containsKey(resultSet)) {
+                    return System.nanoTime();
+                }
+            } catch (Throwable t) {
+                // Tracing must never fail the application's query
+            }
+            return -1;
+        }
+
+        @Advice.OnMethodExit(onThrowable = Throwable.class)
+        public static void exit(@Advice.This Object resultSet,
+                                @Advice.Enter long startNanos,
+                                @Advice.Return boolean hasRow) {
+            if (startNanos < 0) {
+                return;
+            }
+            try {
+                Map<?, ?> trackedResultSets = (Map<?, ?>) TransactionContext.getMetadata(TRACKED_RESULT_SETS_KEY);
+                AtomicLongArray counters = (AtomicLongArray) trackedResultSets.get(resultSet);
+                if (counters != null) {
+                    if (hasRow) {
+                        counters.incrementAndGet(ROW_COUNT_INDEX);
+                    }
+                    counters.addAndGet(FETCH_NANOS_INDEX, System.nanoTime() - startNanos);
+                }
+            } catch (Throwable t) {
+                // Tracing must never fail the application's query
+            }
+        }
+    }
+
+    /**
+     * Inlined into result sets' {@code close} methods.
+     */
+    public static class CloseAdvice {
+        @Advice.OnMethodEnter
+        public static void enter(@Advice.This Object resultSet) {
+            try {
+                Map<?, ?> trackedResultSets = (Map<?, ?>) TransactionContext.getMetadata(TRACKED_RESULT_SETS_KEY);
+                Object counters = trackedResultSets != null ? trackedResultSets.remove(resultSet) : null;
+                if (counters instanceof Runnable) {
+                    ((Runnable) counters).run();
+                }
+            } catch (Throwable t) {
+                // Tracing must never fail the application's query
+            }
+        }
+    }
+}
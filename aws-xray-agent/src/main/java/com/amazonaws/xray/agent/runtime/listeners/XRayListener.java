@@ -11,9 +11,28 @@ import software.amazon.disco.agent.event.ServiceEvent;
 import software.amazon.disco.agent.event.ServiceRequestEvent;
 import software.amazon.disco.agent.event.ServiceResponseEvent;
 
+/**
+ * Dispatches the DiSCo events the X-Ray handlers are interested in, upstream or downstream. Whether an event is a
+ * request, a response or neither only depends on its class, so it's worked out once per class of event rather than
+ * for every event.
+ */
 public class XRayListener implements Listener {
     private static final Log log = LogFactory.getLog(XRayListener.class);
 
+    private static final ClassValue<EventKind> EVENT_KINDS = new ClassValue<EventKind>() {
+        @Override
+        protected EventKind computeValue(Class<?> eventClass) {
+            if (ServiceRequestEvent.class.isAssignableFrom(eventClass)
+                    || HttpServletNetworkRequestEvent.class.isAssignableFrom(eventClass)) {
+                return EventKind.REQUEST;
+            } else if (ServiceResponseEvent.class.isAssignableFrom(eventClass)
+                    || HttpServletNetworkResponseEvent.class.isAssignableFrom(eventClass)) {
+                return EventKind.RESPONSE;
+            }
+            return EventKind.IGNORED;
+        }
+    };
+
     private final EventDispatcher upstreamEventDispatcher;
     private final EventDispatcher downstreamEventDispatcher;
 
@@ -30,15 +49,17 @@ public class XRayListener implements Listener {
     @Override
     public void listen(Event event) {
         try {
-            EventDispatcher dispatcher = isEventDownstream(event) ? downstreamEventDispatcher : upstreamEventDispatcher;
+            EventKind eventKind = EVENT_KINDS.get(event.getClass());
+            if (eventKind == EventKind.IGNORED) {
+                // Other events we don't care about so return.
+                return;
+            }
 
-            if (event instanceof ServiceRequestEvent || event instanceof HttpServletNetworkRequestEvent) {
+            EventDispatcher dispatcher = isEventDownstream(event) ? downstreamEventDispatcher : upstreamEventDispatcher;
+            if (eventKind == EventKind.REQUEST) {
                 dispatcher.dispatchRequestEvent(event);
-            } else if (event instanceof ServiceResponseEvent || event instanceof HttpServletNetworkResponseEvent) {
-                dispatcher.dispatchResponseEvent(event);
             } else {
-                // Other events we don't care about so return.
-                return;
+                dispatcher.dispatchResponseEvent(event);
             }
         } catch (Exception e) {
             // We dont want to propagate any exceptions back to the bus nor the application code, so we
@@ -64,4 +85,10 @@ public class XRayListener implements Listener {
         }
         return false;
     }
+
+    private enum EventKind {
+        REQUEST,
+        RESPONSE,
+        IGNORED
+    }
 }
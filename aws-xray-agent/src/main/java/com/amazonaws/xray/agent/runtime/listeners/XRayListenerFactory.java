@@ -5,8 +5,10 @@ import com.amazonaws.xray.agent.runtime.dispatcher.EventDispatcher;
 import com.amazonaws.xray.agent.runtime.handlers.downstream.AWSHandler;
 import com.amazonaws.xray.agent.runtime.handlers.downstream.AWSV2Handler;
 import com.amazonaws.xray.agent.runtime.handlers.downstream.HttpClientHandler;
+import com.amazonaws.xray.agent.runtime.handlers.downstream.SqlConnectionHandler;
 import com.amazonaws.xray.agent.runtime.handlers.downstream.SqlHandler;
 import com.amazonaws.xray.agent.runtime.handlers.downstream.SqlPrepareHandler;
+import com.amazonaws.xray.agent.runtime.handlers.downstream.SqlTransactionHandler;
 import com.amazonaws.xray.agent.runtime.handlers.upstream.ServletHandler;
 import software.amazon.disco.agent.event.Listener;
 
@@ -24,6 +26,8 @@ public class XRayListenerFactory implements ListenerFactory {
     private static final String HTTP_SERVLET_ORIGIN = "httpServlet";
     private static final String SQL_ORIGIN = "SQL";
     private static final String SQL_PREPARE_ORIGIN = "SqlPrepare";
+    private static final String SQL_CONNECTION_ORIGIN = "SqlConnection";
+    private static final String SQL_TRANSACTION_ORIGIN = "SqlTransaction";
 
     private static URL manifest;
     private static int configVersion;
@@ -46,9 +50,12 @@ public class XRayListenerFactory implements ListenerFactory {
         }
 
         EventDispatcher downstreamEventDispatcher = new EventDispatcher();
-        downstreamEventDispatcher.addHandler(APACHE_HTTP_CLIENT_ORIGIN, new HttpClientHandler());
+        downstreamEventDispatcher.addHandler(APACHE_HTTP_CLIENT_ORIGIN,
+                new HttpClientHandler(XRaySDKConfiguration.getInstance().getIgnoredHttpClientPaths()));
         downstreamEventDispatcher.addHandler(SQL_ORIGIN, new SqlHandler());
         downstreamEventDispatcher.addHandler(SQL_PREPARE_ORIGIN, new SqlPrepareHandler());
+        downstreamEventDispatcher.addHandler(SQL_CONNECTION_ORIGIN, new SqlConnectionHandler());
+        downstreamEventDispatcher.addHandler(SQL_TRANSACTION_ORIGIN, new SqlTransactionHandler());
 
         if (configVersion == 1 && manifest != null) {
             downstreamEventDispatcher.addHandler(AWS_ORIGIN, new AWSHandler(manifest));
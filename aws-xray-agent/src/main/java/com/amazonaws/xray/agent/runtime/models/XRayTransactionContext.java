@@ -12,50 +12,77 @@ import com.amazonaws.xray.listeners.SegmentListener;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.checkerframework.checker.nullness.qual.Nullable;
-import software.amazon.disco.agent.concurrent.TransactionContext;
+
+import java.util.List;
 
 /**
  * X-Ray-friendly context that utilizes the TransactionContext object to propagate across thread boundaries. This context
  * is used by the global recorder to maintain segments and subsegments.
+ *
+ * The current entity is kept in the transaction's {@link XRayTransactionSlot}, so the context itself is stateless and a
+ * single instance serves every transaction.
+ *
+ * Every entity that's set or cleared is announced to the recorder's segment listeners, such as the trace ID
+ * injectors. The recorder's listeners are copied into an array that's reused until the recorder or its number of
+ * listeners changes, since they're only added while the agent starts or when trace ID injection is lazily loaded.
  */
 public class XRayTransactionContext implements SegmentContext {
-    private static final String XRAY_ENTITY_KEY = "DiscoXRayEntity";
     private static final Log log = LogFactory.getLog(XRayTransactionContext.class);
 
+    static final XRayTransactionContext INSTANCE = new XRayTransactionContext();
+
+    private static volatile ListenerSnapshot listenerSnapshot = ListenerSnapshot.EMPTY;
+
     // Transaction Context approach.
     @Nullable
     public Entity getTraceEntity() {
-        return (Entity) TransactionContext.getMetadata(XRAY_ENTITY_KEY);
+        XRayTransactionSlot slot = XRayTransactionSlot.peek();
+        return slot != null ? slot.getTraceEntity() : null;
     }
 
     public void setTraceEntity(@Nullable Entity entity) {
+        setTraceEntity(entity, entity != null ? XRayTransactionSlot.get() : XRayTransactionSlot.peek());
+    }
+
+    private static void setTraceEntity(@Nullable Entity entity, @Nullable XRayTransactionSlot slot) {
+        if (slot == null) {
+            // Nothing was ever set for this transaction, so there's nothing to clear
+            return;
+        }
+
         if (entity != null && entity.getCreator() != null) {
-            for (SegmentListener l : entity.getCreator().getSegmentListeners()) {
-                if (l != null) {
-                    l.onSetEntity((Entity) TransactionContext.getMetadata(XRAY_ENTITY_KEY), entity);
+            SegmentListener[] listeners = getSegmentListeners(entity.getCreator());
+            if (listeners.length > 0) {
+                Entity oldEntity = slot.getTraceEntity();
+                for (SegmentListener l : listeners) {
+                    l.onSetEntity(oldEntity, entity);
                 }
             }
         }
 
-        TransactionContext.putMetadata(XRAY_ENTITY_KEY, entity);
+        slot.setTraceEntity(entity);
     }
 
     public void clearTraceEntity() {
-        Entity oldEntity = (Entity) TransactionContext.getMetadata(XRAY_ENTITY_KEY);
+        XRayTransactionSlot slot = XRayTransactionSlot.peek();
+        if (slot == null) {
+            return;
+        }
+
+        Entity oldEntity = slot.getTraceEntity();
         if (oldEntity != null && oldEntity.getCreator() != null) {
-            for (SegmentListener l : oldEntity.getCreator().getSegmentListeners()) {
-                if (l != null) {
-                    l.onClearEntity(oldEntity);
-                }
+            for (SegmentListener l : getSegmentListeners(oldEntity.getCreator())) {
+                l.onClearEntity(oldEntity);
             }
         }
 
-        TransactionContext.putMetadata(XRAY_ENTITY_KEY, null);
+        slot.setTraceEntity(null);
     }
 
     @Override
     public Subsegment beginSubsegment(AWSXRayRecorder recorder, String name) {
-        Entity current = getTraceEntity();
+        XRayTransactionSlot slot = XRayTransactionSlot.peek();
+        Entity current = slot != null ? slot.getTraceEntity() : null;
         if (null == current) {
             recorder.getContextMissingStrategy().contextMissing("Failed to begin subsegment named '" + name + "': segment cannot be found.", SegmentNotFoundException.class);
             return Subsegment.noOp(recorder);
@@ -63,17 +90,21 @@ public class XRayTransactionContext implements SegmentContext {
         if (log.isDebugEnabled()) {
             log.debug("Beginning subsegment named: " + name);
         }
-        Segment parentSegment = getTraceEntity().getParentSegment();
-        Subsegment subsegment = new SubsegmentImpl(recorder, name, parentSegment);
+        Segment parentSegment = current.getParentSegment();
+        // Nothing is recorded under the no-op segments of unsampled transactions
+        Subsegment subsegment = parentSegment.isRecording()
+                ? new SubsegmentImpl(recorder, name, parentSegment)
+                : Subsegment.noOp(parentSegment, recorder);
         subsegment.setParent(current);
         current.addSubsegment(subsegment);
-        setTraceEntity(subsegment);
+        setTraceEntity(subsegment, slot);
         return subsegment;
     }
 
     @Override
     public void endSubsegment(AWSXRayRecorder recorder) {
-        Entity current = getTraceEntity();
+        XRayTransactionSlot slot = XRayTransactionSlot.peek();
+        Entity current = slot != null ? slot.getTraceEntity() : null;
         if (current instanceof Subsegment) {
             if (log.isDebugEnabled()) {
                 log.debug("Ending subsegment named: " + current.getName());
@@ -85,10 +116,44 @@ public class XRayTransactionContext implements SegmentContext {
                 if (recorder.getStreamingStrategy().requiresStreaming(currentSubsegment.getParentSegment())) {
                     recorder.getStreamingStrategy().streamSome(currentSubsegment.getParentSegment(), recorder.getEmitter());
                 }
-                setTraceEntity(current.getParent());
+                setTraceEntity(current.getParent(), slot);
             }
         } else {
             recorder.getContextMissingStrategy().contextMissing("Failed to end subsegment: subsegment cannot be found.", SubsegmentNotFoundException.class);
         }
     }
+
+    private static SegmentListener[] getSegmentListeners(AWSXRayRecorder recorder) {
+        ListenerSnapshot snapshot = listenerSnapshot;
+        List<SegmentListener> listeners = recorder.getSegmentListeners();
+        if (snapshot.recorder != recorder || snapshot.size != listeners.size()) {
+            snapshot = new ListenerSnapshot(recorder, listeners);
+            listenerSnapshot = snapshot;
+        }
+        return snapshot.listeners;
+    }
+
+    /**
+     * The non-null segment listeners of a recorder, and how many listeners it had when they were copied.
+     */
+    private static final class ListenerSnapshot {
+        static final ListenerSnapshot EMPTY = new ListenerSnapshot();
+
+        @Nullable
+        final AWSXRayRecorder recorder;
+        final int size;
+        final SegmentListener[] listeners;
+
+        private ListenerSnapshot() {
+            this.recorder = null;
+            this.size = 0;
+            this.listeners = new SegmentListener[0];
+        }
+
+        ListenerSnapshot(AWSXRayRecorder recorder, List<SegmentListener> listeners) {
+            this.recorder = recorder;
+            this.size = listeners.size();
+            this.listeners = listeners.stream().filter(l -> l != null).toArray(SegmentListener[]::new);
+        }
+    }
 }
@@ -5,8 +5,11 @@ import com.amazonaws.xray.contexts.SegmentContextResolver;
 
 public class XRayTransactionContextResolver implements SegmentContextResolver {
 
+    /**
+     * @return the shared context, which keeps no state of its own, rather than a new one for every recorder call
+     */
     @Override
     public SegmentContext resolve() {
-        return new XRayTransactionContext();
+        return XRayTransactionContext.INSTANCE;
     }
 }
\ No newline at end of file
@@ -0,0 +1,175 @@
+package com.amazonaws.xray.agent.runtime.models;
+
+import com.amazonaws.xray.entities.Entity;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import software.amazon.disco.agent.concurrent.TransactionContext;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Everything the agent keeps for a transaction in the TransactionContext, behind a single key. The segment context,
+ * the handlers and the SQL handler's call depth used to each have a key of their own, so a single downstream call
+ * looked several of them up, some more than once. Now each event looks the slot up once and then reads and updates
+ * its fields in place.
+ *
+ * The slot is shared by every thread the TransactionContext is propagated to, like the metadata it replaces, so its
+ * fields are volatile.
+ *
+ * Handlers that keep something open or tracked for the transaction's segment register an action to finish it before
+ * the segment ends, so that nothing they hold outlives the segment or keeps it from being sent.
+ */
+public final class XRayTransactionSlot {
+    private static final String XRAY_TRANSACTION_SLOT_KEY = "XRayTransactionSlot";
+
+    @Nullable
+    private volatile Entity traceEntity;
+    @Nullable
+    private volatile XRayTransactionState transactionState;
+    @Nullable
+    private volatile Object sqlCallState;
+    @Nullable
+    private volatile Object httpCallState;
+    @Nullable
+    private volatile Object repeatedStatementTracker;
+    @Nullable
+    private volatile Object sqlTransactionState;
+    @Nullable
+    private volatile Object connectionAcquisition;
+    // Guarded by the slot
+    @Nullable
+    private List<Runnable> segmentEndActions;
+
+    private XRayTransactionSlot() {
+    }
+
+    /**
+     * @return the current transaction's slot, which is created and stored in the TransactionContext if it doesn't
+     * exist yet
+     */
+    public static XRayTransactionSlot get() {
+        XRayTransactionSlot slot = peek();
+        if (slot == null) {
+            slot = new XRayTransactionSlot();
+            TransactionContext.putMetadata(XRAY_TRANSACTION_SLOT_KEY, slot);
+        }
+        return slot;
+    }
+
+    /**
+     * @return the current transaction's slot, or null if nothing has been stored for the transaction yet
+     */
+    @Nullable
+    public static XRayTransactionSlot peek() {
+        return (XRayTransactionSlot) TransactionContext.getMetadata(XRAY_TRANSACTION_SLOT_KEY);
+    }
+
+    @Nullable
+    public Entity getTraceEntity() {
+        return traceEntity;
+    }
+
+    public void setTraceEntity(@Nullable Entity traceEntity) {
+        this.traceEntity = traceEntity;
+    }
+
+    @Nullable
+    public XRayTransactionState getTransactionState() {
+        return transactionState;
+    }
+
+    public void setTransactionState(@Nullable XRayTransactionState transactionState) {
+        this.transactionState = transactionState;
+    }
+
+    /**
+     * @return the state the SQL handler keeps to track nested SQL calls on each of the transaction's threads, which
+     * only it knows the type of
+     */
+    @Nullable
+    public Object getSqlCallState() {
+        return sqlCallState;
+    }
+
+    public void setSqlCallState(@Nullable Object sqlCallState) {
+        this.sqlCallState = sqlCallState;
+    }
+
+    /**
+     * @return the state the HTTP client handler carries from a request to its response, which only it knows the type
+     * of
+     */
+    @Nullable
+    public Object getHttpCallState() {
+        return httpCallState;
+    }
+
+    public void setHttpCallState(@Nullable Object httpCallState) {
+        this.httpCallState = httpCallState;
+    }
+
+    /**
+     * @return the tracker the SQL handler counts the segment's repeated statements with, which only it knows the type
+     * of
+     */
+    @Nullable
+    public Object getRepeatedStatementTracker() {
+        return repeatedStatementTracker;
+    }
+
+    public void setRepeatedStatementTracker(@Nullable Object repeatedStatementTracker) {
+        this.repeatedStatementTracker = repeatedStatementTracker;
+    }
+
+    /**
+     * @return the JDBC transaction the SQL transaction handler tracks for the transaction, which only it knows the
+     * type of
+     */
+    @Nullable
+    public Object getSqlTransactionState() {
+        return sqlTransactionState;
+    }
+
+    public void setSqlTransactionState(@Nullable Object sqlTransactionState) {
+        this.sqlTransactionState = sqlTransactionState;
+    }
+
+    /**
+     * @return the connection acquisition the SQL connection handler times for the transaction, which only it knows
+     * the type of
+     */
+    @Nullable
+    public Object getConnectionAcquisition() {
+        return connectionAcquisition;
+    }
+
+    public void setConnectionAcquisition(@Nullable Object connectionAcquisition) {
+        this.connectionAcquisition = connectionAcquisition;
+    }
+
+    /**
+     * @param action Run before the transaction's segment ends, on the thread ending it.
+     */
+    public synchronized void addSegmentEndAction(Runnable action) {
+        if (segmentEndActions == null) {
+            segmentEndActions = new ArrayList<>(2);
+        }
+        segmentEndActions.add(action);
+    }
+
+    /**
+     * Runs and forgets the actions registered for the segment, in the order they were registered.
+     */
+    public void runSegmentEndActions() {
+        List<Runnable> actions;
+        synchronized (this) {
+            actions = segmentEndActions;
+            segmentEndActions = null;
+        }
+        if (actions != null) {
+            for (Runnable action : actions) {
+                action.run();
+            }
+        }
+    }
+}
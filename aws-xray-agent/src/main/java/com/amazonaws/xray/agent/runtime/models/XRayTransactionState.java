@@ -1,10 +1,7 @@
 package com.amazonaws.xray.agent.runtime.models;
 
-import com.blogspot.mydailyjava.weaklockfree.WeakConcurrentMap;
 import org.checkerframework.checker.nullness.qual.Nullable;
 
-import java.sql.PreparedStatement;
-
 /**
  * Contains state information for each logical request/response transaction event.
  *
@@ -19,10 +16,9 @@ public class XRayTransactionState {
     private String serviceType; // Type of AWS resource running application.
     private String traceHeader;
     private String origin;
+    private boolean sampled = true;
 
     private static String serviceName;
-    private static final WeakConcurrentMap<PreparedStatement, String> preparedStatementMap
-            = new WeakConcurrentMap.WithInlinedExpunction<>();
 
     public XRayTransactionState withHost(String host) {
         this.host = host;
@@ -64,6 +60,15 @@ public class XRayTransactionState {
         return this;
     }
 
+    /**
+     * Records the sampling decision made when the transaction's segment began, so downstream handlers can skip
+     * generating subsegments for unsampled transactions without recomputing it.
+     */
+    public XRayTransactionState withSampled(boolean sampled) {
+        this.sampled = sampled;
+        return this;
+    }
+
     public String getHost() {
         return this.host;
     }
@@ -98,6 +103,10 @@ public class XRayTransactionState {
         return this.origin;
     }
 
+    public boolean isSampled() {
+        return this.sampled;
+    }
+
     public static void setServiceName(String inServiceName) {
         serviceName = inServiceName;
     }
@@ -105,12 +114,4 @@ public class XRayTransactionState {
     public static String getServiceName() {
         return serviceName;
     }
-
-    public static void putPreparedQuery(PreparedStatement ps, String query) {
-        preparedStatementMap.put(ps, query);
-    }
-
-    public static String getPreparedQuery(PreparedStatement ps) {
-        return preparedStatementMap.get(ps);
-    }
 }
@@ -0,0 +1,84 @@
+package com.amazonaws.xray.agent.runtime.config;
+
+import com.amazonaws.xray.entities.Segment;
+import com.amazonaws.xray.entities.Subsegment;
+import com.amazonaws.xray.listeners.SegmentListener;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class SegmentChangeListenerTest {
+    private SegmentListener injector;
+    private SegmentChangeListener listener;
+    private Segment segment;
+    private Subsegment subsegment;
+
+    @Before
+    public void setup() {
+        injector = mock(SegmentListener.class);
+        listener = new SegmentChangeListener(injector);
+        segment = mockSegment("segment-1");
+        subsegment = mock(Subsegment.class);
+        when(subsegment.getParentSegment()).thenReturn(segment);
+    }
+
+    @Test
+    public void testSubsegmentsDoNotNotify() {
+        listener.onSetEntity(null, segment);
+        listener.onSetEntity(segment, subsegment);
+        listener.onSetEntity(subsegment, segment);
+
+        verify(injector, times(1)).onSetEntity(any(), any());
+        verify(injector).onSetEntity(null, segment);
+    }
+
+    @Test
+    public void testSegmentChangeNotifies() {
+        Segment nextSegment = mockSegment("segment-2");
+
+        listener.onSetEntity(null, subsegment);
+        listener.onSetEntity(subsegment, nextSegment);
+
+        verify(injector).onSetEntity(null, segment);
+        verify(injector).onSetEntity(subsegment, nextSegment);
+    }
+
+    @Test
+    public void testClearNotifies() {
+        listener.onSetEntity(null, segment);
+        listener.onClearEntity(segment);
+        listener.onSetEntity(null, segment);
+
+        verify(injector).onClearEntity(segment);
+        verify(injector, times(2)).onSetEntity(null, segment);
+    }
+
+    @Test
+    public void testEachThreadNotified() throws InterruptedException {
+        listener.onSetEntity(null, segment);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        executor.submit(() -> listener.onSetEntity(segment, subsegment));
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+
+        verify(injector).onSetEntity(null, segment);
+        verify(injector).onSetEntity(segment, segment);
+    }
+
+    private static Segment mockSegment(String id) {
+        Segment segment = mock(Segment.class);
+        when(segment.getId()).thenReturn(id);
+        when(segment.getParentSegment()).thenReturn(segment);
+        return segment;
+    }
+}
@@ -3,10 +3,19 @@ package com.amazonaws.xray.agent.runtime.config;
 import com.amazonaws.xray.AWSXRay;
 import com.amazonaws.xray.AWSXRayRecorder;
 import com.amazonaws.xray.AWSXRayRecorderBuilder;
+import com.amazonaws.xray.agent.runtime.emitters.AsyncEmitter;
+import com.amazonaws.xray.agent.runtime.emitters.OtlpEmitter;
+import com.amazonaws.xray.agent.runtime.emitters.PackingEmitter;
+import com.amazonaws.xray.agent.runtime.emitters.SpillingEmitter;
+import com.amazonaws.xray.agent.runtime.emitters.StreamEmitter;
+import com.amazonaws.xray.agent.runtime.emitters.StripedChannelEmitter;
+import com.amazonaws.xray.agent.runtime.emitters.TraceSegmentsEmitter;
 import com.amazonaws.xray.agent.runtime.models.XRayTransactionContext;
 import com.amazonaws.xray.agent.runtime.models.XRayTransactionState;
 import com.amazonaws.xray.contexts.ThreadLocalSegmentContext;
+import com.amazonaws.xray.emitters.Emitter;
 import com.amazonaws.xray.emitters.UDPEmitter;
+import com.amazonaws.xray.entities.Segment;
 import com.amazonaws.xray.log4j.Log4JSegmentListener;
 import com.amazonaws.xray.strategy.DefaultStreamingStrategy;
 import com.amazonaws.xray.strategy.DefaultThrowableSerializationStrategy;
@@ -23,6 +32,7 @@ import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.contrib.java.lang.system.EnvironmentVariables;
+import org.junit.rules.TemporaryFolder;
 import org.mockito.ArgumentCaptor;
 
 import java.io.File;
@@ -31,6 +41,7 @@ import java.net.URL;
 import java.util.HashMap;
 import java.util.Map;
 
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
@@ -47,6 +58,9 @@ public class XRaySDKConfigurationTest {
     @Rule
     public final EnvironmentVariables environmentVariables = new EnvironmentVariables();
 
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     @Before
     public void setup() {
         AWSXRay.setGlobalRecorder(new AWSXRayRecorder());
@@ -62,6 +76,8 @@ public class XRaySDKConfigurationTest {
         System.clearProperty(XRaySDKConfiguration.ENABLED_SYSTEM_PROPERTY_KEY);
         environmentVariables.set(SegmentNamingStrategy.NAME_OVERRIDE_ENVIRONMENT_VARIABLE_KEY, null);
         environmentVariables.set(XRaySDKConfiguration.ENABLED_ENVIRONMENT_VARIABLE_KEY, null);
+        environmentVariables.set(XRaySDKConfiguration.DAEMON_ADDRESS_ENVIRONMENT_VARIABLE_KEY, null);
+        System.clearProperty(XRaySDKConfiguration.DAEMON_ADDRESS_SYSTEM_PROPERTY_KEY);
     }
 
     @Test(expected = InvalidAgentConfigException.class)
@@ -265,6 +281,353 @@ public class XRaySDKConfigurationTest {
         Assert.assertNotNull(captor.getValue());
     }
 
+    @Test
+    public void testSynchronousEmissionByDefault() {
+        AWSXRayRecorderBuilder builderMock = mock(AWSXRayRecorderBuilder.class);
+        config.setAgentConfiguration(new AgentConfiguration(configMap));
+
+        config.init(builderMock);
+
+        ArgumentCaptor<Emitter> captor = ArgumentCaptor.forClass(Emitter.class);
+        verify(builderMock).withEmitter(captor.capture());
+        Assert.assertTrue(captor.getValue() instanceof UDPEmitter);
+    }
+
+    @Test
+    public void testAsyncEmission() {
+        AWSXRayRecorderBuilder builderMock = mock(AWSXRayRecorderBuilder.class);
+        configMap.put("asyncEmission", "true");
+        configMap.put("emitterQueueCapacity", "16");
+        configMap.put("emitterDropPolicy", "drop_oldest");
+        config.setAgentConfiguration(new AgentConfiguration(configMap));
+
+        config.init(builderMock);
+
+        ArgumentCaptor<Emitter> captor = ArgumentCaptor.forClass(Emitter.class);
+        verify(builderMock).withEmitter(captor.capture());
+        Assert.assertTrue(captor.getValue() instanceof AsyncEmitter);
+        ((AsyncEmitter) captor.getValue()).shutdown();
+    }
+
+    @Test
+    public void testReinitShutsDownPreviousEmitter() {
+        AWSXRayRecorderBuilder firstBuilderMock = mock(AWSXRayRecorderBuilder.class);
+        AWSXRayRecorderBuilder secondBuilderMock = mock(AWSXRayRecorderBuilder.class);
+        configMap.put("asyncEmission", "true");
+        config.setAgentConfiguration(new AgentConfiguration(configMap));
+
+        config.init(firstBuilderMock);
+        config.init(secondBuilderMock);
+
+        ArgumentCaptor<Emitter> firstCaptor = ArgumentCaptor.forClass(Emitter.class);
+        verify(firstBuilderMock).withEmitter(firstCaptor.capture());
+        ArgumentCaptor<Emitter> secondCaptor = ArgumentCaptor.forClass(Emitter.class);
+        verify(secondBuilderMock).withEmitter(secondCaptor.capture());
+        // A stopped emitter no longer accepts entities
+        Assert.assertFalse(firstCaptor.getValue().sendSegment(mock(Segment.class)));
+        ((AsyncEmitter) secondCaptor.getValue()).shutdown();
+    }
+
+    @Test
+    public void testInvalidReinitKeepsPreviousEmitter() {
+        AWSXRayRecorderBuilder firstBuilderMock = mock(AWSXRayRecorderBuilder.class);
+        AWSXRayRecorderBuilder secondBuilderMock = mock(AWSXRayRecorderBuilder.class);
+        configMap.put("asyncEmission", "true");
+        config.setAgentConfiguration(new AgentConfiguration(configMap));
+        config.init(firstBuilderMock);
+        ArgumentCaptor<Emitter> firstCaptor = ArgumentCaptor.forClass(Emitter.class);
+        verify(firstBuilderMock).withEmitter(firstCaptor.capture());
+
+        configMap.put("emitterDropPolicy", "DROP_EVERYTHING");
+        config.setAgentConfiguration(new AgentConfiguration(configMap));
+        try {
+            config.init(secondBuilderMock);
+            Assert.fail("Expected the invalid drop policy to be rejected");
+        } catch (InvalidAgentConfigException e) {
+            // Expected
+        }
+
+        verify(secondBuilderMock, never()).withEmitter(any());
+        // The running emitter was neither stopped nor replaced, so it's stopped here instead
+        Assert.assertEquals(firstCaptor.getValue(), config.getAsyncEmitter());
+        ((AsyncEmitter) firstCaptor.getValue()).shutdown();
+    }
+
+    @Test(expected = InvalidAgentConfigException.class)
+    public void testInvalidEmitterQueueCapacity() {
+        AWSXRayRecorderBuilder builderMock = mock(AWSXRayRecorderBuilder.class);
+        configMap.put("asyncEmission", "true");
+        configMap.put("emitterQueueCapacity", "0");
+        config.setAgentConfiguration(new AgentConfiguration(configMap));
+
+        config.init(builderMock);
+    }
+
+    @Test(expected = InvalidAgentConfigException.class)
+    public void testInvalidEmitterDropPolicy() {
+        AWSXRayRecorderBuilder builderMock = mock(AWSXRayRecorderBuilder.class);
+        configMap.put("asyncEmission", "true");
+        configMap.put("emitterDropPolicy", "DROP_EVERYTHING");
+        config.setAgentConfiguration(new AgentConfiguration(configMap));
+
+        config.init(builderMock);
+    }
+
+    @Test
+    public void testPackedEmitterMode() {
+        AWSXRayRecorderBuilder builderMock = mock(AWSXRayRecorderBuilder.class);
+        configMap.put("emitterMode", "packed");
+        configMap.put("emitterMaxDatagramSize", "8192");
+        config.setAgentConfiguration(new AgentConfiguration(configMap));
+
+        config.init(builderMock);
+
+        ArgumentCaptor<Emitter> captor = ArgumentCaptor.forClass(Emitter.class);
+        verify(builderMock).withEmitter(captor.capture());
+        Assert.assertTrue(captor.getValue() instanceof PackingEmitter);
+        ((PackingEmitter) captor.getValue()).shutdown();
+    }
+
+    @Test
+    public void testStripedEmitterMode() {
+        AWSXRayRecorderBuilder builderMock = mock(AWSXRayRecorderBuilder.class);
+        configMap.put("emitterMode", "STRIPED");
+        configMap.put("emitterChannelCount", "3");
+        config.setAgentConfiguration(new AgentConfiguration(configMap));
+
+        config.init(builderMock);
+
+        ArgumentCaptor<Emitter> captor = ArgumentCaptor.forClass(Emitter.class);
+        verify(builderMock).withEmitter(captor.capture());
+        Assert.assertTrue(captor.getValue() instanceof StripedChannelEmitter);
+        ((StripedChannelEmitter) captor.getValue()).close();
+    }
+
+    @Test(expected = InvalidAgentConfigException.class)
+    public void testInvalidEmitterChannelCount() {
+        AWSXRayRecorderBuilder builderMock = mock(AWSXRayRecorderBuilder.class);
+        configMap.put("emitterMode", "STRIPED");
+        configMap.put("emitterChannelCount", "0");
+        config.setAgentConfiguration(new AgentConfiguration(configMap));
+
+        config.init(builderMock);
+    }
+
+    @Test
+    public void testSpillingEmitter() {
+        AWSXRayRecorderBuilder builderMock = mock(AWSXRayRecorderBuilder.class);
+        configMap.put("spillFilePath", new File(temporaryFolder.getRoot(), "spill").getPath());
+        configMap.put("spillMaxBytes", "1048576");
+        config.setAgentConfiguration(new AgentConfiguration(configMap));
+
+        config.init(builderMock);
+
+        ArgumentCaptor<Emitter> captor = ArgumentCaptor.forClass(Emitter.class);
+        verify(builderMock).withEmitter(captor.capture());
+        Assert.assertTrue(captor.getValue() instanceof SpillingEmitter);
+        ((SpillingEmitter) captor.getValue()).shutdown();
+    }
+
+    @Test(expected = InvalidAgentConfigException.class)
+    public void testSpillingRequiresUdpEmitterMode() {
+        AWSXRayRecorderBuilder builderMock = mock(AWSXRayRecorderBuilder.class);
+        configMap.put("emitterMode", "PACKED");
+        configMap.put("spillFilePath", new File(temporaryFolder.getRoot(), "spill").getPath());
+        config.setAgentConfiguration(new AgentConfiguration(configMap));
+
+        config.init(builderMock);
+    }
+
+    @Test(expected = InvalidAgentConfigException.class)
+    public void testInvalidSpillMaxBytes() {
+        AWSXRayRecorderBuilder builderMock = mock(AWSXRayRecorderBuilder.class);
+        configMap.put("spillFilePath", new File(temporaryFolder.getRoot(), "spill").getPath());
+        configMap.put("spillMaxBytes", "100");
+        config.setAgentConfiguration(new AgentConfiguration(configMap));
+
+        config.init(builderMock);
+    }
+
+    @Test
+    public void testHttpEmitterMode() {
+        AWSXRayRecorderBuilder builderMock = mock(AWSXRayRecorderBuilder.class);
+        configMap.put("emitterMode", "HTTP");
+        configMap.put("exporterEndpoint", "http://127.0.0.1:2000");
+        config.setAgentConfiguration(new AgentConfiguration(configMap));
+
+        config.init(builderMock);
+
+        ArgumentCaptor<Emitter> captor = ArgumentCaptor.forClass(Emitter.class);
+        verify(builderMock).withEmitter(captor.capture());
+        Assert.assertTrue(captor.getValue() instanceof TraceSegmentsEmitter);
+        ((TraceSegmentsEmitter) captor.getValue()).shutdown();
+    }
+
+    @Test
+    public void testOtlpEmitterMode() {
+        AWSXRayRecorderBuilder builderMock = mock(AWSXRayRecorderBuilder.class);
+        configMap.put("emitterMode", "OTLP");
+        configMap.put("otlpEndpoint", "http://127.0.0.1:4318");
+        config.setAgentConfiguration(new AgentConfiguration(configMap));
+
+        config.init(builderMock);
+
+        ArgumentCaptor<Emitter> captor = ArgumentCaptor.forClass(Emitter.class);
+        verify(builderMock).withEmitter(captor.capture());
+        Assert.assertTrue(captor.getValue() instanceof OtlpEmitter);
+        ((OtlpEmitter) captor.getValue()).shutdown();
+    }
+
+    @Test(expected = InvalidAgentConfigException.class)
+    public void testInvalidMaxPreparedStatements() {
+        AWSXRayRecorderBuilder builderMock = mock(AWSXRayRecorderBuilder.class);
+        configMap.put("maxPreparedStatements", "0");
+        config.setAgentConfiguration(new AgentConfiguration(configMap));
+
+        config.init(builderMock);
+    }
+
+    @Test(expected = InvalidAgentConfigException.class)
+    public void testInvalidRepeatedQueryThreshold() {
+        AWSXRayRecorderBuilder builderMock = mock(AWSXRayRecorderBuilder.class);
+        configMap.put("repeatedQueryThreshold", "-1");
+        config.setAgentConfiguration(new AgentConfiguration(configMap));
+
+        config.init(builderMock);
+    }
+
+    @Test(expected = InvalidAgentConfigException.class)
+    public void testInvalidSlowSqlQueryThreshold() {
+        AWSXRayRecorderBuilder builderMock = mock(AWSXRayRecorderBuilder.class);
+        configMap.put("slowSqlQueryThresholdMillis", "-1");
+        config.setAgentConfiguration(new AgentConfiguration(configMap));
+
+        config.init(builderMock);
+    }
+
+    @Test(expected = InvalidAgentConfigException.class)
+    public void testInvalidIgnoredHttpClientPath() {
+        AWSXRayRecorderBuilder builderMock = mock(AWSXRayRecorderBuilder.class);
+        configMap.put("ignoredHttpClientPaths", "/health, ping");
+        config.setAgentConfiguration(new AgentConfiguration(configMap));
+
+        config.init(builderMock);
+    }
+
+    @Test(expected = InvalidAgentConfigException.class)
+    public void testInvalidConnectionWaitThreshold() {
+        AWSXRayRecorderBuilder builderMock = mock(AWSXRayRecorderBuilder.class);
+        configMap.put("connectionWaitThresholdMillis", "-1");
+        config.setAgentConfiguration(new AgentConfiguration(configMap));
+
+        config.init(builderMock);
+    }
+
+    @Test(expected = InvalidAgentConfigException.class)
+    public void testInvalidExporterEndpoint() {
+        AWSXRayRecorderBuilder builderMock = mock(AWSXRayRecorderBuilder.class);
+        configMap.put("emitterMode", "HTTP");
+        configMap.put("exporterEndpoint", "not a url");
+        config.setAgentConfiguration(new AgentConfiguration(configMap));
+
+        config.init(builderMock);
+    }
+
+    @Test
+    public void testTcpDaemonAddress() {
+        AWSXRayRecorderBuilder builderMock = mock(AWSXRayRecorderBuilder.class);
+        configMap.put("daemonAddress", "tcp://127.0.0.1:2000");
+        config.setAgentConfiguration(new AgentConfiguration(configMap));
+
+        config.init(builderMock);
+
+        ArgumentCaptor<Emitter> captor = ArgumentCaptor.forClass(Emitter.class);
+        verify(builderMock).withEmitter(captor.capture());
+        Assert.assertTrue(captor.getValue() instanceof StreamEmitter);
+        ((StreamEmitter) captor.getValue()).shutdown();
+    }
+
+    @Test
+    public void testEnvironmentDaemonAddressOverridesStreamAddress() {
+        AWSXRayRecorderBuilder builderMock = mock(AWSXRayRecorderBuilder.class);
+        environmentVariables.set(XRaySDKConfiguration.DAEMON_ADDRESS_ENVIRONMENT_VARIABLE_KEY, "127.0.0.1:3000");
+        configMap.put("daemonAddress", "tcp://127.0.0.1:2000");
+        config.setAgentConfiguration(new AgentConfiguration(configMap));
+
+        config.init(builderMock);
+
+        ArgumentCaptor<Emitter> captor = ArgumentCaptor.forClass(Emitter.class);
+        verify(builderMock).withEmitter(captor.capture());
+        Assert.assertTrue(captor.getValue() instanceof UDPEmitter);
+    }
+
+    @Test
+    public void testStreamDaemonAddressFromEnvironment() {
+        AWSXRayRecorderBuilder builderMock = mock(AWSXRayRecorderBuilder.class);
+        environmentVariables.set(XRaySDKConfiguration.DAEMON_ADDRESS_ENVIRONMENT_VARIABLE_KEY, "tcp://127.0.0.1:2000");
+        System.setProperty(XRaySDKConfiguration.DAEMON_ADDRESS_SYSTEM_PROPERTY_KEY, "127.0.0.1:3000");
+        config.setAgentConfiguration(new AgentConfiguration(configMap));
+
+        config.init(builderMock);
+
+        ArgumentCaptor<Emitter> captor = ArgumentCaptor.forClass(Emitter.class);
+        verify(builderMock).withEmitter(captor.capture());
+        Assert.assertTrue(captor.getValue() instanceof StreamEmitter);
+        ((StreamEmitter) captor.getValue()).shutdown();
+    }
+
+    @Test
+    public void testStreamDaemonAddressFromSystemProperty() {
+        AWSXRayRecorderBuilder builderMock = mock(AWSXRayRecorderBuilder.class);
+        System.setProperty(XRaySDKConfiguration.DAEMON_ADDRESS_SYSTEM_PROPERTY_KEY, "tcp://127.0.0.1:2000");
+        config.setAgentConfiguration(new AgentConfiguration(configMap));
+
+        config.init(builderMock);
+
+        ArgumentCaptor<Emitter> captor = ArgumentCaptor.forClass(Emitter.class);
+        verify(builderMock).withEmitter(captor.capture());
+        Assert.assertTrue(captor.getValue() instanceof StreamEmitter);
+        ((StreamEmitter) captor.getValue()).shutdown();
+    }
+
+    @Test(expected = InvalidAgentConfigException.class)
+    public void testInvalidTcpDaemonAddress() {
+        AWSXRayRecorderBuilder builderMock = mock(AWSXRayRecorderBuilder.class);
+        configMap.put("daemonAddress", "tcp://127.0.0.1");
+        config.setAgentConfiguration(new AgentConfiguration(configMap));
+
+        config.init(builderMock);
+    }
+
+    @Test(expected = InvalidAgentConfigException.class)
+    public void testStreamDaemonAddressRequiresUdpEmitterMode() {
+        AWSXRayRecorderBuilder builderMock = mock(AWSXRayRecorderBuilder.class);
+        configMap.put("daemonAddress", "tcp://127.0.0.1:2000");
+        configMap.put("emitterMode", "STRIPED");
+        config.setAgentConfiguration(new AgentConfiguration(configMap));
+
+        config.init(builderMock);
+    }
+
+    @Test(expected = InvalidAgentConfigException.class)
+    public void testInvalidEmitterMode() {
+        AWSXRayRecorderBuilder builderMock = mock(AWSXRayRecorderBuilder.class);
+        configMap.put("emitterMode", "CARRIER_PIGEON");
+        config.setAgentConfiguration(new AgentConfiguration(configMap));
+
+        config.init(builderMock);
+    }
+
+    @Test(expected = InvalidAgentConfigException.class)
+    public void testInvalidEmitterMaxDatagramSize() {
+        AWSXRayRecorderBuilder builderMock = mock(AWSXRayRecorderBuilder.class);
+        configMap.put("emitterMode", "PACKED");
+        configMap.put("emitterMaxDatagramSize", "70000");
+        config.setAgentConfiguration(new AgentConfiguration(configMap));
+
+        config.init(builderMock);
+    }
+
     @Test
     public void testInvalidSamplingRuleManifest() {
         AWSXRayRecorderBuilder builderMock = mock(AWSXRayRecorderBuilder.class);
@@ -380,6 +743,18 @@ public class XRaySDKConfigurationTest {
         Assert.assertEquals("my-prefix", listener.getPrefix());
     }
 
+    @Test
+    public void testTraceIdInjectionPerSegment() {
+        configMap.put("traceIdInjectionPerSegment", "true");
+        config.setAgentConfiguration(new AgentConfiguration(configMap));
+
+        config.init(AWSXRayRecorderBuilder.standard());
+
+        SegmentChangeListener listener = (SegmentChangeListener) AWSXRay.getGlobalRecorder().getSegmentListeners().get(0);
+        Assert.assertEquals(2, AWSXRay.getGlobalRecorder().getSegmentListeners().size());
+        Assert.assertTrue(listener.getDelegate() instanceof Log4JSegmentListener);
+    }
+
     @Test
     public void testMaxStackTraceLength() {
         configMap.put("maxStackTraceLength", "42");
@@ -60,6 +60,26 @@ public class EventDispatcherTest {
         verify(mockHandler, times(1)).handleResponse(serviceResponseEvent);
     }
 
+    @Test
+    public void testDispatchEqualOrigin() {
+        // An origin built at runtime rather than the constant the handler was added with
+        ServiceActivityRequestEvent serviceRequestEvent =
+                new ServiceActivityRequestEvent(new String(ORIGIN), SERVICE, OPERATION);
+        eventDispatcher.dispatchRequestEvent(serviceRequestEvent);
+        verify(mockHandler, times(1)).handleRequest(serviceRequestEvent);
+    }
+
+    @Test
+    public void testReplaceHandler() {
+        XRayHandlerInterface replacementHandler = mock(XRayHandlerInterface.class);
+        eventDispatcher.addHandler(ORIGIN, replacementHandler);
+
+        ServiceActivityRequestEvent serviceRequestEvent = new ServiceActivityRequestEvent(ORIGIN, SERVICE, OPERATION);
+        eventDispatcher.dispatchRequestEvent(serviceRequestEvent);
+        verify(mockHandler, times(0)).handleRequest(serviceRequestEvent);
+        verify(replacementHandler, times(1)).handleRequest(serviceRequestEvent);
+    }
+
     @Test
     public void testDispatchNoHandler() {
         ServiceActivityRequestEvent serviceRequestEvent = new ServiceActivityRequestEvent("NotUsedOrigin", null, null);
@@ -0,0 +1,175 @@
+package com.amazonaws.xray.agent.runtime.emitters;
+
+import com.amazonaws.xray.emitters.Emitter;
+import com.amazonaws.xray.entities.Entity;
+import com.amazonaws.xray.entities.Segment;
+import com.amazonaws.xray.entities.Subsegment;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class AsyncEmitterTest {
+    private static final long TIMEOUT_MILLIS = 1000;
+
+    @Mock
+    private Emitter delegate;
+
+    private AsyncEmitter emitter;
+    private CountDownLatch release;
+
+    @Before
+    public void setup() {
+        MockitoAnnotations.initMocks(this);
+        release = new CountDownLatch(1);
+    }
+
+    @After
+    public void cleanup() {
+        release.countDown();
+        if (emitter != null) {
+            emitter.shutdown();
+        }
+    }
+
+    @Test
+    public void testSegmentSentOffThread() {
+        Thread caller = Thread.currentThread();
+        Thread[] sender = new Thread[1];
+        Segment segment = mock(Segment.class);
+        when(delegate.sendSegment(segment)).thenAnswer(invocation -> {
+            sender[0] = Thread.currentThread();
+            return true;
+        });
+        emitter = new AsyncEmitter(delegate, 10, AsyncEmitter.DropPolicy.DROP_NEWEST);
+
+        assertThat(emitter.sendSegment(segment)).isTrue();
+
+        verify(delegate, timeout(TIMEOUT_MILLIS)).sendSegment(segment);
+        assertThat(sender[0]).isNotSameAs(caller);
+    }
+
+    @Test
+    public void testSubsegmentSent() {
+        Subsegment subsegment = mock(Subsegment.class);
+        emitter = new AsyncEmitter(delegate, 10, AsyncEmitter.DropPolicy.DROP_NEWEST);
+
+        emitter.sendSubsegment(subsegment);
+
+        verify(delegate, timeout(TIMEOUT_MILLIS)).sendSubsegment(subsegment);
+    }
+
+    @Test
+    public void testDropNewestWhenFull() throws InterruptedException {
+        blockDelegate(AsyncEmitter.DropPolicy.DROP_NEWEST);
+        Segment queued = mock(Segment.class);
+        Segment overflow = mock(Segment.class);
+
+        assertThat(emitter.sendSegment(queued)).isTrue();
+        assertThat(emitter.sendSegment(overflow)).isFalse();
+        release.countDown();
+
+        verify(delegate, timeout(TIMEOUT_MILLIS)).sendSegment(queued);
+        verify(delegate, never()).sendSegment(overflow);
+        assertThat(emitter.getDroppedCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testDropOldestWhenFull() throws InterruptedException {
+        blockDelegate(AsyncEmitter.DropPolicy.DROP_OLDEST);
+        Segment oldest = mock(Segment.class);
+        Segment newest = mock(Segment.class);
+
+        assertThat(emitter.sendSegment(oldest)).isTrue();
+        assertThat(emitter.sendSegment(newest)).isTrue();
+        release.countDown();
+
+        verify(delegate, timeout(TIMEOUT_MILLIS)).sendSegment(newest);
+        verify(delegate, never()).sendSegment(oldest);
+        assertThat(emitter.getDroppedCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testOverflowHandlerReceivesDroppedEntity() throws InterruptedException {
+        List<Entity> overflowed = new ArrayList<>();
+        blockDelegate(AsyncEmitter.DropPolicy.DROP_NEWEST, overflowed::add);
+        Segment queued = mock(Segment.class);
+        Segment overflow = mock(Segment.class);
+
+        assertThat(emitter.sendSegment(queued)).isTrue();
+        assertThat(emitter.sendSegment(overflow)).isTrue();
+        release.countDown();
+
+        verify(delegate, timeout(TIMEOUT_MILLIS)).sendSegment(queued);
+        verify(delegate, never()).sendSegment(overflow);
+        assertThat(overflowed).containsExactly(overflow);
+    }
+
+    @Test
+    public void testShutdownFlushesQueue() {
+        Segment segment = mock(Segment.class);
+        emitter = new AsyncEmitter(delegate, 10, AsyncEmitter.DropPolicy.DROP_NEWEST);
+
+        emitter.sendSegment(segment);
+        emitter.shutdown();
+
+        verify(delegate).sendSegment(segment);
+        assertThat(emitter.sendSegment(mock(Segment.class))).isFalse();
+    }
+
+    @Test
+    public void testDelegateExceptionDoesNotStopEmitter() {
+        Segment bad = mock(Segment.class);
+        Segment good = mock(Segment.class);
+        when(delegate.sendSegment(bad)).thenThrow(new RuntimeException("Test Exception"));
+        emitter = new AsyncEmitter(delegate, 10, AsyncEmitter.DropPolicy.DROP_NEWEST);
+
+        emitter.sendSegment(bad);
+        emitter.sendSegment(good);
+
+        verify(delegate, timeout(TIMEOUT_MILLIS)).sendSegment(good);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidCapacity() {
+        new AsyncEmitter(delegate, 0, AsyncEmitter.DropPolicy.DROP_NEWEST);
+    }
+
+    /**
+     * Creates a single-slot emitter whose background thread is stuck sending a segment until {@code release} fires,
+     * so that the queue can be filled deterministically.
+     */
+    private void blockDelegate(AsyncEmitter.DropPolicy dropPolicy) throws InterruptedException {
+        blockDelegate(dropPolicy, null);
+    }
+
+    private void blockDelegate(AsyncEmitter.DropPolicy dropPolicy, Consumer<Entity> overflowHandler)
+            throws InterruptedException {
+        Segment blocking = mock(Segment.class);
+        CountDownLatch started = new CountDownLatch(1);
+        when(delegate.sendSegment(any())).thenReturn(true);
+        when(delegate.sendSegment(blocking)).thenAnswer(invocation -> {
+            started.countDown();
+            release.await();
+            return true;
+        });
+        emitter = new AsyncEmitter(delegate, 1, dropPolicy, overflowHandler);
+        emitter.sendSegment(blocking);
+        assertThat(started.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)).isTrue();
+    }
+}
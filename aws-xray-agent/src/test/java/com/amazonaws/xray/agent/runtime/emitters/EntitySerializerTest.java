@@ -0,0 +1,208 @@
+package com.amazonaws.xray.agent.runtime.emitters;
+
+import com.amazonaws.xray.AWSXRayRecorder;
+import com.amazonaws.xray.AWSXRayRecorderBuilder;
+import com.amazonaws.xray.entities.Entity;
+import com.amazonaws.xray.entities.Segment;
+import com.amazonaws.xray.entities.SegmentImpl;
+import com.amazonaws.xray.entities.Subsegment;
+import com.amazonaws.xray.entities.SubsegmentImpl;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+public class EntitySerializerTest {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private AWSXRayRecorder recorder;
+    private EntitySerializer serializer;
+    private Segment segment;
+
+    @Before
+    public void setup() {
+        recorder = AWSXRayRecorderBuilder.defaultRecorder();
+        serializer = new EntitySerializer();
+        segment = new SegmentImpl(recorder, "test");
+    }
+
+    @Test
+    public void testMinimalSegment() throws IOException {
+        segment.setEndTime(segment.getStartTime() + 0.25);
+
+        assertMatchesSdk(serializer.serialize(segment), segment.serialize());
+    }
+
+    @Test
+    public void testInProgressSegment() throws IOException {
+        segment.setInProgress(true);
+
+        assertMatchesSdk(serializer.serialize(segment), segment.serialize());
+    }
+
+    @Test
+    public void testSegmentWithAttributes() throws IOException {
+        segment.setEndTime(segment.getStartTime() + 1);
+        segment.setFault(true);
+        segment.setError(true);
+        segment.setOrigin("AWS::EC2::Instance");
+        segment.setUser("user");
+        segment.putService("runtime", "OpenJDK");
+        segment.putAws("xray", Collections.singletonMap("auto_instrumentation", true));
+        segment.putAws("ec2", Collections.singletonMap("instance_id", "i-1234"));
+        segment.putHttp("request", Collections.singletonMap("url", "http://example.com/path?a=b"));
+        segment.putHttp("response", Collections.singletonMap("status", 500));
+        segment.putAnnotation("string", "value");
+        segment.putAnnotation("number", 1.5);
+        segment.putAnnotation("flag", false);
+        segment.putMetadata("key", Arrays.asList(1L, "two", null, new BigDecimal("3.25")));
+        segment.putMetadata("namespace", "nested", Collections.singletonMap("inner", 42));
+
+        assertMatchesSdk(serializer.serialize(segment), segment.serialize());
+    }
+
+    @Test
+    public void testSegmentWithNestedSubsegments() throws IOException {
+        Subsegment child = addSubsegment(segment, "child");
+        child.setNamespace("remote");
+        child.putSql("url", "jdbc:postgresql://localhost:5432/db");
+        child.putSql("sanitized_query", "SELECT * FROM t WHERE id = ?");
+        Subsegment grandchild = addSubsegment(child, "grandchild");
+        grandchild.setThrottle(true);
+        grandchild.setEndTime(grandchild.getStartTime() + 0.001);
+        child.setEndTime(child.getStartTime() + 0.002);
+        segment.setEndTime(segment.getStartTime() + 0.003);
+
+        assertMatchesSdk(serializer.serialize(segment), segment.serialize());
+    }
+
+    @Test
+    public void testStreamedSubsegment() throws IOException {
+        Subsegment child = addSubsegment(segment, "child");
+        child.putAws("operation", "GetItem");
+        child.putAws("retries", 0);
+        addSubsegment(child, "grandchild").setEndTime(child.getStartTime() + 0.5);
+        child.setEndTime(child.getStartTime() + 1);
+
+        assertMatchesSdk(serializer.serializeStreamed(child), child.streamSerialize());
+    }
+
+    @Test
+    public void testStringEscaping() throws IOException {
+        Segment escaped = new SegmentImpl(recorder, "quote\" backslash\\ tab\t newline\n nul\u0000");
+        escaped.putAnnotation("unicode", "caf\u00e9 \u4e2d\u6587 \ud83d\ude00");
+        escaped.putMetadata("control", "\u001f\b\f\r");
+
+        assertMatchesSdk(serializer.serialize(escaped), escaped.serialize());
+    }
+
+    @Test
+    public void testExceptionFallsBackToSdk() {
+        segment.addException(new IllegalStateException("Test Exception"));
+
+        assertThat(asString(serializer.serialize(segment))).isEqualTo(segment.serialize());
+    }
+
+    @Test
+    public void testUnsupportedMetadataFallsBackToSdk() {
+        segment.putMetadata("pojo", new Pojo());
+
+        assertThat(asString(serializer.serialize(segment))).isEqualTo(segment.serialize());
+    }
+
+    @Test
+    public void testChangedConstantFragmentsAreReencoded() throws IOException {
+        segment.putService("runtime", "OpenJDK");
+        serializer.serialize(segment);
+
+        Segment next = new SegmentImpl(recorder, "test");
+        Map<String, Object> service = new HashMap<>();
+        service.put("runtime", "Corretto");
+        next.putAllService(service);
+
+        assertMatchesSdk(serializer.serialize(next), next.serialize());
+    }
+
+    @Test
+    public void testBufferIsReused() {
+        JsonBuffer first = serializer.serialize(segment);
+        JsonBuffer second = serializer.serialize(new SegmentImpl(recorder, "other"));
+
+        assertThat(second).isSameAs(first);
+        assertThat(asString(second)).startsWith("{\"name\":\"other\"");
+    }
+
+    private Subsegment addSubsegment(Entity parent, String name) {
+        Subsegment subsegment = new SubsegmentImpl(recorder, name, segment);
+        subsegment.setParent(parent);
+        parent.addSubsegment(subsegment);
+        return subsegment;
+    }
+
+    private static String asString(JsonBuffer buffer) {
+        return new String(buffer.array(), 0, buffer.length(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Checks that every field we wrote matches the SDK's, and that we did not leave out any field the SDK wrote with a
+     * non-default value. Timestamps are compared to X-Ray's microsecond precision.
+     */
+    private static void assertMatchesSdk(JsonBuffer actual, String expected) throws IOException {
+        assertEquivalent(MAPPER.readTree(expected), MAPPER.readTree(asString(actual)), "");
+    }
+
+    private static void assertEquivalent(JsonNode expected, JsonNode actual, String path) {
+        if (expected.isObject()) {
+            assertThat(actual.isObject()).as(path).isTrue();
+            Iterator<Map.Entry<String, JsonNode>> actualFields = actual.fields();
+            while (actualFields.hasNext()) {
+                Map.Entry<String, JsonNode> field = actualFields.next();
+                String fieldPath = path + "." + field.getKey();
+                assertThat(expected.has(field.getKey())).as(fieldPath).isTrue();
+                if (field.getKey().endsWith("_time")) {
+                    assertThat(field.getValue().asDouble()).as(fieldPath)
+                            .isCloseTo(expected.get(field.getKey()).asDouble(), within(1e-6));
+                } else {
+                    assertEquivalent(expected.get(field.getKey()), field.getValue(), fieldPath);
+                }
+            }
+            Iterator<Map.Entry<String, JsonNode>> expectedFields = expected.fields();
+            while (expectedFields.hasNext()) {
+                Map.Entry<String, JsonNode> field = expectedFields.next();
+                if (!isDefault(field.getValue())) {
+                    assertThat(actual.has(field.getKey())).as(path + "." + field.getKey()).isTrue();
+                }
+            }
+        } else if (expected.isArray()) {
+            assertThat(actual.size()).as(path).isEqualTo(expected.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquivalent(expected.get(i), actual.get(i), path + "[" + i + "]");
+            }
+        } else {
+            assertThat(actual).as(path).isEqualTo(expected);
+        }
+    }
+
+    private static boolean isDefault(JsonNode node) {
+        return node.isNull() || (node.isBoolean() && !node.booleanValue()) || (node.isNumber() && node.asDouble() == 0)
+                || (node.isContainerNode() && node.size() == 0);
+    }
+
+    private static class Pojo {
+        public String getValue() {
+            return "value";
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package com.amazonaws.xray.agent.runtime.emitters;
+
+import com.amazonaws.xray.AWSXRayRecorder;
+import com.amazonaws.xray.AWSXRayRecorderBuilder;
+import com.amazonaws.xray.entities.Entity;
+import com.amazonaws.xray.entities.Namespace;
+import com.amazonaws.xray.entities.Segment;
+import com.amazonaws.xray.entities.SegmentImpl;
+import com.amazonaws.xray.entities.Subsegment;
+import com.amazonaws.xray.entities.SubsegmentImpl;
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import com.github.tomakehurst.wiremock.verification.LoggedRequest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.equalTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.findAll;
+import static com.github.tomakehurst.wiremock.client.WireMock.ok;
+import static com.github.tomakehurst.wiremock.client.WireMock.post;
+import static com.github.tomakehurst.wiremock.client.WireMock.postRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.stubFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class OtlpEmitterTest {
+    private static final String PATH = "/v1/traces";
+
+    // Batches are only sent early when full, or on shutdown
+    private static final long NEVER_MILLIS = 60_000;
+
+    @Rule
+    public WireMockRule wireMockRule = new WireMockRule(wireMockConfig().dynamicPort());
+
+    private AWSXRayRecorder recorder;
+    private OtlpEmitter emitter;
+
+    @Before
+    public void setup() throws Exception {
+        stubFor(post(urlEqualTo(PATH)).willReturn(ok()));
+        recorder = AWSXRayRecorderBuilder.defaultRecorder();
+        emitter = new OtlpEmitter("http://127.0.0.1:" + wireMockRule.port(), 1000, NEVER_MILLIS);
+    }
+
+    @After
+    public void cleanup() {
+        emitter.shutdown();
+    }
+
+    @Test
+    public void testSegmentTreeExportedAsSpans() {
+        Segment segment = new SegmentImpl(recorder, "test");
+        segment.putHttp("request", singletonMap("method", "GET"));
+        segment.putHttp("response", singletonMap("status", 200));
+        segment.putAnnotation("customer", "example");
+        Subsegment child = addSubsegment(segment, segment, "db");
+        child.setNamespace(Namespace.REMOTE.toString());
+        child.putSql("sanitized_query", "SELECT * FROM t WHERE id = ?");
+        child.setFault(true);
+        child.setEndTime(child.getStartTime() + 0.5);
+        segment.setEndTime(segment.getStartTime() + 1);
+
+        assertThat(emitter.sendSegment(segment)).isTrue();
+        emitter.shutdown();
+
+        List<ProtobufReader> resourceSpans = exportedResourceSpans();
+        assertThat(resourceSpans).hasSize(1);
+        ProtobufReader resourceAttribute = resourceSpans.get(0).getMessage(1).getMessage(1);
+        assertThat(resourceAttribute.getString(1)).isEqualTo("service.name");
+        assertThat(resourceAttribute.getMessage(2).getString(1)).isEqualTo("test");
+
+        ProtobufReader scopeSpans = resourceSpans.get(0).getMessage(2);
+        assertThat(scopeSpans.getMessage(1).getString(1)).isEqualTo("aws-xray-java-agent");
+        List<ProtobufReader> spans = scopeSpans.getMessages(2);
+        assertThat(spans).hasSize(2);
+
+        ProtobufReader server = spans.get(0);
+        assertThat(hex(server.getBytes(1))).isEqualTo(segment.getTraceId().toString().substring(2).replace("-", ""));
+        assertThat(hex(server.getBytes(2))).isEqualTo(segment.getId());
+        assertThat(server.has(4)).isFalse();
+        assertThat(server.getString(5)).isEqualTo("test");
+        assertThat(server.getLong(6)).isEqualTo(OtlpEmitter.SPAN_KIND_SERVER);
+        assertThat(server.getLong(8) - server.getLong(7)).isBetween(999_999_000L, 1_000_001_000L);
+        Map<String, ProtobufReader> serverAttributes = attributes(server);
+        assertThat(serverAttributes.get("http.method").getString(1)).isEqualTo("GET");
+        assertThat(serverAttributes.get("http.status_code").getLong(3)).isEqualTo(200);
+        assertThat(serverAttributes.get("customer").getString(1)).isEqualTo("example");
+        assertThat(server.has(15)).isFalse();
+
+        ProtobufReader client = spans.get(1);
+        assertThat(client.getBytes(1)).isEqualTo(server.getBytes(1));
+        assertThat(hex(client.getBytes(2))).isEqualTo(child.getId());
+        assertThat(hex(client.getBytes(4))).isEqualTo(segment.getId());
+        assertThat(client.getString(5)).isEqualTo("db");
+        assertThat(client.getLong(6)).isEqualTo(OtlpEmitter.SPAN_KIND_CLIENT);
+        assertThat(attributes(client).get("db.statement").getString(1)).isEqualTo("SELECT * FROM t WHERE id = ?");
+        assertThat(client.getMessage(15).getLong(3)).isEqualTo(OtlpEmitter.STATUS_CODE_ERROR);
+    }
+
+    @Test
+    public void testStreamedSubsegmentExportedWithParent() {
+        Segment segment = new SegmentImpl(recorder, "test");
+        Subsegment child = addSubsegment(segment, segment, "child");
+        Subsegment grandchild = addSubsegment(segment, child, "grandchild");
+        grandchild.setEndTime(grandchild.getStartTime() + 0.1);
+        child.setEndTime(child.getStartTime() + 0.2);
+
+        assertThat(emitter.sendSubsegment(child)).isTrue();
+        emitter.shutdown();
+
+        List<ProtobufReader> spans = exportedResourceSpans().get(0).getMessage(2).getMessages(2);
+        assertThat(spans).hasSize(2);
+        assertThat(hex(spans.get(0).getBytes(4))).isEqualTo(segment.getId());
+        assertThat(spans.get(0).getLong(6)).isEqualTo(OtlpEmitter.SPAN_KIND_INTERNAL);
+        assertThat(hex(spans.get(1).getBytes(4))).isEqualTo(child.getId());
+    }
+
+    @Test
+    public void testLongAttributesEncoded() {
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            value.append('x');
+        }
+        Segment segment = new SegmentImpl(recorder, "test");
+        segment.putAnnotation("long", value.toString());
+        segment.setEndTime(segment.getStartTime() + 1);
+
+        emitter.sendSegment(segment);
+        emitter.shutdown();
+
+        ProtobufReader span = exportedResourceSpans().get(0).getMessage(2).getMessage(2);
+        assertThat(attributes(span).get("long").getString(1)).isEqualTo(value.toString());
+    }
+
+    @Test
+    public void testSegmentsBatchedPerRequest() {
+        for (int i = 0; i < 3; i++) {
+            Segment segment = new SegmentImpl(recorder, "test" + i);
+            segment.setEndTime(segment.getStartTime() + 1);
+            emitter.sendSegment(segment);
+        }
+        emitter.shutdown();
+
+        assertThat(findAll(postRequestedFor(urlEqualTo(PATH))
+                .withHeader("Content-Type", equalTo("application/x-protobuf")))).hasSize(1);
+        assertThat(exportedResourceSpans()).hasSize(3);
+    }
+
+    private Subsegment addSubsegment(Segment segment, Entity parent, String name) {
+        Subsegment subsegment = new SubsegmentImpl(recorder, name, segment);
+        subsegment.setParent(parent);
+        parent.addSubsegment(subsegment);
+        return subsegment;
+    }
+
+    private static List<ProtobufReader> exportedResourceSpans() {
+        List<ProtobufReader> resourceSpans = new ArrayList<>();
+        for (LoggedRequest request : findAll(postRequestedFor(urlEqualTo(PATH)))) {
+            resourceSpans.addAll(new ProtobufReader(request.getBody()).getMessages(1));
+        }
+        return resourceSpans;
+    }
+
+    /**
+     * @return the span's attribute values by key
+     */
+    private static Map<String, ProtobufReader> attributes(ProtobufReader span) {
+        Map<String, ProtobufReader> attributes = new HashMap<>();
+        for (ProtobufReader keyValue : span.getMessages(9)) {
+            attributes.put(keyValue.getString(1), keyValue.getMessage(2));
+        }
+        return attributes;
+    }
+
+    private static Map<String, Object> singletonMap(String key, Object value) {
+        Map<String, Object> map = new HashMap<>();
+        map.put(key, value);
+        return map;
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+}
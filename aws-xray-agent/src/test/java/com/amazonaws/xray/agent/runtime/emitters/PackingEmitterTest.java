@@ -0,0 +1,132 @@
+package com.amazonaws.xray.agent.runtime.emitters;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PackingEmitterTest {
+    private static final int RECEIVE_TIMEOUT_MILLIS = 1000;
+
+    // Long enough that only the size trigger or an explicit flush can send anything in tests that rely on it
+    private static final long NEVER_MILLIS = 60_000;
+
+    private UdpSink sink;
+    private PackingEmitter emitter;
+
+    @Before
+    public void setup() throws IOException {
+        sink = new UdpSink();
+    }
+
+    @After
+    public void cleanup() {
+        if (emitter != null) {
+            emitter.shutdown();
+        }
+        sink.close();
+    }
+
+    @Test
+    public void testDocumentsPackedIntoOneDatagram() throws IOException {
+        emitter = new PackingEmitter(sink.getAddress(), 1000, NEVER_MILLIS);
+
+        send("{\"id\":\"1\"}");
+        send("{\"id\":\"2\"}");
+        send("{\"id\":\"3\"}");
+        emitter.flush();
+
+        assertThat(UdpSink.documents(sink.receive(RECEIVE_TIMEOUT_MILLIS)))
+                .containsExactly("{\"id\":\"1\"}", "{\"id\":\"2\"}", "{\"id\":\"3\"}");
+        assertThat(sink.receive(100)).isNull();
+    }
+
+    @Test
+    public void testSizeTriggersSend() throws IOException {
+        String document = "{\"id\":\"" + repeat('a', 50) + "\"}";
+        int entryLength = DocumentEmitter.PROTOCOL_HEADER.length + document.length();
+        // Room for two entries and their delimiter, but not a third
+        emitter = new PackingEmitter(sink.getAddress(), 2 * entryLength + 1, NEVER_MILLIS);
+
+        send(document);
+        send(document);
+        send(document);
+
+        assertThat(UdpSink.documents(sink.receive(RECEIVE_TIMEOUT_MILLIS))).containsExactly(document, document);
+        assertThat(sink.receive(100)).isNull();
+
+        emitter.flush();
+        assertThat(UdpSink.documents(sink.receive(RECEIVE_TIMEOUT_MILLIS))).containsExactly(document);
+    }
+
+    @Test
+    public void testIntervalTriggersSend() throws IOException {
+        emitter = new PackingEmitter(sink.getAddress(), 1000, 10);
+
+        send("{\"id\":\"1\"}");
+
+        assertThat(UdpSink.documents(sink.receive(RECEIVE_TIMEOUT_MILLIS))).containsExactly("{\"id\":\"1\"}");
+    }
+
+    @Test
+    public void testOversizedDocumentSentAlone() throws IOException {
+        String small = "{\"id\":\"1\"}";
+        String large = "{\"id\":\"" + repeat('b', 500) + "\"}";
+        emitter = new PackingEmitter(sink.getAddress(), 200, NEVER_MILLIS);
+
+        send(small);
+        send(large);
+        emitter.flush();
+
+        assertThat(UdpSink.documents(sink.receive(RECEIVE_TIMEOUT_MILLIS))).containsExactly(small);
+        assertThat(UdpSink.documents(sink.receive(RECEIVE_TIMEOUT_MILLIS))).containsExactly(large);
+    }
+
+    @Test
+    public void testAllDocumentsArriveIntact() throws IOException {
+        emitter = new PackingEmitter(sink.getAddress(), 512, NEVER_MILLIS);
+        List<String> sent = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            String document = "{\"id\":\"" + i + "\",\"name\":\"" + repeat('c', i) + "\"}";
+            sent.add(document);
+            send(document);
+        }
+        emitter.flush();
+
+        List<String> received = new ArrayList<>();
+        String payload;
+        while ((payload = sink.receive(100)) != null) {
+            received.addAll(UdpSink.documents(payload));
+        }
+        assertThat(received).containsExactlyElementsOf(sent);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidDatagramSize() throws IOException {
+        new PackingEmitter(sink.getAddress(), PackingEmitter.MAX_DATAGRAM_SIZE + 1, NEVER_MILLIS);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidFlushInterval() throws IOException {
+        new PackingEmitter(sink.getAddress(), 1000, 0);
+    }
+
+    private void send(String document) {
+        byte[] bytes = document.getBytes(StandardCharsets.UTF_8);
+        emitter.sendDocument(bytes, 0, bytes.length);
+    }
+
+    private static String repeat(char c, int count) {
+        StringBuilder builder = new StringBuilder(count);
+        for (int i = 0; i < count; i++) {
+            builder.append(c);
+        }
+        return builder.toString();
+    }
+}
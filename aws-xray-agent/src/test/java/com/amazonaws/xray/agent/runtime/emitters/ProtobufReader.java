@@ -0,0 +1,105 @@
+package com.amazonaws.xray.agent.runtime.emitters;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal protocol buffer decoder for checking encoded messages without generated classes. Fields are read by number:
+ * varint and fixed-width fields as longs, length-delimited fields as raw bytes that can be decoded further as a string
+ * or nested message.
+ */
+class ProtobufReader {
+    private final Map<Integer, List<Object>> fields = new HashMap<>();
+
+    ProtobufReader(byte[] message) {
+        int position = 0;
+        while (position < message.length) {
+            long[] tag = readVarint(message, position);
+            position = (int) tag[1];
+            int field = (int) (tag[0] >>> 3);
+            int wireType = (int) (tag[0] & 0x7);
+            Object value;
+            switch (wireType) {
+                case 0:
+                    long[] varint = readVarint(message, position);
+                    value = varint[0];
+                    position = (int) varint[1];
+                    break;
+                case 1:
+                    value = readFixed(message, position, 8);
+                    position += 8;
+                    break;
+                case 2:
+                    long[] length = readVarint(message, position);
+                    position = (int) length[1];
+                    byte[] bytes = new byte[(int) length[0]];
+                    System.arraycopy(message, position, bytes, 0, bytes.length);
+                    value = bytes;
+                    position += bytes.length;
+                    break;
+                case 5:
+                    value = readFixed(message, position, 4);
+                    position += 4;
+                    break;
+                default:
+                    throw new AssertionError("Unexpected wire type " + wireType + " for field " + field);
+            }
+            fields.computeIfAbsent(field, f -> new ArrayList<>()).add(value);
+        }
+    }
+
+    long getLong(int field) {
+        List<Object> values = fields.get(field);
+        return values == null ? 0 : (Long) values.get(values.size() - 1);
+    }
+
+    byte[] getBytes(int field) {
+        List<Object> values = fields.get(field);
+        return values == null ? null : (byte[]) values.get(values.size() - 1);
+    }
+
+    String getString(int field) {
+        byte[] bytes = getBytes(field);
+        return bytes == null ? null : new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    ProtobufReader getMessage(int field) {
+        byte[] bytes = getBytes(field);
+        return bytes == null ? null : new ProtobufReader(bytes);
+    }
+
+    List<ProtobufReader> getMessages(int field) {
+        List<ProtobufReader> messages = new ArrayList<>();
+        for (Object value : fields.getOrDefault(field, Collections.emptyList())) {
+            messages.add(new ProtobufReader((byte[]) value));
+        }
+        return messages;
+    }
+
+    boolean has(int field) {
+        return fields.containsKey(field);
+    }
+
+    private static long[] readVarint(byte[] message, int position) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = message[position++];
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return new long[] {value, position};
+            }
+        }
+    }
+
+    private static long readFixed(byte[] message, int position, int size) {
+        long value = 0;
+        for (int i = size - 1; i >= 0; i--) {
+            value = value << 8 | (message[position + i] & 0xFF);
+        }
+        return value;
+    }
+}
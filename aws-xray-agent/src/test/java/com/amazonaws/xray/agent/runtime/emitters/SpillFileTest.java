@@ -0,0 +1,150 @@
+package com.amazonaws.xray.agent.runtime.emitters;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SpillFileTest {
+    // Room for exactly three 12 byte documents with their length prefixes
+    private static final int SIZE = SpillFile.HEADER_SIZE + 3 * (4 + 12);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File path;
+    private SpillFile spillFile;
+
+    @Before
+    public void setup() throws IOException {
+        path = new File(folder.getRoot(), "spill");
+        spillFile = new SpillFile(path, SIZE);
+    }
+
+    @After
+    public void cleanup() throws IOException {
+        spillFile.close();
+    }
+
+    @Test
+    public void testDocumentsReadInOrder() {
+        append("document-001");
+        append("document-002");
+
+        assertThat(next()).isEqualTo("document-001");
+        assertThat(next()).isEqualTo("document-002");
+        assertThat(spillFile.isEmpty()).isTrue();
+        assertThat(spillFile.peek()).isNull();
+    }
+
+    @Test
+    public void testReplayedDocumentsKeptUntilConfirmed() {
+        append("document-001");
+        append("document-002");
+
+        assertThat(replay()).isEqualTo("document-001");
+        assertThat(spillFile.hasUnconfirmedReplay()).isTrue();
+        spillFile.rewindReplay();
+        assertThat(replay()).isEqualTo("document-001");
+        assertThat(replay()).isEqualTo("document-002");
+        assertThat(spillFile.nextToReplay()).isNull();
+        assertThat(spillFile.isEmpty()).isFalse();
+
+        spillFile.confirmReplay();
+        assertThat(spillFile.hasUnconfirmedReplay()).isFalse();
+        assertThat(spillFile.isEmpty()).isTrue();
+    }
+
+    @Test
+    public void testReplayCursorFollowsDroppedDocuments() {
+        append("document-001");
+        append("document-002");
+        append("document-003");
+        replay();
+        // Makes room by dropping the replayed document
+        append("document-004");
+
+        assertThat(spillFile.hasUnconfirmedReplay()).isFalse();
+        assertThat(replay()).isEqualTo("document-002");
+    }
+
+    @Test
+    public void testDocumentsWrapAround() {
+        append("document-001");
+        append("document-002");
+        next();
+        append("document-003");
+        append("document-004");
+
+        assertThat(next()).isEqualTo("document-002");
+        assertThat(next()).isEqualTo("document-003");
+        assertThat(next()).isEqualTo("document-004");
+        assertThat(spillFile.isEmpty()).isTrue();
+    }
+
+    @Test
+    public void testOldestDroppedWhenFull() {
+        append("document-001");
+        append("document-002");
+        append("document-003");
+        append("document-004");
+
+        assertThat(spillFile.getDroppedCount()).isEqualTo(1);
+        assertThat(next()).isEqualTo("document-002");
+        assertThat(next()).isEqualTo("document-003");
+        assertThat(next()).isEqualTo("document-004");
+    }
+
+    @Test
+    public void testOversizedDocumentRejected() {
+        byte[] document = new byte[SIZE];
+
+        assertThat(spillFile.append(document, 0, document.length)).isFalse();
+        assertThat(spillFile.isEmpty()).isTrue();
+    }
+
+    @Test
+    public void testDocumentsSurviveReopen() throws IOException {
+        append("document-001");
+        append("document-002");
+        next();
+        spillFile.close();
+
+        spillFile = new SpillFile(path, SIZE);
+
+        assertThat(next()).isEqualTo("document-002");
+        assertThat(spillFile.isEmpty()).isTrue();
+    }
+
+    @Test
+    public void testResizedFileStartsEmpty() throws IOException {
+        append("document-001");
+        spillFile.close();
+
+        spillFile = new SpillFile(path, SIZE * 2);
+
+        assertThat(spillFile.isEmpty()).isTrue();
+    }
+
+    private void append(String document) {
+        byte[] bytes = document.getBytes(StandardCharsets.UTF_8);
+        assertThat(spillFile.append(bytes, 0, bytes.length)).isTrue();
+    }
+
+    private String next() {
+        String document = new String(spillFile.peek(), StandardCharsets.UTF_8);
+        spillFile.remove();
+        return document;
+    }
+
+    private String replay() {
+        return new String(spillFile.nextToReplay(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,126 @@
+package com.amazonaws.xray.agent.runtime.emitters;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SpillingEmitterTest {
+    private static final int RECEIVE_TIMEOUT_MILLIS = 1000;
+    private static final int SPILL_FILE_SIZE = 64 * 1024;
+
+    // Replay is triggered by hand to keep the tests deterministic
+    private static final long NEVER_MILLIS = 60_000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private UdpSink sink;
+    private InetSocketAddress address;
+    private File spillPath;
+    private SpillingEmitter emitter;
+
+    @Before
+    public void setup() throws IOException {
+        sink = new UdpSink();
+        address = sink.getAddress();
+        spillPath = new File(folder.getRoot(), "spill");
+        emitter = new SpillingEmitter(address, new SpillFile(spillPath, SPILL_FILE_SIZE), NEVER_MILLIS);
+    }
+
+    @After
+    public void cleanup() {
+        emitter.shutdown();
+        sink.close();
+    }
+
+    @Test
+    public void testSentDirectlyWhileDaemonIsUp() throws IOException {
+        send("{\"id\":\"1\"}");
+
+        assertThat(UdpSink.documents(sink.receive(RECEIVE_TIMEOUT_MILLIS))).containsExactly("{\"id\":\"1\"}");
+    }
+
+    @Test
+    public void testSpilledDocumentsReplayedInOrderAfterRestart() throws IOException {
+        stopDaemon();
+        send("{\"id\":\"1\"}");
+        send("{\"id\":\"2\"}");
+        send("{\"id\":\"3\"}");
+
+        // Still down, so nothing leaves the spill file
+        emitter.replay();
+
+        startDaemon();
+        // Queued behind the spilled documents even though the daemon is back
+        send("{\"id\":\"4\"}");
+        assertThat(sink.receive(100)).isNull();
+
+        emitter.replay();
+
+        assertThat(receiveAll()).containsExactly("{\"id\":\"1\"}", "{\"id\":\"2\"}", "{\"id\":\"3\"}", "{\"id\":\"4\"}");
+
+        // Replayed documents stay spilled until the next replay confirms no error surfaced for them
+        send("{\"id\":\"5\"}");
+        assertThat(sink.receive(100)).isNull();
+        emitter.replay();
+        assertThat(receiveAll()).containsExactly("{\"id\":\"5\"}");
+        emitter.replay();
+
+        // With the spill file drained, documents are sent directly again
+        send("{\"id\":\"6\"}");
+        assertThat(receiveAll()).containsExactly("{\"id\":\"6\"}");
+    }
+
+    @Test
+    public void testSpilledDocumentsSurviveEmitterRestart() throws IOException {
+        stopDaemon();
+        send("{\"id\":\"1\"}");
+        emitter.shutdown();
+
+        startDaemon();
+        emitter = new SpillingEmitter(address, new SpillFile(spillPath, SPILL_FILE_SIZE), NEVER_MILLIS);
+        emitter.replay();
+
+        assertThat(receiveAll()).containsExactly("{\"id\":\"1\"}");
+    }
+
+    @Test
+    public void testOversizedDocumentDropped() {
+        byte[] document = new byte[PackingEmitter.MAX_DATAGRAM_SIZE];
+
+        assertThat(emitter.sendDocument(document, 0, document.length)).isFalse();
+    }
+
+    private void send(String document) {
+        byte[] bytes = document.getBytes(StandardCharsets.UTF_8);
+        assertThat(emitter.sendDocument(bytes, 0, bytes.length)).isTrue();
+    }
+
+    private void stopDaemon() {
+        sink.close();
+    }
+
+    private void startDaemon() throws IOException {
+        sink = new UdpSink(address.getPort());
+    }
+
+    private List<String> receiveAll() throws IOException {
+        List<String> received = new ArrayList<>();
+        String payload;
+        while ((payload = sink.receive(100)) != null) {
+            received.addAll(UdpSink.documents(payload));
+        }
+        return received;
+    }
+}
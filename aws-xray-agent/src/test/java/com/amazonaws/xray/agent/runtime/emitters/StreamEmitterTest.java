@@ -0,0 +1,156 @@
+package com.amazonaws.xray.agent.runtime.emitters;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class StreamEmitterTest {
+    private static final int RECEIVE_TIMEOUT_MILLIS = 2000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private StreamSink sink;
+    private StreamEmitter emitter;
+
+    @After
+    public void cleanup() throws IOException {
+        if (emitter != null) {
+            emitter.shutdown();
+        }
+        if (sink != null) {
+            sink.close();
+        }
+    }
+
+    @Test
+    public void testParseTcpAddress() {
+        InetSocketAddress address = (InetSocketAddress) StreamEmitter.parseAddress("tcp://localhost:2000");
+
+        assertThat(address.getHostString()).isEqualTo("localhost");
+        assertThat(address.getPort()).isEqualTo(2000);
+    }
+
+    @Test
+    public void testParseUdpAddress() {
+        assertThat(StreamEmitter.parseAddress("127.0.0.1:2000")).isNull();
+    }
+
+    @Test
+    public void testParseInvalidAddress() {
+        assertThatThrownBy(() -> StreamEmitter.parseAddress("tcp://localhost"))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> StreamEmitter.parseAddress("tcp://localhost:port"))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> StreamEmitter.parseAddress("unix://"))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void testDocumentsStreamedOverTcpInOrder() throws Exception {
+        sink = StreamSink.tcp(0);
+        emitter = new StreamEmitter(tcpAddress(sink));
+
+        for (int i = 0; i < 100; i++) {
+            send("{\"id\":\"" + i + "\"}");
+        }
+
+        for (int i = 0; i < 100; i++) {
+            assertThat(sink.receive(RECEIVE_TIMEOUT_MILLIS)).isEqualTo("{\"id\":\"" + i + "\"}");
+        }
+        // All sent over the one persistent connection
+        assertThat(sink.getConnectionCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testDocumentsStreamedOverUnixSocket() throws Exception {
+        SocketAddress address;
+        try {
+            address = StreamEmitter.parseAddress("unix://" + new File(folder.getRoot(), "xray.sock").getPath());
+        } catch (IllegalArgumentException e) {
+            Assume.assumeNoException("Unix domain sockets are not supported by this JVM", e);
+            return;
+        }
+        sink = StreamSink.unix(address);
+        emitter = new StreamEmitter(address);
+
+        send("{\"id\":\"1\"}");
+
+        assertThat(sink.receive(RECEIVE_TIMEOUT_MILLIS)).isEqualTo("{\"id\":\"1\"}");
+    }
+
+    @Test
+    public void testDocumentsBufferedUntilDaemonStarts() throws Exception {
+        sink = StreamSink.tcp(0);
+        InetSocketAddress address = tcpAddress(sink);
+        sink.close();
+        emitter = new StreamEmitter(address);
+
+        send("{\"id\":\"1\"}");
+        send("{\"id\":\"2\"}");
+        // Let a few connection attempts fail
+        Thread.sleep(StreamEmitter.INITIAL_BACKOFF_MILLIS * 2);
+
+        sink = StreamSink.tcp(address.getPort());
+
+        assertThat(sink.receive(RECEIVE_TIMEOUT_MILLIS * 2)).isEqualTo("{\"id\":\"1\"}");
+        assertThat(sink.receive(RECEIVE_TIMEOUT_MILLIS)).isEqualTo("{\"id\":\"2\"}");
+    }
+
+    @Test
+    public void testReconnectsAfterDaemonDropsConnection() throws Exception {
+        sink = StreamSink.tcp(0);
+        emitter = new StreamEmitter(tcpAddress(sink));
+        send("{\"id\":\"before\"}");
+        assertThat(sink.receive(RECEIVE_TIMEOUT_MILLIS)).isEqualTo("{\"id\":\"before\"}");
+
+        sink.disconnectAll();
+
+        // Writes into a connection the peer already closed can still succeed locally, so keep sending until the
+        // emitter notices and reconnects
+        String received = null;
+        for (int i = 0; i < 50 && received == null; i++) {
+            send("{\"id\":\"after\"}");
+            received = sink.receive(100);
+        }
+
+        assertThat(received).isEqualTo("{\"id\":\"after\"}");
+        assertThat(sink.getConnectionCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void testDocumentsDroppedWhenBufferIsFull() throws Exception {
+        sink = StreamSink.tcp(0);
+        InetSocketAddress address = tcpAddress(sink);
+        sink.close();
+        sink = null;
+        byte[] document = new byte[100];
+        emitter = new StreamEmitter(address, 300);
+
+        assertThat(emitter.sendDocument(document, 0, document.length)).isTrue();
+        assertThat(emitter.sendDocument(document, 0, document.length)).isTrue();
+        assertThat(emitter.sendDocument(document, 0, document.length)).isFalse();
+        assertThat(emitter.getDroppedCount()).isEqualTo(1);
+    }
+
+    private static InetSocketAddress tcpAddress(StreamSink sink) throws IOException {
+        int port = ((InetSocketAddress) sink.getAddress()).getPort();
+        return (InetSocketAddress) StreamEmitter.parseAddress("tcp://127.0.0.1:" + port);
+    }
+
+    private void send(String document) {
+        byte[] bytes = document.getBytes(StandardCharsets.UTF_8);
+        assertThat(emitter.sendDocument(bytes, 0, bytes.length)).isTrue();
+    }
+}
@@ -0,0 +1,131 @@
+package com.amazonaws.xray.agent.runtime.emitters;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stand-in for a daemon or sidecar that accepts stream connections and splits the length-prefixed frames back into
+ * documents.
+ */
+class StreamSink implements AutoCloseable {
+    private static final String HEADER = new String(DocumentEmitter.PROTOCOL_HEADER, StandardCharsets.UTF_8);
+
+    private final ServerSocketChannel server;
+    private final BlockingQueue<String> documents = new LinkedBlockingQueue<>();
+    private final List<SocketChannel> connections = new CopyOnWriteArrayList<>();
+
+    private StreamSink(ServerSocketChannel server, SocketAddress address) throws IOException {
+        this.server = server;
+        server.bind(address);
+        Thread acceptor = new Thread(this::acceptLoop, "stream-sink");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Listens on a loopback TCP port, or a specific one to stand in for a daemon that was restarted.
+     */
+    static StreamSink tcp(int port) throws IOException {
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        return new StreamSink(server, new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+    }
+
+    /**
+     * Listens on a Unix domain socket, which needs Java 16 or later.
+     */
+    static StreamSink unix(SocketAddress address) throws Exception {
+        ProtocolFamily unix = StandardProtocolFamily.valueOf("UNIX");
+        ServerSocketChannel server = (ServerSocketChannel) ServerSocketChannel.class
+                .getMethod("open", ProtocolFamily.class).invoke(null, unix);
+        return new StreamSink(server, address);
+    }
+
+    SocketAddress getAddress() throws IOException {
+        return server.getLocalAddress();
+    }
+
+    int getConnectionCount() {
+        return connections.size();
+    }
+
+    /**
+     * @return the next document, or null if none arrives within the timeout
+     */
+    String receive(int timeoutMillis) throws InterruptedException {
+        return documents.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Closes the connections accepted so far, to stand in for a daemon dropping its clients.
+     */
+    void disconnectAll() throws IOException {
+        for (SocketChannel connection : connections) {
+            connection.close();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+        disconnectAll();
+    }
+
+    private void acceptLoop() {
+        try {
+            while (true) {
+                SocketChannel connection = server.accept();
+                connections.add(connection);
+                Thread reader = new Thread(() -> readLoop(connection), "stream-sink-reader");
+                reader.setDaemon(true);
+                reader.start();
+            }
+        } catch (IOException e) {
+            // Closed
+        }
+    }
+
+    private void readLoop(SocketChannel connection) {
+        try {
+            ByteBuffer lengthBuffer = ByteBuffer.allocate(4);
+            while (readFully(connection, lengthBuffer)) {
+                ByteBuffer payload = ByteBuffer.allocate(lengthBuffer.getInt(0));
+                if (!readFully(connection, payload)) {
+                    throw new AssertionError("Connection closed in the middle of a frame");
+                }
+                String frame = new String(payload.array(), StandardCharsets.UTF_8);
+                if (!frame.startsWith(HEADER)) {
+                    throw new AssertionError("Missing protocol header before document: " + frame);
+                }
+                documents.add(frame.substring(HEADER.length()));
+                ((Buffer) lengthBuffer).clear();
+            }
+        } catch (IOException e) {
+            // Closed
+        }
+    }
+
+    private static boolean readFully(SocketChannel connection, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (connection.read(buffer) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,145 @@
+package com.amazonaws.xray.agent.runtime.emitters;
+
+import com.amazonaws.xray.AWSXRayRecorder;
+import com.amazonaws.xray.AWSXRayRecorderBuilder;
+import com.amazonaws.xray.entities.Segment;
+import com.amazonaws.xray.entities.SegmentImpl;
+import com.amazonaws.xray.entities.Subsegment;
+import com.amazonaws.xray.entities.SubsegmentImpl;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class StripedChannelEmitterTest {
+    private static final int RECEIVE_TIMEOUT_MILLIS = 1000;
+
+    private UdpSink sink;
+    private StripedChannelEmitter emitter;
+
+    @Before
+    public void setup() throws IOException {
+        sink = new UdpSink();
+    }
+
+    @After
+    public void cleanup() {
+        if (emitter != null) {
+            emitter.close();
+        }
+        sink.close();
+    }
+
+    @Test
+    public void testSegmentSent() throws IOException {
+        emitter = new StripedChannelEmitter(sink.getAddress(), 4);
+        Segment segment = new SegmentImpl(AWSXRayRecorderBuilder.defaultRecorder(), "test");
+
+        assertThat(emitter.sendSegment(segment)).isTrue();
+
+        List<String> documents = UdpSink.documents(sink.receive(RECEIVE_TIMEOUT_MILLIS));
+        assertThat(documents).hasSize(1);
+        assertThat(documents.get(0)).startsWith("{\"name\":\"test\",\"id\":\"" + segment.getId() + "\"");
+    }
+
+    @Test
+    public void testSubsegmentSent() throws IOException {
+        emitter = new StripedChannelEmitter(sink.getAddress(), 4);
+        AWSXRayRecorder recorder = AWSXRayRecorderBuilder.defaultRecorder();
+        Segment segment = new SegmentImpl(recorder, "test");
+        Subsegment subsegment = new SubsegmentImpl(recorder, "child", segment);
+        subsegment.setParent(segment);
+
+        assertThat(emitter.sendSubsegment(subsegment)).isTrue();
+
+        List<String> documents = UdpSink.documents(sink.receive(RECEIVE_TIMEOUT_MILLIS));
+        assertThat(documents).hasSize(1);
+        assertThat(documents.get(0)).contains("\"type\":\"subsegment\"", "\"parent_id\":\"" + segment.getId() + "\"");
+    }
+
+    @Test
+    public void testBufferGrowsForLargeDocument() throws IOException {
+        emitter = new StripedChannelEmitter(sink.getAddress(), 1);
+        String small = "{\"id\":\"1\"}";
+        String large = "{\"id\":\"" + repeat('a', 20_000) + "\"}";
+
+        emitter.sendDocument(bytes(small), 0, small.length());
+        emitter.sendDocument(bytes(large), 0, large.length());
+        emitter.sendDocument(bytes(small), 0, small.length());
+
+        assertThat(UdpSink.documents(sink.receive(RECEIVE_TIMEOUT_MILLIS))).containsExactly(small);
+        assertThat(UdpSink.documents(sink.receive(RECEIVE_TIMEOUT_MILLIS))).containsExactly(large);
+        assertThat(UdpSink.documents(sink.receive(RECEIVE_TIMEOUT_MILLIS))).containsExactly(small);
+    }
+
+    @Test
+    public void testOversizedDocumentDropped() throws IOException {
+        emitter = new StripedChannelEmitter(sink.getAddress(), 1);
+        byte[] document = new byte[PackingEmitter.MAX_DATAGRAM_SIZE];
+
+        assertThat(emitter.sendDocument(document, 0, document.length)).isFalse();
+        assertThat(sink.receive(100)).isNull();
+    }
+
+    @Test
+    public void testConcurrentSendsArriveIntact() throws Exception {
+        emitter = new StripedChannelEmitter(sink.getAddress(), 4);
+        int threadCount = 8;
+        int documentsPerThread = 20;
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < threadCount; t++) {
+            int threadId = t;
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < documentsPerThread; i++) {
+                    String document = "{\"thread\":" + threadId + ",\"id\":" + i + "}";
+                    emitter.sendDocument(bytes(document), 0, document.length());
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join(TimeUnit.SECONDS.toMillis(5));
+        }
+
+        List<String> received = new ArrayList<>();
+        String payload;
+        while ((payload = sink.receive(100)) != null) {
+            received.addAll(UdpSink.documents(payload));
+        }
+        assertThat(received).hasSize(threadCount * documentsPerThread);
+        assertThat(received).allMatch(document -> document.matches("\\{\"thread\":\\d+,\"id\":\\d+}"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidChannelCount() throws IOException {
+        new StripedChannelEmitter(sink.getAddress(), 0);
+    }
+
+    private static byte[] bytes(String document) {
+        return document.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String repeat(char c, int count) {
+        StringBuilder builder = new StringBuilder(count);
+        for (int i = 0; i < count; i++) {
+            builder.append(c);
+        }
+        return builder.toString();
+    }
+}
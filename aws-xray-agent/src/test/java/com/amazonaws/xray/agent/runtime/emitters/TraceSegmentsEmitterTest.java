@@ -0,0 +1,169 @@
+package com.amazonaws.xray.agent.runtime.emitters;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import com.github.tomakehurst.wiremock.verification.LoggedRequest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.findAll;
+import static com.github.tomakehurst.wiremock.client.WireMock.ok;
+import static com.github.tomakehurst.wiremock.client.WireMock.post;
+import static com.github.tomakehurst.wiremock.client.WireMock.postRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.stubFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static com.github.tomakehurst.wiremock.stubbing.Scenario.STARTED;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class TraceSegmentsEmitterTest {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final String PATH = "/TraceSegments";
+
+    // Batches are only sent early when full, or on shutdown
+    private static final long NEVER_MILLIS = 60_000;
+
+    @Rule
+    public WireMockRule wireMockRule = new WireMockRule(wireMockConfig().dynamicPort());
+
+    private String endpoint;
+    private TraceSegmentsEmitter emitter;
+
+    @Before
+    public void setup() {
+        endpoint = "http://127.0.0.1:" + wireMockRule.port();
+        stubFor(post(urlEqualTo(PATH)).willReturn(ok("{\"UnprocessedTraceSegments\":[]}")));
+    }
+
+    @After
+    public void cleanup() {
+        if (emitter != null) {
+            emitter.shutdown();
+        }
+    }
+
+    @Test
+    public void testDocumentsBatchedPerCall() throws Exception {
+        emitter = new TraceSegmentsEmitter(endpoint, 1000, NEVER_MILLIS);
+
+        for (int i = 0; i < 120; i++) {
+            send("{\"id\":\"" + i + "\"}");
+        }
+        emitter.shutdown();
+
+        List<String> documents = new ArrayList<>();
+        List<Integer> batchSizes = new ArrayList<>();
+        for (LoggedRequest request : findAll(postRequestedFor(urlEqualTo(PATH)))) {
+            List<String> batch = documents(request);
+            batchSizes.add(batch.size());
+            documents.addAll(batch);
+        }
+        assertThat(batchSizes).containsExactly(50, 50, 20);
+        assertThat(documents).hasSize(120);
+        for (int i = 0; i < 120; i++) {
+            assertThat(documents.get(i)).isEqualTo("{\"id\":\"" + i + "\"}");
+        }
+    }
+
+    @Test
+    public void testBatchSentAfterFlushInterval() throws Exception {
+        emitter = new TraceSegmentsEmitter(endpoint, 1000, 10);
+
+        send("{\"id\":\"1\"}");
+
+        assertThat(awaitRequests(1)).hasSize(1);
+        assertThat(documents(findAll(postRequestedFor(urlEqualTo(PATH))).get(0))).containsExactly("{\"id\":\"1\"}");
+    }
+
+    @Test
+    public void testDocumentsEscapedInBody() throws Exception {
+        emitter = new TraceSegmentsEmitter(endpoint, 1000, NEVER_MILLIS);
+        String document = "{\"name\":\"quote\\\" backslash\\\\ caf\u00e9\"}";
+
+        send(document);
+        emitter.shutdown();
+
+        assertThat(documents(findAll(postRequestedFor(urlEqualTo(PATH))).get(0))).containsExactly(document);
+    }
+
+    @Test
+    public void testFailedBatchRetried() throws Exception {
+        stubFor(post(urlEqualTo(PATH)).inScenario("retry").whenScenarioStateIs(STARTED)
+                .willReturn(aResponse().withStatus(503)).willSetStateTo("recovered"));
+        stubFor(post(urlEqualTo(PATH)).inScenario("retry").whenScenarioStateIs("recovered")
+                .willReturn(ok()));
+        emitter = new TraceSegmentsEmitter(endpoint, 1000, 10);
+
+        send("{\"id\":\"1\"}");
+
+        List<LoggedRequest> requests = awaitRequests(2);
+        assertThat(requests).hasSize(2);
+        assertThat(requests.get(1).getBodyAsString()).isEqualTo(requests.get(0).getBodyAsString());
+        assertThat(emitter.getDroppedCount()).isZero();
+    }
+
+    @Test
+    public void testRejectedBatchNotRetried() throws Exception {
+        stubFor(post(urlEqualTo(PATH)).willReturn(aResponse().withStatus(400)));
+        emitter = new TraceSegmentsEmitter(endpoint, 1000, NEVER_MILLIS);
+
+        send("{\"id\":\"1\"}");
+        send("{\"id\":\"2\"}");
+        emitter.shutdown();
+
+        assertThat(findAll(postRequestedFor(urlEqualTo(PATH)))).hasSize(1);
+        assertThat(emitter.getDroppedCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void testDocumentsDroppedWhenQueueIsFull() {
+        emitter = new TraceSegmentsEmitter(endpoint, 10, NEVER_MILLIS);
+
+        for (int i = 0; i < 10; i++) {
+            send("{\"id\":\"" + i + "\"}");
+        }
+        byte[] overflow = "{\"id\":\"10\"}".getBytes(StandardCharsets.UTF_8);
+
+        assertThat(emitter.sendDocument(overflow, 0, overflow.length)).isFalse();
+        assertThat(emitter.getDroppedCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testInvalidEndpoint() {
+        assertThatThrownBy(() -> new TraceSegmentsEmitter("ftp://127.0.0.1:2000", 10, 10))
+                .isInstanceOf(MalformedURLException.class);
+    }
+
+    private void send(String document) {
+        byte[] bytes = document.getBytes(StandardCharsets.UTF_8);
+        assertThat(emitter.sendDocument(bytes, 0, bytes.length)).isTrue();
+    }
+
+    private static List<LoggedRequest> awaitRequests(int count) throws InterruptedException {
+        List<LoggedRequest> requests = findAll(postRequestedFor(urlEqualTo(PATH)));
+        for (int i = 0; i < 50 && requests.size() < count; i++) {
+            Thread.sleep(100);
+            requests = findAll(postRequestedFor(urlEqualTo(PATH)));
+        }
+        return requests;
+    }
+
+    private static List<String> documents(LoggedRequest request) throws IOException {
+        List<String> documents = new ArrayList<>();
+        for (JsonNode document : MAPPER.readTree(request.getBodyAsString()).get("TraceSegmentDocuments")) {
+            documents.add(document.textValue());
+        }
+        return documents;
+    }
+}
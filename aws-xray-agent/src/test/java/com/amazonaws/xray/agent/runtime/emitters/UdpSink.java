@@ -0,0 +1,74 @@
+package com.amazonaws.xray.agent.runtime.emitters;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stand-in for the daemon that receives datagrams on a local port and splits them back into documents.
+ */
+class UdpSink implements AutoCloseable {
+    private static final String HEADER = new String(DocumentEmitter.PROTOCOL_HEADER, StandardCharsets.UTF_8);
+
+    private final DatagramSocket socket;
+
+    UdpSink() throws SocketException {
+        this(0);
+    }
+
+    /**
+     * Listens on a specific port, to stand in for a daemon that was restarted.
+     */
+    UdpSink(int port) throws SocketException {
+        socket = new DatagramSocket(port, InetAddress.getLoopbackAddress());
+    }
+
+    InetSocketAddress getAddress() {
+        return new InetSocketAddress(InetAddress.getLoopbackAddress(), socket.getLocalPort());
+    }
+
+    /**
+     * @return the next datagram as a string, or null if none arrives within the timeout
+     */
+    String receive(int timeoutMillis) throws IOException {
+        byte[] buffer = new byte[PackingEmitter.MAX_DATAGRAM_SIZE];
+        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+        socket.setSoTimeout(timeoutMillis);
+        try {
+            socket.receive(packet);
+        } catch (SocketTimeoutException e) {
+            return null;
+        }
+        return new String(packet.getData(), 0, packet.getLength(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Splits a payload into its documents, checking that each one is preceded by the protocol header.
+     */
+    static List<String> documents(String payload) {
+        List<String> documents = new ArrayList<>();
+        String[] lines = payload.split("\n", -1);
+        if (lines.length % 2 != 0) {
+            throw new AssertionError("Payload does not consist of header and document pairs: " + payload);
+        }
+        for (int i = 0; i < lines.length; i += 2) {
+            if (!HEADER.equals(lines[i] + "\n")) {
+                throw new AssertionError("Missing protocol header before document: " + lines[i + 1]);
+            }
+            documents.add(lines[i + 1]);
+        }
+        return documents;
+    }
+
+    @Override
+    public void close() {
+        socket.close();
+    }
+}
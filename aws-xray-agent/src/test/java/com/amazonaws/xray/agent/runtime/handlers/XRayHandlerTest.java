@@ -2,7 +2,9 @@ package com.amazonaws.xray.agent.runtime.handlers;
 
 import com.amazonaws.xray.AWSXRay;
 import com.amazonaws.xray.AWSXRayRecorderBuilder;
+import com.amazonaws.xray.agent.runtime.models.XRayTransactionSlot;
 import com.amazonaws.xray.agent.runtime.models.XRayTransactionState;
+import com.amazonaws.xray.entities.Segment;
 import com.amazonaws.xray.entities.TraceHeader;
 import com.amazonaws.xray.strategy.sampling.SamplingResponse;
 import com.amazonaws.xray.strategy.sampling.SamplingStrategy;
@@ -10,8 +12,11 @@ import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import software.amazon.disco.agent.concurrent.TransactionContext;
 import software.amazon.disco.agent.event.Event;
 
+import java.util.Map;
+
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.never;
@@ -59,6 +64,32 @@ public class XRayHandlerTest {
         verify(mockSamplingStrategy, times((1))).shouldTrace(any());
     }
 
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testSegmentsShareAgentXRayMap() {
+        Segment firstSegment = fakeHandler.beginSegment("first", null, null);
+        AWSXRay.clearTraceEntity();
+        Segment secondSegment = fakeHandler.beginSegment("second", null, null);
+        AWSXRay.clearTraceEntity();
+
+        Map<String, Object> xrayMap = (Map<String, Object>) firstSegment.getAws().get("xray");
+        assertThat(xrayMap).containsEntry("auto_instrumentation", true);
+        assertThat(secondSegment.getAws().get("xray")).isSameAs(xrayMap);
+    }
+
+    @Test
+    public void testSegmentEndActionsRun() {
+        TransactionContext.clear();
+        Segment segment = fakeHandler.beginSegment("test", null, null);
+        boolean[] segmentInProgress = new boolean[1];
+        XRayTransactionSlot.get().addSegmentEndAction(() -> segmentInProgress[0] = segment.isInProgress());
+
+        fakeHandler.endSegment();
+
+        assertThat(segmentInProgress[0]).isTrue();
+        assertThat(segment.isInProgress()).isFalse();
+    }
+
     private static class FakeHandler extends XRayHandler {
 
         @Override
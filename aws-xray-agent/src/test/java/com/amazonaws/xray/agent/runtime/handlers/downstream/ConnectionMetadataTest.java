@@ -0,0 +1,81 @@
+package com.amazonaws.xray.agent.runtime.handlers.downstream;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.SQLException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ConnectionMetadataTest {
+    @Mock
+    Connection physicalConnection;
+
+    @Mock
+    DatabaseMetaData mockMetaData;
+
+    @Before
+    public void setup() throws SQLException {
+        MockitoAnnotations.initMocks(this);
+        when(mockMetaData.getUserName()).thenReturn("USER");
+        when(mockMetaData.getDatabaseProductName()).thenReturn("DB_TYPE");
+    }
+
+    @Test
+    public void testCachedByInnermostDelegate() throws SQLException {
+        when(mockMetaData.getURL()).thenReturn("jdbc:mysql://delegate.example.com:3306/db");
+        DelegatingConnection firstWrapper = newWrapper(physicalConnection);
+        DelegatingConnection secondWrapper = newWrapper(physicalConnection);
+
+        ConnectionMetadata metadata = ConnectionMetadata.forConnection(firstWrapper);
+        assertThat(ConnectionMetadata.forConnection(secondWrapper)).isSameAs(metadata);
+        verify(secondWrapper, never()).getMetaData();
+    }
+
+    @Test
+    public void testHiddenDelegateCachedByDatabase() throws SQLException {
+        when(mockMetaData.getURL()).thenReturn("jdbc:mysql://hidden.example.com:3306/db");
+        DelegatingConnection firstWrapper = newWrapper(null);
+        DelegatingConnection secondWrapper = newWrapper(null);
+
+        ConnectionMetadata metadata = ConnectionMetadata.forConnection(firstWrapper);
+        assertThat(ConnectionMetadata.forConnection(secondWrapper)).isSameAs(metadata);
+        assertThat(metadata.getSubsegmentName(secondWrapper)).endsWith("@hidden.example.com");
+        verify(mockMetaData, times(1)).getDatabaseProductName();
+    }
+
+    @Test
+    public void testConnectionWithoutDelegateCachedByItself() throws SQLException {
+        when(mockMetaData.getURL()).thenReturn("jdbc:mysql://direct.example.com:3306/db");
+        when(physicalConnection.getMetaData()).thenReturn(mockMetaData);
+
+        ConnectionMetadata metadata = ConnectionMetadata.forConnection(physicalConnection);
+        assertThat(ConnectionMetadata.forConnection(physicalConnection)).isSameAs(metadata);
+        verify(physicalConnection, times(1)).getMetaData();
+    }
+
+    private DelegatingConnection newWrapper(Connection delegate) throws SQLException {
+        DelegatingConnection wrapper = mock(DelegatingConnection.class);
+        // Like DBCP's wrappers, which unwrap to themselves
+        when(wrapper.unwrap(Connection.class)).thenReturn(wrapper);
+        when(wrapper.getInnermostDelegate()).thenReturn(delegate);
+        when(wrapper.getMetaData()).thenReturn(mockMetaData);
+        return wrapper;
+    }
+
+    /**
+     * The shape of a DBCP pool's connection wrapper, whose delegate is null when the pool hides it.
+     */
+    public abstract static class DelegatingConnection implements Connection {
+        public abstract Connection getInnermostDelegate();
+    }
+}
@@ -1,6 +1,8 @@
 package com.amazonaws.xray.agent.runtime.handlers.downstream;
 
 import com.amazonaws.xray.AWSXRay;
+import com.amazonaws.xray.agent.runtime.models.XRayTransactionSlot;
+import com.amazonaws.xray.agent.runtime.models.XRayTransactionState;
 import com.amazonaws.xray.entities.Namespace;
 import com.amazonaws.xray.entities.Segment;
 import com.amazonaws.xray.entities.Subsegment;
@@ -13,6 +15,7 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.powermock.core.classloader.annotations.PowerMockIgnore;
 import org.powermock.modules.junit4.PowerMockRunner;
+import software.amazon.disco.agent.concurrent.TransactionContext;
 import software.amazon.disco.agent.event.HttpServiceDownstreamRequestEvent;
 import software.amazon.disco.agent.event.HttpServiceDownstreamResponseEvent;
 
@@ -54,6 +57,7 @@ public class HttpClientHandlerTest {
     @After
     public void clean() {
         AWSXRay.clearTraceEntity();
+        TransactionContext.clear();
     }
 
     @Test
@@ -80,6 +84,64 @@ public class HttpClientHandlerTest {
         Assert.assertEquals(1, parentSegment.getSubsegments().size());
     }
 
+    @Test
+    public void testUnsampledRequestOnlyPropagatesHeader() {
+        parentSegment.setSampled(false);
+        XRayTransactionSlot.get().setTransactionState(new XRayTransactionState().withSampled(false));
+        HttpServiceDownstreamRequestEvent requestEventSpy = spy(httpClientRequestEvent);
+
+        httpClientHandler.handleRequest(requestEventSpy);
+        TraceHeader theTraceHeader = new TraceHeader(parentSegment.getTraceId(), null, TraceHeader.SampleDecision.NOT_SAMPLED);
+        verify(requestEventSpy).replaceHeader(TraceHeader.HEADER_KEY, theTraceHeader.toString());
+        Assert.assertFalse(AWSXRay.getCurrentSubsegmentOptional().isPresent());
+
+        httpClientHandler.handleResponse(httpClientResponseEvent);
+        Assert.assertEquals(0, parentSegment.getSubsegments().size());
+        Assert.assertEquals(parentSegment, AWSXRay.getTraceEntity());
+    }
+
+    @Test
+    public void testSamplingCallSkipped() {
+        Subsegment currentSubsegment = AWSXRay.beginSubsegment("currentSubsegment");
+        HttpServiceDownstreamRequestEvent samplingRequestEvent =
+                new HttpServiceDownstreamRequestEvent(ORIGIN, "http://127.0.0.1:2000", "POST");
+        samplingRequestEvent.withUri("http://127.0.0.1:2000/GetSamplingRules");
+        HttpServiceDownstreamResponseEvent samplingResponseEvent =
+                new HttpServiceDownstreamResponseEvent(ORIGIN, "http://127.0.0.1:2000", "POST", samplingRequestEvent);
+
+        httpClientHandler.handleRequest(samplingRequestEvent);
+        Assert.assertEquals(currentSubsegment, AWSXRay.getCurrentSubsegment());
+        httpClientHandler.handleResponse(samplingResponseEvent);
+
+        Assert.assertTrue(currentSubsegment.isInProgress());
+        Assert.assertEquals(0, currentSubsegment.getSubsegments().size());
+    }
+
+    @Test
+    public void testConfiguredPathSkipped() {
+        httpClientHandler = new HttpClientHandler("/health");
+        httpClientRequestEvent.withUri(SERVICE + "/health?verbose=true");
+
+        httpClientHandler.handleRequest(httpClientRequestEvent);
+        Assert.assertFalse(AWSXRay.getCurrentSubsegmentOptional().isPresent());
+        httpClientHandler.handleResponse(httpClientResponseEvent);
+
+        Assert.assertEquals(0, parentSegment.getSubsegments().size());
+        Assert.assertEquals(parentSegment, AWSXRay.getTraceEntity());
+    }
+
+    @Test
+    public void testHandleGetRequestAndResponse() {
+        httpClientHandler.handleRequest(httpClientRequestEvent);
+        Subsegment httpClientSubsegment = AWSXRay.getCurrentSubsegment();
+        httpClientHandler.handleResponse(httpClientResponseEvent);
+
+        Assert.assertFalse(httpClientSubsegment.isInProgress());
+        Map<String, String> requestMap = (Map<String, String>) httpClientSubsegment.getHttp().get("request");
+        Assert.assertEquals(SERVICE, requestMap.get("url"));
+        Assert.assertEquals(parentSegment, AWSXRay.getTraceEntity());
+    }
+
     @Test
     public void testHandleGetResponse() {
         Subsegment httpClientSubsegment = AWSXRay.beginSubsegment("responseSubsegment");
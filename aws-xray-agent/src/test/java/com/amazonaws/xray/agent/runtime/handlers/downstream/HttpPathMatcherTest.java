@@ -0,0 +1,50 @@
+package com.amazonaws.xray.agent.runtime.handlers.downstream;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class HttpPathMatcherTest {
+    @Test
+    public void testDefaultPathsMatched() {
+        HttpPathMatcher matcher = HttpPathMatcher.compile("");
+
+        assertThat(matcher.matches("http://127.0.0.1:2000/GetSamplingRules")).isTrue();
+        assertThat(matcher.matches("http://127.0.0.1:2000/SamplingTargets?x=y")).isTrue();
+        assertThat(matcher.matches(
+                "https://kubernetes.default.svc/api/v1/namespaces/amazon-cloudwatch/configmaps/cluster-info")).isTrue();
+        assertThat(matcher.matches("http://127.0.0.1:2000/GetSamplingRulesV2")).isFalse();
+        assertThat(matcher.matches("http://127.0.0.1:2000/")).isFalse();
+        assertThat(matcher.matches("https://amazon.com")).isFalse();
+        assertThat(matcher.matches(null)).isFalse();
+    }
+
+    @Test
+    public void testConfiguredPathsMatched() {
+        HttpPathMatcher matcher = HttpPathMatcher.compile(" /health , /internal/*,");
+
+        assertThat(matcher.matches("http://localhost:8080/health")).isTrue();
+        assertThat(matcher.matches("http://localhost:8080/healthy")).isFalse();
+        assertThat(matcher.matches("http://localhost:8080/internal/metrics")).isTrue();
+        assertThat(matcher.matches("http://localhost:8080/internal/")).isTrue();
+        assertThat(matcher.matches("http://localhost:8080/internal")).isFalse();
+        assertThat(matcher.matches("http://localhost:8080/GetSamplingRules")).isTrue();
+    }
+
+    @Test
+    public void testEncodedPathsMatchedDecoded() {
+        HttpPathMatcher matcher = HttpPathMatcher.compile("/health check,/internal/*");
+
+        assertThat(matcher.matches("http://localhost:8080/health%20check")).isTrue();
+        assertThat(matcher.matches("http://localhost:8080/%47etSamplingRules")).isTrue();
+        assertThat(matcher.matches("http://localhost:8080/%69nternal/metrics?q=%20")).isTrue();
+        assertThat(matcher.matches("http://localhost:8080/health?check=%20")).isFalse();
+        // Not a valid URI, so it's matched as it is
+        assertThat(matcher.matches("http://localhost:8080/health%zz")).isFalse();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRelativePathRejected() {
+        HttpPathMatcher.compile("health");
+    }
+}
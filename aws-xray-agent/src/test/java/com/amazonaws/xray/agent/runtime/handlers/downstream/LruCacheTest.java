@@ -0,0 +1,42 @@
+package com.amazonaws.xray.agent.runtime.handlers.downstream;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class LruCacheTest {
+    @Test
+    public void testGetAndPut() {
+        LruCache<String, Integer> cache = new LruCache<>(10);
+        cache.put("a", 1);
+
+        assertThat(cache.get("a")).isEqualTo(1);
+        assertThat(cache.get("b")).isNull();
+    }
+
+    @Test
+    public void testBoundedSize() {
+        LruCache<Integer, Integer> cache = new LruCache<>(10);
+        for (int i = 0; i < 1000; i++) {
+            cache.put(i, i);
+        }
+
+        assertThat(cache.size()).isEqualTo(10);
+    }
+
+    @Test
+    public void testRecentlyUsedEntriesKept() {
+        LruCache<Integer, Integer> cache = new LruCache<>(10);
+        for (int i = 0; i < 10; i++) {
+            cache.put(i, i);
+        }
+
+        for (int i = 10; i < 15; i++) {
+            cache.get(0);
+            cache.put(i, i);
+        }
+
+        assertThat(cache.get(0)).isEqualTo(0);
+        assertThat(cache.size()).isEqualTo(10);
+    }
+}
@@ -0,0 +1,109 @@
+package com.amazonaws.xray.agent.runtime.handlers.downstream;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+public class PreparedStatementRegistryTest {
+    private PreparedStatementRegistry registry;
+
+    @Before
+    public void setup() {
+        registry = new PreparedStatementRegistry();
+    }
+
+    @Test
+    public void testQueryRetrievedByStatement() {
+        PreparedStatement first = mock(PreparedStatement.class);
+        PreparedStatement second = mock(PreparedStatement.class);
+        registry.put(first, "SELECT 1");
+        registry.put(second, "SELECT 2");
+
+        assertThat(registry.get(first)).isEqualTo("SELECT 1");
+        assertThat(registry.get(second)).isEqualTo("SELECT 2");
+        assertThat(registry.get(mock(PreparedStatement.class))).isNull();
+        assertThat(registry.size()).isEqualTo(2);
+    }
+
+    @Test
+    public void testQueriesShared() {
+        PreparedStatement first = mock(PreparedStatement.class);
+        PreparedStatement second = mock(PreparedStatement.class);
+        // As the prepare handler registers them
+        registry.put(first, SqlNormalizer.normalize(new String("SELECT * FROM t WHERE id = ?")));
+        registry.put(second, SqlNormalizer.normalize(new String("SELECT * FROM t WHERE id = ?")));
+
+        assertThat(registry.get(second)).isSameAs(registry.get(first));
+    }
+
+    @Test
+    public void testEntriesBounded() {
+        registry.setMaxEntries(100);
+        List<PreparedStatement> statements = new ArrayList<>();
+        for (int i = 0; i < 101; i++) {
+            PreparedStatement statement = mock(PreparedStatement.class);
+            statements.add(statement);
+            registry.put(statement, "SELECT " + i);
+        }
+
+        // Going over the bound evicts down to 90% of it
+        assertThat(registry.size()).isEqualTo(90);
+        assertThat(registry.getEvictionCount()).isEqualTo(11);
+        assertThat(statements.stream().filter(statement -> registry.get(statement) != null).count()).isEqualTo(90);
+    }
+
+    @Test
+    public void testOldestEntriesEvicted() {
+        registry.setMaxEntries(100);
+        List<PreparedStatement> statements = new ArrayList<>();
+        for (int i = 0; i < 101; i++) {
+            PreparedStatement statement = mock(PreparedStatement.class);
+            statements.add(statement);
+            registry.put(statement, "SELECT " + i);
+        }
+
+        for (int i = 0; i < statements.size(); i++) {
+            if (i < 11) {
+                assertThat(registry.get(statements.get(i))).isNull();
+            } else {
+                assertThat(registry.get(statements.get(i))).isEqualTo("SELECT " + i);
+            }
+        }
+        assertThat(registry.getExpungeCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void testStatementsInUseSurviveEviction() {
+        registry.setMaxEntries(100);
+        // Like a pool's cached statements, which are prepared once and then executed over and over
+        List<PreparedStatement> cachedStatements = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            PreparedStatement statement = mock(PreparedStatement.class);
+            cachedStatements.add(statement);
+            registry.put(statement, "SELECT cached " + i);
+        }
+
+        List<PreparedStatement> statements = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            if (i % 10 == 0) {
+                for (PreparedStatement statement : cachedStatements) {
+                    registry.get(statement);
+                }
+            }
+            PreparedStatement statement = mock(PreparedStatement.class);
+            statements.add(statement);
+            registry.put(statement, "SELECT " + i);
+        }
+
+        assertThat(registry.getEvictionCount()).isGreaterThan(0);
+        for (int i = 0; i < cachedStatements.size(); i++) {
+            assertThat(registry.get(cachedStatements.get(i))).isEqualTo("SELECT cached " + i);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.amazonaws.xray.agent.runtime.handlers.downstream;
+
+import com.amazonaws.xray.AWSXRay;
+import com.amazonaws.xray.agent.runtime.config.XRaySDKConfiguration;
+import com.amazonaws.xray.entities.Segment;
+import com.amazonaws.xray.entities.Subsegment;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import software.amazon.disco.agent.concurrent.TransactionContext;
+import software.amazon.disco.agent.event.ServiceDownstreamRequestEvent;
+import software.amazon.disco.agent.event.ServiceDownstreamResponseEvent;
+
+import java.sql.SQLException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SqlConnectionHandlerTest {
+    private static final String ORIGIN = "SqlConnection";
+    private static final String DATA_SOURCE = "com.zaxxer.hikari.HikariDataSource";
+    private static final String OPERATION = "getConnection";
+
+    private SqlConnectionHandler handler;
+    private ServiceDownstreamRequestEvent requestEvent;
+    private ServiceDownstreamResponseEvent responseEvent;
+
+    @Before
+    public void setup() {
+        handler = new SqlConnectionHandler();
+        TransactionContext.clear();
+
+        requestEvent = new ServiceDownstreamRequestEvent(ORIGIN, DATA_SOURCE, OPERATION);
+        responseEvent = new ServiceDownstreamResponseEvent(ORIGIN, DATA_SOURCE, OPERATION, requestEvent);
+    }
+
+    @After
+    public void cleanup() {
+        AWSXRay.clearTraceEntity();
+    }
+
+    @Test
+    public void testShortWaitOnlyAnnotated() {
+        initConfig("/com/amazonaws/xray/agent/longConnectionWaitConfig.json");
+        Segment seg = AWSXRay.beginSegment("test");  // must be after config init
+
+        handler.handleRequest(requestEvent);
+        handler.handleResponse(responseEvent);
+        handler.handleRequest(requestEvent);
+        handler.handleResponse(responseEvent);
+
+        assertThat(seg.getSubsegments()).isEmpty();
+        assertThat((Double) seg.getAnnotations().get(SqlConnectionHandler.WAIT_ANNOTATION_KEY))
+                .isGreaterThanOrEqualTo(0);
+    }
+
+    @Test
+    public void testLongWaitRecordedAsSubsegment() {
+        initConfig("/com/amazonaws/xray/agent/connectionWaitConfig.json");
+        Segment seg = AWSXRay.beginSegment("test");  // must be after config init
+
+        handler.handleRequest(requestEvent);
+        handler.handleResponse(responseEvent);
+
+        assertThat(seg.getSubsegments().size()).isEqualTo(1);
+        Subsegment sub = seg.getSubsegments().get(0);
+        assertThat(sub.getName()).isEqualTo(SqlConnectionHandler.SUBSEGMENT_NAME);
+        assertThat(sub.isInProgress()).isFalse();
+        assertThat(sub.getStartTime()).isLessThanOrEqualTo(sub.getEndTime());
+        assertThat(sub.getMetadata().get(SqlConnectionHandler.METADATA_NAMESPACE))
+                .containsEntry(SqlConnectionHandler.DATA_SOURCE_METADATA_KEY, DATA_SOURCE);
+        assertThat(AWSXRay.getTraceEntity()).isEqualTo(seg);
+    }
+
+    @Test
+    public void testFailedAcquisitionRecordedAsSubsegment() {
+        initConfig("/com/amazonaws/xray/agent/longConnectionWaitConfig.json");
+        Segment seg = AWSXRay.beginSegment("test");  // must be after config init
+        responseEvent.withThrown(new SQLException("Connection is not available, request timed out"));
+
+        handler.handleRequest(requestEvent);
+        handler.handleResponse(responseEvent);
+
+        assertThat(seg.getSubsegments().size()).isEqualTo(1);
+        Subsegment sub = seg.getSubsegments().get(0);
+        assertThat(sub.getCause().getExceptions().size()).isEqualTo(1);
+        assertThat(sub.isFault()).isTrue();
+    }
+
+    @Test
+    public void testOnlyOutermostAcquisitionRecorded() {
+        initConfig("/com/amazonaws/xray/agent/connectionWaitConfig.json");
+        Segment seg = AWSXRay.beginSegment("test");  // must be after config init
+
+        // e.g. a pool's data source opening a new connection through its driver's data source
+        handler.handleRequest(requestEvent);
+        handler.handleRequest(requestEvent);
+        handler.handleResponse(responseEvent);
+        assertThat(seg.getSubsegments()).isEmpty();
+
+        handler.handleResponse(responseEvent);
+        assertThat(seg.getSubsegments().size()).isEqualTo(1);
+    }
+
+    @Test
+    public void testNotRecordedWithoutSegment() {
+        initConfig("/com/amazonaws/xray/agent/connectionWaitConfig.json");
+
+        handler.handleRequest(requestEvent);
+        handler.handleResponse(responseEvent);
+
+        assertThat(AWSXRay.getTraceEntity()).isNull();
+    }
+
+    private static void initConfig(String configFile) {
+        XRaySDKConfiguration.getInstance().init(SqlConnectionHandlerTest.class.getResource(configFile));
+    }
+}
@@ -2,6 +2,8 @@ package com.amazonaws.xray.agent.runtime.handlers.downstream;
 
 import com.amazonaws.xray.AWSXRay;
 import com.amazonaws.xray.agent.runtime.config.XRaySDKConfiguration;
+import com.amazonaws.xray.agent.runtime.interceptors.ResultSetInterceptor;
+import com.amazonaws.xray.agent.runtime.models.XRayTransactionSlot;
 import com.amazonaws.xray.entities.Namespace;
 import com.amazonaws.xray.entities.Segment;
 import com.amazonaws.xray.entities.Subsegment;
@@ -15,13 +17,20 @@ import software.amazon.disco.agent.concurrent.TransactionContext;
 import software.amazon.disco.agent.event.ServiceDownstreamRequestEvent;
 import software.amazon.disco.agent.event.ServiceDownstreamResponseEvent;
 
+import java.lang.ref.WeakReference;
 import java.net.URL;
+import java.sql.BatchUpdateException;
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.Collection;
+import java.util.Map;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 /**
@@ -46,6 +55,9 @@ public class SqlHandlerTest {
     @Mock
     DatabaseMetaData mockMetaData;
 
+    @Mock
+    ResultSet mockResultSet;
+
     @Before
     public void setup() throws SQLException {
         MockitoAnnotations.initMocks(this);
@@ -115,12 +127,71 @@ public class SqlHandlerTest {
         assertThat(sqlSub.getName()).isEqualTo(SqlSubsegments.DEFAULT_DATABASE_NAME);
     }
 
+    @Test
+    public void testConnectionMetadataCached() throws SQLException {
+        XRaySDKConfiguration.getInstance().init();
+        Segment seg = AWSXRay.beginSegment("test");  // must be after config init
+
+        handler.handleRequest(requestEvent);
+        handler.handleResponse(responseEvent);
+        handler.handleRequest(requestEvent);
+
+        Subsegment sqlSub = AWSXRay.getCurrentSubsegment();
+        assertThat(seg.getSubsegments().size()).isEqualTo(2);
+        assertThat(sqlSub.getName()).isEqualTo(DB + "@example.com");
+        assertThat(sqlSub.getSql()).containsEntry(SqlSubsegments.URL, DB_URL);
+        assertThat(sqlSub.getSql()).containsEntry(SqlSubsegments.DATABASE_TYPE, "DB_TYPE");
+        verify(mockConnection, times(1)).getMetaData();
+        verify(mockConnection, times(2)).getCatalog();
+    }
+
+    @Test
+    public void testNestedQueryIgnored() {
+        XRaySDKConfiguration.getInstance().init();
+        Segment seg = AWSXRay.beginSegment("test");  // must be after config init
+        handler.setSqlTransactionCount(1);
+
+        handler.handleRequest(requestEvent);
+        assertThat(handler.getSqlTransactionCount()).isEqualTo(2);
+        assertThat(seg.getSubsegments()).isEmpty();
+
+        handler.handleResponse(responseEvent);
+        assertThat(handler.getSqlTransactionCount()).isEqualTo(1);
+        assertThat(AWSXRay.getTraceEntity()).isEqualTo(seg);
+    }
+
+    @Test
+    public void testNestingCountedPerThread() throws Exception {
+        XRaySDKConfiguration.getInstance().init();
+        Segment seg = AWSXRay.beginSegment("test");  // must be after config init
+        // A query that's still running on this thread, which the transaction's other threads mustn't be held up by
+        handler.setSqlTransactionCount(1);
+
+        XRayTransactionSlot slot = XRayTransactionSlot.get();
+        int[] propagatedCounts = new int[2];
+        Thread propagated = new Thread(() -> {
+            TransactionContext.create();
+            TransactionContext.putMetadata("XRayTransactionSlot", slot);
+            handler.handleRequest(requestEvent);
+            propagatedCounts[0] = handler.getSqlTransactionCount();
+            handler.handleResponse(responseEvent);
+            propagatedCounts[1] = handler.getSqlTransactionCount();
+        });
+        propagated.start();
+        propagated.join();
+
+        assertThat(propagatedCounts).containsExactly(1, 0);
+        assertThat(seg.getSubsegments()).hasSize(1);
+        assertThat(seg.getSubsegments().get(0).isInProgress()).isFalse();
+        assertThat(handler.getSqlTransactionCount()).isEqualTo(1);
+    }
+
     @Test
     public void testSubsegmentEndedWithThrowable() {
         XRaySDKConfiguration.getInstance().init();
         Segment seg = AWSXRay.beginSegment("test");  // must be after config init
         Subsegment sub = AWSXRay.beginSubsegment("FakeSqlSub");
-        TransactionContext.putMetadata(SqlHandler.SQL_SUBSEGMENT_COUNT_KEY, 1);
+        handler.setSqlTransactionCount(1);
 
         handler.handleResponse(responseEvent);
 
@@ -129,4 +200,273 @@ public class SqlHandlerTest {
         assertThat(sub.getCause().getExceptions().size()).isEqualTo(1);
         assertThat(sub.isFault()).isTrue();
     }
+
+    @Test
+    public void testBatchSummarized() {
+        URL configFile = SqlHandlerTest.class.getResource("/com/amazonaws/xray/agent/collectSqlConfig.json");
+        XRaySDKConfiguration.getInstance().init(configFile);
+        Segment seg = AWSXRay.beginSegment("test");  // must be after config init
+        ServiceDownstreamResponseEvent batchResponse = (ServiceDownstreamResponseEvent)
+                new ServiceDownstreamResponseEvent("SQL", DB, QUERY, requestEvent)
+                        .withResponse(new int[] {1, 2, Statement.SUCCESS_NO_INFO, 3});
+
+        handler.handleRequest(requestEvent);
+        Subsegment sqlSub = AWSXRay.getCurrentSubsegment();
+        handler.handleResponse(batchResponse);
+
+        assertThat(seg.getSubsegments()).containsExactly(sqlSub);
+        assertThat(sqlSub.getSql()).containsEntry(SqlSubsegments.SANITIZED_QUERY, QUERY);
+        Map<String, Object> batch = sqlSub.getAnnotations();
+        assertThat(batch).containsEntry(SqlHandler.BATCH_SIZE_KEY, 4);
+        assertThat(batch).containsEntry(SqlHandler.BATCH_ROWS_AFFECTED_KEY, 6L);
+        assertThat(batch).containsEntry(SqlHandler.BATCH_FAILED_COUNT_KEY, 0);
+        assertThat(sqlSub.isInProgress()).isFalse();
+    }
+
+    @Test
+    public void testFastQueryNotRecordedWithSlowQueryThreshold() {
+        URL configFile = SqlHandlerTest.class.getResource("/com/amazonaws/xray/agent/slowSqlQueryConfig.json");
+        XRaySDKConfiguration.getInstance().init(configFile);
+        AWSXRay.beginSegment("test");  // must be after config init
+        ServiceDownstreamResponseEvent queryResponse =
+                new ServiceDownstreamResponseEvent("SQL", DB, QUERY, requestEvent);
+
+        handler.handleRequest(requestEvent);
+        Subsegment sqlSub = AWSXRay.getCurrentSubsegment();
+        assertThat(sqlSub.getSql()).doesNotContainKey(SqlSubsegments.SANITIZED_QUERY);
+        handler.handleResponse(queryResponse);
+
+        assertThat(sqlSub.isInProgress()).isFalse();
+        assertThat(sqlSub.getSql()).doesNotContainKey(SqlSubsegments.SANITIZED_QUERY);
+    }
+
+    @Test
+    public void testFailedQueryRecordedWithSlowQueryThreshold() {
+        URL configFile = SqlHandlerTest.class.getResource("/com/amazonaws/xray/agent/slowSqlQueryConfig.json");
+        XRaySDKConfiguration.getInstance().init(configFile);
+        AWSXRay.beginSegment("test");  // must be after config init
+
+        handler.handleRequest(requestEvent);
+        Subsegment sqlSub = AWSXRay.getCurrentSubsegment();
+        handler.handleResponse(responseEvent);
+
+        assertThat(sqlSub.isInProgress()).isFalse();
+        assertThat(sqlSub.isFault()).isTrue();
+        assertThat(sqlSub.getSql()).containsEntry(SqlSubsegments.SANITIZED_QUERY, QUERY);
+    }
+
+    @Test
+    public void testFailedBatchSummarized() {
+        XRaySDKConfiguration.getInstance().init();
+        AWSXRay.beginSegment("test");  // must be after config init
+        BatchUpdateException exception = new BatchUpdateException(new int[] {1, Statement.EXECUTE_FAILED, 1}, null);
+        ServiceDownstreamResponseEvent batchResponse = (ServiceDownstreamResponseEvent)
+                new ServiceDownstreamResponseEvent("SQL", DB, QUERY, requestEvent).withThrown(exception);
+
+        handler.handleRequest(requestEvent);
+        Subsegment sqlSub = AWSXRay.getCurrentSubsegment();
+        handler.handleResponse(batchResponse);
+
+        Map<String, Object> batch = sqlSub.getAnnotations();
+        assertThat(batch).containsEntry(SqlHandler.BATCH_SIZE_KEY, 3);
+        assertThat(batch).containsEntry(SqlHandler.BATCH_ROWS_AFFECTED_KEY, 2L);
+        assertThat(batch).containsEntry(SqlHandler.BATCH_FAILED_COUNT_KEY, 1);
+        assertThat(sqlSub.isFault()).isTrue();
+    }
+
+    @Test
+    public void testQueryNotSummarizedAsBatch() {
+        XRaySDKConfiguration.getInstance().init();
+        AWSXRay.beginSegment("test");  // must be after config init
+
+        handler.handleRequest(requestEvent);
+        Subsegment sqlSub = AWSXRay.getCurrentSubsegment();
+        handler.handleResponse(responseEvent);
+
+        assertThat(sqlSub.getAnnotations()).doesNotContainKey(SqlHandler.BATCH_SIZE_KEY);
+    }
+
+    @Test
+    public void testRepeatedStatementAnnotated() {
+        URL configFile = SqlHandlerTest.class.getResource("/com/amazonaws/xray/agent/repeatedQueryConfig.json");
+        XRaySDKConfiguration.getInstance().init(configFile);
+        Segment seg = AWSXRay.beginSegment("test");  // must be after config init
+
+        executeQuery(2);
+        assertThat(seg.getAnnotations()).doesNotContainKey(RepeatedStatementTracker.ANNOTATION_KEY);
+
+        executeQuery(1);
+        assertThat(seg.getSubsegments().size()).isEqualTo(3);
+        assertThat(seg.getAnnotations()).containsEntry(RepeatedStatementTracker.ANNOTATION_KEY, true);
+        Collection<?> repeated = (Collection<?>) seg.getMetadata()
+                .get(RepeatedStatementTracker.METADATA_NAMESPACE).get(RepeatedStatementTracker.METADATA_KEY);
+        assertThat(repeated).hasSize(1);
+        Map<?, ?> details = (Map<?, ?>) repeated.iterator().next();
+        assertThat(details.get(RepeatedStatementTracker.STATEMENT_KEY)).isEqualTo(QUERY);
+        assertThat(details.get(RepeatedStatementTracker.COUNT_KEY)).isEqualTo(3);
+        assertThat((Double) details.get(RepeatedStatementTracker.TOTAL_TIME_KEY)).isGreaterThanOrEqualTo(0);
+        assertThat(seg.getSubsegments().get(0).getSql()).doesNotContainKey(SqlSubsegments.SANITIZED_QUERY);
+    }
+
+    @Test
+    public void testRepeatedStatementsCollapsed() {
+        URL configFile = SqlHandlerTest.class.getResource("/com/amazonaws/xray/agent/collapseRepeatedQueryConfig.json");
+        XRaySDKConfiguration.getInstance().init(configFile);
+        Segment seg = AWSXRay.beginSegment("test");  // must be after config init
+
+        executeQuery(6);
+
+        assertThat(seg.getSubsegments().size()).isEqualTo(3);
+        Subsegment summary = seg.getSubsegments().get(2);
+        // The ended summary is left alone until the segment ends
+        assertThat(summary.getMetadata()).doesNotContainKey(RepeatedStatementTracker.METADATA_NAMESPACE);
+        XRayTransactionSlot.get().runSegmentEndActions();
+        Map<String, Object> sqlMetadata = summary.getMetadata().get(RepeatedStatementTracker.METADATA_NAMESPACE);
+        assertThat(sqlMetadata).containsEntry(RepeatedStatementTracker.COLLAPSED_COUNT_KEY, 3);
+        assertThat(summary.isInProgress()).isFalse();
+        assertThat(AWSXRay.getTraceEntity()).isEqualTo(seg);
+        Collection<?> repeated = (Collection<?>) seg.getMetadata()
+                .get(RepeatedStatementTracker.METADATA_NAMESPACE).get(RepeatedStatementTracker.METADATA_KEY);
+        assertThat(((Map<?, ?>) repeated.iterator().next()).get(RepeatedStatementTracker.COUNT_KEY)).isEqualTo(6);
+    }
+
+    @Test
+    public void testCollapsedStatementsOfStreamedSummaryRecordedOnSegment() {
+        URL configFile = SqlHandlerTest.class.getResource("/com/amazonaws/xray/agent/collapseRepeatedQueryConfig.json");
+        XRaySDKConfiguration.getInstance().init(configFile);
+        Segment seg = AWSXRay.beginSegment("test");  // must be after config init
+
+        executeQuery(6);
+        Subsegment summary = seg.getSubsegments().get(2);
+        summary.setEmitted(true);
+        XRayTransactionSlot.get().runSegmentEndActions();
+
+        assertThat(summary.getMetadata()).doesNotContainKey(RepeatedStatementTracker.METADATA_NAMESPACE);
+        Map<?, ?> collapsed = (Map<?, ?>) seg.getMetadata().get(RepeatedStatementTracker.METADATA_NAMESPACE)
+                .get(RepeatedStatementTracker.COLLAPSED_METADATA_KEY + "_" + summary.getId());
+        assertThat(collapsed.get(RepeatedStatementTracker.COLLAPSED_COUNT_KEY)).isEqualTo(3);
+        assertThat((Double) collapsed.get(RepeatedStatementTracker.COLLAPSED_END_TIME_KEY))
+                .isGreaterThanOrEqualTo(summary.getEndTime());
+    }
+
+    @Test
+    public void testEndedSegmentWithRepeatedStatementsCollected() throws InterruptedException {
+        URL configFile = SqlHandlerTest.class.getResource("/com/amazonaws/xray/agent/collapseRepeatedQueryConfig.json");
+        XRaySDKConfiguration.getInstance().init(configFile);
+
+        WeakReference<Segment> segment = traceRepeatedStatements();
+        for (int i = 0; i < 50 && segment.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+
+        assertThat(segment.get()).isNull();
+    }
+
+    // The segment is only referenced from this method's frame, so that it's unreachable once the method returns
+    private WeakReference<Segment> traceRepeatedStatements() {
+        Segment seg = AWSXRay.beginSegment("test");  // must be after config init
+        executeQuery(6);
+        assertThat(seg.getAnnotations()).containsKey(RepeatedStatementTracker.ANNOTATION_KEY);
+
+        // As the servlet handler ends the segment
+        XRayTransactionSlot.get().runSegmentEndActions();
+        AWSXRay.endSegment();
+        return new WeakReference<>(seg);
+    }
+
+    @Test
+    public void testResultSetFetchTracked() {
+        URL configFile = SqlHandlerTest.class.getResource("/com/amazonaws/xray/agent/trackResultSetsConfig.json");
+        XRaySDKConfiguration.getInstance().init(configFile);
+        AWSXRay.beginSegment("test");  // must be after config init
+        ServiceDownstreamResponseEvent queryResponse = (ServiceDownstreamResponseEvent)
+                new ServiceDownstreamResponseEvent("SQL", DB, QUERY, requestEvent).withResponse(mockResultSet);
+
+        handler.handleRequest(requestEvent);
+        Subsegment sqlSub = AWSXRay.getCurrentSubsegment();
+        handler.handleResponse(queryResponse);
+        assertThat(sqlSub.isInProgress()).isFalse();
+
+        // As the ResultSet interceptor's advice would around each call to next()
+        for (boolean hasRow : new boolean[] {true, true, false}) {
+            long startNanos = ResultSetInterceptor.NextAdvice.enter(mockResultSet);
+            ResultSetInterceptor.NextAdvice.exit(mockResultSet, startNanos, hasRow);
+        }
+        ResultSetInterceptor.CloseAdvice.enter(mockResultSet);
+        assertThat(ResultSetInterceptor.NextAdvice.enter(mockResultSet)).isEqualTo(-1);
+
+        Map<?, ?> stats = (Map<?, ?>) sqlSub.getMetadata()
+                .get(ResultSetFetchStats.METADATA_NAMESPACE).get(ResultSetFetchStats.METADATA_KEY);
+        assertThat(stats.get(ResultSetFetchStats.ROW_COUNT_KEY)).isEqualTo(2L);
+        assertThat((Double) stats.get(ResultSetFetchStats.FETCH_TIME_KEY)).isGreaterThanOrEqualTo(0);
+    }
+
+    @Test
+    public void testOpenResultSetRecordedWhenSegmentEnds() {
+        URL configFile = SqlHandlerTest.class.getResource("/com/amazonaws/xray/agent/trackResultSetsConfig.json");
+        XRaySDKConfiguration.getInstance().init(configFile);
+        AWSXRay.beginSegment("test");  // must be after config init
+        ServiceDownstreamResponseEvent queryResponse = (ServiceDownstreamResponseEvent)
+                new ServiceDownstreamResponseEvent("SQL", DB, QUERY, requestEvent).withResponse(mockResultSet);
+
+        handler.handleRequest(requestEvent);
+        Subsegment sqlSub = AWSXRay.getCurrentSubsegment();
+        handler.handleResponse(queryResponse);
+        long startNanos = ResultSetInterceptor.NextAdvice.enter(mockResultSet);
+        ResultSetInterceptor.NextAdvice.exit(mockResultSet, startNanos, true);
+        assertThat(sqlSub.getMetadata()).doesNotContainKey(ResultSetFetchStats.METADATA_NAMESPACE);
+
+        XRayTransactionSlot.get().runSegmentEndActions();
+
+        Map<?, ?> stats = (Map<?, ?>) sqlSub.getMetadata()
+                .get(ResultSetFetchStats.METADATA_NAMESPACE).get(ResultSetFetchStats.METADATA_KEY);
+        assertThat(stats.get(ResultSetFetchStats.ROW_COUNT_KEY)).isEqualTo(1L);
+        assertThat(ResultSetInterceptor.NextAdvice.enter(mockResultSet)).isEqualTo(-1);
+    }
+
+    @Test
+    public void testStreamedQueryResultSetRecordedInSegment() {
+        URL configFile = SqlHandlerTest.class.getResource("/com/amazonaws/xray/agent/trackResultSetsConfig.json");
+        XRaySDKConfiguration.getInstance().init(configFile);
+        Segment seg = AWSXRay.beginSegment("test");  // must be after config init
+        ServiceDownstreamResponseEvent queryResponse = (ServiceDownstreamResponseEvent)
+                new ServiceDownstreamResponseEvent("SQL", DB, QUERY, requestEvent).withResponse(mockResultSet);
+
+        handler.handleRequest(requestEvent);
+        Subsegment sqlSub = AWSXRay.getCurrentSubsegment();
+        handler.handleResponse(queryResponse);
+        // As the SDK's streaming strategy does once the segment has enough subsegments
+        sqlSub.setEmitted(true);
+        ResultSetInterceptor.CloseAdvice.enter(mockResultSet);
+
+        assertThat(sqlSub.getMetadata()).doesNotContainKey(ResultSetFetchStats.METADATA_NAMESPACE);
+        Map<?, ?> stats = (Map<?, ?>) seg.getMetadata().get(ResultSetFetchStats.METADATA_NAMESPACE)
+                .get(ResultSetFetchStats.METADATA_KEY + "_" + sqlSub.getId());
+        assertThat(stats.get(ResultSetFetchStats.ROW_COUNT_KEY)).isEqualTo(0L);
+    }
+
+    @Test
+    public void testResultSetNotTrackedByDefault() {
+        XRaySDKConfiguration.getInstance().init();
+        AWSXRay.beginSegment("test");  // must be after config init
+        ServiceDownstreamResponseEvent queryResponse = (ServiceDownstreamResponseEvent)
+                new ServiceDownstreamResponseEvent("SQL", DB, QUERY, requestEvent).withResponse(mockResultSet);
+
+        handler.handleRequest(requestEvent);
+        Subsegment sqlSub = AWSXRay.getCurrentSubsegment();
+        handler.handleResponse(queryResponse);
+
+        assertThat(sqlSub.getMetadata()).doesNotContainKey(ResultSetFetchStats.METADATA_NAMESPACE);
+        assertThat(ResultSetInterceptor.NextAdvice.enter(mockResultSet)).isEqualTo(-1);
+    }
+
+    private void executeQuery(int times) {
+        ServiceDownstreamResponseEvent successResponse = (ServiceDownstreamResponseEvent)
+                new ServiceDownstreamResponseEvent("SQL", DB, QUERY, requestEvent).withResponse(true);
+        for (int i = 0; i < times; i++) {
+            handler.handleRequest(requestEvent);
+            handler.handleResponse(successResponse);
+        }
+    }
 }
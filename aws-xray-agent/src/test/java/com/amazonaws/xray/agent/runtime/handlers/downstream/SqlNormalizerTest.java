@@ -0,0 +1,61 @@
+package com.amazonaws.xray.agent.runtime.handlers.downstream;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SqlNormalizerTest {
+    @Test
+    public void testLiteralsReplaced() {
+        assertThat(SqlNormalizer.normalizeUncached(
+                "SELECT * FROM users WHERE name = 'O''Brien' AND age > 42 AND score < -1.5e3 AND flags = 0x1F"))
+                .isEqualTo("SELECT * FROM users WHERE name = ? AND age > ? AND score < -? AND flags = ?");
+    }
+
+    @Test
+    public void testIdentifiersKept() {
+        assertThat(SqlNormalizer.normalizeUncached("SELECT t1.col2, \"Table 3\".`x4` FROM t1 WHERE id = $1"))
+                .isEqualTo("SELECT t1.col2, \"Table 3\".`x4` FROM t1 WHERE id = $1");
+    }
+
+    @Test
+    public void testInListsCollapsed() {
+        assertThat(SqlNormalizer.normalizeUncached("SELECT * FROM t WHERE id IN (1, 2, 3) AND name in('a','b')"))
+                .isEqualTo("SELECT * FROM t WHERE id IN (?) AND name in(?)");
+        assertThat(SqlNormalizer.normalizeUncached("DELETE FROM t WHERE id IN (?, ?, ?, ?)"))
+                .isEqualTo("DELETE FROM t WHERE id IN (?)");
+    }
+
+    @Test
+    public void testSubqueryNotCollapsed() {
+        assertThat(SqlNormalizer.normalizeUncached("SELECT * FROM t WHERE id IN (SELECT id FROM u WHERE x = 5)"))
+                .isEqualTo("SELECT * FROM t WHERE id IN (SELECT id FROM u WHERE x = ?)");
+        assertThat(SqlNormalizer.normalizeUncached("SELECT max(1, 2) FROM t"))
+                .isEqualTo("SELECT max(?, ?) FROM t");
+    }
+
+    @Test
+    public void testCommentsAndWhitespaceRemoved() {
+        assertThat(SqlNormalizer.normalizeUncached("SELECT a -- user 'secret'\n  FROM t /* id=5 */\tWHERE b = ?  "))
+                .isEqualTo("SELECT a FROM t WHERE b = ?");
+    }
+
+    @Test
+    public void testUnterminatedLiteral() {
+        assertThat(SqlNormalizer.normalizeUncached("SELECT 'abc")).isEqualTo("SELECT ?");
+    }
+
+    @Test
+    public void testUnchangedStatementReturnedAsIs() {
+        String sql = "SELECT * FROM my_table WHERE id = ?";
+        assertThat(SqlNormalizer.normalizeUncached(sql)).isSameAs(sql);
+    }
+
+    @Test
+    public void testNormalizedStatementsCached() {
+        String sql = "SELECT * FROM cached WHERE id = 7";
+        String normalized = SqlNormalizer.normalize(sql);
+        assertThat(normalized).isEqualTo("SELECT * FROM cached WHERE id = ?");
+        assertThat(SqlNormalizer.normalize(new String(sql))).isSameAs(normalized);
+    }
+}
@@ -1,6 +1,5 @@
 package com.amazonaws.xray.agent.runtime.handlers.downstream;
 
-import com.amazonaws.xray.agent.runtime.models.XRayTransactionState;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mock;
@@ -33,6 +32,6 @@ public class SqlPrepareHandlerTest {
         responseEvent.withResponse(preparedStatementMock);
 
         handler.handleResponse(responseEvent);
-        assertThat(XRayTransactionState.getPreparedQuery(preparedStatementMock)).isEqualTo(sql);
+        assertThat(PreparedStatementRegistry.getInstance().get(preparedStatementMock)).isEqualTo(sql);
     }
 }
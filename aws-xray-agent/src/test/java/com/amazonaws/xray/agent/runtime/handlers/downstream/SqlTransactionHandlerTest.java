@@ -0,0 +1,259 @@
+package com.amazonaws.xray.agent.runtime.handlers.downstream;
+
+import com.amazonaws.xray.AWSXRay;
+import com.amazonaws.xray.agent.runtime.config.XRaySDKConfiguration;
+import com.amazonaws.xray.agent.runtime.interceptors.ConnectionInterceptor;
+import com.amazonaws.xray.agent.runtime.models.XRayTransactionSlot;
+import com.amazonaws.xray.entities.Segment;
+import com.amazonaws.xray.entities.Subsegment;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import software.amazon.disco.agent.concurrent.TransactionContext;
+import software.amazon.disco.agent.event.ServiceDownstreamRequestEvent;
+import software.amazon.disco.agent.event.ServiceDownstreamResponseEvent;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.when;
+
+public class SqlTransactionHandlerTest {
+    private static final String ORIGIN = "SqlTransaction";
+    private static final String SERVICE = "com.example.MyConnection";
+
+    private SqlTransactionHandler handler;
+
+    @Mock
+    Connection mockConnection;
+
+    @Mock
+    Connection otherConnection;
+
+    @Mock
+    Statement mockStatement;
+
+    @Mock
+    Statement otherStatement;
+
+    @Mock
+    DatabaseMetaData mockMetaData;
+
+    @Before
+    public void setup() throws SQLException {
+        MockitoAnnotations.initMocks(this);
+        when(mockStatement.getConnection()).thenReturn(mockConnection);
+        when(otherStatement.getConnection()).thenReturn(otherConnection);
+        when(mockConnection.getCatalog()).thenReturn("db");
+        when(mockConnection.getMetaData()).thenReturn(mockMetaData);
+        when(otherConnection.getMetaData()).thenReturn(mockMetaData);
+        when(mockMetaData.getURL()).thenReturn("jdbc:mysql://example.com:3306/db");
+        handler = new SqlTransactionHandler();
+        TransactionContext.clear();
+        XRaySDKConfiguration.getInstance().init();
+    }
+
+    @After
+    public void cleanup() {
+        AWSXRay.clearTraceEntity();
+    }
+
+    @Test
+    public void testTransactionParentsStatementsAndCommit() {
+        Segment seg = AWSXRay.beginSegment("test");  // must be after config init
+
+        call(mockConnection, ConnectionInterceptor.DISABLE_AUTO_COMMIT, null);
+        Subsegment transaction = seg.getSubsegments().get(0);
+        assertThat(transaction.getName()).isEqualTo(SqlTransactionHandler.TRANSACTION_SUBSEGMENT_NAME);
+        assertThat(AWSXRay.getTraceEntity()).isEqualTo(seg);
+
+        executeStatement(mockStatement);
+        call(mockConnection, ConnectionInterceptor.COMMIT, null);
+
+        assertThat(seg.getSubsegments()).containsExactly(transaction);
+        assertThat(transaction.isInProgress()).isFalse();
+        assertThat(transaction.getSubsegments().size()).isEqualTo(2);
+        Subsegment query = transaction.getSubsegments().get(0);
+        assertThat(query.getName()).isEqualTo("db@example.com");
+        assertThat(query.isInProgress()).isFalse();
+        Subsegment commit = transaction.getSubsegments().get(1);
+        assertThat(commit.getName()).isEqualTo(SqlTransactionHandler.COMMIT_SUBSEGMENT_NAME);
+        assertThat(commit.isInProgress()).isFalse();
+        assertThat(transaction.getMetadata().get(SqlTransactionHandler.METADATA_NAMESPACE))
+                .containsEntry(SqlTransactionHandler.OUTCOME_METADATA_KEY, ConnectionInterceptor.COMMIT)
+                .containsKey("commit_time");
+        assertThat(AWSXRay.getTraceEntity()).isEqualTo(seg);
+    }
+
+    @Test
+    public void testOnlyTransactionStatementsParented() {
+        Segment seg = AWSXRay.beginSegment("test");  // must be after config init
+
+        call(mockConnection, ConnectionInterceptor.DISABLE_AUTO_COMMIT, null);
+        Subsegment transaction = seg.getSubsegments().get(0);
+        Subsegment http = AWSXRay.beginSubsegment("example.com");
+        AWSXRay.endSubsegment();
+        executeStatement(otherStatement);
+
+        assertThat(seg.getSubsegments().size()).isEqualTo(3);
+        assertThat(seg.getSubsegments().get(1)).isEqualTo(http);
+        assertThat(transaction.getSubsegments()).isEmpty();
+        assertThat(AWSXRay.getTraceEntity()).isEqualTo(seg);
+    }
+
+    @Test
+    public void testAbandonedTransactionEndedWithSegment() {
+        Segment seg = AWSXRay.beginSegment("test");  // must be after config init
+
+        call(mockConnection, ConnectionInterceptor.DISABLE_AUTO_COMMIT, null);
+        executeStatement(mockStatement);
+        Subsegment transaction = seg.getSubsegments().get(0);
+        assertThat(transaction.isInProgress()).isTrue();
+
+        // As the servlet handler does when the request completes without the connection having been closed
+        XRayTransactionSlot.get().runSegmentEndActions();
+
+        assertThat(transaction.isInProgress()).isFalse();
+        assertThat(transaction.getMetadata().get(SqlTransactionHandler.METADATA_NAMESPACE))
+                .containsEntry(SqlTransactionHandler.OUTCOME_METADATA_KEY, SqlTransactionHandler.ABANDONED_OUTCOME);
+        assertThat(AWSXRay.getTraceEntity()).isEqualTo(seg);
+        assertThat(seg.getReferenceCount()).isZero();
+        assertThat(SqlTransactionHandler.getOpenTransaction(XRayTransactionSlot.get(), mockConnection)).isNull();
+    }
+
+    @Test
+    public void testEndedTransactionNotAbandoned() {
+        Segment seg = AWSXRay.beginSegment("test");  // must be after config init
+
+        call(mockConnection, ConnectionInterceptor.DISABLE_AUTO_COMMIT, null);
+        call(mockConnection, ConnectionInterceptor.COMMIT, null);
+        XRayTransactionSlot.get().runSegmentEndActions();
+
+        Subsegment transaction = seg.getSubsegments().get(0);
+        assertThat(transaction.getMetadata().get(SqlTransactionHandler.METADATA_NAMESPACE))
+                .containsEntry(SqlTransactionHandler.OUTCOME_METADATA_KEY, ConnectionInterceptor.COMMIT);
+        assertThat(AWSXRay.getTraceEntity()).isEqualTo(seg);
+    }
+
+    @Test
+    public void testFailedRollbackRecorded() {
+        Segment seg = AWSXRay.beginSegment("test");  // must be after config init
+
+        call(mockConnection, ConnectionInterceptor.DISABLE_AUTO_COMMIT, null);
+        call(mockConnection, ConnectionInterceptor.ROLLBACK, new SQLException("Connection reset"));
+
+        Subsegment transaction = seg.getSubsegments().get(0);
+        Subsegment rollback = transaction.getSubsegments().get(0);
+        assertThat(rollback.getName()).isEqualTo(SqlTransactionHandler.ROLLBACK_SUBSEGMENT_NAME);
+        assertThat(rollback.isFault()).isTrue();
+        assertThat(transaction.getMetadata().get(SqlTransactionHandler.METADATA_NAMESPACE))
+                .containsEntry(SqlTransactionHandler.OUTCOME_METADATA_KEY, ConnectionInterceptor.ROLLBACK);
+        assertThat(AWSXRay.getTraceEntity()).isEqualTo(seg);
+    }
+
+    @Test
+    public void testEnablingAutoCommitCommits() {
+        Segment seg = AWSXRay.beginSegment("test");  // must be after config init
+
+        call(mockConnection, ConnectionInterceptor.DISABLE_AUTO_COMMIT, null);
+        call(mockConnection, ConnectionInterceptor.ENABLE_AUTO_COMMIT, null);
+
+        Subsegment transaction = seg.getSubsegments().get(0);
+        assertThat(transaction.isInProgress()).isFalse();
+        assertThat(transaction.getSubsegments().get(0).getName())
+                .isEqualTo(SqlTransactionHandler.COMMIT_SUBSEGMENT_NAME);
+    }
+
+    @Test
+    public void testAutoCommitWithoutTransactionIgnored() {
+        Segment seg = AWSXRay.beginSegment("test");  // must be after config init
+
+        call(mockConnection, ConnectionInterceptor.ENABLE_AUTO_COMMIT, null);
+        call(mockConnection, ConnectionInterceptor.CLOSE, null);
+
+        assertThat(seg.getSubsegments()).isEmpty();
+    }
+
+    @Test
+    public void testCloseEndsTransaction() {
+        Segment seg = AWSXRay.beginSegment("test");  // must be after config init
+
+        call(mockConnection, ConnectionInterceptor.DISABLE_AUTO_COMMIT, null);
+        call(mockConnection, ConnectionInterceptor.CLOSE, null);
+
+        Subsegment transaction = seg.getSubsegments().get(0);
+        assertThat(transaction.isInProgress()).isFalse();
+        assertThat(transaction.getSubsegments()).isEmpty();
+        assertThat(transaction.getMetadata().get(SqlTransactionHandler.METADATA_NAMESPACE))
+                .containsEntry(SqlTransactionHandler.OUTCOME_METADATA_KEY, ConnectionInterceptor.CLOSE);
+    }
+
+    @Test
+    public void testCommitWithoutTransactionRecorded() {
+        Segment seg = AWSXRay.beginSegment("test");  // must be after config init
+
+        call(mockConnection, ConnectionInterceptor.COMMIT, null);
+
+        assertThat(seg.getSubsegments().size()).isEqualTo(1);
+        assertThat(seg.getSubsegments().get(0).getName()).isEqualTo(SqlTransactionHandler.COMMIT_SUBSEGMENT_NAME);
+    }
+
+    @Test
+    public void testOtherConnectionDoesNotEndTransaction() {
+        Segment seg = AWSXRay.beginSegment("test");  // must be after config init
+
+        call(mockConnection, ConnectionInterceptor.DISABLE_AUTO_COMMIT, null);
+        Subsegment transaction = seg.getSubsegments().get(0);
+        call(otherConnection, ConnectionInterceptor.CLOSE, null);
+
+        assertThat(transaction.isInProgress()).isTrue();
+        XRayTransactionSlot slot = XRayTransactionSlot.get();
+        assertThat(SqlTransactionHandler.getOpenTransaction(slot, mockConnection)).isEqualTo(transaction);
+        assertThat(SqlTransactionHandler.getOpenTransaction(slot, otherConnection)).isNull();
+    }
+
+    @Test
+    public void testNestedCallsIgnored() {
+        Segment seg = AWSXRay.beginSegment("test");  // must be after config init
+        ServiceDownstreamRequestEvent requestEvent = request(mockConnection, ConnectionInterceptor.COMMIT);
+
+        // e.g. a pool's connection committing its driver's connection
+        handler.handleRequest(requestEvent);
+        handler.handleRequest(requestEvent);
+        handler.handleResponse(response(requestEvent, null));
+        handler.handleResponse(response(requestEvent, null));
+
+        assertThat(seg.getSubsegments().size()).isEqualTo(1);
+        assertThat(AWSXRay.getTraceEntity()).isEqualTo(seg);
+    }
+
+    private static void executeStatement(Statement statement) {
+        SqlHandler sqlHandler = new SqlHandler();
+        ServiceDownstreamRequestEvent requestEvent = (ServiceDownstreamRequestEvent)
+                new ServiceDownstreamRequestEvent("SQL", "db", "SELECT 1").withRequest(statement);
+        sqlHandler.handleRequest(requestEvent);
+        sqlHandler.handleResponse(new ServiceDownstreamResponseEvent("SQL", "db", "SELECT 1", requestEvent));
+    }
+
+    private void call(Connection connection, String operation, Throwable thrown) {
+        ServiceDownstreamRequestEvent requestEvent = request(connection, operation);
+        handler.handleRequest(requestEvent);
+        handler.handleResponse(response(requestEvent, thrown));
+    }
+
+    private static ServiceDownstreamRequestEvent request(Connection connection, String operation) {
+        return (ServiceDownstreamRequestEvent) new ServiceDownstreamRequestEvent(ORIGIN, SERVICE, operation)
+                .withRequest(connection);
+    }
+
+    private static ServiceDownstreamResponseEvent response(ServiceDownstreamRequestEvent requestEvent,
+                                                           Throwable thrown) {
+        return (ServiceDownstreamResponseEvent) new ServiceDownstreamResponseEvent(
+                ORIGIN, SERVICE, requestEvent.getOperation(), requestEvent).withThrown(thrown);
+    }
+}
@@ -0,0 +1,47 @@
+package com.amazonaws.xray.agent.runtime.handlers.downstream;
+
+import com.amazonaws.xray.entities.Subsegment;
+import org.junit.Test;
+
+import java.sql.ResultSet;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+public class TrackedResultSetsTest {
+    private final TrackedResultSets trackedResultSets = new TrackedResultSets();
+
+    @Test
+    public void testResultSetsComparedByIdentity() {
+        ResultSet first = mock(ResultSet.class);
+        ResultSet second = mock(ResultSet.class);
+        ResultSetFetchStats firstStats = newStats();
+
+        assertThat(trackedResultSets.add(first, firstStats, 2)).isTrue();
+        assertThat(trackedResultSets.add(second, newStats(), 2)).isTrue();
+        assertThat(trackedResultSets.add(mock(ResultSet.class), newStats(), 2)).isFalse();
+
+        assertThat(trackedResultSets).hasSize(2);
+        assertThat(trackedResultSets.get(first)).isSameAs(firstStats);
+        assertThat(trackedResultSets.remove(first)).isSameAs(firstStats);
+        assertThat(trackedResultSets.remove(first)).isNull();
+        assertThat(trackedResultSets.containsKey(first)).isFalse();
+        assertThat(trackedResultSets.containsKey(second)).isTrue();
+    }
+
+    @Test
+    public void testFlushScheduledOnceUntilFlushed() {
+        trackedResultSets.add(mock(ResultSet.class), newStats(), 2);
+
+        assertThat(trackedResultSets.scheduleFlush()).isTrue();
+        assertThat(trackedResultSets.scheduleFlush()).isFalse();
+        trackedResultSets.flush();
+
+        assertThat(trackedResultSets).isEmpty();
+        assertThat(trackedResultSets.scheduleFlush()).isTrue();
+    }
+
+    private static ResultSetFetchStats newStats() {
+        return new ResultSetFetchStats(mock(Subsegment.class));
+    }
+}
@@ -3,12 +3,15 @@ package com.amazonaws.xray.agent.runtime.handlers.upstream;
 import com.amazonaws.xray.AWSXRay;
 import com.amazonaws.xray.AWSXRayRecorderBuilder;
 import com.amazonaws.xray.agent.runtime.config.XRaySDKConfiguration;
+import com.amazonaws.xray.agent.runtime.handlers.downstream.HttpClientHandler;
+import com.amazonaws.xray.agent.runtime.models.XRayTransactionSlot;
 import com.amazonaws.xray.agent.runtime.models.XRayTransactionState;
 import com.amazonaws.xray.emitters.Emitter;
 import com.amazonaws.xray.entities.Segment;
 import com.amazonaws.xray.entities.TraceHeader;
 import com.amazonaws.xray.entities.TraceID;
 import com.amazonaws.xray.strategy.LogErrorContextMissingStrategy;
+import com.amazonaws.xray.strategy.sampling.AllSamplingStrategy;
 import com.amazonaws.xray.strategy.sampling.NoSamplingStrategy;
 import org.junit.After;
 import org.junit.Assert;
@@ -16,7 +19,9 @@ import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import software.amazon.disco.agent.concurrent.TransactionContext;
 import software.amazon.disco.agent.event.HttpServletNetworkRequestEvent;
+import software.amazon.disco.agent.event.HttpServiceDownstreamRequestEvent;
 import software.amazon.disco.agent.event.HttpServletNetworkResponseEvent;
 
 import java.util.HashMap;
@@ -51,7 +56,7 @@ public class ServletHandlerTest {
         AWSXRay.setGlobalRecorder(AWSXRayRecorderBuilder
                 .standard()
                 .withContextMissingStrategy(new LogErrorContextMissingStrategy())
-                .withSamplingStrategy(new NoSamplingStrategy())
+                .withSamplingStrategy(new AllSamplingStrategy())
                 .withEmitter(blankEmitter)
                 .build());
         servletHandler = new ServletHandler();
@@ -61,6 +66,7 @@ public class ServletHandlerTest {
     @After
     public void cleanup() {
         AWSXRay.clearTraceEntity();
+        TransactionContext.clear();
     }
 
     @Test
@@ -123,6 +129,71 @@ public class ServletHandlerTest {
         Assert.assertEquals(thSampled.getSampled() == TraceHeader.SampleDecision.NOT_SAMPLED, servletSegment.isSampled());
     }
 
+    @Test
+    public void testUnsampledRequestSkipsHttpMetadata() {
+        HttpServletNetworkRequestEvent requestEvent = new HttpServletNetworkRequestEvent(ORIGIN, 54, 32, SRC_IP, DST_IP);
+        TraceHeader thUnsampled = new TraceHeader(new TraceID(), null, TraceHeader.SampleDecision.NOT_SAMPLED);
+        Map<String, String> headerMap = new HashMap<>();
+        headerMap.put(HEADER_KEY, thUnsampled.toString());
+        requestEvent.withHeaderMap(headerMap);
+
+        servletHandler.handleRequest(requestEvent);
+        Segment servletSegment = AWSXRay.getCurrentSegment();
+        Assert.assertFalse(servletSegment.isSampled());
+        Assert.assertNull(servletSegment.getHttp().get("request"));
+
+        HttpServletNetworkResponseEvent responseEvent = new HttpServletNetworkResponseEvent(ORIGIN, requestEvent);
+        responseEvent.withStatusCode(500);
+        servletHandler.handleResponse(responseEvent);
+        Assert.assertFalse(servletSegment.isInProgress());
+        Assert.assertNull(servletSegment.getHttp().get("response"));
+        Assert.assertFalse(servletSegment.isFault());
+        Assert.assertFalse(AWSXRay.getCurrentSegmentOptional().isPresent());
+    }
+
+    @Test
+    public void testUnsampledRequestBeginsNoOpSegment() {
+        AWSXRay.getGlobalRecorder().setSamplingStrategy(new NoSamplingStrategy());
+        HttpServletNetworkRequestEvent requestEvent = new HttpServletNetworkRequestEvent(ORIGIN, 54, 32, SRC_IP, DST_IP);
+        requestEvent.withURL(URL);
+
+        servletHandler.handleRequest(requestEvent);
+        Segment servletSegment = AWSXRay.getCurrentSegment();
+        Assert.assertFalse(servletSegment.isSampled());
+        Assert.assertNotNull(servletSegment.getTraceId());
+        Assert.assertNull(servletSegment.getAws().get("xray"));
+
+        HttpServletNetworkResponseEvent responseEvent = new HttpServletNetworkResponseEvent(ORIGIN, requestEvent);
+        responseEvent.withStatusCode(200);
+        servletHandler.handleResponse(responseEvent);
+        Assert.assertFalse(AWSXRay.getCurrentSegmentOptional().isPresent());
+    }
+
+    @Test
+    public void testDownstreamCallAfterUnsampledResponseIsSkipped() {
+        AWSXRay.getGlobalRecorder().setSamplingStrategy(new NoSamplingStrategy());
+        HttpServletNetworkRequestEvent requestEvent = new HttpServletNetworkRequestEvent(ORIGIN, 54, 32, SRC_IP, DST_IP);
+        requestEvent.withURL(URL);
+
+        servletHandler.handleRequest(requestEvent);
+        Segment servletSegment = AWSXRay.getCurrentSegment();
+
+        HttpServletNetworkResponseEvent responseEvent = new HttpServletNetworkResponseEvent(ORIGIN, requestEvent);
+        responseEvent.withStatusCode(200);
+        servletHandler.handleResponse(responseEvent);
+
+        // A call still running on a propagated thread, which captured the segment before the response
+        AWSXRay.setTraceEntity(servletSegment);
+        HttpServiceDownstreamRequestEvent downstreamEvent =
+                new HttpServiceDownstreamRequestEvent("ApacheHttpClient", "http://example.com", "GET");
+        downstreamEvent.withMethod("GET");
+        downstreamEvent.withUri("http://example.com");
+        new HttpClientHandler().handleRequest(downstreamEvent);
+
+        Assert.assertFalse(XRayTransactionSlot.get().getTransactionState().isSampled());
+        Assert.assertSame(servletSegment, AWSXRay.getTraceEntity());
+    }
+
     @Test
     public void testClienIPFallsBackToHeader() {
         String forwardedForIP = "My IP address";
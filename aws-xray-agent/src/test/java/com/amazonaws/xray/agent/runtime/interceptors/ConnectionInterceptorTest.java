@@ -0,0 +1,47 @@
+package com.amazonaws.xray.agent.runtime.interceptors;
+
+import net.bytebuddy.description.method.MethodDescription;
+import net.bytebuddy.description.type.TypeDescription;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.Savepoint;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+public class ConnectionInterceptorTest {
+    // Mockito's mocks are concrete implementations of the interface
+    private final Class<?> connectionClass = mock(Connection.class).getClass();
+
+    @Test
+    public void testConnectionImplementationsMatched() {
+        assertThat(ConnectionInterceptor.buildClassMatcher()
+                .matches(new TypeDescription.ForLoadedType(connectionClass))).isTrue();
+        assertThat(ConnectionInterceptor.buildClassMatcher()
+                .matches(new TypeDescription.ForLoadedType(Connection.class))).isFalse();
+    }
+
+    @Test
+    public void testBoundaryMethodsMatched() throws NoSuchMethodException {
+        assertThat(matchesBoundary("commit")).isTrue();
+        assertThat(matchesBoundary("rollback")).isTrue();
+        assertThat(matchesBoundary("close")).isTrue();
+        assertThat(matchesBoundary("getAutoCommit")).isFalse();
+        assertThat(ConnectionInterceptor.buildBoundaryMethodMatcher().matches(new MethodDescription.ForLoadedMethod(
+                connectionClass.getMethod("rollback", Savepoint.class)))).isFalse();
+    }
+
+    @Test
+    public void testAutoCommitMethodMatched() throws NoSuchMethodException {
+        assertThat(ConnectionInterceptor.buildAutoCommitMethodMatcher().matches(new MethodDescription.ForLoadedMethod(
+                connectionClass.getMethod("setAutoCommit", boolean.class)))).isTrue();
+        assertThat(ConnectionInterceptor.buildAutoCommitMethodMatcher().matches(new MethodDescription.ForLoadedMethod(
+                connectionClass.getMethod("setReadOnly", boolean.class)))).isFalse();
+    }
+
+    private boolean matchesBoundary(String method) throws NoSuchMethodException {
+        return ConnectionInterceptor.buildBoundaryMethodMatcher()
+                .matches(new MethodDescription.ForLoadedMethod(connectionClass.getMethod(method)));
+    }
+}
@@ -0,0 +1,94 @@
+package com.amazonaws.xray.agent.runtime.interceptors;
+
+import net.bytebuddy.description.method.MethodDescription;
+import net.bytebuddy.description.type.TypeDescription;
+import org.junit.Test;
+
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.logging.Logger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DataSourceInterceptorTest {
+    @Test
+    public void testDataSourceImplementationsMatched() {
+        assertThat(DataSourceInterceptor.buildClassMatcher()
+                .matches(new TypeDescription.ForLoadedType(MyDataSource.class))).isTrue();
+    }
+
+    @Test
+    public void testDataSourceInterfaceNotMatched() {
+        assertThat(DataSourceInterceptor.buildClassMatcher()
+                .matches(new TypeDescription.ForLoadedType(DataSource.class))).isFalse();
+    }
+
+    @Test
+    public void testOtherClassesNotMatched() {
+        assertThat(DataSourceInterceptor.buildClassMatcher()
+                .matches(new TypeDescription.ForLoadedType(String.class))).isFalse();
+    }
+
+    @Test
+    public void testGetConnectionMethodsMatched() throws NoSuchMethodException {
+        assertThat(DataSourceInterceptor.buildMethodMatcher().matches(new MethodDescription.ForLoadedMethod(
+                MyDataSource.class.getMethod("getConnection")))).isTrue();
+        assertThat(DataSourceInterceptor.buildMethodMatcher().matches(new MethodDescription.ForLoadedMethod(
+                MyDataSource.class.getMethod("getConnection", String.class, String.class)))).isTrue();
+    }
+
+    @Test
+    public void testOtherMethodsNotMatched() throws NoSuchMethodException {
+        assertThat(DataSourceInterceptor.buildMethodMatcher().matches(new MethodDescription.ForLoadedMethod(
+                MyDataSource.class.getMethod("getLoginTimeout")))).isFalse();
+        assertThat(DataSourceInterceptor.buildMethodMatcher().matches(new MethodDescription.ForLoadedMethod(
+                DataSource.class.getMethod("getConnection")))).isFalse();
+    }
+
+    public static class MyDataSource implements DataSource {
+        @Override
+        public Connection getConnection() {
+            return null;
+        }
+
+        @Override
+        public Connection getConnection(String username, String password) {
+            return null;
+        }
+
+        @Override
+        public PrintWriter getLogWriter() {
+            return null;
+        }
+
+        @Override
+        public void setLogWriter(PrintWriter out) {
+        }
+
+        @Override
+        public void setLoginTimeout(int seconds) {
+        }
+
+        @Override
+        public int getLoginTimeout() {
+            return 0;
+        }
+
+        @Override
+        public Logger getParentLogger() {
+            return null;
+        }
+
+        @Override
+        public <T> T unwrap(Class<T> iface) throws SQLException {
+            throw new SQLException("Not a wrapper");
+        }
+
+        @Override
+        public boolean isWrapperFor(Class<?> iface) {
+            return false;
+        }
+    }
+}
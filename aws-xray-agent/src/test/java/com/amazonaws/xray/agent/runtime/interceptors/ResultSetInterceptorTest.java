@@ -0,0 +1,82 @@
+package com.amazonaws.xray.agent.runtime.interceptors;
+
+import com.amazonaws.xray.agent.runtime.config.XRaySDKConfiguration;
+import net.bytebuddy.agent.builder.AgentBuilder;
+import net.bytebuddy.description.method.MethodDescription;
+import net.bytebuddy.description.type.TypeDescription;
+import org.junit.Before;
+import org.junit.Test;
+import software.amazon.disco.agent.concurrent.TransactionContext;
+
+import java.sql.ResultSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyZeroInteractions;
+
+public class ResultSetInterceptorTest {
+    // Mockito's mocks are concrete implementations of the interface
+    private final ResultSet resultSet = mock(ResultSet.class);
+
+    @Before
+    public void setup() {
+        TransactionContext.clear();
+    }
+
+    @Test
+    public void testNotInstalledByDefault() {
+        XRaySDKConfiguration.getInstance().init();
+        AgentBuilder agentBuilder = mock(AgentBuilder.class);
+
+        assertThat(new ResultSetInterceptor().install(agentBuilder)).isSameAs(agentBuilder);
+        verifyZeroInteractions(agentBuilder);
+    }
+
+    @Test
+    public void testResultSetImplementationsMatched() {
+        assertThat(ResultSetInterceptor.buildClassMatcher()
+                .matches(new TypeDescription.ForLoadedType(resultSet.getClass()))).isTrue();
+        assertThat(ResultSetInterceptor.buildClassMatcher()
+                .matches(new TypeDescription.ForLoadedType(ResultSet.class))).isFalse();
+    }
+
+    @Test
+    public void testMethodsMatched() throws NoSuchMethodException {
+        assertThat(ResultSetInterceptor.buildNextMethodMatcher().matches(new MethodDescription.ForLoadedMethod(
+                resultSet.getClass().getMethod("next")))).isTrue();
+        assertThat(ResultSetInterceptor.buildNextMethodMatcher().matches(new MethodDescription.ForLoadedMethod(
+                resultSet.getClass().getMethod("previous")))).isFalse();
+        assertThat(ResultSetInterceptor.buildCloseMethodMatcher().matches(new MethodDescription.ForLoadedMethod(
+                resultSet.getClass().getMethod("close")))).isTrue();
+    }
+
+    @Test
+    public void testUntrackedResultSetNotCounted() {
+        assertThat(ResultSetInterceptor.NextAdvice.enter(resultSet)).isEqualTo(-1);
+
+        TransactionContext.putMetadata(ResultSetInterceptor.TRACKED_RESULT_SETS_KEY, new IdentityHashMap<>());
+        assertThat(ResultSetInterceptor.NextAdvice.enter(resultSet)).isEqualTo(-1);
+    }
+
+    @Test
+    public void testTrackedResultSetCounted() {
+        AtomicLongArray counters = new AtomicLongArray(2);
+        Map<Object, AtomicLongArray> trackedResultSets = new IdentityHashMap<>();
+        trackedResultSets.put(resultSet, counters);
+        TransactionContext.putMetadata(ResultSetInterceptor.TRACKED_RESULT_SETS_KEY, trackedResultSets);
+
+        long startNanos = ResultSetInterceptor.NextAdvice.enter(resultSet);
+        assertThat(startNanos).isGreaterThanOrEqualTo(0);
+        ResultSetInterceptor.NextAdvice.exit(resultSet, startNanos, true);
+        ResultSetInterceptor.NextAdvice.exit(resultSet, ResultSetInterceptor.NextAdvice.enter(resultSet), false);
+
+        assertThat(counters.get(ResultSetInterceptor.ROW_COUNT_INDEX)).isEqualTo(1);
+        assertThat(counters.get(ResultSetInterceptor.FETCH_NANOS_INDEX)).isGreaterThanOrEqualTo(0);
+
+        ResultSetInterceptor.CloseAdvice.enter(resultSet);
+        assertThat(trackedResultSets).isEmpty();
+    }
+}
@@ -0,0 +1,106 @@
+package com.amazonaws.xray.agent.runtime.models;
+
+import com.amazonaws.xray.AWSXRayRecorder;
+import com.amazonaws.xray.AWSXRayRecorderBuilder;
+import com.amazonaws.xray.entities.Segment;
+import com.amazonaws.xray.entities.Subsegment;
+import com.amazonaws.xray.entities.SubsegmentImpl;
+import com.amazonaws.xray.entities.TraceID;
+import com.amazonaws.xray.listeners.SegmentListener;
+import org.junit.Before;
+import org.junit.Test;
+import software.amazon.disco.agent.concurrent.TransactionContext;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class XRayTransactionContextTest {
+    private XRayTransactionContext context;
+
+    @Before
+    public void setup() {
+        TransactionContext.clear();
+        context = (XRayTransactionContext) new XRayTransactionContextResolver().resolve();
+    }
+
+    @Test
+    public void testResolverSharesContext() {
+        assertThat(new XRayTransactionContextResolver().resolve()).isSameAs(context);
+    }
+
+    @Test
+    public void testReadingEntityDoesNotCreateSlot() {
+        assertThat(context.getTraceEntity()).isNull();
+        context.clearTraceEntity();
+        context.setTraceEntity(null);
+
+        assertThat(XRayTransactionSlot.peek()).isNull();
+    }
+
+    @Test
+    public void testEntityKeptInSlot() {
+        Segment segment = mock(Segment.class);
+        context.setTraceEntity(segment);
+
+        XRayTransactionSlot slot = XRayTransactionSlot.peek();
+        assertThat(slot).isNotNull();
+        assertThat(slot.getTraceEntity()).isSameAs(segment);
+        assertThat(context.getTraceEntity()).isSameAs(segment);
+        assertThat(XRayTransactionSlot.get()).isSameAs(slot);
+
+        context.clearTraceEntity();
+        assertThat(context.getTraceEntity()).isNull();
+        assertThat(XRayTransactionSlot.peek()).isSameAs(slot);
+    }
+
+    @Test
+    public void testSubsegmentOfNoOpSegmentIsNoOp() {
+        AWSXRayRecorder recorder = AWSXRayRecorderBuilder.standard().build();
+        Segment segment = recorder.beginNoOpSegment(TraceID.create(recorder));
+        recorder.clearTraceEntity();
+        context.setTraceEntity(segment);
+
+        Subsegment subsegment = context.beginSubsegment(recorder, "downstream");
+        assertThat(subsegment).isNotInstanceOf(SubsegmentImpl.class);
+        assertThat(subsegment.getParentSegment()).isSameAs(segment);
+        assertThat(context.getTraceEntity()).isSameAs(subsegment);
+
+        context.endSubsegment(recorder);
+        assertThat(context.getTraceEntity()).isSameAs(segment);
+    }
+
+    @Test
+    public void testListenersNotified() {
+        AWSXRayRecorder recorder = AWSXRayRecorderBuilder.standard().build();
+        SegmentListener firstListener = mock(SegmentListener.class);
+        recorder.addSegmentListener(firstListener);
+        Segment segment = mock(Segment.class);
+        when(segment.getCreator()).thenReturn(recorder);
+        Subsegment subsegment = mock(Subsegment.class);
+        when(subsegment.getCreator()).thenReturn(recorder);
+
+        context.setTraceEntity(segment);
+        verify(firstListener).onSetEntity(null, segment);
+
+        // Listeners added later, like lazily loaded trace ID injectors, are picked up
+        SegmentListener secondListener = mock(SegmentListener.class);
+        recorder.addSegmentListener(secondListener);
+        context.setTraceEntity(subsegment);
+        verify(firstListener).onSetEntity(segment, subsegment);
+        verify(secondListener).onSetEntity(segment, subsegment);
+
+        context.clearTraceEntity();
+        verify(firstListener).onClearEntity(subsegment);
+        verify(secondListener).onClearEntity(subsegment);
+    }
+
+    @Test
+    public void testSlotClearedWithTransactionContext() {
+        XRayTransactionSlot.get().setTraceEntity(mock(Segment.class));
+        TransactionContext.clear();
+
+        assertThat(context.getTraceEntity()).isNull();
+    }
+}